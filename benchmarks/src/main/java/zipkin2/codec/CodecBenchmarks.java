@@ -18,7 +18,10 @@ import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -37,6 +40,11 @@ import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import zipkin2.Span;
+import zipkin2.internal.JsonCodec;
+import zipkin2.internal.JsonCodec.JsonReader;
+import zipkin2.internal.JsonCodec.JsonReaderAdapter;
+import zipkin2.internal.TraceIdSampler;
+import zipkin2.internal.V2SpanReader;
 
 import static zipkin2.proto3.Span.parseFrom;
 
@@ -103,6 +111,50 @@ public class CodecBenchmarks {
     return SpanBytesDecoder.JSON_V2.decodeList(tenSpan2sJson);
   }
 
+  /** Measures only the tokenizer, as the span reader allocates a span per element */
+  @Benchmark
+  public List<Object> skipTenClientSpans_json() {
+    List<Object> result = new ArrayList<>();
+    JsonCodec.readList(SKIP_VALUE, tenSpan2sJson, result);
+    return result;
+  }
+
+  /** Baseline for {@link #skipTenClientSpans_json()}, using the tokenizer we used to shade */
+  @Benchmark
+  public int skipTenClientSpans_json_gson() throws IOException {
+    com.google.gson.stream.JsonReader reader = new com.google.gson.stream.JsonReader(
+      new InputStreamReader(new ByteArrayInputStream(tenSpan2sJson), "UTF-8"));
+    int count = 0;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      reader.skipValue();
+      count++;
+    }
+    reader.endArray();
+    return count;
+  }
+
+  /** Unsampled spans are skipped after reading their trace ID */
+  @Benchmark
+  public List<Span> readTenClientSpans_json_unsampled() {
+    List<Span> result = new ArrayList<>();
+    V2SpanReader.readList(tenSpan2sJson, NEVER_SAMPLE, result);
+    return result;
+  }
+
+  static final JsonReaderAdapter<Object> SKIP_VALUE = new JsonReaderAdapter<Object>() {
+    @Override public Object fromJson(JsonReader reader) throws IOException {
+      reader.skipValue();
+      return Boolean.TRUE;
+    }
+  };
+
+  static final TraceIdSampler NEVER_SAMPLE = new TraceIdSampler() {
+    @Override public boolean isSampled(long traceId, boolean debug) {
+      return false;
+    }
+  };
+
   @Benchmark
   public byte[] writeClientSpan_json() {
     return SpanBytesEncoder.JSON_V2.encode(zipkin2);
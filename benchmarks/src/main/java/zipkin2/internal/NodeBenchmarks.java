@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.DependencyLink;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/**
+ * Compares building trees keyed on hex IDs to those keyed on long IDs, over synthetic traces of
+ * 10k spans. "Wide" is a root with every other span as its child, like a batch job fanning out.
+ * "Deep" is a chain where each span is the child of the previous.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class NodeBenchmarks {
+  static final int SPAN_COUNT = 10000;
+  static final Logger LOG = Logger.getLogger(NodeBenchmarks.class.getName());
+  static final Endpoint FRONTEND = Endpoint.newBuilder().serviceName("frontend").build();
+  static final Endpoint BACKEND = Endpoint.newBuilder().serviceName("backend").build();
+
+  static final List<Span> WIDE = trace(true), DEEP = trace(false);
+
+  /** Alternates client and server spans so that linking has RPCs to walk */
+  static List<Span> trace(boolean wide) {
+    List<Span> result = new ArrayList<>(SPAN_COUNT);
+    for (int i = 1; i <= SPAN_COUNT; i++) {
+      boolean server = i % 2 == 1;
+      result.add(Span.newBuilder().traceId("1").id(i)
+        .parentId(i == 1 ? 0L : wide ? 1L : i - 1)
+        .kind(server ? Span.Kind.SERVER : Span.Kind.CLIENT)
+        .localEndpoint(server ? BACKEND : FRONTEND)
+        .remoteEndpoint(server ? FRONTEND : BACKEND)
+        .build());
+    }
+    return result;
+  }
+
+  @Benchmark public Node<Span> treeBuilder_wide() {
+    return buildTree(WIDE);
+  }
+
+  @Benchmark public Node<Span> treeBuilder_deep() {
+    return buildTree(DEEP);
+  }
+
+  @Benchmark public Node<Span> longTreeBuilder_wide() {
+    return buildLongTree(WIDE);
+  }
+
+  @Benchmark public Node<Span> longTreeBuilder_deep() {
+    return buildLongTree(DEEP);
+  }
+
+  @Benchmark public List<DependencyLink> putTrace_wide() {
+    return new DependencyLinker().putTrace(WIDE.iterator()).link();
+  }
+
+  @Benchmark public List<DependencyLink> putTrace_deep() {
+    return new DependencyLinker().putTrace(DEEP.iterator()).link();
+  }
+
+  /** Note: span IDs are hex-encoded once, then cached, so this excludes the encoding cost. */
+  static Node<Span> buildTree(List<Span> trace) {
+    Node.TreeBuilder<Span> builder = new Node.TreeBuilder<>(LOG, DependencyLinker.MERGE_RPC, "1");
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      builder.addNode(span.parentId(), span.id(), span);
+    }
+    return builder.build();
+  }
+
+  static Node<Span> buildLongTree(List<Span> trace) {
+    Node.LongTreeBuilder<Span> builder =
+      new Node.LongTreeBuilder<>(LOG, DependencyLinker.MERGE_RPC, "1");
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      builder.addNode(span.parentIdAsLong(), span.idAsLong(), span);
+    }
+    return builder.build();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + NodeBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/** Query latency against a store of 1M spans, spread evenly across the last day. */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(1)
+public class InMemoryStorageBenchmarks {
+  static final int SPAN_COUNT = 1000000, SPANS_PER_TRACE = 10, SERVICE_COUNT = 10;
+  static final long DAY = TimeUnit.DAYS.toMillis(1), FIVE_MINUTES = TimeUnit.MINUTES.toMillis(5);
+  static final long END_TS = System.currentTimeMillis();
+
+  InMemoryStorage storage;
+
+  @Setup public void load() {
+    storage = InMemoryStorage.newBuilder().maxSpanCount(SPAN_COUNT).build();
+    Endpoint[] services = new Endpoint[SERVICE_COUNT];
+    for (int i = 0; i < SERVICE_COUNT; i++) {
+      services[i] = Endpoint.newBuilder().serviceName("service" + i).build();
+    }
+
+    int traceCount = SPAN_COUNT / SPANS_PER_TRACE;
+    long traceInterval = DAY * 1000 / traceCount; // microseconds between root spans
+    long startTs = (END_TS - DAY) * 1000;
+    for (int i = 1; i <= traceCount; i++) {
+      String traceId = Long.toHexString(i);
+      long timestamp = startTs + i * traceInterval;
+      List<Span> trace = new ArrayList<>(SPANS_PER_TRACE);
+      for (int j = 1; j <= SPANS_PER_TRACE; j++) {
+        trace.add(Span.newBuilder()
+          .traceId(traceId)
+          .parentId(j == 1 ? null : Long.toHexString(j - 1))
+          .id(j)
+          .name("get")
+          .timestamp(timestamp + j)
+          .duration(1L)
+          .localEndpoint(services[(i + j) % SERVICE_COUNT])
+          .build());
+      }
+      storage.accept(trace);
+    }
+  }
+
+  @Benchmark public List<List<Span>> getTraces_lastFiveMinutes() throws IOException {
+    return storage.getTraces(request(END_TS, FIVE_MINUTES).build()).execute();
+  }
+
+  @Benchmark public List<List<Span>> getTraces_lastFiveMinutes_serviceName() throws IOException {
+    return storage.getTraces(request(END_TS, FIVE_MINUTES).serviceName("service3").build())
+      .execute();
+  }
+
+  @Benchmark public List<List<Span>> getTraces_lastDay() throws IOException {
+    return storage.getTraces(request(END_TS, DAY).build()).execute();
+  }
+
+  /** The oldest data is at the end of the index, so this shows the cost of seeking to it. */
+  @Benchmark public List<List<Span>> getTraces_firstFiveMinutes() throws IOException {
+    return storage.getTraces(request(END_TS - DAY + FIVE_MINUTES, FIVE_MINUTES).build()).execute();
+  }
+
+  /** A window with no data, which shouldn't walk traces outside the window. */
+  @Benchmark public List<List<Span>> getTraces_noMatch() throws IOException {
+    return storage.getTraces(request(END_TS - DAY - FIVE_MINUTES, FIVE_MINUTES).build())
+      .execute();
+  }
+
+  static QueryRequest.Builder request(long endTs, long lookback) {
+    return QueryRequest.newBuilder().endTs(endTs).lookback(lookback).limit(10);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + InMemoryStorageBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -169,8 +169,8 @@ public class Proto3CodecInteropTest {
     zipkin2.Annotation zipkinAnnotation = ZIPKIN_SPAN.annotations().get(0);
     Annotation protoAnnotation = PROTO_SPAN.getAnnotations(0);
 
-    Buffer buffer =
-      new Buffer(writeSpan(Span.newBuilder().addAnnotations(protoAnnotation).build()), 0);
+    ReadBuffer buffer =
+      ReadBuffer.wrap(writeSpan(Span.newBuilder().addAnnotations(protoAnnotation).build()));
     assertThat(buffer.readVarint32())
       .isEqualTo(ANNOTATION.key);
 
@@ -13,6 +13,7 @@
  */
 package zipkin2.autoconfigure.collector.kafka;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Condition;
@@ -39,8 +40,17 @@ class ZipkinKafkaCollectorAutoConfiguration { // makes simple type name unique f
       ZipkinKafkaCollectorProperties properties,
       CollectorSampler sampler,
       CollectorMetrics metrics,
-      StorageComponent storage) {
-    return properties.toBuilder().sampler(sampler).metrics(metrics).storage(storage).build();
+      StorageComponent storage,
+      @Value("${zipkin.collector.queued-max-spans:0}") int queuedMaxSpans,
+      @Value("${zipkin.collector.storage-concurrency:8}") int storageConcurrency) {
+    return properties
+        .toBuilder()
+        .sampler(sampler)
+        .metrics(metrics)
+        .storage(storage)
+        .queuedMaxSpans(queuedMaxSpans)
+        .storageConcurrency(storageConcurrency)
+        .build();
   }
 
   /**
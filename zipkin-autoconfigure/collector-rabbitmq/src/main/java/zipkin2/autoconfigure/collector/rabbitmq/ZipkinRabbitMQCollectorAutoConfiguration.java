@@ -16,6 +16,7 @@ package zipkin2.autoconfigure.collector.rabbitmq;
 import java.net.URISyntaxException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Condition;
@@ -39,9 +40,24 @@ class ZipkinRabbitMQCollectorAutoConfiguration {
       ZipkinRabbitMQCollectorProperties properties,
       CollectorSampler sampler,
       CollectorMetrics metrics,
-      StorageComponent storage)
+      StorageComponent storage,
+      @Value("${zipkin.collector.queued-max-spans:0}") int queuedMaxSpans,
+      @Value("${zipkin.collector.storage-concurrency:8}") int storageConcurrency,
+      @Value("${zipkin.collector.batch-max-spans:0}") int batchMaxSpans,
+      @Value("${zipkin.collector.batch-max-bytes:0}") int batchMaxBytes,
+      @Value("${zipkin.collector.batch-linger-millis:10}") int batchLingerMillis)
       throws NoSuchAlgorithmException, KeyManagementException, URISyntaxException {
-    return properties.toBuilder().sampler(sampler).metrics(metrics).storage(storage).build();
+    return properties
+        .toBuilder()
+        .sampler(sampler)
+        .metrics(metrics)
+        .storage(storage)
+        .queuedMaxSpans(queuedMaxSpans)
+        .storageConcurrency(storageConcurrency)
+        .batchMaxSpans(batchMaxSpans)
+        .batchMaxBytes(batchMaxBytes)
+        .batchLingerMillis(batchLingerMillis)
+        .build();
   }
 
   /**
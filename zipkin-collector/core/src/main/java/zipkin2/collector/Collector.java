@@ -13,8 +13,9 @@
  */
 package zipkin2.collector;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
@@ -22,6 +23,13 @@ import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.SpanBytesDecoderDetector;
 import zipkin2.codec.BytesDecoder;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.internal.Buffer;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.Proto3Codec;
+import zipkin2.internal.ThriftCodec;
+import zipkin2.internal.TraceIdSampler;
+import zipkin2.internal.V2SpanReader;
 import zipkin2.storage.StorageComponent;
 
 import static java.lang.String.format;
@@ -34,6 +42,13 @@ import static java.util.logging.Level.FINE;
  * <p>Callbacks passed do not propagate to the storage layer. They only return success or failures
  * before storage is attempted. This ensures that calling threads are disconnected from storage
  * threads.
+ *
+ * <p>When {@link Builder#queuedMaxSpans(int) queueing} is enabled, the number of spans waiting on
+ * storage is bounded. Callbacks then complete when storage does, and fail with {@link
+ * OverCapacityException} when the queue is full. This allows transports to apply backpressure.
+ *
+ * <p>When {@link Builder#batchMaxSpans(int) batching} is enabled, spans from many messages are
+ * merged into fewer, larger storage requests.
  */
 public class Collector { // not final for mock
 
@@ -48,6 +63,8 @@ public class Collector { // not final for mock
     StorageComponent storage = null;
     CollectorSampler sampler = null;
     CollectorMetrics metrics = null;
+    int queuedMaxSpans = 0, storageConcurrency = 8;
+    int batchMaxSpans = 0, batchMaxBytes = 0, batchLingerMillis = 10;
 
     Builder(Logger logger) {
       this.logger = logger;
@@ -74,6 +91,61 @@ public class Collector { // not final for mock
       return this;
     }
 
+    /**
+     * When positive, at most this many spans wait on storage. Beyond that, callbacks fail with
+     * {@link OverCapacityException}. Callbacks complete when storage does, as opposed to before
+     * storage is attempted.
+     *
+     * <p>Defaults to zero, which passes spans to storage without bounds.
+     */
+    public Builder queuedMaxSpans(int queuedMaxSpans) {
+      if (queuedMaxSpans < 0) throw new IllegalArgumentException("queuedMaxSpans < 0");
+      this.queuedMaxSpans = queuedMaxSpans;
+      return this;
+    }
+
+    /**
+     * When {@link #queuedMaxSpans(int) queueing}, this is the maximum count of storage requests in
+     * flight. Defaults to 8.
+     */
+    public Builder storageConcurrency(int storageConcurrency) {
+      if (storageConcurrency < 1) throw new IllegalArgumentException("storageConcurrency < 1");
+      this.storageConcurrency = storageConcurrency;
+      return this;
+    }
+
+    /**
+     * When positive, spans from different messages are merged into storage requests of up to this
+     * many spans. The result of storing a batch is passed to the callback of each message in it.
+     *
+     * <p>Defaults to zero, which stores each message's spans in a separate request.
+     */
+    public Builder batchMaxSpans(int batchMaxSpans) {
+      if (batchMaxSpans < 0) throw new IllegalArgumentException("batchMaxSpans < 0");
+      this.batchMaxSpans = batchMaxSpans;
+      return this;
+    }
+
+    /**
+     * When {@link #batchMaxSpans(int) batching}, and positive, this also limits the estimated size
+     * of a batch. Defaults to zero, which only limits the count of spans.
+     */
+    public Builder batchMaxBytes(int batchMaxBytes) {
+      if (batchMaxBytes < 0) throw new IllegalArgumentException("batchMaxBytes < 0");
+      this.batchMaxBytes = batchMaxBytes;
+      return this;
+    }
+
+    /**
+     * When {@link #batchMaxSpans(int) batching}, this is the longest time a batch waits for more
+     * spans before it is stored. Defaults to 10 milliseconds.
+     */
+    public Builder batchLingerMillis(int batchLingerMillis) {
+      if (batchLingerMillis < 0) throw new IllegalArgumentException("batchLingerMillis < 0");
+      this.batchLingerMillis = batchLingerMillis;
+      return this;
+    }
+
     public Collector build() {
       return new Collector(this);
     }
@@ -83,6 +155,8 @@ public class Collector { // not final for mock
   final CollectorMetrics metrics;
   final CollectorSampler sampler;
   final StorageComponent storage;
+  @Nullable final StorageQueue queue;
+  @Nullable final SpanBatcher batcher;
 
   Collector(Builder builder) {
     if (builder.logger == null) throw new NullPointerException("logger == null");
@@ -91,6 +165,21 @@ public class Collector { // not final for mock
     if (builder.storage == null) throw new NullPointerException("storage == null");
     this.storage = builder.storage;
     this.sampler = builder.sampler == null ? CollectorSampler.ALWAYS_SAMPLE : builder.sampler;
+    this.queue = builder.queuedMaxSpans > 0
+        ? new StorageQueue(storage, builder.queuedMaxSpans, builder.storageConcurrency)
+        : null;
+    this.batcher = builder.batchMaxSpans > 0
+        ? new SpanBatcher(
+            this, builder.batchMaxSpans, builder.batchMaxBytes, builder.batchLingerMillis)
+        : null;
+  }
+
+  /**
+   * Returns true when {@link Builder#queuedMaxSpans(int) the storage queue} is full. Transports
+   * that pull messages can use this to pause until storage catches up.
+   */
+  public boolean isOverCapacity() {
+    return queue != null && queue.isFull();
   }
 
   public void accept(List<Span> spans, Callback<Void> callback) {
@@ -100,12 +189,28 @@ public class Collector { // not final for mock
     }
     metrics.incrementSpans(spans.size());
 
-    List<Span> sampled = sample(spans);
+    store(sample(spans), callback);
+  }
+
+  void store(List<Span> sampled, Callback<Void> callback) {
     if (sampled.isEmpty()) {
       callback.onSuccess(null);
       return;
     }
 
+    if (batcher != null) {
+      batcher.add(sampled, callback);
+      return;
+    }
+    storeBatch(sampled, callback);
+  }
+
+  void storeBatch(List<Span> sampled, Callback<Void> callback) {
+    if (queue != null) {
+      storeQueued(sampled, callback);
+      return;
+    }
+
     try {
       record(sampled, acceptSpansCallback(sampled));
       callback.onSuccess(null);
@@ -115,6 +220,32 @@ public class Collector { // not final for mock
     }
   }
 
+  void storeQueued(final List<Span> sampled, final Callback<Void> callback) {
+    boolean accepted = queue.offer(sampled, new Callback<Void>() {
+      @Override
+      public void onSuccess(Void value) {
+        callback.onSuccess(null);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        callback.onError(errorStoringSpans(sampled, t));
+      }
+
+      @Override
+      public String toString() {
+        return appendSpanIds(sampled, new StringBuilder("StoreSpans(")).append(")").toString();
+      }
+    });
+    if (accepted) return;
+
+    metrics.incrementSpansDropped(sampled.size());
+    String message = appendSpanIds(sampled, new StringBuilder("Over capacity storing spans "))
+        .toString();
+    if (shouldWarn()) warn(message, null);
+    callback.onError(new OverCapacityException(message));
+  }
+
   public void acceptSpans(byte[] serialized, Callback<Void> callback) {
     BytesDecoder<Span> decoder;
     try {
@@ -130,20 +261,149 @@ public class Collector { // not final for mock
   public void acceptSpans(
       byte[] serializedSpans, BytesDecoder<Span> decoder, Callback<Void> callback) {
     metrics.incrementBytes(serializedSpans.length);
-    List<Span> spans;
+    if (sampler.boundary() != Long.MAX_VALUE && decoder instanceof SpanBytesDecoder
+        && acceptSampledSpans(serializedSpans, (SpanBytesDecoder) decoder, callback)) {
+      return;
+    }
+    SamplingCollection sampled = new SamplingCollection(sampler);
     try {
-      spans = decodeList(decoder, serializedSpans);
+      decoder.decodeList(serializedSpans, sampled);
     } catch (RuntimeException e) {
       callback.onError(errorReading(e));
       return;
     }
-    accept(spans, callback);
+    acceptSampled(sampled.sampled, sampled.dropped, callback);
   }
 
-  List<Span> decodeList(BytesDecoder<Span> decoder, byte[] serialized) {
-    List<Span> out = new ArrayList<>();
-    if (!decoder.decodeList(serialized, out)) return Collections.emptyList();
-    return out;
+  /**
+   * Like {@link #acceptSpans(byte[], BytesDecoder, Callback)}, except this reads the remaining
+   * bytes of the buffer, which may be direct or pooled by the transport. The buffer's position is
+   * not changed, and it isn't referenced after this returns, so the caller can release it.
+   *
+   * <p>{@link SpanBytesDecoder#PROTO3} decodes directly from the buffer. Other formats decode a
+   * copy of its remaining bytes.
+   */
+  public void acceptSpans(
+      ByteBuffer serializedSpans, BytesDecoder<Span> decoder, Callback<Void> callback) {
+    if (decoder != SpanBytesDecoder.PROTO3) {
+      acceptSpans(Buffer.toByteArray(serializedSpans), decoder, callback);
+      return;
+    }
+    metrics.incrementBytes(serializedSpans.remaining());
+    List<Span> sampled = new ArrayList<>();
+    int dropped = 0;
+    try {
+      if (sampler.boundary() != Long.MAX_VALUE) {
+        CountingTraceIdSampler countingSampler = new CountingTraceIdSampler(sampler);
+        Proto3Codec.readList(serializedSpans, countingSampler, sampled);
+        dropped = countingSampler.dropped;
+      } else {
+        Proto3Codec.readList(serializedSpans, sampled);
+      }
+    } catch (RuntimeException e) {
+      callback.onError(errorReading(e));
+      return;
+    }
+    acceptSampled(sampled, dropped, callback);
+  }
+
+  /**
+   * Decoders add each span to the output as soon as it is parsed. This samples spans as they are
+   * added, so that a message's unsampled spans are never retained or copied.
+   */
+  static final class SamplingCollection extends AbstractCollection<Span> {
+    final CollectorSampler sampler;
+    final List<Span> sampled = new ArrayList<>();
+    int dropped;
+
+    SamplingCollection(CollectorSampler sampler) {
+      this.sampler = sampler;
+    }
+
+    @Override
+    public boolean add(Span span) {
+      if (sampler.isSampled(span.traceIdLow(), Boolean.TRUE.equals(span.debug()))) {
+        return sampled.add(span);
+      }
+      dropped++;
+      return false;
+    }
+
+    @Override
+    public Iterator<Span> iterator() {
+      return sampled.iterator();
+    }
+
+    @Override
+    public int size() {
+      return sampled.size();
+    }
+  }
+
+  /**
+   * When most spans are dropped by the sampler, decoding them is wasted effort. This reads only the
+   * trace ID and debug flag of each span, skipping the bytes of those which aren't sampled.
+   *
+   * <p>Returns false, without invoking the callback, if the decoder can't sample before decoding.
+   */
+  boolean acceptSampledSpans(byte[] serialized, SpanBytesDecoder decoder, Callback<Void> callback) {
+    CountingTraceIdSampler countingSampler = new CountingTraceIdSampler(sampler);
+    List<Span> sampled = new ArrayList<>();
+    try {
+      if (!decodeSampledList(decoder, serialized, countingSampler, sampled)) return false;
+    } catch (RuntimeException e) {
+      callback.onError(errorReading(e));
+      return true;
+    }
+
+    acceptSampled(sampled, countingSampler.dropped, callback);
+    return true;
+  }
+
+  void acceptSampled(List<Span> sampled, int dropped, Callback<Void> callback) {
+    int spanCount = sampled.size() + dropped;
+    if (spanCount == 0) {
+      callback.onSuccess(null);
+      return;
+    }
+    metrics.incrementSpans(spanCount);
+    if (dropped > 0) metrics.incrementSpansDropped(dropped);
+    store(sampled, callback);
+  }
+
+  /** Returns false if the decoder can't sample before decoding, in which case nothing is read. */
+  static boolean decodeSampledList(
+      SpanBytesDecoder decoder, byte[] serialized, TraceIdSampler sampler, List<Span> out) {
+    switch (decoder) {
+      case JSON_V2:
+        V2SpanReader.readList(serialized, sampler, out);
+        return true;
+      case PROTO3:
+        Proto3Codec.readList(serialized, sampler, out);
+        return true;
+      case THRIFT:
+        ThriftCodec.readList(serialized, sampler, out);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Counts spans dropped by the sampler, as they are skipped instead of decoded. */
+  static final class CountingTraceIdSampler implements TraceIdSampler {
+    final CollectorSampler delegate;
+    int dropped;
+
+    CountingTraceIdSampler(CollectorSampler delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean isSampled(long traceId, boolean debug) {
+      if (delegate.isSampled(traceId, debug)) return true;
+      dropped++;
+      return false;
+    }
   }
 
   void record(List<Span> sampled, Callback<Void> callback) {
@@ -166,7 +426,7 @@ public class Collector { // not final for mock
     List<Span> sampled = new ArrayList<>(input.size());
     for (int i = 0, length = input.size(); i < length; i++) {
       Span s = input.get(i);
-      if (sampler.isSampled(s.traceId(), Boolean.TRUE.equals(s.debug()))) {
+      if (sampler.isSampled(s.traceIdLow(), Boolean.TRUE.equals(s.debug()))) {
         sampled.add(s);
       }
     }
@@ -57,12 +57,26 @@ public abstract class CollectorSampler {
    * <p>This uses only the lower 64 bits of the trace ID as instrumentation still send mixed trace
    * ID width.
    *
+   * <p>This parses the trace ID and delegates to {@link #isSampled(long, boolean)}, so that
+   * decisions are the same regardless of how spans were decoded.
+   *
    * @param hexTraceId the lower 64 bits of the span's trace ID are checked against the boundary
    * @param debug when true, always passes sampling
    */
-  public boolean isSampled(String hexTraceId, boolean debug) {
-    if (Boolean.TRUE.equals(debug)) return true;
-    long traceId = HexCodec.lowerHexToUnsignedLong(hexTraceId);
+  public final boolean isSampled(String hexTraceId, boolean debug) {
+    if (debug) return true;
+    return isSampled(HexCodec.lowerHexToUnsignedLong(hexTraceId), false);
+  }
+
+  /**
+   * Like {@link #isSampled(String, boolean)}, except the trace ID is already parsed. This allows
+   * decoders to sample spans before decoding them. All sampling decisions are made here.
+   *
+   * @param traceId the lower 64 bits of the span's trace ID
+   * @param debug when true, always passes sampling
+   */
+  public boolean isSampled(long traceId, boolean debug) {
+    if (debug) return true;
     // The absolute value of Long.MIN_VALUE is larger than a long, so Math.abs returns identity.
     // This converts to MAX_VALUE to avoid always dropping when traceId == Long.MIN_VALUE
     long t = traceId == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(traceId);
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+/**
+ * Signals a transport that the collector cannot accept more spans right now, as its {@link
+ * Collector.Builder#queuedMaxSpans(int) storage queue} is full. Unlike other errors, the spans
+ * weren't malformed and storage didn't fail, so the transport should slow down and retry them.
+ * For example, an HTTP transport could respond 503, and a message queue could redeliver later.
+ */
+public final class OverCapacityException extends IllegalStateException {
+  static final long serialVersionUID = 0L;
+
+  OverCapacityException(String message) {
+    super(message);
+  }
+}
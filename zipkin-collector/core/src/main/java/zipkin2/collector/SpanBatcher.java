@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+/**
+ * Merges spans from many messages into larger storage requests. A batch is stored when it reaches
+ * {@code maxSpans} or {@code maxBytes}, or when its first spans have waited {@code lingerMillis}.
+ * The result of storing a batch is passed to the callback of each message in it.
+ *
+ * <p>Bytes are estimated with the proto3 encoded size of each span, which is close to what most
+ * storage backends write.
+ *
+ * <p>Lingering batches are stored from a thread owned by this batcher, so that storage slow to
+ * accept spans from one collector doesn't delay flushing another's. The thread stops when no batch
+ * is lingering, so it needn't be shut down.
+ */
+final class SpanBatcher {
+  final Collector collector;
+  final int maxSpans, maxBytes, lingerMillis;
+  final ScheduledThreadPoolExecutor scheduler;
+
+  Batch current; // guarded by this
+
+  SpanBatcher(Collector collector, int maxSpans, int maxBytes, int lingerMillis) {
+    this.collector = collector;
+    this.maxSpans = maxSpans;
+    this.maxBytes = maxBytes;
+    this.lingerMillis = lingerMillis;
+    this.scheduler = new ScheduledThreadPoolExecutor(1, new FlushThreadFactory());
+    this.scheduler.setKeepAliveTime(1, TimeUnit.SECONDS);
+    this.scheduler.allowCoreThreadTimeOut(true); // stop the thread while idle
+  }
+
+  void add(List<Span> spans, Callback<Void> callback) {
+    int bytes = maxBytes != 0 ? sizeInBytes(spans) : 0;
+    Batch previous = null, full = null, lingering = null;
+    synchronized (this) {
+      if (current != null && !current.fits(spans.size(), bytes)) {
+        previous = current;
+        current = null;
+      }
+      if (current == null) current = lingering = new Batch();
+      current.add(spans, bytes, callback);
+      if (current.isFull()) {
+        full = current;
+        current = lingering = null;
+      }
+    }
+    if (previous != null) store(previous);
+    if (full != null) store(full);
+    if (lingering != null) {
+      scheduler.schedule(new Flush(lingering), lingerMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Stores the batch unless it was already stored because it filled up. */
+  void flush(Batch batch) {
+    synchronized (this) {
+      if (current != batch) return;
+      current = null;
+    }
+    store(batch);
+  }
+
+  void store(Batch batch) {
+    collector.storeBatch(batch.spans, batch);
+  }
+
+  static int sizeInBytes(List<Span> spans) {
+    int result = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      result += SpanBytesEncoder.PROTO3.sizeInBytes(spans.get(i));
+    }
+    return result;
+  }
+
+  /** Spans and the callbacks of the messages they came from. Completing it completes them all. */
+  final class Batch implements Callback<Void> {
+    final List<Span> spans = new ArrayList<>();
+    final List<Callback<Void>> callbacks = new ArrayList<>();
+    int bytes;
+
+    boolean fits(int spanCount, int byteCount) {
+      if (spans.size() + spanCount > maxSpans) return false;
+      return maxBytes == 0 || bytes + byteCount <= maxBytes;
+    }
+
+    boolean isFull() {
+      return spans.size() >= maxSpans || (maxBytes != 0 && bytes >= maxBytes);
+    }
+
+    void add(List<Span> spans, int bytes, Callback<Void> callback) {
+      this.spans.addAll(spans);
+      this.bytes += bytes;
+      this.callbacks.add(callback);
+    }
+
+    @Override
+    public void onSuccess(Void value) {
+      for (int i = 0, length = callbacks.size(); i < length; i++) {
+        callbacks.get(i).onSuccess(value);
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      for (int i = 0, length = callbacks.size(); i < length; i++) {
+        callbacks.get(i).onError(t);
+      }
+    }
+  }
+
+  final class Flush implements Runnable {
+    final Batch batch;
+
+    Flush(Batch batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void run() {
+      flush(batch);
+    }
+  }
+
+  static final class FlushThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread result = new Thread(r, "zipkin-collector-batcher");
+      result.setDaemon(true);
+      return result;
+    }
+  }
+}
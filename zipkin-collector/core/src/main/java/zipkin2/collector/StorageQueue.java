@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Bounds storage work done on behalf of a {@link Collector}. At most {@code concurrency} calls to
+ * {@link SpanConsumer#accept(List)} are in flight at a time. Others wait in a queue of up to {@code
+ * maxSpans} spans, beyond which spans are rejected with {@link OverCapacityException}.
+ *
+ * <p>Callbacks complete when storage does, so that a transport can withhold acknowledgement until
+ * spans are actually stored.
+ */
+final class StorageQueue {
+  final StorageComponent storage;
+  final int maxSpans, concurrency;
+
+  // guarded by this
+  final ArrayDeque<Pending> queue = new ArrayDeque<>();
+  int queuedSpans, inFlight;
+
+  StorageQueue(StorageComponent storage, int maxSpans, int concurrency) {
+    this.storage = storage;
+    this.maxSpans = maxSpans;
+    this.concurrency = concurrency;
+  }
+
+  /** Returns false if the spans were rejected because the queue is full. */
+  boolean offer(List<Span> spans, Callback<Void> callback) {
+    synchronized (this) {
+      if (inFlight == concurrency) {
+        if (queuedSpans + spans.size() > maxSpans) return false;
+        queue.add(new Pending(spans, callback));
+        queuedSpans += spans.size();
+        return true;
+      }
+      inFlight++;
+    }
+    if (store(spans, callback)) storeNext();
+    return true;
+  }
+
+  /** Returns true when no more spans will be accepted until storage catches up. */
+  synchronized boolean isFull() {
+    return inFlight == concurrency && queuedSpans >= maxSpans;
+  }
+
+  /**
+   * Returns true if storage completed before this returned, in which case the caller must call
+   * {@link #storeNext()}. Otherwise, the storage callback does.
+   */
+  boolean store(List<Span> spans, Callback<Void> callback) {
+    StoreNext next = new StoreNext(callback);
+    try {
+      storage.spanConsumer().accept(spans).enqueue(next);
+    } catch (RuntimeException | Error e) {
+      next.onError(e);
+    }
+    return !next.state.compareAndSet(STORING, RETURNED);
+  }
+
+  /**
+   * Starts queued storage requests until one completes asynchronously or the queue is empty. This
+   * loops instead of recursing, so that storage which completes synchronously, such as in-memory,
+   * doesn't grow the stack with the queue.
+   */
+  void storeNext() {
+    while (true) {
+      Pending next;
+      synchronized (this) {
+        next = queue.poll();
+        if (next == null) {
+          inFlight--;
+          return;
+        }
+        queuedSpans -= next.spans.size();
+      }
+      if (!store(next.spans, next.callback)) return; // the storage callback continues
+    }
+  }
+
+  static final int STORING = 0, COMPLETED = 1, RETURNED = 2;
+
+  /** Completes the callback, and continues with the queue if {@link #store} already returned. */
+  final class StoreNext implements Callback<Void> {
+    final Callback<Void> delegate;
+    final AtomicInteger state = new AtomicInteger(STORING);
+
+    StoreNext(Callback<Void> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onSuccess(Void value) {
+      try {
+        delegate.onSuccess(value);
+      } finally {
+        completed();
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      try {
+        delegate.onError(t);
+      } finally {
+        completed();
+      }
+    }
+
+    void completed() {
+      // when store hasn't returned yet, its caller continues with the queue instead
+      if (!state.compareAndSet(STORING, COMPLETED)) storeNext();
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  static final class Pending {
+    final List<Span> spans;
+    final Callback<Void> callback;
+
+    Pending(List<Span> spans, Callback<Void> callback) {
+      this.spans = spans;
+      this.callback = callback;
+    }
+  }
+}
@@ -81,6 +81,24 @@ public class CollectorSamplerTest {
         .hasSize(LOTS_OF_SPANS.length);
   }
 
+  /** Decisions are the same whether or not spans were decoded before sampling. */
+  @Test
+  public void hexTraceIdDelegatesToLong() {
+    CollectorSampler sampler = new CollectorSampler() {
+      @Override protected long boundary() {
+        return Long.MAX_VALUE;
+      }
+
+      @Override public boolean isSampled(long traceId, boolean debug) {
+        return debug || traceId == 2L;
+      }
+    };
+
+    assertThat(sampler.isSampled("0000000000000002", false)).isTrue();
+    assertThat(sampler.isSampled("0000000000000003", false)).isFalse();
+    assertThat(sampler.isSampled("0000000000000003", true)).isTrue();
+  }
+
   @Test
   public void rateCantBeNegative() {
     thrown.expect(IllegalArgumentException.class);
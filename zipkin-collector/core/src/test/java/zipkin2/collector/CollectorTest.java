@@ -13,18 +13,29 @@
  */
 package zipkin2.collector;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static zipkin2.TestObjects.CLIENT_SPAN;
@@ -54,6 +65,84 @@ public class CollectorTest {
     collector.accept(asList(CLIENT_SPAN), callback);
   }
 
+  @Test
+  public void unsampledSpansArentDecoded_JSON_V2() {
+    unsampledSpansArentDecoded(SpanBytesEncoder.JSON_V2, SpanBytesDecoder.JSON_V2);
+  }
+
+  @Test
+  public void unsampledSpansArentDecoded_PROTO3() {
+    unsampledSpansArentDecoded(SpanBytesEncoder.PROTO3, SpanBytesDecoder.PROTO3);
+  }
+
+  @Test
+  public void unsampledSpansArentDecoded_THRIFT() {
+    unsampledSpansArentDecoded(SpanBytesEncoder.THRIFT, SpanBytesDecoder.THRIFT);
+  }
+
+  void unsampledSpansArentDecoded(SpanBytesEncoder encoder, SpanBytesDecoder decoder) {
+    CollectorMetrics metrics = mock(CollectorMetrics.class);
+    collector =
+        spy(
+            Collector.newBuilder(Collector.class)
+                .sampler(CollectorSampler.create(0.0f))
+                .metrics(metrics)
+                .storage(storage)
+                .build());
+    doNothing().when(collector).record(any(), any());
+
+    Span debugSpan = CLIENT_SPAN.toBuilder().id("3").debug(true).build();
+    byte[] bytes = encoder.encodeList(asList(CLIENT_SPAN, debugSpan));
+    collector.acceptSpans(bytes, decoder, callback);
+
+    ArgumentCaptor<List<Span>> sampled = ArgumentCaptor.forClass(List.class);
+    verify(collector).record(sampled.capture(), any());
+    assertThat(sampled.getValue()).extracting(Span::id).containsExactly(debugSpan.id());
+
+    verify(collector, never()).accept(any(), any());
+    verify(metrics).incrementSpans(2);
+    verify(metrics).incrementSpansDropped(1);
+    verify(callback).onSuccess(null);
+  }
+
+  @Test
+  public void unsampledSpansArentDecoded_PROTO3_directBuffer() {
+    CollectorMetrics metrics = mock(CollectorMetrics.class);
+    collector =
+        spy(
+            Collector.newBuilder(Collector.class)
+                .sampler(CollectorSampler.create(0.0f))
+                .metrics(metrics)
+                .storage(storage)
+                .build());
+    doNothing().when(collector).record(any(), any());
+
+    Span debugSpan = CLIENT_SPAN.toBuilder().id("3").debug(true).build();
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(asList(CLIENT_SPAN, debugSpan));
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+    collector.acceptSpans(buffer, SpanBytesDecoder.PROTO3, callback);
+
+    ArgumentCaptor<List<Span>> sampled = ArgumentCaptor.forClass(List.class);
+    verify(collector).record(sampled.capture(), any());
+    assertThat(sampled.getValue()).extracting(Span::id).containsExactly(debugSpan.id());
+    assertThat(buffer.position()).isZero(); // unchanged
+
+    verify(metrics).incrementBytes(bytes.length);
+    verify(metrics).incrementSpans(2);
+    verify(metrics).incrementSpansDropped(1);
+    verify(callback).onSuccess(null);
+  }
+
+  @Test
+  public void acceptSpans_byteBufferOtherFormats() {
+    byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(asList(CLIENT_SPAN));
+    collector.acceptSpans(ByteBuffer.wrap(bytes), SpanBytesDecoder.JSON_V2, callback);
+
+    verify(collector).acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+    verify(collector).record(eq(asList(CLIENT_SPAN)), any());
+  }
+
   @Test
   public void errorDetectingFormat() {
     CollectorMetrics metrics = mock(CollectorMetrics.class);
@@ -71,7 +160,176 @@ public class CollectorTest {
     collector.acceptSpans(bytes, callback);
 
     verify(collector).acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
-    verify(collector).accept(asList(CLIENT_SPAN), callback);
+    verify(collector).record(eq(asList(CLIENT_SPAN)), any());
+  }
+
+  /** JSON_V1 can't be sampled before decoding, but spans are still sampled as they are decoded */
+  @Test
+  public void samplesSpansAsTheyAreDecoded() {
+    unsampledSpansArentDecoded(SpanBytesEncoder.JSON_V1, SpanBytesDecoder.JSON_V1);
+
+    verify(collector, never()).sample(any());
+  }
+
+  @Test
+  public void queued_callbackCompletesWhenStored() {
+    ArgumentCaptor<Callback<Void>> stored = queuedCollector(10, 1);
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+    verify(callback, never()).onSuccess(null);
+
+    stored.getValue().onSuccess(null);
+    verify(callback).onSuccess(null);
+  }
+
+  @Test
+  public void queued_rejectsWhenFull() {
+    CollectorMetrics metrics = mock(CollectorMetrics.class);
+    ArgumentCaptor<Callback<Void>> stored = queuedCollector(1, 1, metrics);
+
+    collector.accept(asList(CLIENT_SPAN), mock(Callback.class)); // in flight
+    collector.accept(asList(CLIENT_SPAN), mock(Callback.class)); // queued
+    assertThat(collector.isOverCapacity()).isTrue();
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+    verify(callback).onError(any(OverCapacityException.class));
+    verify(metrics).incrementSpansDropped(1);
+
+    stored.getValue().onSuccess(null); // the queued request is now in flight
+    assertThat(collector.isOverCapacity()).isFalse();
+  }
+
+  @Test
+  public void queued_storageErrorFailsCallback() {
+    ArgumentCaptor<Callback<Void>> stored = queuedCollector(10, 1);
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+    stored.getValue().onError(new IllegalArgumentException("no beer"));
+
+    ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+    verify(callback).onError(error.capture());
+    assertThat(error.getValue())
+        .hasMessage("Cannot store spans [1] due to IllegalArgumentException(no beer)");
+  }
+
+  /** Storage that completes synchronously shouldn't recurse once per queued request. */
+  @Test
+  public void queued_synchronousStorageDrainsQueueWithoutRecursion() {
+    SpanConsumer spanConsumer = mock(SpanConsumer.class);
+    Call<Void> call = mock(Call.class);
+    when(storage.spanConsumer()).thenReturn(spanConsumer);
+    when(spanConsumer.accept(any())).thenReturn(call);
+    ArgumentCaptor<Callback<Void>> stored = ArgumentCaptor.forClass(Callback.class);
+    doNothing() // only the first request is in flight until the test completes it
+        .doAnswer(i -> {
+          ((Callback<Void>) i.getArgument(0)).onSuccess(null);
+          return null;
+        })
+        .when(call).enqueue(stored.capture());
+    collector =
+        Collector.newBuilder(Collector.class)
+            .queuedMaxSpans(100_000)
+            .storageConcurrency(1)
+            .storage(storage)
+            .build();
+
+    for (int i = 0; i < 10_000; i++) collector.accept(asList(CLIENT_SPAN), callback);
+    stored.getAllValues().get(0).onSuccess(null);
+
+    verify(callback, times(10_000)).onSuccess(null);
+    assertThat(collector.isOverCapacity()).isFalse();
+  }
+
+  @Test
+  public void batched_mergesMessagesIntoOneStorageRequest() {
+    collector =
+        spy(
+            Collector.newBuilder(Collector.class)
+                .batchMaxSpans(2)
+                .batchLingerMillis(10_000) // only flush when full
+                .storage(storage)
+                .build());
+    doNothing().when(collector).record(any(), any());
+    Callback<Void> callback2 = mock(Callback.class);
+    Span span2 = CLIENT_SPAN.toBuilder().id("3").build();
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+    verify(collector, never()).record(any(), any());
+
+    collector.accept(asList(span2), callback2);
+    verify(collector).record(eq(asList(CLIENT_SPAN, span2)), any());
+    verify(callback).onSuccess(null);
+    verify(callback2).onSuccess(null);
+  }
+
+  @Test
+  public void batched_lingeringBatchIsStored() throws Exception {
+    collector =
+        spy(
+            Collector.newBuilder(Collector.class)
+                .batchMaxSpans(100)
+                .batchLingerMillis(1)
+                .storage(storage)
+                .build());
+    doNothing().when(collector).record(any(), any());
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+
+    verify(collector, timeout(1000)).record(eq(asList(CLIENT_SPAN)), any());
+    verify(callback, timeout(1000)).onSuccess(null);
+  }
+
+  @Test
+  public void batched_storageErrorFailsEachCallback() {
+    ArgumentCaptor<Callback<Void>> stored = queuedCollector(10, 1);
+    collector =
+        spy(
+            Collector.newBuilder(Collector.class)
+                .queuedMaxSpans(10)
+                .batchMaxSpans(2)
+                .batchLingerMillis(10_000)
+                .storage(storage)
+                .build());
+    Callback<Void> callback2 = mock(Callback.class);
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+    collector.accept(asList(CLIENT_SPAN), callback2);
+    stored.getValue().onError(new IllegalArgumentException("no beer"));
+
+    verify(callback).onError(any(RuntimeException.class));
+    verify(callback2).onError(any(RuntimeException.class));
+  }
+
+  @Test
+  public void notQueued_neverOverCapacity() {
+    assertThat(collector.isOverCapacity()).isFalse();
+  }
+
+  ArgumentCaptor<Callback<Void>> queuedCollector(int queuedMaxSpans, int storageConcurrency) {
+    return queuedCollector(queuedMaxSpans, storageConcurrency, mock(CollectorMetrics.class));
+  }
+
+  /** Returns a captor of callbacks passed to storage, which complete when a test says so. */
+  ArgumentCaptor<Callback<Void>> queuedCollector(
+      int queuedMaxSpans, int storageConcurrency, CollectorMetrics metrics) {
+    SpanConsumer spanConsumer = mock(SpanConsumer.class);
+    Call<Void> call = mock(Call.class);
+    when(storage.spanConsumer()).thenReturn(spanConsumer);
+    when(spanConsumer.accept(any())).thenReturn(call);
+    ArgumentCaptor<Callback<Void>> stored = ArgumentCaptor.forClass(Callback.class);
+    doNothing().when(call).enqueue(stored.capture());
+
+    collector =
+        spy(
+            Collector.newBuilder(Collector.class)
+                .queuedMaxSpans(queuedMaxSpans)
+                .storageConcurrency(storageConcurrency)
+                .metrics(metrics)
+                .storage(storage)
+                .build());
+    when(collector.shouldWarn()).thenReturn(true);
+    when(collector.idString(CLIENT_SPAN)).thenReturn("1");
+    return stored;
   }
 
   @Test
@@ -29,6 +29,7 @@ import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteBufferDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import zipkin2.CheckResult;
@@ -116,6 +117,22 @@ public final class KafkaCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, partitions are paused while this many spans wait on storage.
+     *
+     * @see Collector.Builder#queuedMaxSpans(int)
+     */
+    public Builder queuedMaxSpans(int queuedMaxSpans) {
+      delegate.queuedMaxSpans(queuedMaxSpans);
+      return this;
+    }
+
+    /** @see Collector.Builder#storageConcurrency(int) */
+    public Builder storageConcurrency(int storageConcurrency) {
+      delegate.storageConcurrency(storageConcurrency);
+      return this;
+    }
+
     /**
      * By default, a consumer will be built from properties derived from builder defaults, as well
      * as "auto.offset.reset" -> "earliest". Any properties set here will override the consumer
@@ -148,7 +165,8 @@ public final class KafkaCollector extends CollectorComponent {
       properties.put(GROUP_ID_CONFIG, "zipkin");
       properties.put(AUTO_OFFSET_RESET_CONFIG, "earliest");
       properties.put(KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
-      properties.put(VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+      // proto3 messages are decoded from the buffer, which newer clients needn't copy from a fetch
+      properties.put(VALUE_DESERIALIZER_CLASS_CONFIG, ByteBufferDeserializer.class.getName());
     }
   }
 
@@ -13,12 +13,15 @@
  */
 package zipkin2.collector.kafka;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
@@ -33,18 +36,29 @@ import zipkin2.Span;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
+import zipkin2.collector.OverCapacityException;
+import zipkin2.internal.Buffer;
 
 /** Consumes spans from Kafka messages, ignoring malformed input */
 final class KafkaCollectorWorker implements Runnable {
   static final Logger LOG = LoggerFactory.getLogger(KafkaCollectorWorker.class);
-  static final Callback<Void> NOOP =
-      new Callback<Void>() {
-        @Override
-        public void onSuccess(Void value) {}
 
-        @Override
-        public void onError(Throwable t) {}
-      };
+  /**
+   * Notes when a record's spans were rejected because the collector's storage queue was full. This
+   * happens synchronously, so it is safe to check after accepting the record on the polling thread.
+   * Storage completes later, on another thread, so each record gets its own callback.
+   */
+  static final class AcceptCallback implements Callback<Void> {
+    volatile boolean overCapacity;
+
+    @Override
+    public void onSuccess(Void value) {}
+
+    @Override
+    public void onError(Throwable t) {
+      if (t instanceof OverCapacityException) overCapacity = true;
+    }
+  }
 
   final Properties properties;
   final List<String> topics;
@@ -53,6 +67,8 @@ final class KafkaCollectorWorker implements Runnable {
   /** Kafka topic partitions currently assigned to this worker. List is not modifiable. */
   final AtomicReference<List<TopicPartition>> assignedPartitions =
       new AtomicReference<>(Collections.emptyList());
+  /** Partitions paused while the collector is over capacity. Only used by the polling thread. */
+  final Set<TopicPartition> pausedPartitions = new LinkedHashSet<>();
 
   KafkaCollectorWorker(KafkaCollector.Builder builder) {
     properties = builder.properties;
@@ -70,6 +86,7 @@ final class KafkaCollectorWorker implements Runnable {
           @Override
           public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
             assignedPartitions.set(Collections.emptyList());
+            pausedPartitions.clear(); // pausing doesn't survive reassignment
           }
 
           @Override
@@ -79,27 +96,18 @@ final class KafkaCollectorWorker implements Runnable {
         });
       LOG.info("Kafka consumer starting polling loop.");
       while (true) {
-        final ConsumerRecords<byte[], byte[]> consumerRecords = kafkaConsumer.poll(1000);
+        resumeIfUnderCapacity(kafkaConsumer);
+        final ConsumerRecords<byte[], ByteBuffer> consumerRecords = kafkaConsumer.poll(1000);
         LOG.debug("Kafka polling returned batch of {} messages.", consumerRecords.count());
-        for (ConsumerRecord<byte[], byte[]> record : consumerRecords) {
-          metrics.incrementMessages();
-          final byte[] bytes = record.value();
+        for (TopicPartition partition : consumerRecords.partitions()) {
+          for (ConsumerRecord<byte[], ByteBuffer> record : consumerRecords.records(partition)) {
+            if (accept(record.value())) continue;
 
-          if (bytes.length < 2) { // need two bytes to check if protobuf
-            metrics.incrementMessagesDropped();
-          } else {
-            // If we received legacy single-span encoding, decode it into a singleton list
-            if (!protobuf3(bytes) && bytes[0] <= 16 && bytes[0] != 12 /* thrift, but not list */) {
-              metrics.incrementBytes(bytes.length);
-              try {
-                Span span = SpanBytesDecoder.THRIFT.decodeOne(bytes);
-                collector.accept(Collections.singletonList(span), NOOP);
-              } catch (RuntimeException e) {
-                metrics.incrementMessagesDropped();
-              }
-            } else {
-              collector.acceptSpans(bytes, NOOP);
-            }
+            // Over capacity: rewind so this record is redelivered once storage catches up
+            kafkaConsumer.seek(partition, record.offset());
+            kafkaConsumer.pause(Collections.singleton(partition));
+            pausedPartitions.add(partition);
+            break;
           }
         }
       }
@@ -115,8 +123,42 @@ final class KafkaCollectorWorker implements Runnable {
     }
   }
 
+  /** Returns false if the collector was over capacity, so the message should be redelivered. */
+  boolean accept(ByteBuffer value) {
+    metrics.incrementMessages();
+    AcceptCallback callback = new AcceptCallback();
+
+    if (value.remaining() < 2) { // need two bytes to check if protobuf
+      metrics.incrementMessagesDropped();
+    } else if (protobuf3(value)) { // decoded directly from the buffer
+      collector.acceptSpans(value, SpanBytesDecoder.PROTO3, callback);
+    } else {
+      byte[] bytes = Buffer.toByteArray(value);
+      // If we received legacy single-span encoding, decode it into a singleton list
+      if (bytes[0] <= 16 && bytes[0] != 12 /* thrift, but not list */) {
+        metrics.incrementBytes(bytes.length);
+        try {
+          Span span = SpanBytesDecoder.THRIFT.decodeOne(bytes);
+          collector.accept(Collections.singletonList(span), callback);
+        } catch (RuntimeException e) {
+          metrics.incrementMessagesDropped();
+        }
+      } else {
+        collector.acceptSpans(bytes, callback);
+      }
+    }
+    return !callback.overCapacity;
+  }
+
+  void resumeIfUnderCapacity(KafkaConsumer<?, ?> kafkaConsumer) {
+    if (pausedPartitions.isEmpty() || collector.isOverCapacity()) return;
+    kafkaConsumer.resume(pausedPartitions);
+    pausedPartitions.clear();
+  }
+
   /* span key or trace ID key */
-  static boolean protobuf3(byte[] bytes) {
-    return bytes[0] == 10 && bytes[1] != 0; // varint follows and won't be zero
+  static boolean protobuf3(ByteBuffer value) {
+    int pos = value.position();
+    return value.get(pos) == 10 && value.get(pos + 1) != 0; // varint follows and won't be zero
   }
 }
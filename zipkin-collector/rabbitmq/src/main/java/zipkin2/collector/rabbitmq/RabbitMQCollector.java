@@ -30,6 +30,7 @@ import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.OverCapacityException;
 import zipkin2.storage.StorageComponent;
 
 /** This collector consumes encoded binary messages from a RabbitMQ queue. */
@@ -54,7 +55,7 @@ public final class RabbitMQCollector extends CollectorComponent {
     String queue = "zipkin";
     ConnectionFactory connectionFactory = new ConnectionFactory();
     Address[] addresses;
-    int concurrency = 1;
+    int concurrency = 1, queuedMaxSpans = 0, storageConcurrency = 8;
 
     @Override
     public Builder storage(StorageComponent storage) {
@@ -86,6 +87,47 @@ public final class RabbitMQCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, messages are acknowledged only after their spans are stored, and consumers
+     * back off while this many spans wait on storage. The prefetch count of each consumer is set
+     * to the {@link #storageConcurrency(int) storage concurrency}, so that withheld
+     * acknowledgements slow delivery.
+     *
+     * <p>Defaults to zero, which acknowledges messages as soon as they are delivered.
+     *
+     * @see Collector.Builder#queuedMaxSpans(int)
+     */
+    public Builder queuedMaxSpans(int queuedMaxSpans) {
+      this.delegate.queuedMaxSpans(queuedMaxSpans);
+      this.queuedMaxSpans = queuedMaxSpans;
+      return this;
+    }
+
+    /** @see Collector.Builder#batchMaxSpans(int) */
+    public Builder batchMaxSpans(int batchMaxSpans) {
+      this.delegate.batchMaxSpans(batchMaxSpans);
+      return this;
+    }
+
+    /** @see Collector.Builder#batchMaxBytes(int) */
+    public Builder batchMaxBytes(int batchMaxBytes) {
+      this.delegate.batchMaxBytes(batchMaxBytes);
+      return this;
+    }
+
+    /** @see Collector.Builder#batchLingerMillis(int) */
+    public Builder batchLingerMillis(int batchLingerMillis) {
+      this.delegate.batchLingerMillis(batchLingerMillis);
+      return this;
+    }
+
+    /** @see Collector.Builder#storageConcurrency(int) */
+    public Builder storageConcurrency(int storageConcurrency) {
+      this.delegate.storageConcurrency(storageConcurrency);
+      this.storageConcurrency = storageConcurrency;
+      return this;
+    }
+
     public Builder connectionFactory(ConnectionFactory connectionFactory) {
       if (connectionFactory == null) throw new NullPointerException("connectionFactory == null");
       this.connectionFactory = connectionFactory;
@@ -174,6 +216,7 @@ public final class RabbitMQCollector extends CollectorComponent {
       }
       Collector collector = builder.delegate.build();
       CollectorMetrics metrics = builder.metrics;
+      boolean autoAck = builder.queuedMaxSpans == 0;
 
       for (int i = 0; i < builder.concurrency; i++) {
         String name = RabbitMQSpanConsumer.class.getName() + i;
@@ -181,8 +224,10 @@ public final class RabbitMQCollector extends CollectorComponent {
           // this sets up a channel for each consumer thread.
           // We don't track channels them, as the connection will close its channels implicitly
           Channel channel = connection.createChannel();
-          RabbitMQSpanConsumer consumer = new RabbitMQSpanConsumer(channel, collector, metrics);
-          channel.basicConsume(builder.queue, true, name, consumer);
+          if (!autoAck) channel.basicQos(builder.storageConcurrency);
+          RabbitMQSpanConsumer consumer =
+              new RabbitMQSpanConsumer(channel, collector, metrics, autoAck);
+          channel.basicConsume(builder.queue, autoAck, name, consumer);
         } catch (IOException e) {
           throw new IllegalStateException("Failed to start RabbitMQ consumer " + name, e);
         }
@@ -194,22 +239,111 @@ public final class RabbitMQCollector extends CollectorComponent {
   /**
    * Consumes spans from messages on a RabbitMQ queue. Malformed messages will be discarded. Errors
    * in the storage component will similarly be ignored, with no retry of the message.
+   *
+   * <p>Unless auto-acknowledging, messages are acknowledged after their spans are stored. When the
+   * collector is {@link OverCapacityException over capacity}, the delivery thread backs off and
+   * retries the message. As unacknowledged messages count against the prefetch limit, this stops
+   * delivery to the channel until storage catches up, as opposed to requeueing in a hot loop. A
+   * message whose batch is rejected after the delivery thread moved on is requeued.
    */
   static class RabbitMQSpanConsumer extends DefaultConsumer {
+    static final long INITIAL_BACKOFF_MILLIS = 10, MAX_BACKOFF_MILLIS = 1000;
+
     final Collector collector;
     final CollectorMetrics metrics;
+    final boolean autoAck;
 
-    RabbitMQSpanConsumer(Channel channel, Collector collector, CollectorMetrics metrics) {
+    RabbitMQSpanConsumer(
+        Channel channel, Collector collector, CollectorMetrics metrics, boolean autoAck) {
       super(channel);
       this.collector = collector;
       this.metrics = metrics;
+      this.autoAck = autoAck;
     }
 
     @Override
     public void handleDelivery(
         String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
       metrics.incrementMessages();
-      this.collector.acceptSpans(body, NOOP);
+      if (autoAck) {
+        this.collector.acceptSpans(body, NOOP);
+        return;
+      }
+      long deliveryTag = envelope.getDeliveryTag();
+      long backoffMillis = INITIAL_BACKOFF_MILLIS;
+      // Checking capacity first also backs off redelivery of messages rejected from a batch
+      while (collector.isOverCapacity() || !accept(body, deliveryTag)) {
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException e) { // shutting down: let the broker redeliver
+          Thread.currentThread().interrupt();
+          ack(deliveryTag, true);
+          return;
+        }
+        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+      }
+    }
+
+    /** Returns false if the collector was over capacity, so the message should be retried. */
+    boolean accept(byte[] body, long deliveryTag) {
+      AckCallback callback = new AckCallback(deliveryTag);
+      this.collector.acceptSpans(body, callback);
+      return callback.acceptReturned();
+    }
+
+    /**
+     * Acknowledges the message once its spans are stored or dropped.
+     *
+     * <p>Without batching, rejection because the collector is over capacity happens before
+     * accepting returns, and the delivery thread retries the message. When batched, the rejection
+     * can happen later, on the batcher's thread. As the delivery thread has moved on, the message
+     * is then requeued, so that its spans aren't lost.
+     */
+    final class AckCallback implements Callback<Void> {
+      final long deliveryTag;
+      boolean returned, overCapacity; // guarded by this
+
+      AckCallback(long deliveryTag) {
+        this.deliveryTag = deliveryTag;
+      }
+
+      /** Returns false if the message was rejected before accepting it returned. */
+      synchronized boolean acceptReturned() {
+        returned = true;
+        return !overCapacity;
+      }
+
+      @Override
+      public void onSuccess(Void value) {
+        ack(deliveryTag, false);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        if (!(t instanceof OverCapacityException)) {
+          ack(deliveryTag, false);
+          return;
+        }
+        synchronized (this) {
+          if (!returned) { // the delivery thread will retry
+            overCapacity = true;
+            return;
+          }
+        }
+        ack(deliveryTag, true);
+      }
+    }
+
+    void ack(long deliveryTag, boolean requeue) {
+      try {
+        if (requeue) {
+          getChannel().basicNack(deliveryTag, false, true);
+        } else {
+          getChannel().basicAck(deliveryTag, false);
+        }
+      } catch (IOException e) {
+        // The channel is closed, so the broker will redeliver anything unacknowledged
+      }
     }
   }
 
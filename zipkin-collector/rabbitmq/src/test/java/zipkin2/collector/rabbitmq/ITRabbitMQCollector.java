@@ -13,18 +13,26 @@
  */
 package zipkin2.collector.rabbitmq;
 
+import com.rabbitmq.client.Channel;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 import org.junit.After;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import zipkin2.Call;
+import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static zipkin2.TestObjects.LOTS_OF_SPANS;
@@ -115,6 +123,81 @@ public class ITRabbitMQCollector {
     assertThat(rabbit.rabbitmqMetrics.messagesDropped()).isEqualTo(3);
   }
 
+  /**
+   * When batched, a message's spans can be rejected as over capacity after the delivery thread
+   * moved on. Such messages should be requeued, as opposed to never acknowledged and lost.
+   */
+  @Test
+  public void queuedAndBatched_overCapacityMessagesAreRedelivered() throws Exception {
+    ExecutorService storageThread = Executors.newSingleThreadExecutor();
+    RabbitMQCollector collector =
+        builder()
+            .storage(new SlowStorage(rabbit.storage, storageThread))
+            .queue("zipkin-test-queued")
+            .addresses(Collections.singletonList(rabbit.address()))
+            .queuedMaxSpans(2)
+            .storageConcurrency(1)
+            .batchMaxSpans(2)
+            .build();
+    try {
+      collector.start();
+      Channel channel = collector.connection.get().createChannel();
+      int messageCount = 20;
+      for (int i = 0; i < messageCount; i++) {
+        byte[] message = SpanBytesEncoder.JSON_V2.encodeList(Arrays.asList(LOTS_OF_SPANS[i]));
+        channel.basicPublish("", collector.queue, null, message);
+      }
+
+      for (int i = 0; i < 100 && rabbit.storage.acceptedSpanCount() < messageCount; i++) {
+        Thread.sleep(100);
+      }
+      assertThat(rabbit.storage.acceptedSpanCount()).isEqualTo(messageCount);
+      assertThat(channel.messageCount(collector.queue)).isZero();
+      channel.close();
+    } finally {
+      collector.close();
+      storageThread.shutdownNow();
+    }
+  }
+
+  /** Completes storage later, on another thread, so that the collector's queue fills up. */
+  static final class SlowStorage extends StorageComponent {
+    final StorageComponent delegate;
+    final ExecutorService storageThread;
+
+    SlowStorage(StorageComponent delegate, ExecutorService storageThread) {
+      this.delegate = delegate;
+      this.storageThread = storageThread;
+    }
+
+    @Override public SpanStore spanStore() {
+      return delegate.spanStore();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> new Call.Base<Void>() {
+        @Override protected Void doExecute() throws IOException {
+          return delegate.spanConsumer().accept(spans).execute();
+        }
+
+        @Override protected void doEnqueue(Callback<Void> callback) {
+          storageThread.execute(() -> {
+            try {
+              Thread.sleep(20);
+              callback.onSuccess(doExecute());
+            } catch (Throwable t) {
+              callback.onError(t);
+            }
+          });
+        }
+
+        @Override public Call<Void> clone() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
   /** Guards against errors that leak from storage, such as InvalidQueryException */
   @Test
   public void skipsOnSpanConsumerException() {
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+import zipkin2.storage.TracePages;
+import zipkin2.storage.TraceSummaries;
+import zipkin2.storage.TraceSummaryPages;
+import zipkin2.storage.Traces;
+
+/**
+ * Caches service and span name queries, which are issued on every UI page load, but are expensive
+ * in some storage (ex. an aggregation over all indexes in Elasticsearch). Once an entry is older
+ * than the TTL, it is refreshed in the background, and the stale value is served until that
+ * completes. Other queries and writes pass through.
+ */
+final class CachingNamesStorageComponent extends StorageComponent {
+  static final Logger LOG = Logger.getLogger(CachingNamesStorageComponent.class.getName());
+
+  final StorageComponent delegate;
+  final ExecutorService refresher;
+  final NamesCache serviceNames, spanNames;
+
+  CachingNamesStorageComponent(StorageComponent delegate, long ttlMillis, int maxSize) {
+    this.delegate = delegate;
+    this.refresher = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "zipkin-names-cache");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.serviceNames = new NamesCache(
+        key -> delegate.spanStore().getServiceNames(), ttlNanos, 1, refresher::execute);
+    this.spanNames = new NamesCache(
+        key -> delegate.spanStore().getSpanNames(key), ttlNanos, maxSize, refresher::execute);
+  }
+
+  @Override public SpanStore spanStore() {
+    return new CachingNamesSpanStore(delegate.spanStore(), serviceNames, spanNames);
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return delegate.spanConsumer();
+  }
+
+  @Override public Traces traces() {
+    return delegate.traces();
+  }
+
+  @Override public TraceSummaries traceSummaries() {
+    return delegate.traceSummaries();
+  }
+
+  @Override public TracePages tracePages() {
+    return delegate.tracePages();
+  }
+
+  @Override public TraceSummaryPages traceSummaryPages() {
+    return delegate.traceSummaryPages();
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  @Override public void close() throws IOException {
+    refresher.shutdownNow();
+    delegate.close();
+  }
+
+  @Override public String toString() {
+    return delegate.toString();
+  }
+
+  long hitCount() {
+    return serviceNames.hits.get() + spanNames.hits.get();
+  }
+
+  long missCount() {
+    return serviceNames.misses.get() + spanNames.misses.get();
+  }
+
+  static final class CachingNamesSpanStore implements SpanStore {
+    final SpanStore delegate;
+    final NamesCache serviceNames, spanNames;
+
+    CachingNamesSpanStore(SpanStore delegate, NamesCache serviceNames, NamesCache spanNames) {
+      this.delegate = delegate;
+      this.serviceNames = serviceNames;
+      this.spanNames = spanNames;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return delegate.getTraces(request);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      return delegate.getTrace(traceId);
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return new CachedNamesCall(serviceNames, "");
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      if (serviceName == null || "".equals(serviceName)) return delegate.getSpanNames(serviceName);
+      return new CachedNamesCall(spanNames, serviceName.toLowerCase(Locale.ROOT));
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return delegate.getDependencies(endTs, lookback);
+    }
+  }
+
+  /** A least-recently used map of names, each of which are reloaded when older than the TTL. */
+  static final class NamesCache {
+    final Function<String, Call<List<String>>> loader;
+    final long ttlNanos;
+    final Executor executor;
+    final Map<String, Entry> entries;
+    final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+    LongSupplier nanoTime = System::nanoTime; // visible for testing
+
+    NamesCache(Function<String, Call<List<String>>> loader, long ttlNanos, int maxSize,
+        Executor executor) {
+      this.loader = loader;
+      this.ttlNanos = ttlNanos;
+      this.executor = executor;
+      this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    Entry entry(String key) {
+      synchronized (entries) {
+        Entry entry = entries.get(key);
+        if (entry == null) entries.put(key, entry = new Entry());
+        return entry;
+      }
+    }
+
+    /** Returns the names, blocking on a load when they aren't cached. */
+    List<String> get(String key) throws IOException {
+      BlockingCallback callback = new BlockingCallback();
+      get(key, callback);
+      try {
+        return callback.await();
+      } catch (InterruptedException e) {
+        cancel(key, callback);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted loading names for " + key);
+      }
+    }
+
+    /**
+     * Completes the callback with the names. On a miss, they are loaded with {@link Call#enqueue},
+     * so the calling thread isn't blocked on storage.
+     */
+    void get(String key, Callback<List<String>> callback) {
+      Entry entry = entry(key);
+
+      List<String> value = entry.value;
+      if (value != null) {
+        hits.incrementAndGet();
+        maybeRefresh(key, entry);
+        callback.onSuccess(value);
+        return;
+      }
+
+      // Concurrent misses on the same key wait on the first, instead of all hitting storage
+      boolean load = false;
+      synchronized (entry) {
+        if ((value = entry.value) == null) {
+          if (entry.waiting == null) {
+            entry.waiting = new ArrayList<>();
+            load = true;
+          }
+          entry.waiting.add(callback);
+        }
+      }
+      if (value != null || !load) {
+        hits.incrementAndGet();
+        if (value != null) callback.onSuccess(value);
+        return;
+      }
+
+      misses.incrementAndGet();
+      Call<List<String>> call;
+      try {
+        call = loader.apply(key);
+      } catch (RuntimeException | Error e) {
+        loadFailed(key, entry, null, e);
+        return;
+      }
+      synchronized (entry) {
+        if (entry.waiting == null) return; // all callers canceled before the load started
+        entry.loading = call;
+      }
+      call.enqueue(new Callback<List<String>>() {
+        @Override public void onSuccess(List<String> value) {
+          List<Callback<List<String>>> waiting;
+          synchronized (entry) {
+            entry.set(value, nanoTime.getAsLong());
+            if (entry.loading != call) return; // canceled
+            waiting = entry.waiting;
+            entry.waiting = null;
+            entry.loading = null;
+          }
+          for (Callback<List<String>> callback : waiting) callback.onSuccess(value);
+        }
+
+        @Override public void onError(Throwable t) {
+          loadFailed(key, entry, call, t);
+        }
+      });
+    }
+
+    void loadFailed(String key, Entry entry, Call<List<String>> call, Throwable t) {
+      List<Callback<List<String>>> waiting;
+      synchronized (entry) {
+        if (entry.loading != call || entry.waiting == null) return; // canceled
+        waiting = entry.waiting;
+        entry.waiting = null;
+        entry.loading = null;
+      }
+      synchronized (entries) {
+        entries.remove(key, entry); // don't hold the slot for a failed load
+      }
+      for (Callback<List<String>> callback : waiting) callback.onError(t);
+    }
+
+    /**
+     * Stops waiting for names on behalf of the callback. When no other callers are waiting, the
+     * load is canceled.
+     */
+    void cancel(String key, Callback<List<String>> callback) {
+      Entry entry;
+      synchronized (entries) {
+        entry = entries.get(key);
+      }
+      if (entry == null) return;
+
+      Call<List<String>> loading;
+      synchronized (entry) {
+        if (entry.waiting == null || !entry.waiting.remove(callback)) return;
+        if (!entry.waiting.isEmpty()) return;
+        loading = entry.loading;
+        entry.waiting = null;
+        entry.loading = null;
+      }
+      synchronized (entries) {
+        entries.remove(key, entry);
+      }
+      if (loading != null) loading.cancel();
+    }
+
+    void maybeRefresh(String key, Entry entry) {
+      if (nanoTime.getAsLong() - entry.loadedNanos < ttlNanos) return;
+      if (!entry.refreshing.compareAndSet(false, true)) return; // another request is refreshing
+
+      try {
+        executor.execute(() -> {
+          try {
+            entry.set(loader.apply(key).execute(), nanoTime.getAsLong());
+          } catch (IOException | RuntimeException e) {
+            // keep serving the stale value, and try again on the next request
+            LOG.log(Level.FINE, "error refreshing names for " + key, e);
+          } finally {
+            entry.refreshing.set(false);
+          }
+        });
+      } catch (RejectedExecutionException e) { // closed
+        entry.refreshing.set(false);
+      }
+    }
+  }
+
+  static final class Entry {
+    final AtomicBoolean refreshing = new AtomicBoolean();
+    volatile List<String> value;
+    volatile long loadedNanos;
+    // guarded by this, and only set while the first load is in flight
+    List<Callback<List<String>>> waiting;
+    Call<List<String>> loading;
+
+    void set(List<String> value, long loadedNanos) {
+      this.loadedNanos = loadedNanos;
+      this.value = value;
+    }
+  }
+
+  /** Lets {@link NamesCache#get(String)} wait on a load that was started asynchronously. */
+  static final class BlockingCallback implements Callback<List<String>> {
+    final CountDownLatch latch = new CountDownLatch(1);
+    volatile List<String> value;
+    volatile Throwable error;
+
+    @Override public void onSuccess(List<String> value) {
+      this.value = value;
+      latch.countDown();
+    }
+
+    @Override public void onError(Throwable t) {
+      this.error = t;
+      latch.countDown();
+    }
+
+    List<String> await() throws IOException, InterruptedException {
+      latch.await();
+      Throwable error = this.error;
+      if (error == null) return value;
+      if (error instanceof IOException) throw (IOException) error;
+      if (error instanceof RuntimeException) throw (RuntimeException) error;
+      if (error instanceof Error) throw (Error) error;
+      throw new IOException(error);
+    }
+  }
+
+  static final class CachedNamesCall extends Call.Base<List<String>> {
+    final NamesCache cache;
+    final String key;
+    volatile Callback<List<String>> callback;
+
+    CachedNamesCall(NamesCache cache, String key) {
+      this.cache = cache;
+      this.key = key;
+    }
+
+    @Override protected List<String> doExecute() throws IOException {
+      return cache.get(key);
+    }
+
+    @Override protected void doEnqueue(Callback<List<String>> callback) {
+      this.callback = callback;
+      cache.get(key, callback);
+      if (isCanceled()) cache.cancel(key, callback); // canceled while registering the callback
+    }
+
+    @Override protected void doCancel() {
+      Callback<List<String>> callback = this.callback;
+      if (callback != null) cache.cancel(key, callback);
+    }
+
+    @Override public Call<List<String>> clone() {
+      return new CachedNamesCall(cache, key);
+    }
+
+    @Override public String toString() {
+      return "CachedNamesCall(" + key + ")";
+    }
+  }
+}
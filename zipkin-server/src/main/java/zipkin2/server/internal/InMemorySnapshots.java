@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin2.storage.InMemoryStorage;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Restores {@link InMemoryStorage} from a snapshot file on start, then periodically replaces that
+ * file on a background thread. A last snapshot is written on close.
+ *
+ * <p>Snapshots are written to a temporary file, then moved over the last one. This means a crash
+ * while writing leaves the previous snapshot intact.
+ */
+final class InMemorySnapshots implements Closeable {
+  static final Logger LOG = Logger.getLogger(InMemorySnapshots.class.getName());
+
+  final Path file, tmpFile;
+  final long intervalMillis;
+  final ScheduledExecutorService executor;
+  volatile InMemoryStorage storage;
+
+  InMemorySnapshots(Path file, long intervalMillis) {
+    if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis <= 0");
+    this.file = file;
+    this.tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+    this.intervalMillis = intervalMillis;
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "zipkin-mem-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /** Restores the storage from the snapshot file, if present, then schedules snapshots. */
+  void start(InMemoryStorage storage) {
+    this.storage = storage;
+    restore();
+    // Fixed delay, as opposed to rate, so that a slow snapshot never overlaps the next
+    executor.scheduleWithFixedDelay(this::snapshot, intervalMillis, intervalMillis,
+      TimeUnit.MILLISECONDS);
+  }
+
+  void restore() {
+    if (!Files.exists(file)) return;
+    long start = System.nanoTime();
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+      int spans = storage.restoreSnapshot(in);
+      LOG.info(() -> String.format("restored %s spans from %s in %sms", spans, file,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    } catch (IOException | RuntimeException e) {
+      // A bad snapshot shouldn't prevent the server from starting, so start empty instead
+      LOG.log(Level.WARNING, "could not restore " + file + "; starting empty", e);
+      storage.clear();
+    }
+  }
+
+  void snapshot() {
+    InMemoryStorage storage = this.storage;
+    if (storage == null) return;
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmpFile), 64 * 1024)) {
+        storage.writeSnapshot(out);
+      }
+      Files.move(tmpFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "could not write snapshot " + file, e);
+    }
+  }
+
+  @Override public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    snapshot();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin2.Call;
+import zipkin2.CheckResult;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.internal.WindowedDependencyLinker;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+import zipkin2.storage.TracePages;
+import zipkin2.storage.TraceSummaries;
+import zipkin2.storage.TraceSummaryPages;
+import zipkin2.storage.Traces;
+
+/**
+ * Links spans as they are collected, and answers dependency queries from the resulting rollup
+ * instead of the delegate. Other queries and writes pass through.
+ *
+ * <p>Links are kept in memory, so they are lost on restart, and each server instance only sees
+ * the spans it collected.
+ */
+final class StreamingDependenciesStorageComponent extends StorageComponent {
+  static final Logger LOG = Logger.getLogger(StreamingDependenciesStorageComponent.class.getName());
+
+  final StorageComponent delegate;
+  final WindowedDependencyLinker linker;
+  final ScheduledExecutorService flusher;
+
+  StreamingDependenciesStorageComponent(
+      StorageComponent delegate, long quietPeriodMillis, long retentionMillis) {
+    this.delegate = delegate;
+    this.linker = new WindowedDependencyLinker(quietPeriodMillis, retentionMillis);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "zipkin-dependency-linker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flush, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /** An exception would cancel subsequent flushes, so it is logged instead. */
+  void flush() {
+    try {
+      linker.flush();
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "error linking dependencies", e);
+    }
+  }
+
+  @Override public SpanStore spanStore() {
+    return new StreamingDependenciesSpanStore(delegate.spanStore(), linker);
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    SpanConsumer delegate = this.delegate.spanConsumer();
+    return spans -> delegate.accept(spans).map(result -> {
+      // only link spans that were stored. Those redundantly sent, such as on retry, are
+      // deduplicated while their trace is pending
+      linker.accept(spans);
+      return result;
+    });
+  }
+
+  @Override public Traces traces() {
+    return delegate.traces();
+  }
+
+  @Override public TraceSummaries traceSummaries() {
+    return delegate.traceSummaries();
+  }
+
+  @Override public TracePages tracePages() {
+    return delegate.tracePages();
+  }
+
+  @Override public TraceSummaryPages traceSummaryPages() {
+    return delegate.traceSummaryPages();
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  @Override public void close() throws IOException {
+    flusher.shutdownNow();
+    delegate.close();
+  }
+
+  @Override public String toString() {
+    return delegate.toString();
+  }
+
+  static final class StreamingDependenciesSpanStore implements SpanStore {
+    final SpanStore delegate;
+    final WindowedDependencyLinker linker;
+
+    StreamingDependenciesSpanStore(SpanStore delegate, WindowedDependencyLinker linker) {
+      this.delegate = delegate;
+      this.linker = linker;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return delegate.getTraces(request);
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      return delegate.getTrace(traceId);
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return delegate.getServiceNames();
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      return delegate.getSpanNames(serviceName);
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return Call.create(linker.getDependencies(endTs, lookback));
+    }
+  }
+}
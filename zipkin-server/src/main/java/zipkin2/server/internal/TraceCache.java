@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.springframework.util.DigestUtils;
+import zipkin2.Span;
+
+/**
+ * Holds the encoded JSON of traces that are unlikely to change, so that repeated requests for the
+ * same trace, such as a link shared during an incident, don't each read from storage.
+ *
+ * <p>A trace is only cached once its newest span finished longer ago than the settle time. The
+ * cache is bounded by the total size of the encoded traces, evicting the least recently used.
+ */
+final class TraceCache {
+  final long settleMicros, maxBytes;
+  final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  long bytes; // guarded by this
+
+  TraceCache(long settleMillis, long maxBytes) {
+    this.settleMicros = TimeUnit.MILLISECONDS.toMicros(settleMillis);
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns true if the newest span finished longer ago than the settle time */
+  boolean isSettled(List<Span> trace, long nowMillis) {
+    long newestMicros = 0L;
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      long timestamp = span.timestampAsLong();
+      if (timestamp == 0L) continue;
+      newestMicros = Math.max(newestMicros, timestamp + span.durationAsLong());
+    }
+    // Without any timestamp, we can't tell if the trace is still in progress
+    return newestMicros != 0L && newestMicros < nowMillis * 1000L - settleMicros;
+  }
+
+  synchronized Entry get(String traceId) {
+    return entries.get(traceId);
+  }
+
+  /** Caches the encoded trace, unless it is larger than the cache itself. */
+  Entry put(String traceId, byte[] json) {
+    Entry entry = new Entry(json);
+    if (json.length > maxBytes) return entry;
+    synchronized (this) {
+      Entry previous = entries.put(traceId, entry);
+      if (previous != null) bytes -= previous.json.length;
+      bytes += json.length;
+      for (Iterator<Entry> i = entries.values().iterator(); bytes > maxBytes; ) {
+        bytes -= i.next().json.length; // eldest first
+        i.remove();
+      }
+    }
+    return entry;
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  static final class Entry {
+    final byte[] json;
+    final String etag;
+
+    Entry(byte[] json) {
+      this.json = json;
+      this.etag = "\"0" + DigestUtils.md5DigestAsHex(json) + '"';
+    }
+  }
+}
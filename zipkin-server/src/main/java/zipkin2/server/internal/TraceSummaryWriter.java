@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.util.List;
+import zipkin2.internal.Buffer;
+import zipkin2.storage.TraceSummary;
+
+import static zipkin2.internal.JsonEscaper.jsonEscape;
+import static zipkin2.internal.JsonEscaper.jsonEscapedSizeInBytes;
+
+/**
+ * Writes a {@link TraceSummary} as a JSON object. Like span JSON, zero timestamp, duration and a
+ * false error flag are omitted.
+ */
+final class TraceSummaryWriter implements Buffer.Writer<TraceSummary> {
+
+  @Override public int sizeInBytes(TraceSummary value) {
+    int sizeInBytes = 13 + value.traceId().length(); // {"traceId":""
+    if (value.rootSpanName() != null) {
+      sizeInBytes += 18 + jsonEscapedSizeInBytes(value.rootSpanName()); // ,"rootSpanName":""
+    }
+    if (value.timestamp() != 0L) {
+      sizeInBytes += 13 + Buffer.asciiSizeInBytes(value.timestamp()); // ,"timestamp":
+    }
+    if (value.duration() != 0L) {
+      sizeInBytes += 12 + Buffer.asciiSizeInBytes(value.duration()); // ,"duration":
+    }
+    sizeInBytes += 13 + Buffer.asciiSizeInBytes(value.spanCount()); // ,"spanCount":
+    sizeInBytes += 18; // ,"serviceNames":[]
+    List<String> serviceNames = value.serviceNames();
+    for (int i = 0, length = serviceNames.size(); i < length; i++) {
+      if (i > 0) sizeInBytes++; // ,
+      sizeInBytes += 2 + jsonEscapedSizeInBytes(serviceNames.get(i)); // ""
+    }
+    if (value.error()) sizeInBytes += 13; // ,"error":true
+    return ++sizeInBytes; // }
+  }
+
+  @Override public void write(TraceSummary value, Buffer b) {
+    b.writeAscii("{\"traceId\":\"").writeAscii(value.traceId()).writeByte('"');
+    if (value.rootSpanName() != null) {
+      b.writeAscii(",\"rootSpanName\":\"").writeUtf8(jsonEscape(value.rootSpanName()))
+          .writeByte('"');
+    }
+    if (value.timestamp() != 0L) b.writeAscii(",\"timestamp\":").writeAscii(value.timestamp());
+    if (value.duration() != 0L) b.writeAscii(",\"duration\":").writeAscii(value.duration());
+    b.writeAscii(",\"spanCount\":").writeAscii(value.spanCount());
+    b.writeAscii(",\"serviceNames\":[");
+    List<String> serviceNames = value.serviceNames();
+    for (int i = 0, length = serviceNames.size(); i < length; i++) {
+      if (i > 0) b.writeByte(',');
+      b.writeByte('"').writeUtf8(jsonEscape(serviceNames.get(i))).writeByte('"');
+    }
+    b.writeByte(']');
+    if (value.error()) b.writeAscii(",\"error\":true");
+    b.writeByte('}');
+  }
+
+  @Override public String toString() {
+    return "TraceSummary";
+  }
+}
@@ -13,18 +13,27 @@
  */
 package zipkin2.server.internal;
 
+import io.undertow.connector.PooledByteBuffer;
 import io.undertow.io.Receiver;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.HttpString;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import io.undertow.util.SameThreadExecutor;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
+import org.xnio.ChannelListener;
+import org.xnio.channels.StreamSourceChannel;
 import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.codec.BytesDecoder;
@@ -32,6 +41,7 @@ import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.OverCapacityException;
 import zipkin2.storage.StorageComponent;
 
 /** Implements the POST /api/v1/spans and /api/v2/spans endpoints used by instrumentation. */
@@ -51,13 +61,25 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
 
   @Autowired
   ZipkinHttpCollector(
-      StorageComponent storage, CollectorSampler sampler, CollectorMetrics metrics) {
+      StorageComponent storage,
+      CollectorSampler sampler,
+      CollectorMetrics metrics,
+      @Value("${zipkin.collector.queued-max-spans:0}") int queuedMaxSpans,
+      @Value("${zipkin.collector.storage-concurrency:8}") int storageConcurrency,
+      @Value("${zipkin.collector.batch-max-spans:0}") int batchMaxSpans,
+      @Value("${zipkin.collector.batch-max-bytes:0}") int batchMaxBytes,
+      @Value("${zipkin.collector.batch-linger-millis:10}") int batchLingerMillis) {
     this.metrics = metrics.forTransport("http");
     this.collector =
         Collector.newBuilder(getClass())
             .storage(storage)
             .sampler(sampler)
             .metrics(this.metrics)
+            .queuedMaxSpans(queuedMaxSpans)
+            .storageConcurrency(storageConcurrency)
+            .batchMaxSpans(batchMaxSpans)
+            .batchMaxBytes(batchMaxBytes)
+            .batchLingerMillis(batchLingerMillis)
             .build();
     this.JSON_V2 = new HttpCollector(SpanBytesDecoder.JSON_V2);
     this.PROTO3 = new HttpCollector(SpanBytesDecoder.PROTO3);
@@ -101,7 +123,33 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
 
     HttpCollector collector = v2 ? (json ? JSON_V2 : PROTO3) : thrift ? THRIFT : JSON_V1;
     metrics.incrementMessages();
-    exchange.getRequestReceiver().receiveFullBytes(collector, errorCallback);
+    // When queueing or batching, the response is sent after storage, possibly on another thread.
+    // Dispatching keeps the exchange open after this returns, even if the body was already read.
+    exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+      if (collector == PROTO3 && readPooled(exchange)) return;
+      exchange.getRequestReceiver().receiveFullBytes(collector, errorCallback);
+    });
+  }
+
+  /**
+   * Proto3 is decoded directly from a {@link ByteBuffer}, so an uncompressed body which fits in one
+   * of Undertow's pooled buffers is read there, instead of into a new array. Returns false if the
+   * body should be read with {@link Receiver#receiveFullBytes} instead.
+   */
+  boolean readPooled(HttpServerExchange exchange) {
+    long length = exchange.getRequestContentLength();
+    if (length <= 0L || exchange.getRequestHeaders().contains(CONTENT_ENCODING)) return false;
+
+    PooledByteBuffer pooled = exchange.getConnection().getByteBufferPool().allocate();
+    ByteBuffer buffer = pooled.getBuffer();
+    if (length > buffer.capacity()) {
+      pooled.close();
+      return false;
+    }
+    buffer.clear();
+    buffer.limit((int) length);
+    new PooledBodyReader(exchange, pooled).handleEvent(exchange.getRequestChannel());
+    return true;
   }
 
   @Override
@@ -110,6 +158,46 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
     return this;
   }
 
+  /** Fills the pooled buffer with the request body, waiting for reads as needed. */
+  final class PooledBodyReader implements ChannelListener<StreamSourceChannel> {
+    final HttpServerExchange exchange;
+    final PooledByteBuffer pooled;
+
+    PooledBodyReader(HttpServerExchange exchange, PooledByteBuffer pooled) {
+      this.exchange = exchange;
+      this.pooled = pooled;
+    }
+
+    @Override
+    public void handleEvent(StreamSourceChannel channel) {
+      ByteBuffer buffer = pooled.getBuffer();
+      try {
+        while (buffer.hasRemaining()) {
+          int read = channel.read(buffer);
+          if (read == -1) throw new EOFException("Unexpected end of request body");
+          if (read == 0) { // resume when more of the body arrives
+            channel.getReadSetter().set(this);
+            channel.resumeReads();
+            return;
+          }
+        }
+      } catch (IOException e) {
+        channel.suspendReads();
+        pooled.close();
+        errorCallback.error(exchange, e);
+        return;
+      }
+      channel.suspendReads();
+      channel.getReadSetter().set(null);
+      buffer.flip();
+      try { // spans don't reference the buffer once decoded, so it can be released after
+        collector.acceptSpans(buffer, SpanBytesDecoder.PROTO3, new ResponseCallback(exchange));
+      } finally {
+        pooled.close();
+      }
+    }
+  }
+
   final class HttpCollector implements Receiver.FullBytesCallback {
     final BytesDecoder<Span> decoder;
 
@@ -133,48 +221,152 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
           return;
         }
       }
-      collector.acceptSpans(
-          body,
-          decoder,
-          new Callback<Void>() {
-            @Override
-            public void onSuccess(Void value) {
-              exchange.setStatusCode(202).getResponseSender().close();
-            }
-
-            @Override
-            public void onError(Throwable t) {
-              error(exchange, t);
-            }
-          });
+      collector.acceptSpans(body, decoder, new ResponseCallback(exchange));
+    }
+  }
+
+  static final class ResponseCallback implements Callback<Void> {
+    final HttpServerExchange exchange;
+
+    ResponseCallback(HttpServerExchange exchange) {
+      this.exchange = exchange;
+    }
+
+    @Override
+    public void onSuccess(Void value) {
+      exchange.setStatusCode(202).getResponseSender().close();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error(exchange, t);
     }
   }
 
   static void error(HttpServerExchange exchange, Throwable e) {
+    if (e instanceof OverCapacityException) { // backpressure: the client should retry later
+      exchange.setStatusCode(503).getResponseSender().send(e.getMessage());
+      return;
+    }
     String message = e.getMessage();
     int code = message == null || message.startsWith("Cannot store") ? 500 : 400;
     if (message == null) message = e.getClass().getSimpleName();
     exchange.setStatusCode(code).getResponseSender().send(message);
   }
 
-  // TODO: there's gotta be an N/IO way to gunzip
-  private static final ThreadLocal<byte[]> GZIP_BUFFER =
-      new ThreadLocal<byte[]>() {
+  static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16; // gzip header flags
+  /**
+   * The ISIZE trailer is only trusted up to this ratio of the input length. Span data typically
+   * compresses well below this, and more compressed bodies grow the buffer as they inflate.
+   */
+  static final int MAX_INITIAL_RATIO = 16;
+  /** Caps the first allocation, so a forged ISIZE can't allocate much before anything inflates */
+  static final int MAX_INITIAL_SIZE = 4 << 20; // 4 MiB
+
+  // raw deflate, as we parse the gzip header and trailer ourselves
+  private static final ThreadLocal<Inflater> INFLATER =
+      new ThreadLocal<Inflater>() {
         @Override
-        protected byte[] initialValue() {
-          return new byte[1024];
+        protected Inflater initialValue() {
+          return new Inflater(true);
         }
       };
 
+  /**
+   * Inflates the gzip body in one pass. The result is sized by the ISIZE trailer, within limits, so
+   * the usual case allocates a single array, which is passed to the decoder as-is. This avoids
+   * buffering through {@code GZIPInputStream}, a growing {@code ByteArrayOutputStream} and a final
+   * copy.
+   */
   static byte[] gunzip(byte[] input) throws IOException {
-    GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(input));
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length)) {
-      byte[] buf = GZIP_BUFFER.get();
-      int len;
-      while ((len = in.read(buf)) > 0) {
-        outputStream.write(buf, 0, len);
+    Inflater inflater = INFLATER.get();
+    CRC32 crc = new CRC32();
+    byte[] result = new byte[initialSize(input)];
+    int length = 0, pos = 0;
+    do { // loops when gzip members are concatenated
+      pos = skipHeader(input, pos);
+      inflater.reset();
+      inflater.setInput(input, pos, input.length - pos);
+      int memberStart = length;
+      try {
+        while (!inflater.finished()) {
+          if (length == result.length) result = Arrays.copyOf(result, grow(length));
+          int count = inflater.inflate(result, length, result.length - length);
+          if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+          }
+          length += count;
+        }
+      } catch (DataFormatException e) {
+        String message = e.getMessage();
+        throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+      }
+      pos = input.length - inflater.getRemaining();
+
+      if (input.length - pos < 8) throw new EOFException("Unexpected end of gzip trailer");
+      crc.reset();
+      crc.update(result, memberStart, length - memberStart);
+      if (readIntLe(input, pos) != (int) crc.getValue()) {
+        throw new ZipException("Corrupt GZIP trailer");
       }
-      return outputStream.toByteArray();
+      if (readIntLe(input, pos + 4) != length - memberStart) { // ISIZE is the length mod 2^32
+        throw new ZipException("Corrupt GZIP trailer");
+      }
+      pos += 8;
+    } while (isGzipMember(input, pos)); // like GZIPInputStream, ignore any trailing garbage
+    return length == result.length ? result : Arrays.copyOf(result, length);
+  }
+
+  /**
+   * Returns the size of the last member as written in its ISIZE trailer. As this is untrusted
+   * input, it is capped to a small multiple of the input length and {@link #MAX_INITIAL_SIZE}.
+   */
+  static int initialSize(byte[] input) {
+    if (input.length < 18) return 0; // smaller than an empty gzip member
+    long isize = readIntLe(input, input.length - 4) & 0xffffffffL;
+    long max = Math.min((long) input.length * MAX_INITIAL_RATIO, MAX_INITIAL_SIZE);
+    return (int) Math.min(isize, max);
+  }
+
+  /** Doubles the buffer length, as it is full and there's more to inflate. */
+  static int grow(int length) throws IOException {
+    if (length >= Integer.MAX_VALUE - 8) throw new ZipException("Inflated size is too large");
+    return (int) Math.min(Math.max(64L, length * 2L), Integer.MAX_VALUE - 8);
+  }
+
+  static boolean isGzipMember(byte[] input, int pos) {
+    return input.length - pos >= 18 && (input[pos] & 0xff) == 0x1f
+        && (input[pos + 1] & 0xff) == 0x8b;
+  }
+
+  /** Returns the position after the gzip header, which starts at the input position. */
+  static int skipHeader(byte[] input, int pos) throws IOException {
+    if (!isGzipMember(input, pos)) throw new ZipException("Not in GZIP format");
+    if (input[pos + 2] != 8) throw new ZipException("Unsupported compression method");
+    int flags = input[pos + 3] & 0xff;
+    pos += 10; // magic, method, flags, mtime, xfl and os
+    if ((flags & FEXTRA) != 0) {
+      if (input.length - pos < 2) throw new EOFException("Unexpected end of gzip header");
+      pos += 2 + ((input[pos] & 0xff) | (input[pos + 1] & 0xff) << 8);
     }
+    if ((flags & FNAME) != 0) pos = skipNulTerminated(input, pos);
+    if ((flags & FCOMMENT) != 0) pos = skipNulTerminated(input, pos);
+    if ((flags & FHCRC) != 0) pos += 2;
+    if (pos > input.length) throw new EOFException("Unexpected end of gzip header");
+    return pos;
+  }
+
+  static int skipNulTerminated(byte[] input, int pos) throws IOException {
+    while (pos < input.length) {
+      if (input[pos++] == 0) return pos;
+    }
+    throw new EOFException("Unexpected end of gzip header");
+  }
+
+  static int readIntLe(byte[] input, int pos) {
+    return (input[pos] & 0xff)
+        | (input[pos + 1] & 0xff) << 8
+        | (input[pos + 2] & 0xff) << 16
+        | (input[pos + 3] & 0xff) << 24;
   }
 }
@@ -14,13 +14,25 @@
 package zipkin2.server.internal;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -29,15 +41,28 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import zipkin2.Call;
+import zipkin2.Callback;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.codec.DependencyLinkBytesEncoder;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.Buffer;
+import zipkin2.internal.JsonCodec;
 import zipkin2.internal.Nullable;
+import zipkin2.internal.Proto3SpanWriter;
+import zipkin2.internal.V2SpanWriter;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.StorageComponent;
+import zipkin2.storage.TracePage;
+import zipkin2.storage.TraceSummary;
+import zipkin2.storage.TraceSummaryPage;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
@@ -45,13 +70,40 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 @RequestMapping("/api/v2")
 @ConditionalOnProperty(name = "zipkin.query.enabled", matchIfMissing = true)
 public class ZipkinQueryApiV2 {
-  static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final String APPLICATION_PROTOBUF_VALUE = "application/x-protobuf";
+  static final MediaType APPLICATION_PROTOBUF = MediaType.valueOf(APPLICATION_PROTOBUF_VALUE);
+  /** Size of the buffer encoded spans are staged in before they are written to the response */
+  static final int CHUNK_SIZE = 8192;
+  static final Buffer.Writer<Span> SPAN_WRITER = new V2SpanWriter();
+  static final Buffer.Writer<Span> PROTO3_SPAN_WRITER = new Proto3SpanWriter();
+  static final Buffer.Writer<TraceSummary> TRACE_SUMMARY_WRITER = new TraceSummaryWriter();
+  static final Buffer.Writer<DependencyLink> DEPENDENCY_LINK_WRITER =
+      new Buffer.Writer<DependencyLink>() {
+        @Override public int sizeInBytes(DependencyLink value) {
+          return DependencyLinkBytesEncoder.JSON_V1.sizeInBytes(value);
+        }
+
+        @Override public void write(DependencyLink value, Buffer buffer) {
+          buffer.write(DependencyLinkBytesEncoder.JSON_V1.encode(value));
+        }
+
+        @Override public String toString() {
+          return "DependencyLink";
+        }
+      };
 
   final String storageType;
   final StorageComponent storage; // don't cache spanStore here as it can cause the app to crash!
   final long defaultLookback;
   /** The Cache-Control max-age (seconds) for /api/v2/services and /api/v2/spans */
   final int namesMaxAge;
+  /** Null when disabled */
+  @Nullable final TraceCache traceCache;
+  final long timeoutMillis;
+  /** The maximum count of trace IDs accepted by /api/v2/traceMany */
+  final int maxTraceIds;
+  /** Null when storage calls have no timeout */
+  @Nullable final ScheduledExecutorService timeoutScheduler;
 
   volatile int serviceCount; // used as a threshold to start returning cache-control headers
 
@@ -59,42 +111,74 @@ public class ZipkinQueryApiV2 {
       StorageComponent storage,
       @Value("${zipkin.storage.type:mem}") String storageType,
       @Value("${zipkin.query.lookback:86400000}") long defaultLookback, // 1 day in millis
-      @Value("${zipkin.query.names-max-age:300}") int namesMaxAge // 5 minutes
+      @Value("${zipkin.query.names-max-age:300}") int namesMaxAge, // 5 minutes
+      @Value("${zipkin.query.trace-cache.max-bytes:0}") long traceCacheMaxBytes,
+      @Value("${zipkin.query.trace-cache.settle-millis:300000}") long traceCacheSettleMillis,
+      @Value("${zipkin.query.timeout-millis:0}") long timeoutMillis,
+      @Value("${zipkin.query.max-trace-ids:100}") int maxTraceIds
       ) {
     this.storage = storage;
     this.storageType = storageType;
     this.defaultLookback = defaultLookback;
     this.namesMaxAge = namesMaxAge;
+    this.traceCache = traceCacheMaxBytes > 0
+        ? new TraceCache(traceCacheSettleMillis, traceCacheMaxBytes)
+        : null;
+    this.timeoutMillis = timeoutMillis;
+    this.maxTraceIds = maxTraceIds;
+    if (timeoutMillis > 0) {
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "zipkin-query-timeout");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.setRemoveOnCancelPolicy(true); // most queries complete before their timeout
+      this.timeoutScheduler = scheduler;
+    } else {
+      this.timeoutScheduler = null;
+    }
+  }
+
+  @PreDestroy void close() {
+    if (timeoutScheduler != null) timeoutScheduler.shutdownNow();
   }
 
   @RequestMapping(
       value = "/dependencies",
       method = RequestMethod.GET,
       produces = APPLICATION_JSON_VALUE)
-  public byte[] getDependencies(
+  public DeferredResult<View> getDependencies(
       @RequestParam(value = "endTs", required = true) long endTs,
-      @Nullable @RequestParam(value = "lookback", required = false) Long lookback)
-      throws IOException {
+      @Nullable @RequestParam(value = "lookback", required = false) Long lookback) {
     Call<List<DependencyLink>> call =
         storage.spanStore().getDependencies(endTs, lookback != null ? lookback : defaultLookback);
-    return DependencyLinkBytesEncoder.JSON_V1.encodeList(call.execute());
+    return enqueue(call, (links, request, response) -> {
+      response.setContentType(APPLICATION_JSON_VALUE);
+      ChunkedWriter writer = new ChunkedWriter(response.getOutputStream(), CHUNK_SIZE);
+      writer.writeList(DEPENDENCY_LINK_WRITER, links);
+      writer.flush();
+    });
   }
 
   @RequestMapping(value = "/services", method = RequestMethod.GET)
-  public ResponseEntity<List<String>> getServiceNames() throws IOException {
-    List<String> serviceNames = storage.spanStore().getServiceNames().execute();
-    serviceCount = serviceNames.size();
-    return maybeCacheNames(serviceNames);
+  public DeferredResult<ResponseEntity<List<String>>> getServiceNames() {
+    return enqueue(storage.spanStore().getServiceNames(), serviceNames -> {
+      serviceCount = serviceNames.size();
+      return maybeCacheNames(serviceNames);
+    });
   }
 
   @RequestMapping(value = "/spans", method = RequestMethod.GET)
-  public ResponseEntity<List<String>> getSpanNames(
-      @RequestParam(value = "serviceName", required = true) String serviceName) throws IOException {
-    return maybeCacheNames(storage.spanStore().getSpanNames(serviceName).execute());
+  public DeferredResult<ResponseEntity<List<String>>> getSpanNames(
+      @RequestParam(value = "serviceName", required = true) String serviceName) {
+    return enqueue(storage.spanStore().getSpanNames(serviceName), this::maybeCacheNames);
   }
 
-  @RequestMapping(value = "/traces", method = RequestMethod.GET, produces = APPLICATION_JSON_VALUE)
-  public String getTraces(
+  @RequestMapping(
+      value = "/traces",
+      method = RequestMethod.GET,
+      produces = {APPLICATION_JSON_VALUE, APPLICATION_PROTOBUF_VALUE})
+  public DeferredResult<View> getTraces(
       @Nullable @RequestParam(value = "serviceName", required = false) String serviceName,
       @Nullable @RequestParam(value = "spanName", required = false) String spanName,
       @Nullable @RequestParam(value = "annotationQuery", required = false) String annotationQuery,
@@ -102,38 +186,242 @@ public class ZipkinQueryApiV2 {
       @Nullable @RequestParam(value = "maxDuration", required = false) Long maxDuration,
       @Nullable @RequestParam(value = "endTs", required = false) Long endTs,
       @Nullable @RequestParam(value = "lookback", required = false) Long lookback,
-      @RequestParam(value = "limit", defaultValue = "10") int limit)
-      throws IOException {
-    QueryRequest queryRequest =
-        QueryRequest.newBuilder()
-            .serviceName(serviceName)
-            .spanName(spanName)
-            .parseAnnotationQuery(annotationQuery)
-            .minDuration(minDuration)
-            .maxDuration(maxDuration)
-            .endTs(endTs != null ? endTs : System.currentTimeMillis())
-            .lookback(lookback != null ? lookback : defaultLookback)
-            .limit(limit)
-            .build();
-
-    List<List<Span>> traces = storage.spanStore().getTraces(queryRequest).execute();
-    return new String(writeTraces(SpanBytesEncoder.JSON_V2, traces), UTF_8);
+      @RequestParam(value = "limit", defaultValue = "10") int limit,
+      @Nullable @RequestParam(value = "cursor", required = false) String cursor,
+      WebRequest webRequest) {
+    QueryRequest queryRequest = queryRequest(serviceName, spanName, annotationQuery, minDuration,
+        maxDuration, endTs, lookback, limit, cursor);
+
+    Call<TracePage> call;
+    try {
+      call = storage.tracePages().getTracePage(queryRequest);
+    } catch (IllegalArgumentException e) { // malformed cursor
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+    boolean proto3 = prefersProto3(webRequest);
+    return enqueue(call, (page, request, response) -> {
+      maybeLinkNext(page.nextCursor(), request, response);
+
+      List<List<Span>> traces = page.traces();
+      if (proto3) {
+        response.setContentType(APPLICATION_PROTOBUF_VALUE);
+        ChunkedWriter writer = new ChunkedWriter(response.getOutputStream(), CHUNK_SIZE);
+        writer.writeProto3Traces(PROTO3_SPAN_WRITER, traces);
+        writer.flush();
+        return;
+      }
+      response.setContentType(APPLICATION_JSON_VALUE);
+      ChunkedWriter writer = new ChunkedWriter(response.getOutputStream(), CHUNK_SIZE);
+      writer.writeTraces(SPAN_WRITER, traces);
+      writer.flush();
+    });
+  }
+
+  /** Like {@link #getTraces}, except returns a summary of each trace instead of its spans. */
+  @RequestMapping(
+      value = "/traceSummaries",
+      method = RequestMethod.GET,
+      produces = APPLICATION_JSON_VALUE)
+  public DeferredResult<View> getTraceSummaries(
+      @Nullable @RequestParam(value = "serviceName", required = false) String serviceName,
+      @Nullable @RequestParam(value = "spanName", required = false) String spanName,
+      @Nullable @RequestParam(value = "annotationQuery", required = false) String annotationQuery,
+      @Nullable @RequestParam(value = "minDuration", required = false) Long minDuration,
+      @Nullable @RequestParam(value = "maxDuration", required = false) Long maxDuration,
+      @Nullable @RequestParam(value = "endTs", required = false) Long endTs,
+      @Nullable @RequestParam(value = "lookback", required = false) Long lookback,
+      @RequestParam(value = "limit", defaultValue = "10") int limit,
+      @Nullable @RequestParam(value = "cursor", required = false) String cursor) {
+    QueryRequest queryRequest = queryRequest(serviceName, spanName, annotationQuery, minDuration,
+        maxDuration, endTs, lookback, limit, cursor);
+
+    Call<TraceSummaryPage> call;
+    try {
+      call = storage.traceSummaryPages().getTraceSummaryPage(queryRequest);
+    } catch (IllegalArgumentException e) { // malformed cursor
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+    return enqueue(call, (page, request, response) -> {
+      maybeLinkNext(page.nextCursor(), request, response);
+
+      response.setContentType(APPLICATION_JSON_VALUE);
+      ChunkedWriter writer = new ChunkedWriter(response.getOutputStream(), CHUNK_SIZE);
+      writer.writeList(TRACE_SUMMARY_WRITER, page.summaries());
+      writer.flush();
+    });
+  }
+
+  /** Adds an RFC 8288 link to the next page, which is this request with the next cursor. */
+  static void maybeLinkNext(@Nullable String nextCursor, HttpServletRequest request,
+      HttpServletResponse response) {
+    if (nextCursor == null) return;
+    String next = ServletUriComponentsBuilder.fromRequest(request)
+        .replaceQueryParam("cursor", nextCursor)
+        .build()
+        .toUriString();
+    response.setHeader(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+  }
+
+  QueryRequest queryRequest(@Nullable String serviceName, @Nullable String spanName,
+      @Nullable String annotationQuery, @Nullable Long minDuration, @Nullable Long maxDuration,
+      @Nullable Long endTs, @Nullable Long lookback, int limit, @Nullable String cursor) {
+    return QueryRequest.newBuilder()
+        .serviceName(serviceName)
+        .spanName(spanName)
+        .parseAnnotationQuery(annotationQuery)
+        .minDuration(minDuration)
+        .maxDuration(maxDuration)
+        .endTs(endTs != null ? endTs : System.currentTimeMillis())
+        .lookback(lookback != null ? lookback : defaultLookback)
+        .limit(limit)
+        .cursor(cursor)
+        .build();
   }
 
   @RequestMapping(
       value = "/trace/{traceIdHex}",
       method = RequestMethod.GET,
+      produces = {APPLICATION_JSON_VALUE, APPLICATION_PROTOBUF_VALUE})
+  public DeferredResult<View> getTrace(@PathVariable String traceIdHex, WebRequest webRequest) {
+    if (prefersProto3(webRequest)) { // the trace cache only holds JSON
+      return enqueue(getTrace(traceIdHex), (trace, request, response) -> {
+        response.setContentType(APPLICATION_PROTOBUF_VALUE);
+        ChunkedWriter writer = new ChunkedWriter(response.getOutputStream(), CHUNK_SIZE);
+        writer.writeProto3List(PROTO3_SPAN_WRITER, trace);
+        writer.flush();
+      });
+    }
+    if (traceCache == null) return enqueue(getTrace(traceIdHex), ZipkinQueryApiV2::writeTrace);
+
+    String traceId = Span.normalizeTraceId(traceIdHex);
+    TraceCache.Entry cached = traceCache.get(traceId);
+    if (cached != null) {
+      if (webRequest.checkNotModified(cached.etag)) return null; // 304
+      DeferredResult<View> result = new DeferredResult<>();
+      result.setResult((model, request, response) -> writeCached(cached, response));
+      return result;
+    }
+
+    return enqueue(getTrace(traceIdHex), (trace, request, response) -> {
+      if (!traceCache.isSettled(trace, System.currentTimeMillis())) {
+        writeTrace(trace, request, response); // the trace may still change, so don't cache it
+        return;
+      }
+      TraceCache.Entry entry =
+          traceCache.put(traceId, SpanBytesEncoder.JSON_V2.encodeList(trace));
+      if (new ServletWebRequest(request, response).checkNotModified(entry.etag)) return; // 304
+      writeCached(entry, response);
+    });
+  }
+
+  Call<List<Span>> getTrace(String traceIdHex) {
+    return storage.spanStore().getTrace(traceIdHex).map(trace -> {
+      if (trace.isEmpty()) throw new TraceNotFoundException(traceIdHex);
+      return trace;
+    });
+  }
+
+  static void writeTrace(List<Span> trace, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    response.setContentType(APPLICATION_JSON_VALUE);
+    ChunkedWriter writer = new ChunkedWriter(response.getOutputStream(), CHUNK_SIZE);
+    writer.writeList(SPAN_WRITER, trace);
+    writer.flush();
+  }
+
+  static void writeCached(TraceCache.Entry cached, HttpServletResponse response)
+      throws IOException {
+    response.setContentType(APPLICATION_JSON_VALUE);
+    response.setContentLength(cached.json.length);
+    response.getOutputStream().write(cached.json);
+  }
+
+  /**
+   * Returns traces for the comma-separated trace IDs, omitting any not found. Requests with more
+   * than {@link #maxTraceIds} distinct IDs are rejected, as storage looks them up at once.
+   */
+  @RequestMapping(
+      value = "/traceMany",
+      method = RequestMethod.GET,
       produces = APPLICATION_JSON_VALUE)
-  public String getTrace(@PathVariable String traceIdHex, WebRequest request) throws IOException {
-    List<Span> trace = storage.spanStore().getTrace(traceIdHex).execute();
-    if (trace.isEmpty()) throw new TraceNotFoundException(traceIdHex);
-    return new String(SpanBytesEncoder.JSON_V2.encodeList(trace), UTF_8);
+  public DeferredResult<View> getTraceMany(
+      @RequestParam(value = "traceIds", required = true) String traceIds) {
+    Set<String> normalized = new LinkedHashSet<>();
+    for (String traceId : traceIds.split(",")) {
+      if (traceId.isEmpty()) continue;
+      try {
+        normalized.add(Span.normalizeTraceId(traceId));
+      } catch (IllegalArgumentException e) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+      }
+      if (normalized.size() > maxTraceIds) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+            "traceIds parameter has more than " + maxTraceIds + " IDs");
+      }
+    }
+    if (normalized.isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "traceIds parameter is empty");
+    }
+
+    return enqueue(storage.traces().getTraces(normalized), (traces, request, response) -> {
+      response.setContentType(APPLICATION_JSON_VALUE);
+      ChunkedWriter writer = new ChunkedWriter(response.getOutputStream(), CHUNK_SIZE);
+      writer.writeTraces(SPAN_WRITER, traces);
+      writer.flush();
+    });
+  }
+
+  /** Writes the response once the storage call completes. */
+  interface ResultWriter<V> {
+    void write(V result, HttpServletRequest request, HttpServletResponse response)
+        throws IOException;
+  }
+
+  /**
+   * Enqueues the storage call instead of blocking a server thread on it. The result is written
+   * when the request is re-dispatched, and errors are handled as if thrown by the handler method.
+   */
+  <V> DeferredResult<View> enqueue(Call<V> call, ResultWriter<V> writer) {
+    return enqueue(call, value -> (model, request, response) ->
+        writer.write(value, request, response));
+  }
+
+  /**
+   * Like {@link #enqueue(Call, ResultWriter)}, except the handler result is a function of the
+   * value, such as a {@link ResponseEntity}.
+   *
+   * <p>The call is canceled after the query timeout, if set, or when the container reports the
+   * client disconnected. This stops any remaining storage requests, so abandoned queries don't
+   * hold storage capacity. As servlet containers usually only notice a disconnect when writing the
+   * response, the timeout is what bounds an abandoned query.
+   */
+  <V, R> DeferredResult<R> enqueue(Call<V> call, Function<V, R> toResult) {
+    Call<V> timedCall = timeoutScheduler != null
+        ? call.timeout(timeoutMillis, TimeUnit.MILLISECONDS, timeoutScheduler)
+        : call;
+    DeferredResult<R> result = new DeferredResult<>(0L); // no timeout: the call has its own
+    result.onError(error -> timedCall.cancel()); // ex. the client disconnected
+    timedCall.enqueue(new Callback<V>() {
+      @Override public void onSuccess(V value) {
+        result.setResult(toResult.apply(value));
+      }
+
+      @Override public void onError(Throwable t) {
+        result.setErrorResult(t);
+      }
+    });
+    return result;
   }
 
   @ExceptionHandler(TraceNotFoundException.class)
   @ResponseStatus(HttpStatus.NOT_FOUND)
   public void notFound() {}
 
+  /** Storage didn't complete before the query timeout, or its own read timeout. */
+  @ExceptionHandler(InterruptedIOException.class)
+  @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+  public void timeout() {}
+
   static class TraceNotFoundException extends RuntimeException {
     TraceNotFoundException(String traceIdHex) {
       super("Cannot find trace " + traceIdHex);
@@ -153,31 +441,127 @@ public class ZipkinQueryApiV2 {
     return response.body(names);
   }
 
-  // This is inlined here as there isn't enough re-use to warrant it being in the zipkin2 library
-  static byte[] writeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
-    // Get the encoded size of the nested list so that we don't need to grow the buffer
-    int length = traces.size();
-    int sizeInBytes = 2; // []
-    if (length > 1) sizeInBytes += length - 1; // comma to join elements
-
-    for (int i = 0; i < length; i++) {
-      List<zipkin2.Span> spans = traces.get(i);
-      int jLength = spans.size();
-      sizeInBytes += 2; // []
-      if (jLength > 1) sizeInBytes += jLength - 1; // comma to join elements
-      for (int j = 0; j < jLength; j++) {
-        sizeInBytes += codec.sizeInBytes(spans.get(j));
+  /**
+   * Returns true when the most preferred media type in the accept header is protobuf. JSON remains
+   * the default, including for wildcards like {@code *}{@code /*}.
+   */
+  static boolean prefersProto3(WebRequest request) {
+    String accept = request.getHeader(HttpHeaders.ACCEPT);
+    if (accept == null) return false;
+    List<MediaType> mediaTypes;
+    try {
+      mediaTypes = MediaType.parseMediaTypes(accept);
+    } catch (InvalidMediaTypeException e) {
+      return false;
+    }
+    MediaType.sortBySpecificityAndQuality(mediaTypes);
+    for (MediaType mediaType : mediaTypes) {
+      if (mediaType.includes(MediaType.APPLICATION_JSON)) return false;
+      if (mediaType.includes(APPLICATION_PROTOBUF)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Encodes JSON or proto3 into a fixed-size chunk, which is written to the response whenever the
+   * next value doesn't fit. Unlike encoding the whole response up-front, garbage is bounded by the
+   * chunk size, not the size of the query result.
+   *
+   * <p>This is inlined here as there isn't enough re-use to warrant it being in the zipkin2 library
+   */
+  static final class ChunkedWriter {
+    /** Field one, length-delimited: the key of both ListOfSpans.spans and ListOfTraces.traces */
+    static final int PROTO3_LIST_KEY = (1 << 3) | 2;
+
+    final OutputStream out;
+    final byte[] chunk;
+    int pos;
+
+    ChunkedWriter(OutputStream out, int chunkSize) {
+      this.out = out;
+      this.chunk = new byte[chunkSize];
+    }
+
+    <T> void writeTraces(Buffer.Writer<T> writer, List<List<T>> traces) throws IOException {
+      writeByte('['); // start list of traces
+      for (int i = 0, length = traces.size(); i < length; ) {
+        writeList(writer, traces.get(i++));
+        if (i < length) writeByte(',');
       }
+      writeByte(']'); // stop list of traces
+    }
+
+    <T> void writeList(Buffer.Writer<T> writer, List<T> values) throws IOException {
+      writeByte('[');
+      for (int i = 0, length = values.size(); i < length; ) {
+        write(writer, values.get(i++));
+        if (i < length) writeByte(',');
+      }
+      writeByte(']');
+    }
+
+    /**
+     * Writes each trace as field one, length-delimited, whose value is a ListOfSpans. This is the
+     * encoding of a message "ListOfTraces" with "repeated ListOfSpans traces = 1".
+     */
+    void writeProto3Traces(Buffer.Writer<Span> writer, List<List<Span>> traces)
+        throws IOException {
+      for (int i = 0, length = traces.size(); i < length; i++) {
+        List<Span> trace = traces.get(i);
+        int sizeOfTrace = 0;
+        for (int j = 0, traceLength = trace.size(); j < traceLength; j++) {
+          sizeOfTrace += writer.sizeInBytes(trace.get(j));
+        }
+        writeByte(PROTO3_LIST_KEY);
+        writeVarint(sizeOfTrace); // length prefix
+        writeProto3List(writer, trace);
+      }
+    }
+
+    /** Proto3 repeated fields have no brackets or separators, so a ListOfSpans is the spans. */
+    void writeProto3List(Buffer.Writer<Span> writer, List<Span> spans) throws IOException {
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        write(writer, spans.get(i));
+      }
+    }
+
+    <T> void write(Buffer.Writer<T> writer, T value) throws IOException {
+      int sizeInBytes = writer.sizeInBytes(value);
+      if (sizeInBytes > chunk.length - pos) {
+        flushChunk();
+        if (sizeInBytes > chunk.length) { // too big for a chunk, so write it directly
+          out.write(JsonCodec.write(writer, value));
+          return;
+        }
+      }
+      Buffer b = new Buffer(chunk, pos);
+      writer.write(value, b);
+      pos = b.pos();
+    }
+
+    void writeByte(int b) throws IOException {
+      if (pos == chunk.length) flushChunk();
+      chunk[pos++] = (byte) b;
+    }
+
+    void writeVarint(int v) throws IOException {
+      while ((v & ~0x7f) != 0) {
+        writeByte((v & 0x7f) | 0x80);
+        v >>>= 7;
+      }
+      writeByte(v);
+    }
+
+    /** Writes any buffered bytes and flushes the underlying stream. */
+    void flush() throws IOException {
+      flushChunk();
+      out.flush();
     }
 
-    byte[] out = new byte[sizeInBytes];
-    int pos = 0;
-    out[pos++] = '['; // start list of traces
-    for (int i = 0; i < length; i++) {
-      pos += codec.encodeList(traces.get(i), out, pos);
-      if (i + 1 < length) out[pos++] = ',';
+    void flushChunk() throws IOException {
+      if (pos == 0) return;
+      out.write(chunk, 0, pos);
+      pos = 0;
     }
-    out[pos] = ']'; // stop list of traces
-    return out;
   }
 }
@@ -14,8 +14,15 @@
 package zipkin2.server.internal;
 
 import brave.Tracing;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import io.micrometer.core.instrument.config.MeterFilter;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,6 +30,7 @@ import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
 import org.springframework.boot.actuate.health.HealthAggregator;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.embedded.undertow.UndertowDeploymentInfoCustomizer;
 import org.springframework.boot.web.embedded.undertow.UndertowServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
@@ -135,6 +143,87 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     }
   }
 
+  @Configuration
+  @ConditionalOnProperty(name = "zipkin.storage.streaming-dependencies.enabled",
+      havingValue = "true")
+  static class StreamingDependenciesEnhancer implements BeanPostProcessor {
+
+    @Value("${zipkin.storage.streaming-dependencies.quiet-period-millis:30000}")
+    long quietPeriodMillis;
+
+    @Value("${zipkin.storage.streaming-dependencies.retention-millis:86400000}")
+    long retentionMillis;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+      return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (bean instanceof StorageComponent) {
+        return new StreamingDependenciesStorageComponent(
+            (StorageComponent) bean, quietPeriodMillis, retentionMillis);
+      }
+      return bean;
+    }
+  }
+
+  /**
+   * Wraps storage with a names cache. Metrics are bound as a {@link MeterBinder} instead of
+   * autowiring the registry, which would initialize it before other post-processors.
+   */
+  @Configuration
+  @ConditionalOnProperty(name = "zipkin.query.names-cache.enabled", havingValue = "true")
+  static class CachingNamesEnhancer implements BeanPostProcessor, MeterBinder {
+
+    @Value("${zipkin.query.names-cache.ttl-millis:60000}")
+    long ttlMillis;
+
+    @Value("${zipkin.query.names-cache.max-size:1000}")
+    int maxSize;
+
+    final List<CachingNamesStorageComponent> caches = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+      return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (!(bean instanceof StorageComponent)) return bean;
+      CachingNamesStorageComponent result =
+          new CachingNamesStorageComponent((StorageComponent) bean, ttlMillis, maxSize);
+      caches.add(result);
+      return result;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+      FunctionCounter.builder(
+              "zipkin_query.names_cache.hits", this, CachingNamesEnhancer::hitCount)
+          .description("cumulative service and span name queries served from the cache")
+          .register(registry);
+      FunctionCounter.builder(
+              "zipkin_query.names_cache.misses", this, CachingNamesEnhancer::missCount)
+          .description("cumulative service and span name queries loaded from storage")
+          .register(registry);
+    }
+
+    long hitCount() {
+      long result = 0L;
+      for (CachingNamesStorageComponent cache : caches) result += cache.hitCount();
+      return result;
+    }
+
+    long missCount() {
+      long result = 0L;
+      for (CachingNamesStorageComponent cache : caches) result += cache.missCount();
+      return result;
+    }
+  }
+
   /**
    * This is a special-case configuration if there's no StorageComponent of any kind. In-Mem can
    * supply both read apis, so we add two beans here.
@@ -147,12 +236,46 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     StorageComponent storage(
         @Value("${zipkin.storage.strict-trace-id:true}") boolean strictTraceId,
         @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled,
-        @Value("${zipkin.storage.mem.max-spans:500000}") int maxSpans) {
-      return InMemoryStorage.newBuilder()
+        @Value("${zipkin.storage.mem.max-spans:500000}") int maxSpans,
+        @Value("${zipkin.storage.mem.max-bytes:0}") long maxBytes,
+        Optional<InMemorySnapshots> snapshots,
+        MeterRegistry registry) {
+      InMemoryStorage result = InMemoryStorage.newBuilder()
           .strictTraceId(strictTraceId)
           .searchEnabled(searchEnabled)
           .maxSpanCount(maxSpans)
+          .maxBytes(maxBytes)
           .build();
+      Gauge.builder("zipkin_storage.mem.spans", result, InMemoryStorage::spanCount)
+          .description("count of spans in memory")
+          .register(registry);
+      Gauge.builder("zipkin_storage.mem.bytes", result, InMemoryStorage::bytes)
+          .description("estimated size of spans in memory")
+          .baseUnit("bytes")
+          .register(registry);
+      FunctionCounter.builder(
+              "zipkin_storage.mem.spans_evicted", result, InMemoryStorage::evictedSpanCount)
+          .description("cumulative amount of spans removed to stay within capacity")
+          .register(registry);
+      snapshots.ifPresent(s -> s.start(result));
+      return result;
+    }
+
+    @Bean
+    @Conditional(SnapshotFileSet.class)
+    InMemorySnapshots inMemorySnapshots(
+        @Value("${zipkin.storage.mem.snapshot-file}") String snapshotFile,
+        @Value("${zipkin.storage.mem.snapshot-interval-millis:60000}") long intervalMillis) {
+      return new InMemorySnapshots(Paths.get(snapshotFile), intervalMillis);
+    }
+  }
+
+  static final class SnapshotFileSet implements Condition {
+    @Override
+    public boolean matches(ConditionContext condition, AnnotatedTypeMetadata ignored) {
+      String snapshotFile =
+          condition.getEnvironment().getProperty("zipkin.storage.mem.snapshot-file");
+      return snapshotFile != null && !snapshotFile.trim().isEmpty();
     }
   }
 
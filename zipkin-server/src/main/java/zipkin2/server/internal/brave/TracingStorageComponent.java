@@ -24,6 +24,13 @@ import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.StorageComponent;
+import zipkin2.storage.TracePage;
+import zipkin2.storage.TracePages;
+import zipkin2.storage.TraceSummaries;
+import zipkin2.storage.TraceSummary;
+import zipkin2.storage.TraceSummaryPage;
+import zipkin2.storage.TraceSummaryPages;
+import zipkin2.storage.Traces;
 
 // public for use in ZipkinServerConfiguration
 public final class TracingStorageComponent extends StorageComponent {
@@ -40,6 +47,26 @@ public final class TracingStorageComponent extends StorageComponent {
     return new TracingSpanStore(tracing, delegate.spanStore());
   }
 
+  @Override
+  public Traces traces() {
+    return new TracingTraces(tracing, delegate.traces());
+  }
+
+  @Override
+  public TraceSummaries traceSummaries() {
+    return new TracingTraceSummaries(tracing, delegate.traceSummaries());
+  }
+
+  @Override
+  public TracePages tracePages() {
+    return new TracingTracePages(tracing, delegate.tracePages());
+  }
+
+  @Override
+  public TraceSummaryPages traceSummaryPages() {
+    return new TracingTraceSummaryPages(tracing, delegate.traceSummaryPages());
+  }
+
   @Override
   public SpanConsumer spanConsumer() {
     // prevents accidental write amplification
@@ -86,4 +113,71 @@ public final class TracingStorageComponent extends StorageComponent {
           tracer, delegate.getDependencies(endTs, lookback), "get-dependencies");
     }
   }
+
+  static final class TracingTraces implements Traces {
+    private final Tracer tracer;
+    private final Traces delegate;
+
+    TracingTraces(Tracing tracing, Traces delegate) {
+      this.tracer = tracing.tracer();
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Call<List<Span>> getTrace(String traceId) {
+      return new TracedCall<>(tracer, delegate.getTrace(traceId), "get-trace");
+    }
+
+    @Override
+    public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+      return new TracedCall<>(tracer, delegate.getTraces(traceIds), "get-traces-by-ids");
+    }
+  }
+
+  static final class TracingTraceSummaries implements TraceSummaries {
+    private final Tracer tracer;
+    private final TraceSummaries delegate;
+
+    TracingTraceSummaries(Tracing tracing, TraceSummaries delegate) {
+      this.tracer = tracing.tracer();
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Call<List<TraceSummary>> getTraceSummaries(QueryRequest request) {
+      return new TracedCall<>(
+          tracer, delegate.getTraceSummaries(request), "get-trace-summaries");
+    }
+  }
+
+  static final class TracingTracePages implements TracePages {
+    private final Tracer tracer;
+    private final TracePages delegate;
+
+    TracingTracePages(Tracing tracing, TracePages delegate) {
+      this.tracer = tracing.tracer();
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Call<TracePage> getTracePage(QueryRequest request) {
+      return new TracedCall<>(tracer, delegate.getTracePage(request), "get-trace-page");
+    }
+  }
+
+  static final class TracingTraceSummaryPages implements TraceSummaryPages {
+    private final Tracer tracer;
+    private final TraceSummaryPages delegate;
+
+    TracingTraceSummaryPages(Tracing tracing, TraceSummaryPages delegate) {
+      this.tracer = tracing.tracer();
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Call<TraceSummaryPage> getTraceSummaryPage(QueryRequest request) {
+      return new TracedCall<>(
+          tracer, delegate.getTraceSummaryPage(request), "get-trace-summary-page");
+    }
+  }
 }
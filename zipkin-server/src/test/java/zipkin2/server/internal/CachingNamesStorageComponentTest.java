@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.server.internal.CachingNamesStorageComponent.CachedNamesCall;
+import zipkin2.server.internal.CachingNamesStorageComponent.NamesCache;
+import zipkin2.storage.InMemoryStorage;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class CachingNamesStorageComponentTest {
+  AtomicInteger loads = new AtomicInteger();
+  AtomicLong nanoTime = new AtomicLong();
+  List<Runnable> refreshes = new ArrayList<>();
+
+  NamesCache cache = new NamesCache(
+      key -> Call.create(asList(key + loads.incrementAndGet())), 1000L, 2, refreshes::add);
+
+  {
+    cache.nanoTime = nanoTime::get;
+  }
+
+  @Test public void missThenHit() throws IOException {
+    assertThat(cache.get("frontend")).containsExactly("frontend1");
+    assertThat(cache.get("frontend")).containsExactly("frontend1");
+
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(cache.misses.get()).isEqualTo(1);
+    assertThat(cache.hits.get()).isEqualTo(1);
+  }
+
+  @Test public void servesStaleWhileRefreshing() throws IOException {
+    cache.get("frontend");
+    nanoTime.addAndGet(1000L);
+
+    // the first request after the TTL schedules one refresh, and both get the stale value
+    assertThat(cache.get("frontend")).containsExactly("frontend1");
+    assertThat(cache.get("frontend")).containsExactly("frontend1");
+    assertThat(refreshes).hasSize(1);
+
+    refreshes.get(0).run();
+    assertThat(cache.get("frontend")).containsExactly("frontend2");
+  }
+
+  @Test public void failedRefreshKeepsStaleValue() throws IOException {
+    AtomicInteger calls = new AtomicInteger();
+    NamesCache cache = new NamesCache(key -> {
+      if (calls.incrementAndGet() > 1) throw new IllegalStateException("storage is down");
+      return Call.create(asList("frontend"));
+    }, 1000L, 2, Runnable::run);
+    cache.nanoTime = nanoTime::get;
+
+    cache.get("frontend");
+    nanoTime.addAndGet(1000L);
+
+    assertThat(cache.get("frontend")).containsExactly("frontend");
+    assertThat(cache.get("frontend")).containsExactly("frontend");
+    assertThat(calls.get()).isEqualTo(3); // each stale read tried to refresh
+  }
+
+  @Test public void failedLoadIsNotCached() throws IOException {
+    AtomicInteger calls = new AtomicInteger();
+    NamesCache cache = new NamesCache(key -> {
+      if (calls.incrementAndGet() == 1) throw new IllegalStateException("storage is down");
+      return Call.create(asList("frontend"));
+    }, 1000L, 2, Runnable::run);
+
+    try {
+      cache.get("frontend");
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException expected) {
+    }
+
+    assertThat(cache.get("frontend")).containsExactly("frontend");
+    assertThat(cache.entries).hasSize(1);
+  }
+
+  @Test public void enqueue_missDoesntBlockOnStorage() {
+    List<PendingCall> calls = new ArrayList<>();
+    NamesCache cache = new NamesCache(key -> {
+      PendingCall call = new PendingCall();
+      calls.add(call);
+      return call;
+    }, 1000L, 2, Runnable::run);
+    List<List<String>> results = new ArrayList<>();
+
+    // concurrent misses share one load, and return before it completes
+    new CachedNamesCall(cache, "frontend").enqueue(callback(results));
+    new CachedNamesCall(cache, "frontend").enqueue(callback(results));
+    assertThat(calls).hasSize(1);
+    assertThat(results).isEmpty();
+
+    calls.get(0).callback.onSuccess(asList("get"));
+    assertThat(results).containsExactly(asList("get"), asList("get"));
+  }
+
+  @Test public void cancel_cancelsLoadWhenNoOtherCallerIsWaiting() {
+    List<PendingCall> calls = new ArrayList<>();
+    NamesCache cache = new NamesCache(key -> {
+      PendingCall call = new PendingCall();
+      calls.add(call);
+      return call;
+    }, 1000L, 2, Runnable::run);
+    List<List<String>> results = new ArrayList<>();
+
+    Call<List<String>> first = new CachedNamesCall(cache, "frontend");
+    first.enqueue(callback(results));
+    new CachedNamesCall(cache, "frontend").enqueue(callback(results));
+
+    first.cancel();
+    assertThat(calls.get(0).isCanceled()).isFalse(); // the other caller is still waiting
+
+    calls.get(0).callback.onSuccess(asList("get"));
+    assertThat(results).containsExactly(asList("get"));
+
+    Call<List<String>> only = new CachedNamesCall(cache, "backend");
+    only.enqueue(callback(results));
+    only.cancel();
+    assertThat(calls.get(1).isCanceled()).isTrue();
+    assertThat(cache.entries.keySet()).containsExactly("frontend");
+  }
+
+  @Test public void evictsLeastRecentlyUsed() throws IOException {
+    cache.get("frontend");
+    cache.get("backend");
+    cache.get("frontend"); // backend is now least recently used
+    cache.get("db");
+
+    assertThat(cache.entries.keySet()).containsExactly("frontend", "db");
+  }
+
+  @Test public void spanNames_keyedOnLowercaseServiceName() throws IOException {
+    CachingNamesStorageComponent storage =
+        new CachingNamesStorageComponent(InMemoryStorage.newBuilder().build(), 60000L, 10);
+    try {
+      storage.spanStore().getSpanNames("Frontend").execute();
+      storage.spanStore().getSpanNames("frontend").execute();
+
+      assertThat(storage.missCount()).isEqualTo(1);
+      assertThat(storage.hitCount()).isEqualTo(1);
+      assertThat(storage.spanNames.entries.keySet()).containsExactly("frontend");
+    } finally {
+      storage.close();
+    }
+  }
+
+  static Callback<List<String>> callback(List<List<String>> results) {
+    return new Callback<List<String>>() {
+      @Override public void onSuccess(List<String> value) {
+        results.add(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        throw new AssertionError(t);
+      }
+    };
+  }
+
+  /** A storage call that completes when the test invokes its callback. */
+  static final class PendingCall extends Call.Base<List<String>> {
+    Callback<List<String>> callback;
+
+    @Override protected List<String> doExecute() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override protected void doEnqueue(Callback<List<String>> callback) {
+      this.callback = callback;
+    }
+
+    @Override public Call<List<String>> clone() {
+      return new PendingCall();
+    }
+  }
+}
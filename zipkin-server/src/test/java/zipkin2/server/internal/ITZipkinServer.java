@@ -14,6 +14,7 @@
 package zipkin2.server.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import okhttp3.MediaType;
@@ -34,6 +35,7 @@ import zipkin.server.ZipkinServer;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.TestObjects;
+import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.storage.InMemoryStorage;
 
@@ -92,6 +94,155 @@ public class ITZipkinServer {
       .isEqualTo("[" + new String(message, UTF_8) + "]");
   }
 
+  /** The response is streamed in chunks, so make sure traces larger than a chunk are intact */
+  @Test public void getTrace_largerThanChunk() throws Exception {
+    List<Span> trace = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      trace.add(TestObjects.CLIENT_SPAN.toBuilder().id(i + 1).build());
+    }
+    assertThat(SpanBytesEncoder.JSON_V2.encodeList(trace).length)
+      .isGreaterThan(ZipkinQueryApiV2.CHUNK_SIZE);
+    storage.accept(trace).execute();
+
+    Response response = get("/api/v2/trace/" + TestObjects.CLIENT_SPAN.traceId());
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.header("Content-Type")).startsWith("application/json");
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(response.body().bytes()))
+      .containsExactlyInAnyOrderElementsOf(trace);
+  }
+
+  @Test public void getTrace_proto3() throws Exception {
+    storage.accept(TestObjects.TRACE).execute();
+
+    Response response =
+      get("/api/v2/trace/" + TestObjects.CLIENT_SPAN.traceId(), "application/x-protobuf");
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.header("Content-Type")).startsWith("application/x-protobuf");
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(response.body().bytes()))
+      .containsExactlyInAnyOrderElementsOf(TestObjects.TRACE);
+  }
+
+  @Test public void getTraces_proto3() throws Exception {
+    storage.accept(TestObjects.TRACE).execute();
+
+    Response response = get("/api/v2/traces?endTs=" + (TODAY + 1000L), "application/x-protobuf");
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.header("Content-Type")).startsWith("application/x-protobuf");
+
+    // ListOfTraces: each trace is field 1, length-delimited, containing a ListOfSpans
+    Buffer buffer = new Buffer().write(response.body().bytes());
+    assertThat(buffer.readByte()).isEqualTo((byte) 0x0a);
+    long length = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer.readByte();
+      length |= (b & 0x7fL) << shift;
+      if ((b & 0x80) == 0) break;
+    }
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(buffer.readByteArray(length)))
+      .containsExactlyInAnyOrderElementsOf(TestObjects.TRACE);
+    assertThat(buffer.exhausted()).isTrue();
+  }
+
+  @Test public void getTrace_prefersJsonUnlessProtobufIsMostPreferred() throws Exception {
+    storage.accept(TestObjects.TRACE).execute();
+    String path = "/api/v2/trace/" + TestObjects.CLIENT_SPAN.traceId();
+
+    assertThat(get(path, "*/*").header("Content-Type")).startsWith("application/json");
+    assertThat(get(path, "application/x-protobuf;q=0.5, application/json").header("Content-Type"))
+      .startsWith("application/json");
+    assertThat(get(path, "application/json;q=0.5, application/x-protobuf").header("Content-Type"))
+      .startsWith("application/x-protobuf");
+  }
+
+  @Test public void getTraces_linksToNextPage() throws Exception {
+    Span otherTrace = TestObjects.CLIENT_SPAN.toBuilder().traceId("1").id("2")
+      .timestamp(TestObjects.CLIENT_SPAN.timestampAsLong() + 1000L).build();
+    storage.accept(Arrays.asList(TestObjects.CLIENT_SPAN, otherTrace)).execute();
+
+    Response response = get("/api/v2/traces?limit=1&endTs=" + (TODAY + 1000L));
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.body().string()).isEqualTo("["
+      + new String(SpanBytesEncoder.JSON_V2.encodeList(Arrays.asList(otherTrace)), UTF_8) + "]");
+
+    String link = response.header("Link");
+    assertThat(link).endsWith(">; rel=\"next\"");
+    Response nextPage = client.newCall(new Request.Builder()
+      .url(link.substring(1, link.indexOf('>')))
+      .build()).execute();
+    assertThat(nextPage.body().string()).isEqualTo(
+      "[" + new String(SpanBytesEncoder.JSON_V2.encodeList(TRACE), UTF_8) + "]");
+  }
+
+  @Test public void getTraces_malformedCursorIsBadRequest() throws Exception {
+    assertThat(get("/api/v2/traces?cursor=hello").code()).isEqualTo(400);
+  }
+
+  @Test public void getTraceMany() throws Exception {
+    Span otherTrace = TestObjects.CLIENT_SPAN.toBuilder().traceId("1").id("2").build();
+    storage.accept(Arrays.asList(TestObjects.CLIENT_SPAN, otherTrace)).execute();
+
+    Response response =
+      get("/api/v2/traceMany?traceIds=" + TestObjects.CLIENT_SPAN.traceId() + ",1,2");
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.body().string()).isEqualTo("["
+      + new String(SpanBytesEncoder.JSON_V2.encodeList(TRACE), UTF_8) + ","
+      + new String(SpanBytesEncoder.JSON_V2.encodeList(Arrays.asList(otherTrace)), UTF_8) + "]");
+  }
+
+  @Test public void getTraceSummaries() throws Exception {
+    storage.accept(TestObjects.TRACE).execute();
+
+    Response response =
+      get("/api/v2/traceSummaries?serviceName=frontend&endTs=" + (TODAY + 1000L));
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.body().string()).isEqualTo("[{"
+      + "\"traceId\":\"" + TestObjects.CLIENT_SPAN.traceId() + "\","
+      + "\"rootSpanName\":\"get\","
+      + "\"timestamp\":" + TODAY * 1000L + ","
+      + "\"duration\":350000,"
+      + "\"spanCount\":4,"
+      + "\"serviceNames\":[\"backend\",\"db\",\"frontend\"],"
+      + "\"error\":true"
+      + "}]");
+  }
+
+  @Test public void getTraceSummaries_linksToNextPage() throws Exception {
+    Span otherTrace = TestObjects.CLIENT_SPAN.toBuilder().traceId("1").id("2")
+      .timestamp(TestObjects.CLIENT_SPAN.timestampAsLong() + 1000L).build();
+    storage.accept(Arrays.asList(TestObjects.CLIENT_SPAN, otherTrace)).execute();
+
+    Response response = get("/api/v2/traceSummaries?limit=1&endTs=" + (TODAY + 1000L));
+    assertThat(response.isSuccessful()).isTrue();
+    assertThat(response.body().string()).contains("\"traceId\":\"0000000000000001\"");
+
+    String link = response.header("Link");
+    assertThat(link).endsWith(">; rel=\"next\"");
+    Response nextPage = client.newCall(new Request.Builder()
+      .url(link.substring(1, link.indexOf('>')))
+      .build()).execute();
+    assertThat(nextPage.body().string())
+      .contains("\"traceId\":\"" + TestObjects.CLIENT_SPAN.traceId() + "\"")
+      .doesNotContain("\"traceId\":\"0000000000000001\"");
+  }
+
+  @Test public void getTraceSummaries_malformedCursorIsBadRequest() throws Exception {
+    assertThat(get("/api/v2/traceSummaries?cursor=hello").code()).isEqualTo(400);
+  }
+
+  @Test public void getTraceMany_badRequest() throws Exception {
+    assertThat(get("/api/v2/traceMany?traceIds=,").code()).isEqualTo(400);
+    assertThat(get("/api/v2/traceMany?traceIds=hello").code()).isEqualTo(400);
+  }
+
+  @Test public void getTraceMany_tooManyTraceIdsIsBadRequest() throws Exception {
+    StringBuilder traceIds = new StringBuilder("1");
+    for (int i = 2; i <= 100; i++) traceIds.append(',').append(Integer.toHexString(i));
+    assertThat(get("/api/v2/traceMany?traceIds=" + traceIds).code()).isEqualTo(200);
+
+    traceIds.append(",").append(Integer.toHexString(101)); // one more than the default maximum
+    assertThat(get("/api/v2/traceMany?traceIds=" + traceIds).code()).isEqualTo(400);
+  }
+
   @Test public void writeSpans_malformedJsonIsBadRequest() throws Exception {
     byte[] body = {'h', 'e', 'l', 'l', 'o'};
 
@@ -150,6 +301,36 @@ public class ITZipkinServer {
 
     assertThat(response.code())
       .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    assertThat(storage.getTrace(TRACE.get(0).traceId()).execute())
+      .containsExactlyInAnyOrderElementsOf(TRACE);
+  }
+
+  /** Bodies too large for a pooled buffer are read into an array instead */
+  @Test public void writeSpans_contentTypeXProtobuf_largerThanBuffer() throws Exception {
+    List<Span> trace = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      trace.add(TestObjects.CLIENT_SPAN.toBuilder().id(i + 1).build());
+    }
+    byte[] message = SpanBytesEncoder.PROTO3.encodeList(trace);
+    assertThat(message.length).isGreaterThan(64 * 1024);
+
+    Response response = client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + "/api/v2/spans")
+      .post(RequestBody.create(MediaType.parse("application/x-protobuf"), message))
+      .build()).execute();
+
+    assertThat(response.code())
+      .isEqualTo(202);
+
+    // sleep as the the storage operation is async
+    Thread.sleep(1500);
+
+    assertThat(storage.getTrace(trace.get(0).traceId()).execute())
+      .hasSize(trace.size());
   }
 
   @Test public void writeSpans_malformedProto3IsBadRequest() throws Exception {
@@ -260,6 +441,13 @@ public class ITZipkinServer {
       .build()).execute();
   }
 
+  private Response get(String path, String accept) throws IOException {
+    return client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + path)
+      .header("Accept", accept)
+      .build()).execute();
+  }
+
   private Response post(String path, byte[] body) throws IOException {
     return client.newCall(new Request.Builder()
       .url("http://localhost:" + zipkinPort + path)
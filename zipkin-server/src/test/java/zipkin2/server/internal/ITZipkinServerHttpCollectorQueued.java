@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.context.junit4.SpringRunner;
+import zipkin.server.ZipkinServer;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+
+/**
+ * When queueing and batching, the response to a POST is sent once storage completes, on another
+ * thread. Storage calls in this test complete only when the test releases them.
+ */
+@SpringBootTest(
+  classes = {ZipkinServer.class, ITZipkinServerHttpCollectorQueued.HeldStorageConfiguration.class},
+  webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+  properties = {
+    "spring.config.name=zipkin-server",
+    "zipkin.collector.queued-max-spans=1",
+    "zipkin.collector.storage-concurrency=1",
+    "zipkin.collector.batch-max-spans=100"
+  }
+)
+@RunWith(SpringRunner.class)
+public class ITZipkinServerHttpCollectorQueued {
+  @Autowired HeldStorage storage;
+  @Value("${local.server.port}") int zipkinPort;
+
+  OkHttpClient client = new OkHttpClient.Builder().followRedirects(false).build();
+
+  @After public void releaseStorage() {
+    Callback<Void> held;
+    while ((held = storage.held.poll()) != null) held.onSuccess(null);
+  }
+
+  @Test public void respondsAfterStorage_json() throws Exception {
+    respondsAfterStorage(null, SpanBytesEncoder.JSON_V2);
+  }
+
+  /** Proto3 bodies are read from a pooled buffer instead of by Undertow's receiver */
+  @Test public void respondsAfterStorage_proto3() throws Exception {
+    respondsAfterStorage("application/x-protobuf", SpanBytesEncoder.PROTO3);
+  }
+
+  void respondsAfterStorage(String contentType, SpanBytesEncoder encoder) throws Exception {
+    CompletableFuture<Response> response =
+      postAsync(contentType, encoder.encodeList(Arrays.asList(LOTS_OF_SPANS[0])));
+
+    Callback<Void> held = storage.held.poll(5, TimeUnit.SECONDS);
+    assertThat(held).isNotNull();
+    assertThat(response).isNotDone();
+
+    held.onSuccess(null);
+    assertThat(response.get(5, TimeUnit.SECONDS).code())
+      .isEqualTo(202);
+  }
+
+  @Test public void overCapacityIs503() throws Exception {
+    CompletableFuture<Response> first =
+      postAsync(null, SpanBytesEncoder.JSON_V2.encodeList(Arrays.asList(LOTS_OF_SPANS[0])));
+    Callback<Void> held = storage.held.poll(5, TimeUnit.SECONDS);
+    assertThat(held).isNotNull();
+
+    // Two spans can't wait behind the one in flight, and are rejected when the batch flushes
+    Response rejected = postAsync(null, SpanBytesEncoder.JSON_V2.encodeList(
+      Arrays.asList(LOTS_OF_SPANS[1], LOTS_OF_SPANS[2]))).get(5, TimeUnit.SECONDS);
+    assertThat(rejected.code()).isEqualTo(503);
+    assertThat(rejected.body().string()).startsWith("Over capacity storing spans");
+
+    held.onSuccess(null);
+    assertThat(first.get(5, TimeUnit.SECONDS).code())
+      .isEqualTo(202);
+  }
+
+  CompletableFuture<Response> postAsync(String contentType, byte[] body) {
+    CompletableFuture<Response> result = new CompletableFuture<>();
+    MediaType mediaType = contentType != null ? MediaType.parse(contentType) : null;
+    client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + "/api/v2/spans")
+      .post(RequestBody.create(mediaType, body))
+      .build()).enqueue(new okhttp3.Callback() {
+      @Override public void onFailure(okhttp3.Call call, IOException e) {
+        result.completeExceptionally(e);
+      }
+
+      @Override public void onResponse(okhttp3.Call call, Response response) {
+        result.complete(response);
+      }
+    });
+    return result;
+  }
+
+  @Configuration
+  static class HeldStorageConfiguration {
+    @Bean @Primary HeldStorage heldStorage() {
+      return new HeldStorage();
+    }
+  }
+
+  static final class HeldStorage extends StorageComponent {
+    final StorageComponent delegate = InMemoryStorage.newBuilder().build();
+    final BlockingQueue<Callback<Void>> held = new LinkedBlockingQueue<>();
+
+    @Override public SpanStore spanStore() {
+      return delegate.spanStore();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> new Call.Base<Void>() {
+        @Override protected Void doExecute() {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override protected void doEnqueue(Callback<Void> callback) {
+          held.add(callback);
+        }
+
+        @Override public Call<Void> clone() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
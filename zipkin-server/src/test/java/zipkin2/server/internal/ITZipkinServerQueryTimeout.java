@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.context.junit4.SpringRunner;
+import zipkin.server.ZipkinServer;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/** Storage calls in this test never complete, so all queries end by timeout or cancelation. */
+@SpringBootTest(
+  classes = {ZipkinServer.class, ITZipkinServerQueryTimeout.SlowStorageConfiguration.class},
+  webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+  properties = {
+    "spring.config.name=zipkin-server",
+    "zipkin.query.timeout-millis=1000"
+  }
+)
+@RunWith(SpringRunner.class)
+public class ITZipkinServerQueryTimeout {
+  @Autowired SlowStorage storage;
+  @Value("${local.server.port}") int zipkinPort;
+
+  OkHttpClient client = new OkHttpClient.Builder().followRedirects(false).build();
+
+  @Test public void getDependencies_timeoutIs504() throws Exception {
+    assertThat(get(client, "/api/v2/dependencies?endTs=" + System.currentTimeMillis()).code())
+      .isEqualTo(504);
+
+    assertThat(storage.lastCall.get().canceled.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void getTraces_timeoutIs504() throws Exception {
+    assertThat(get(client, "/api/v2/traces").code())
+      .isEqualTo(504);
+
+    assertThat(storage.lastCall.get().canceled.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  /** Names are also queried on the deadline, not only when they are cached. */
+  @Test public void getServiceNames_timeoutIs504() throws Exception {
+    assertThat(get(client, "/api/v2/services").code())
+      .isEqualTo(504);
+
+    assertThat(storage.lastCall.get().canceled.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void getSpanNames_timeoutIs504() throws Exception {
+    assertThat(get(client, "/api/v2/spans?serviceName=frontend").code())
+      .isEqualTo(504);
+
+    assertThat(storage.lastCall.get().canceled.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  /** A client that gives up shouldn't leave the query running in storage. */
+  @Test public void getTraces_disconnectCancelsQuery() throws Exception {
+    OkHttpClient impatient = client.newBuilder().readTimeout(100, TimeUnit.MILLISECONDS).build();
+    try {
+      get(impatient, "/api/v2/traces");
+      failBecauseExceptionWasNotThrown(InterruptedIOException.class);
+    } catch (InterruptedIOException expected) { // the client disconnects
+    }
+
+    // canceled once the server notices the disconnect, or at the latest by the query timeout
+    assertThat(storage.lastCall.get().canceled.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  Response get(OkHttpClient client, String path) throws IOException {
+    return client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + path)
+      .build()).execute();
+  }
+
+  @Configuration
+  static class SlowStorageConfiguration {
+    @Bean @Primary SlowStorage slowStorage() {
+      return new SlowStorage();
+    }
+  }
+
+  static final class SlowStorage extends StorageComponent implements SpanStore {
+    final AtomicReference<SlowCall<?>> lastCall = new AtomicReference<>();
+
+    @Override public SpanStore spanStore() {
+      return this;
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> Call.create(null);
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return slowCall();
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      return slowCall();
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return slowCall();
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      return slowCall();
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return slowCall();
+    }
+
+    <V> Call<V> slowCall() {
+      SlowCall<V> result = new SlowCall<>();
+      lastCall.set(result);
+      return result;
+    }
+  }
+
+  /** A call that only completes when canceled. */
+  static final class SlowCall<V> extends Call.Base<V> {
+    final CountDownLatch canceled = new CountDownLatch(1);
+
+    @Override protected V doExecute() throws IOException {
+      try {
+        canceled.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw new IOException("Canceled");
+    }
+
+    @Override protected void doEnqueue(Callback<V> callback) {
+    }
+
+    @Override protected void doCancel() {
+      canceled.countDown();
+    }
+
+    @Override public Call<V> clone() {
+      return new SlowCall<>();
+    }
+  }
+}
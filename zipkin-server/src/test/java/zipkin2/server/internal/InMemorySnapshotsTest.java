@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.storage.InMemoryStorage;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TRACE;
+
+public class InMemorySnapshotsTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test public void restoresSnapshotWrittenOnClose() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("zipkin.snapshot");
+    InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+    try (InMemorySnapshots snapshots = new InMemorySnapshots(file, 60000L)) {
+      snapshots.start(storage);
+      storage.accept(TRACE).execute();
+    }
+
+    InMemoryStorage restored = InMemoryStorage.newBuilder().build();
+    try (InMemorySnapshots snapshots = new InMemorySnapshots(file, 60000L)) {
+      snapshots.start(restored);
+      assertThat(restored.getTraces()).containsExactlyInAnyOrderElementsOf(storage.getTraces());
+    }
+  }
+
+  @Test public void startsEmptyWhenSnapshotIsCorrupt() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("zipkin.snapshot");
+    Files.write(file, asList("not a snapshot"));
+
+    InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+    try (InMemorySnapshots snapshots = new InMemorySnapshots(file, 60000L)) {
+      snapshots.start(storage);
+      assertThat(storage.getTraces()).isEmpty();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static zipkin2.TestObjects.DAY;
+import static zipkin2.TestObjects.TRACE;
+
+public class StreamingDependenciesStorageComponentTest {
+  StreamingDependenciesStorageComponent storage =
+      new StreamingDependenciesStorageComponent(InMemoryStorage.newBuilder().build(), 0L, DAY);
+
+  @After public void close() throws IOException {
+    storage.close();
+  }
+
+  @Test public void linksStoredSpans() throws IOException {
+    storage.spanConsumer().accept(TRACE).execute();
+    storage.flush();
+
+    assertThat(storage.spanStore().getDependencies(System.currentTimeMillis(), DAY).execute())
+        .isNotEmpty();
+  }
+
+  @Test public void doesntLinkSpansThatFailedToStore() throws IOException {
+    StorageComponent failing = new StorageComponent() {
+      @Override public SpanStore spanStore() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override public SpanConsumer spanConsumer() {
+        return spans -> Call.<Void>create(null).map(v -> {
+          throw new IllegalStateException("storage is down");
+        });
+      }
+    };
+    StreamingDependenciesStorageComponent storage =
+        new StreamingDependenciesStorageComponent(failing, 0L, DAY);
+    try {
+      storage.spanConsumer().accept(TRACE).execute();
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException expected) {
+    } finally {
+      storage.close();
+    }
+    storage.flush();
+
+    assertThat(storage.linker.getDependencies(System.currentTimeMillis(), DAY)).isEmpty();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import org.junit.Test;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceCacheTest {
+  TraceCache cache = new TraceCache(60_000L, 10L);
+
+  Span span = Span.newBuilder().traceId("1").id("1").timestamp(1_000_000L).duration(1L).build();
+
+  @Test public void isSettled() {
+    assertThat(cache.isSettled(singletonList(span), 1_001L + 60_000L))
+      .isTrue();
+  }
+
+  @Test public void isSettled_notWhenNewestSpanIsRecent() {
+    Span recent = span.toBuilder().id("2").timestamp(2_000_000L).build();
+
+    assertThat(cache.isSettled(asList(span, recent), 1_001L + 60_000L))
+      .isFalse();
+  }
+
+  @Test public void isSettled_notWithoutTimestamps() {
+    Span noTimestamp = span.toBuilder().timestamp(0L).duration(0L).build();
+
+    assertThat(cache.isSettled(singletonList(noTimestamp), System.currentTimeMillis()))
+      .isFalse();
+  }
+
+  @Test public void put_evictsLeastRecentlyUsedByBytes() {
+    cache.put("1", new byte[4]);
+    cache.put("2", new byte[4]);
+    cache.get("1"); // 2 is now least recently used
+    cache.put("3", new byte[4]);
+
+    assertThat(cache.entries.keySet()).containsExactly("1", "3");
+    assertThat(cache.bytes()).isEqualTo(8L);
+  }
+
+  @Test public void put_replaceAdjustsBytes() {
+    cache.put("1", new byte[4]);
+    cache.put("1", new byte[6]);
+
+    assertThat(cache.bytes()).isEqualTo(6L);
+  }
+
+  @Test public void put_doesntCacheTraceLargerThanCache() {
+    TraceCache.Entry entry = cache.put("1", new byte[11]);
+
+    assertThat(entry.json).hasSize(11);
+    assertThat(cache.entries).isEmpty();
+  }
+
+  @Test public void etagIsStableForSameBytes() {
+    assertThat(new TraceCache.Entry(new byte[] {'[', ']'}).etag)
+      .isEqualTo(new TraceCache.Entry(new byte[] {'[', ']'}).etag)
+      .startsWith("\"0")
+      .endsWith("\"");
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.Test;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static zipkin2.TestObjects.TRACE;
+
+public class ZipkinHttpCollectorTest {
+  byte[] message = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+
+  @Test public void gunzip() throws IOException {
+    byte[] gzipped = gzip(message);
+
+    assertThat(ZipkinHttpCollector.initialSize(gzipped))
+      .isEqualTo(message.length); // sized from the trailer
+    assertThat(ZipkinHttpCollector.gunzip(gzipped))
+      .containsExactly(message);
+  }
+
+  @Test public void gunzip_empty() throws IOException {
+    assertThat(ZipkinHttpCollector.gunzip(gzip(new byte[0])))
+      .isEmpty();
+  }
+
+  @Test public void gunzip_concatenatedMembers() throws IOException {
+    byte[] gzipped = gzip(message);
+    byte[] concatenated = Arrays.copyOf(gzipped, gzipped.length * 2);
+    System.arraycopy(gzipped, 0, concatenated, gzipped.length, gzipped.length);
+
+    byte[] expected = Arrays.copyOf(message, message.length * 2);
+    System.arraycopy(message, 0, expected, message.length, message.length);
+
+    assertThat(ZipkinHttpCollector.gunzip(concatenated))
+      .containsExactly(expected);
+  }
+
+  @Test public void gunzip_notGzip() throws IOException {
+    try {
+      ZipkinHttpCollector.gunzip(message);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessage("Not in GZIP format");
+    }
+  }
+
+  @Test public void gunzip_truncated() throws IOException {
+    byte[] gzipped = gzip(message);
+
+    try {
+      ZipkinHttpCollector.gunzip(Arrays.copyOf(gzipped, gzipped.length - 4));
+      failBecauseExceptionWasNotThrown(EOFException.class);
+    } catch (EOFException e) {
+    }
+  }
+
+  @Test public void gunzip_corruptIsize() throws IOException {
+    byte[] gzipped = gzip(message);
+    gzipped[gzipped.length - 1] = (byte) 0x7f; // claims to be huge
+
+    // the size used to allocate is capped to a small multiple of the input
+    assertThat(ZipkinHttpCollector.initialSize(gzipped))
+      .isLessThanOrEqualTo(gzipped.length * ZipkinHttpCollector.MAX_INITIAL_RATIO);
+
+    try {
+      ZipkinHttpCollector.gunzip(gzipped);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessage("Corrupt GZIP trailer");
+    }
+  }
+
+  @Test public void gunzip_growsPastInitialSize() throws IOException {
+    byte[] zeros = new byte[1 << 20]; // compresses far better than span data
+    byte[] gzipped = gzip(zeros);
+
+    assertThat(ZipkinHttpCollector.initialSize(gzipped))
+      .isLessThan(zeros.length);
+    assertThat(ZipkinHttpCollector.gunzip(gzipped))
+      .containsExactly(zeros);
+  }
+
+  static byte[] gzip(byte[] input) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(result)) {
+      gzip.write(input);
+    }
+    return result.toByteArray();
+  }
+}
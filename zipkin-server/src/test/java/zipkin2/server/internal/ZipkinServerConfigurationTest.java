@@ -15,6 +15,7 @@ package zipkin2.server.internal;
 
 import brave.Tracing;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
 import org.junit.After;
@@ -123,6 +124,36 @@ public class ZipkinServerConfigurationTest {
       .containsExactly(false);
   }
 
+  @Test public void streamingDependencies_canEnable() {
+    addEnvironment(context, "zipkin.storage.streaming-dependencies.enabled:true");
+    context.register(
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    assertThat(context.getBean(StorageComponent.class))
+      .isInstanceOf(StreamingDependenciesStorageComponent.class);
+  }
+
+  @Test public void namesCache_canEnable() {
+    addEnvironment(context, "zipkin.query.names-cache.enabled:true");
+    context.register(
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    assertThat(context.getBean(StorageComponent.class))
+      .isInstanceOf(CachingNamesStorageComponent.class);
+    // Spring Boot binds MeterBinder beans to registries, which this context doesn't include
+    MeterRegistry registry = context.getBean(MeterRegistry.class);
+    context.getBeansOfType(MeterBinder.class).values().forEach(b -> b.bindTo(registry));
+    assertThat(registry.get("zipkin_query.names_cache.hits").functionCounter()).isNotNull();
+  }
+
   @Configuration
   public static class Config {
     @Bean
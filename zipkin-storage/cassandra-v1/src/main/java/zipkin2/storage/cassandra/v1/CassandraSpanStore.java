@@ -29,6 +29,7 @@ import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanStore;
+import zipkin2.storage.Traces;
 import zipkin2.storage.cassandra.internal.call.AggregateCall;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -36,7 +37,7 @@ import static com.google.common.collect.DiscreteDomain.integers;
 import static zipkin2.storage.cassandra.v1.CassandraUtil.sortTraceIdsByDescTimestamp;
 import static zipkin2.storage.cassandra.v1.CassandraUtil.sortTraceIdsByDescTimestampMapper;
 
-public final class CassandraSpanStore implements SpanStore {
+public final class CassandraSpanStore implements SpanStore, Traces {
   private static final Logger LOG = LoggerFactory.getLogger(CassandraSpanStore.class);
 
   private final int maxTraceCols;
@@ -153,6 +154,11 @@ public final class CassandraSpanStore implements SpanStore {
     return spans.newCall(normalizedTraceId);
   }
 
+  @Override
+  public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+    return spans.newCall(traceIds);
+  }
+
   @Override
   public Call<List<String>> getServiceNames() {
     return serviceNames.clone();
@@ -72,6 +72,21 @@ final class SelectFromTraces extends ResultSetFutureCall {
       return strictTraceId ? result.map(StrictTraceId.filterSpans(hexTraceId)) : result;
     }
 
+    /** Looks up all traces with one {@code IN} query on the lower 64-bits of their IDs */
+    Call<List<List<Span>>> newCall(Iterable<String> hexTraceIds) {
+      Set<Long> traceIds = new LinkedHashSet<>();
+      for (String hexTraceId : hexTraceIds) {
+        traceIds.add(HexCodec.lowerHexToUnsignedLong(Span.normalizeTraceId(hexTraceId)));
+      }
+      if (traceIds.isEmpty()) return Call.emptyList();
+
+      Call<List<List<Span>>> result =
+          new SelectFromTraces(this, traceIds, maxTraceCols)
+              .flatMap(accumulateSpans)
+              .map(groupByTraceId);
+      return strictTraceId ? result.map(StrictTraceId.filterTraces(hexTraceIds)) : result;
+    }
+
     FlatMapper<Set<Long>, List<List<Span>>> newFlatMapper(QueryRequest request) {
       return new SelectTracesByIds(this, request);
     }
@@ -31,12 +31,13 @@ import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanStore;
+import zipkin2.storage.Traces;
 import zipkin2.storage.cassandra.internal.call.IntersectKeySets;
 
 import static zipkin2.storage.cassandra.CassandraUtil.traceIdsSortedByDescTimestamp;
 import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_SERVICE_SPAN;
 
-class CassandraSpanStore implements SpanStore { // not final for testing
+class CassandraSpanStore implements SpanStore, Traces { // not final for testing
   private static final Logger LOG = LoggerFactory.getLogger(CassandraSpanStore.class);
   private final int maxTraceCols;
   private final int indexFetchMultiplier;
@@ -201,6 +202,11 @@ class CassandraSpanStore implements SpanStore { // not final for testing
     return spans.newCall(normalizedTraceId);
   }
 
+  @Override
+  public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+    return spans.newCall(traceIds);
+  }
+
   @Override
   public Call<List<String>> getServiceNames() {
     if (!searchEnabled) return Call.emptyList();
@@ -94,6 +94,24 @@ final class SelectFromSpan extends ResultSetFutureCall {
       return strictTraceId ? result.map(StrictTraceId.filterSpans(hexTraceId)) : result;
     }
 
+    /** Looks up all traces with one {@code IN} query, binding a set as {@link #newCall} does */
+    Call<List<List<Span>>> newCall(Iterable<String> hexTraceIds) {
+      Set<String> traceIds = new LinkedHashSet<>();
+      for (String hexTraceId : hexTraceIds) {
+        hexTraceId = Span.normalizeTraceId(hexTraceId);
+        traceIds.add(hexTraceId);
+        // Unless we are strict, also look up the trace ID truncated to 64bit
+        if (!strictTraceId && hexTraceId.length() == 32) traceIds.add(hexTraceId.substring(16));
+      }
+      if (traceIds.isEmpty()) return Call.emptyList();
+
+      Call<List<List<Span>>> result =
+          new SelectFromSpan(this, traceIds, maxTraceCols)
+              .flatMap(readSpans)
+              .map(groupByTraceId);
+      return strictTraceId ? result.map(StrictTraceId.filterTraces(traceIds)) : result;
+    }
+
     FlatMapper<Set<String>, List<List<Span>>> newFlatMapper(QueryRequest request) {
       return new SelectSpansByTraceIds(this, request);
     }
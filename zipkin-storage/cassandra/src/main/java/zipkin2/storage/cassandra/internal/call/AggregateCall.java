@@ -129,12 +129,13 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
     }
 
     @Override public synchronized void onError(Throwable throwable) {
-      if (log.isLoggable(Level.INFO)) {
+      if (!isCanceled() && log.isLoggable(Level.INFO)) {
         log.log(Level.INFO, "error from " + call, throwable);
       }
       if (remaining.decrementAndGet() > 0) return;
       synchronized (callback) {
-        if (isEmpty(result)) {
+        // A canceled call fails, as a partial result would be mistaken for a complete one
+        if (isCanceled() || isEmpty(result)) {
           callback.onError(throwable);
         } else {
           callback.onSuccess(result);
@@ -37,7 +37,7 @@ public abstract class ResultSetFutureCall extends Call.Base<ResultSet> {
 
   @Override
   protected ResultSet doExecute() throws IOException {
-    return getUninterruptibly(future = newFuture());
+    return getUninterruptibly(newFutureUnlessCanceled());
   }
 
   @Override
@@ -54,7 +54,14 @@ public abstract class ResultSetFutureCall extends Call.Base<ResultSet> {
         }
       }
     }
-    (future = newFuture()).addListener(new CallbackListener(), DirectExecutor.INSTANCE);
+    newFutureUnlessCanceled().addListener(new CallbackListener(), DirectExecutor.INSTANCE);
+  }
+
+  ListenableFuture<ResultSet> newFutureUnlessCanceled() {
+    ListenableFuture<ResultSet> result = future = newFuture();
+    // cancel could have happened before the future was assigned, in which case it was a no-op
+    if (isCanceled()) result.cancel(true);
+    return result;
   }
 
   @Override
@@ -15,6 +15,8 @@ package zipkin2.elasticsearch;
 
 import com.squareup.moshi.JsonReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import okio.BufferedSource;
 import zipkin2.DependencyLink;
@@ -24,6 +26,7 @@ import zipkin2.elasticsearch.internal.client.SearchResultConverter;
 import zipkin2.internal.DependencyLinker;
 
 import static zipkin2.elasticsearch.internal.JsonReaders.collectValuesNamed;
+import static zipkin2.elasticsearch.internal.JsonReaders.enterPath;
 
 public final class BodyConverters {
   static final HttpCall.BodyConverter<Object> NULL =
@@ -42,6 +45,40 @@ public final class BodyConverters {
       };
   static final HttpCall.BodyConverter<List<Span>> SPANS =
       SearchResultConverter.create(JsonAdapters.SPAN_ADAPTER);
+  /** Returned by {@link #SPANS_UNLESS_TRUNCATED}, compared by identity. */
+  static final List<Span> TRUNCATED = Collections.unmodifiableList(new ArrayList<Span>());
+  /**
+   * Like {@link #SPANS}, except this returns {@link #TRUNCATED} when {@code hits.total} is more
+   * than the hits returned, as they didn't fit in the result window.
+   */
+  static final HttpCall.BodyConverter<List<Span>> SPANS_UNLESS_TRUNCATED =
+      new HttpCall.BodyConverter<List<Span>>() {
+        @Override
+        public List<Span> convert(BufferedSource content) throws IOException {
+          JsonReader hits = enterPath(JsonReader.of(content), "hits");
+          if (hits == null) return Collections.emptyList();
+
+          long total = 0L;
+          List<Span> result = new ArrayList<>();
+          while (hits.hasNext()) {
+            String name = hits.nextName();
+            if (name.equals("total") && hits.peek() == JsonReader.Token.NUMBER) {
+              total = hits.nextLong();
+            } else if (name.equals("hits") && hits.peek() == JsonReader.Token.BEGIN_ARRAY) {
+              hits.beginArray();
+              while (hits.hasNext()) {
+                JsonReader source = enterPath(hits, "_source");
+                if (source != null) result.add(JsonAdapters.SPAN_ADAPTER.fromJson(source));
+                hits.endObject();
+              }
+              hits.endArray();
+            } else {
+              hits.skipValue();
+            }
+          }
+          return total > result.size() ? TRUNCATED : result;
+        }
+      };
   static final HttpCall.BodyConverter<List<DependencyLink>> DEPENDENCY_LINKS =
       new SearchResultConverter<DependencyLink>(JsonAdapters.DEPENDENCY_LINK_ADAPTER) {
         @Override
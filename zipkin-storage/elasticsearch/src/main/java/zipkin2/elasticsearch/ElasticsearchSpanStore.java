@@ -13,9 +13,12 @@
  */
 package zipkin2.elasticsearch;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
@@ -28,15 +31,22 @@ import zipkin2.storage.GroupByTraceId;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.StrictTraceId;
+import zipkin2.storage.TraceSummaries;
+import zipkin2.storage.TraceSummary;
+import zipkin2.storage.Traces;
 
 import static java.util.Arrays.asList;
 
-final class ElasticsearchSpanStore implements SpanStore {
+final class ElasticsearchSpanStore implements SpanStore, Traces, TraceSummaries {
 
   static final String SPAN = "span";
   static final String DEPENDENCY = "dependency";
   /** To not produce unnecessarily long queries, we don't look back further than first ES support */
   static final long EARLIEST_MS = 1456790400000L; // March 2016
+  /** Span document fields read to create a {@link TraceSummary} */
+  static final List<String> SUMMARY_FIELDS = asList(
+      "traceId", "parentId", "id", "name", "timestamp", "duration",
+      "localEndpoint.serviceName", "remoteEndpoint.serviceName", "tags.error");
 
   final SearchCallFactory search;
   final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId;
@@ -61,7 +71,48 @@ final class ElasticsearchSpanStore implements SpanStore {
 
     long endMillis = request.endTs();
     long beginMillis = Math.max(endMillis - request.lookback(), EARLIEST_MS);
+    List<String> indices = indexNameFormatter.formatTypeAndRange(SPAN, beginMillis, endMillis);
+    if (indices.isEmpty()) return Call.emptyList();
+
+    Call<List<List<Span>>> result = traceIdsCall(request, indices)
+        .flatMap(new GetSpansByTraceId(search, indices))
+        .map(groupByTraceId);
+    return strictTraceId ? result.map(StrictTraceId.filterTraces(request)) : result;
+  }
+
+  /**
+   * Reads only the span fields needed for a {@link TraceSummary}, skipping annotations and other
+   * tags which are the bulk of a span document.
+   */
+  @Override
+  public Call<List<TraceSummary>> getTraceSummaries(QueryRequest request) {
+    if (!searchEnabled) return Call.emptyList();
+
+    long endMillis = request.endTs();
+    long beginMillis = Math.max(endMillis - request.lookback(), EARLIEST_MS);
+    List<String> indices = indexNameFormatter.formatTypeAndRange(SPAN, beginMillis, endMillis);
+    if (indices.isEmpty()) return Call.emptyList();
+
+    return traceIdsCall(request, indices)
+        .flatMap(new GetTraceSummariesByTraceId(indices, request));
+  }
+
+  /**
+   * Returns the span fields needed for a {@link TraceSummary}. In strict trace ID mode, this adds
+   * fields that {@link QueryRequest#test} reads for the annotation query.
+   */
+  List<String> summaryFields(QueryRequest request) {
+    if (!strictTraceId || request.annotationQuery().isEmpty()) return SUMMARY_FIELDS;
+    List<String> result = new ArrayList<>(SUMMARY_FIELDS);
+    result.add("annotations");
+    for (String key : request.annotationQuery().keySet()) result.add("tags." + key);
+    return result;
+  }
 
+  /** Returns trace IDs matching the request, ordered by their earliest timestamp descending. */
+  HttpCall<List<String>> traceIdsCall(QueryRequest request, List<String> indices) {
+    long endMillis = request.endTs();
+    long beginMillis = Math.max(endMillis - request.lookback(), EARLIEST_MS);
     SearchRequest.Filters filters = new SearchRequest.Filters();
     filters.addRange("timestamp_millis", beginMillis, endMillis);
     if (request.serviceName() != null) {
@@ -96,17 +147,10 @@ final class ElasticsearchSpanStore implements SpanStore {
             .addSubAggregation(Aggregation.min("timestamp_millis"))
             .orderBy("timestamp_millis", "desc");
 
-    List<String> indices = indexNameFormatter.formatTypeAndRange(SPAN, beginMillis, endMillis);
-    if (indices.isEmpty()) return Call.emptyList();
-
     SearchRequest esRequest =
         SearchRequest.create(indices).filters(filters).addAggregation(traceIdTimestamp);
 
-    HttpCall<List<String>> traceIdsCall = search.newCall(esRequest, BodyConverters.KEYS);
-
-    Call<List<List<Span>>> result =
-        traceIdsCall.flatMap(new GetSpansByTraceId(search, indices)).map(groupByTraceId);
-    return strictTraceId ? result.map(StrictTraceId.filterTraces(request)) : result;
+    return search.newCall(esRequest, BodyConverters.KEYS);
   }
 
   @Override
@@ -121,6 +165,31 @@ final class ElasticsearchSpanStore implements SpanStore {
     return search.newCall(request, BodyConverters.SPANS);
   }
 
+  /**
+   * Looks up all traces in one {@code terms} query, as opposed to a {@code term} query each. When
+   * the traces together have more spans than the result window, each trace is looked up with its
+   * own query instead, so that traces aren't cut off as a side effect of being looked up together.
+   */
+  @Override
+  public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+    Set<String> normalizedTraceIds = new LinkedHashSet<>();
+    for (String traceId : traceIds) {
+      // make sure we have a 16 or 32 character trace ID
+      traceId = Span.normalizeTraceId(traceId);
+
+      // Unless we are strict, truncate the trace ID to 64bit (encoded as 16 characters)
+      if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
+      normalizedTraceIds.add(traceId);
+    }
+    if (normalizedTraceIds.isEmpty()) return Call.emptyList();
+
+    List<String> ids = new ArrayList<>(normalizedTraceIds);
+    SearchRequest request = SearchRequest.create(asList(allSpanIndices)).terms("traceId", ids);
+    return search.newCall(request, BodyConverters.SPANS_UNLESS_TRUNCATED)
+        .flatMap(new GetSpansOneByOneIfTruncated(ids))
+        .map(groupByTraceId);
+  }
+
   @Override
   public Call<List<String>> getServiceNames() {
     if (!searchEnabled) return Call.emptyList();
@@ -179,6 +248,89 @@ final class ElasticsearchSpanStore implements SpanStore {
     return search.newCall(SearchRequest.create(indices), BodyConverters.DEPENDENCY_LINKS);
   }
 
+  /** Like {@link GetSpansByTraceId}, except only reads fields needed for a summary. */
+  final class GetTraceSummariesByTraceId
+      implements Call.FlatMapper<List<String>, List<TraceSummary>> {
+    final List<String> indices;
+    final QueryRequest request;
+
+    GetTraceSummariesByTraceId(List<String> indices, QueryRequest request) {
+      this.indices = indices;
+      this.request = request;
+    }
+
+    @Override
+    public Call<List<TraceSummary>> map(List<String> input) {
+      if (input.isEmpty()) return Call.emptyList();
+
+      SearchRequest getTraces = SearchRequest.create(indices).terms("traceId", input)
+          .sourceIncludes(summaryFields(request));
+      Call<List<List<Span>>> result =
+          search.newCall(getTraces, BodyConverters.SPANS).map(groupByTraceId);
+      // re-run the query as now spans are strictly grouped, like getTraces
+      if (strictTraceId) result = result.map(StrictTraceId.filterTraces(request));
+      return result.map(TraceSummary.summarizeTraces());
+    }
+
+    @Override
+    public String toString() {
+      return "GetTraceSummariesByTraceId{indices=" + indices + ", request=" + request + "}";
+    }
+  }
+
+  /** When spans were {@link BodyConverters#TRUNCATED}, this issues a query per trace ID in turn. */
+  final class GetSpansOneByOneIfTruncated implements Call.FlatMapper<List<Span>, List<Span>> {
+    final List<String> traceIds;
+
+    GetSpansOneByOneIfTruncated(List<String> traceIds) {
+      this.traceIds = traceIds;
+    }
+
+    @Override
+    public Call<List<Span>> map(List<Span> input) {
+      if (input != BodyConverters.TRUNCATED) return Call.create(input);
+
+      Call<List<Span>> result = Call.emptyList();
+      for (String traceId : traceIds) result = result.flatMap(new AppendSpans(traceId));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "GetSpansOneByOneIfTruncated{traceIds=" + traceIds + "}";
+    }
+  }
+
+  /** Appends the spans of one trace, which get the whole result window. */
+  final class AppendSpans implements Call.FlatMapper<List<Span>, List<Span>> {
+    final String traceId;
+
+    AppendSpans(String traceId) {
+      this.traceId = traceId;
+    }
+
+    @Override
+    public Call<List<Span>> map(final List<Span> input) {
+      SearchRequest request = SearchRequest.create(asList(allSpanIndices)).term("traceId", traceId);
+      return search.newCall(request, BodyConverters.SPANS)
+          .map(new Call.Mapper<List<Span>, List<Span>>() {
+            @Override
+            public List<Span> map(List<Span> spans) {
+              if (spans == null) return input;
+              List<Span> result = new ArrayList<>(input.size() + spans.size());
+              result.addAll(input);
+              result.addAll(spans);
+              return result;
+            }
+          });
+    }
+
+    @Override
+    public String toString() {
+      return "AppendSpans{traceId=" + traceId + "}";
+    }
+  }
+
   static final class GetSpansByTraceId implements Call.FlatMapper<List<String>, List<Span>> {
     final SearchCallFactory search;
     final List<String> indices;
@@ -74,6 +74,7 @@ public final class HttpCall<V> extends Call<V> {
   }
 
   @Override public V execute() throws IOException {
+    if (call.isCanceled()) throw new IOException("Canceled");
     if (!semaphore.tryAcquire()) throw new IllegalStateException("over capacity");
     try {
       return parseResponse(call.execute(), bodyConverter);
@@ -83,6 +84,10 @@ public final class HttpCall<V> extends Call<V> {
   }
 
   @Override public void enqueue(Callback<V> delegate) {
+    if (call.isCanceled()) { // don't take capacity from other requests
+      delegate.onError(new IOException("Canceled"));
+      return;
+    }
     if (!semaphore.tryAcquire()) {
       delegate.onError(new IllegalStateException("over capacity"));
       return;
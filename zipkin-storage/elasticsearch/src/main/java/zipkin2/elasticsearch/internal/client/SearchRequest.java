@@ -44,7 +44,7 @@ public final class SearchRequest {
   @Nullable transient final String type;
 
   Integer size = MAX_RESULT_WINDOW;
-  Boolean _source;
+  Object _source; // false, or a list of fields to include
   Object query;
   Map<String, Aggregation> aggs;
 
@@ -77,6 +77,12 @@ public final class SearchRequest {
     return query(new Terms(field, values));
   }
 
+  /** Returns only these fields of each document, as opposed to the whole document. */
+  public SearchRequest sourceIncludes(List<String> fields) {
+    _source = fields;
+    return this;
+  }
+
   public SearchRequest addAggregation(Aggregation agg) {
     size = null; // we return aggs, not source data
     _source = false;
@@ -14,6 +14,7 @@
 package zipkin2.elasticsearch;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -23,6 +24,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import zipkin2.TestObjects;
 import zipkin2.storage.QueryRequest;
+import zipkin2.storage.TraceSummary;
 
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -61,6 +63,32 @@ public class ElasticsearchSpanStoreTest {
     assertThat(es.takeRequest().getBody().readUtf8()).contains("\"traceId\":\"3041d36dc43227fd\"");
   }
 
+  /** Trace IDs sharing the lower 64 bits are grouped separately, so each is re-checked. */
+  @Test
+  public void getTraceSummaries_strictTraceId_retestsQuery() throws Exception {
+    long timestamp = (TODAY + 1000L) * 1000L;
+    es.enqueue(new MockResponse().setBody("{\"aggregations\":{\"traceId_agg\":{\"buckets\":["
+        + "{\"key\":\"48fec942f3e78b893041d36dc43227fd\"},{\"key\":\"3041d36dc43227fd\"}]}}}"));
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"hits\":["
+        + "{\"_source\":{\"traceId\":\"48fec942f3e78b893041d36dc43227fd\",\"id\":\"1\","
+        + "\"timestamp\":" + timestamp + ",\"localEndpoint\":{\"serviceName\":\"frontend\"},"
+        + "\"tags\":{\"http.path\":\"/a\"}}},"
+        + "{\"_source\":{\"traceId\":\"3041d36dc43227fd\",\"id\":\"2\","
+        + "\"timestamp\":" + timestamp + ",\"localEndpoint\":{\"serviceName\":\"backend\"},"
+        + "\"tags\":{\"http.path\":\"/a\"}}}"
+        + "]}}"));
+
+    assertThat(spanStore.getTraceSummaries(QueryRequest.newBuilder()
+        .serviceName("frontend").parseAnnotationQuery("http.path")
+        .endTs(TODAY + 2000L).lookback(10000L).limit(10).build()).execute())
+        .extracting(TraceSummary::traceId)
+        .containsExactly("48fec942f3e78b893041d36dc43227fd");
+
+    es.takeRequest(); // trace IDs
+    assertThat(es.takeRequest().getBody().readUtf8()) // fields needed to re-check the query
+        .contains("\"annotations\"", "\"tags.http.path\"");
+  }
+
   @Test
   public void serviceNames_defaultsTo24HrsAgo_6x() throws Exception {
     es.enqueue(new MockResponse().setBody(TestResponses.SERVICE_NAMES));
@@ -77,6 +105,48 @@ public class ElasticsearchSpanStoreTest {
     requestLimitedTo2DaysOfIndices_singleTypeIndex();
   }
 
+  @Test
+  public void getTraces_byIds_oneQuery() throws Exception {
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"total\":2,\"hits\":["
+        + "{\"_source\":{\"traceId\":\"000000000000000a\",\"id\":\"1\"}},"
+        + "{\"_source\":{\"traceId\":\"000000000000000b\",\"id\":\"2\"}}"
+        + "]}}"));
+
+    assertThat(spanStore.getTraces(asList("a", "b")).execute())
+        .extracting(t -> t.get(0).id())
+        .containsExactly("0000000000000001", "0000000000000002");
+
+    assertThat(es.getRequestCount()).isEqualTo(1);
+    assertThat(es.takeRequest().getBody().readUtf8())
+        .contains("\"terms\":{\"traceId\":[\"000000000000000a\",\"000000000000000b\"]}");
+  }
+
+  /** Spans past the result window aren't returned, so each trace is then looked up alone. */
+  @Test
+  public void getTraces_byIds_queriesEachTraceWhenTruncated() throws Exception {
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"total\":3,\"hits\":["
+        + "{\"_source\":{\"traceId\":\"000000000000000a\",\"id\":\"1\"}}"
+        + "]}}"));
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"total\":1,\"hits\":["
+        + "{\"_source\":{\"traceId\":\"000000000000000a\",\"id\":\"1\"}}"
+        + "]}}"));
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"total\":2,\"hits\":["
+        + "{\"_source\":{\"traceId\":\"000000000000000b\",\"id\":\"2\"}},"
+        + "{\"_source\":{\"traceId\":\"000000000000000b\",\"id\":\"3\"}}"
+        + "]}}"));
+
+    assertThat(spanStore.getTraces(asList("a", "b")).execute())
+        .extracting(List::size)
+        .containsExactly(1, 2);
+
+    assertThat(es.getRequestCount()).isEqualTo(3);
+    es.takeRequest(); // terms query
+    assertThat(es.takeRequest().getBody().readUtf8())
+        .contains("\"term\":{\"traceId\":\"000000000000000a\"}");
+    assertThat(es.takeRequest().getBody().readUtf8())
+        .contains("\"term\":{\"traceId\":\"000000000000000b\"}");
+  }
+
   @Test
   public void searchDisabled_doesntMakeRemoteQueryRequests() throws Exception {
     try (ElasticsearchStorage storage =
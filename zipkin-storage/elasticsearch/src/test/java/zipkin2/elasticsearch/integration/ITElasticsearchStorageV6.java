@@ -14,6 +14,7 @@
 package zipkin2.elasticsearch.integration;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -28,6 +29,9 @@ import zipkin2.elasticsearch.ElasticsearchStorage;
 import zipkin2.elasticsearch.InternalForTests;
 import zipkin2.storage.StorageComponent;
 
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TODAY;
 import static zipkin2.elasticsearch.integration.ElasticsearchStorageRule.index;
 
 @RunWith(Enclosed.class)
@@ -56,6 +60,21 @@ public class ITElasticsearchStorageV6 {
     @Test @Ignore @Override public void getSpanNames_mapsNameToRemoteServiceName() {
     }
 
+    /** Together, these traces have more spans than fit in one result window of 10,000 hits. */
+    @Test public void getTraces_byIds_moreSpansThanResultWindow() throws IOException {
+      List<Span> trace1 = new ArrayList<>(), trace2 = new ArrayList<>();
+      for (int i = 1; i <= 6000; i++) {
+        trace1.add(Span.newBuilder().traceId("a").id(i).timestamp(TODAY * 1000L).build());
+        trace2.add(Span.newBuilder().traceId("b").id(i).timestamp(TODAY * 1000L).build());
+      }
+      accept(trace1);
+      accept(trace2);
+
+      assertThat(storage.traces().getTraces(asList("a", "b")).execute())
+        .extracting(List::size)
+        .containsOnly(6000, 6000);
+    }
+
     @Before @Override public void clear() throws IOException {
       storage.clear();
     }
@@ -98,4 +98,26 @@ public class HttpCallTest {
       assertThat(expected).isInstanceOf(IllegalStateException.class);
     }
   }
+
+  @Test
+  public void canceled_doesntUseCapacity() throws Exception {
+    Call<?> call = http.newCall(request, b -> null);
+    call.cancel();
+
+    LinkedBlockingQueue<Object> q = new LinkedBlockingQueue<>();
+    call.enqueue(new Callback<Object>() {
+      @Override public void onSuccess(@Nullable Object value) {
+        q.add(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        q.add(t);
+      }
+    });
+
+    assertThat(q.take()).isInstanceOf(IOException.class);
+    assertThat(http.semaphore.availablePermits())
+      .isEqualTo(http.ok.dispatcher().getMaxRequests());
+    assertThat(mws.getRequestCount()).isZero();
+  }
 }
@@ -36,4 +36,12 @@ public class SearchRequestTest {
     assertThat(adapter.toJson(request))
         .isEqualTo("{\"size\":10000}");
   }
+
+  @Test
+  public void sourceIncludes() {
+    request.sourceIncludes(asList("traceId", "id"));
+
+    assertThat(adapter.toJson(request))
+        .isEqualTo("{\"size\":10000,\"_source\":[\"traceId\",\"id\"]}");
+  }
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArraySet;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+
+/**
+ * The segment being appended to. Its index is held in memory until it is {@link #seal() sealed}.
+ * One thread appends at a time, while any number of threads read.
+ */
+final class ActiveSegment extends Segment {
+
+  /** Creates a new, empty segment. */
+  static ActiveSegment create(File directory, long id) throws IOException {
+    ActiveSegment result = new ActiveSegment(directory, id, StandardOpenOption.CREATE_NEW);
+    result.size = 0;
+    return result;
+  }
+
+  /**
+   * Opens a segment that wasn't sealed, for example after a crash. Its index is rebuilt from the
+   * spans file, which is truncated after the last complete record.
+   */
+  static ActiveSegment recover(File directory, long id) throws IOException {
+    ActiveSegment result = new ActiveSegment(directory, id, StandardOpenOption.CREATE);
+    FileChannel channel = result.channel;
+    long fileSize = channel.size();
+    ByteBuffer lengthPrefix = ByteBuffer.allocate(4);
+    int position = 0;
+    while (position + 4L <= fileSize) {
+      lengthPrefix.clear();
+      readFully(channel, lengthPrefix, position);
+      int length = lengthPrefix.getInt(0);
+      if (length < 0 || position + 4L + length > fileSize) break; // truncated record
+      List<Span> spans = new ArrayList<>();
+      try {
+        SpanBytesDecoder.PROTO3.decodeList(result.readRecord(position, length), spans);
+      } catch (IllegalArgumentException e) {
+        break; // corrupt record
+      }
+      result.index(position, spans);
+      position += 4 + length;
+    }
+    channel.truncate(position);
+    result.size = position;
+    return result;
+  }
+
+  volatile FileChannel channel;
+  /** Set when sealed, so that readers of a stale list of segments can still read records */
+  volatile SealedSegment sealed;
+  final ConcurrentMap<Long, Collection<Integer>> traceIdToPositions = new ConcurrentHashMap<>();
+  final ConcurrentSkipListSet<IndexEntry> timestamps =
+    new ConcurrentSkipListSet<>(TIMESTAMP_DESCENDING);
+  final ConcurrentMap<String, Set<String>> serviceToSpanNames = new ConcurrentHashMap<>();
+  volatile int size;
+  volatile long maxTimestamp;
+
+  ActiveSegment(File directory, long id, StandardOpenOption create) throws IOException {
+    super(directory, id);
+    channel = FileChannel.open(spansFile.toPath(),
+      create, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Appends the spans as one record, then indexes them. The size is updated before the index, so
+   * that readers never see an index entry for data not yet written.
+   *
+   * @param encoded the spans encoded with {@link zipkin2.codec.SpanBytesEncoder#PROTO3}
+   */
+  void append(byte[] encoded, List<Span> spans) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(4 + encoded.length);
+    record.putInt(encoded.length).put(encoded).flip();
+    int position = size;
+    FileChannel channel = channel();
+    while (record.hasRemaining()) {
+      channel.write(record, position + record.position());
+    }
+    size = position + record.capacity();
+    index(position, spans);
+  }
+
+  void index(int position, List<Span> spans) {
+    for (Span span : spans) {
+      long lowTraceId = span.traceIdLow(), timestamp = span.timestampAsLong();
+      traceIdToPositions.computeIfAbsent(lowTraceId, k -> new CopyOnWriteArraySet<>())
+        .add(position);
+      timestamps.add(new IndexEntry(lowTraceId, timestamp, position));
+      if (timestamp > maxTimestamp) maxTimestamp = timestamp;
+
+      indexName(span.localServiceName(), span.name());
+      indexName(span.remoteServiceName(), span.name());
+    }
+  }
+
+  void indexName(String serviceName, String spanName) {
+    if (serviceName == null) return;
+    Set<String> spanNames =
+      serviceToSpanNames.computeIfAbsent(serviceName, k -> ConcurrentHashMap.newKeySet());
+    if (spanName != null) spanNames.add(spanName);
+  }
+
+  /**
+   * Writes the index and names files and closes the spans file, returning a sealed segment that
+   * reads them. The index file is written last, as its presence is what marks a segment sealed.
+   */
+  SealedSegment seal() throws IOException {
+    channel().force(false);
+    writeNames();
+    writeIndex();
+    SealedSegment result = SealedSegment.open(directory, id);
+    synchronized (this) {
+      sealed = result;
+      channel.close();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the channel, reopening it if it was closed. This happens when a thread is interrupted
+   * while reading, as file channels are interruptible.
+   */
+  FileChannel channel() throws IOException {
+    FileChannel result = channel;
+    if (result.isOpen() || sealed != null) return result;
+    synchronized (this) {
+      if (!channel.isOpen() && sealed == null) {
+        channel = FileChannel.open(
+          spansFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      return channel;
+    }
+  }
+
+  void writeNames() throws IOException {
+    File tmp = new File(directory, namesFile.getName() + ".tmp");
+    try (FileOutputStream fileOut = new FileOutputStream(tmp);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+      out.writeInt(serviceToSpanNames.size());
+      for (Map.Entry<String, Set<String>> entry : serviceToSpanNames.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (String spanName : entry.getValue()) out.writeUTF(spanName);
+      }
+      out.flush();
+      fileOut.getFD().sync();
+    }
+    Files.move(tmp.toPath(), namesFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * The index file has a header of the max timestamp and entry count, followed by the entries
+   * sorted by {@link #TRACE_ID_ASCENDING}, then again sorted by {@link #TIMESTAMP_DESCENDING}.
+   */
+  void writeIndex() throws IOException {
+    List<IndexEntry> byTimestamp = new ArrayList<>(timestamps);
+    List<IndexEntry> byTraceId = new ArrayList<>(byTimestamp);
+    Collections.sort(byTraceId, TRACE_ID_ASCENDING);
+
+    ByteBuffer buffer = ByteBuffer.allocate(
+      SealedSegment.HEADER_SIZE + 2 * byTimestamp.size() * IndexEntry.SIZE_IN_BYTES);
+    buffer.putLong(maxTimestamp).putInt(byTimestamp.size());
+    for (IndexEntry entry : byTraceId) entry.write(buffer);
+    for (IndexEntry entry : byTimestamp) entry.write(buffer);
+    buffer.flip();
+
+    File tmp = new File(directory, indexFile.getName() + ".tmp");
+    try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+      StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (buffer.hasRemaining()) out.write(buffer);
+      out.force(false);
+    }
+    Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override int sizeInBytes() {
+    return size;
+  }
+
+  @Override long maxTimestamp() {
+    return maxTimestamp;
+  }
+
+  @Override Map<String, Set<String>> serviceToSpanNames() {
+    return serviceToSpanNames;
+  }
+
+  @Override void positions(long lowTraceId, Collection<Integer> out) {
+    Collection<Integer> positions = traceIdToPositions.get(lowTraceId);
+    if (positions != null) out.addAll(positions);
+  }
+
+  @Override Iterator<IndexEntry> descending(long endTs, long startTs) {
+    // Within the same timestamp, higher trace IDs and positions are first, so these bounds
+    // include all entries at either timestamp.
+    IndexEntry first = new IndexEntry(-1L, endTs, Integer.MAX_VALUE);
+    IndexEntry last = new IndexEntry(0L, startTs, Integer.MIN_VALUE);
+    return timestamps.subSet(first, true, last, true).iterator();
+  }
+
+  @Override ByteBuffer record(int position) throws IOException {
+    try {
+      ByteBuffer lengthPrefix = ByteBuffer.allocate(4);
+      readFully(channel(), lengthPrefix, position);
+      return readRecord(position, lengthPrefix.getInt(0));
+    } catch (ClosedChannelException e) {
+      SealedSegment sealed = this.sealed;
+      if (sealed == null) throw e;
+      // A stale reader doesn't hold the sealed segment, so copy before it could be unmapped
+      if (!sealed.acquire()) throw new IOException(sealed + " was deleted");
+      try {
+        ByteBuffer record = sealed.record(position);
+        ByteBuffer result = ByteBuffer.allocate(record.remaining());
+        result.put(record).flip();
+        return result;
+      } finally {
+        sealed.release();
+      }
+    }
+  }
+
+  ByteBuffer readRecord(int position, int length) throws IOException {
+    ByteBuffer result = ByteBuffer.allocate(length);
+    readFully(channel(), result, position + 4L);
+    result.flip();
+    return result;
+  }
+
+  static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read == -1) throw new IOException("Truncated reading " + buffer.limit() + " bytes");
+    }
+  }
+
+  @Override void releaseResources() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.IOException;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+/** Uncancelable call which runs on the calling thread, even when enqueued. */
+final class LocalCall<V> extends Call.Base<V> {
+  interface Work<V> {
+    V run() throws IOException;
+  }
+
+  final Work<V> work;
+
+  LocalCall(Work<V> work) {
+    this.work = work;
+  }
+
+  @Override protected V doExecute() throws IOException {
+    return work.run();
+  }
+
+  @Override protected void doEnqueue(Callback<V> callback) {
+    V result;
+    try {
+      result = work.run();
+    } catch (Throwable t) {
+      propagateIfFatal(t);
+      callback.onError(t);
+      return;
+    }
+    callback.onSuccess(result);
+  }
+
+  @Override public LocalCall<V> clone() {
+    return new LocalCall<>(work);
+  }
+
+  @Override public String toString() {
+    return "LocalCall{" + work + "}";
+  }
+}
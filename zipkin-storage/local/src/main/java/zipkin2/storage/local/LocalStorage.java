@@ -0,0 +1,488 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import zipkin2.Call;
+import zipkin2.CheckResult;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.DependencyLinker;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+import zipkin2.storage.Traces;
+
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
+import static zipkin2.storage.local.Segment.SPANS_SUFFIX;
+import static zipkin2.storage.local.Segment.TIMESTAMP_DESCENDING;
+
+/**
+ * Storage component that keeps spans in files on local disk, so that they survive restarts.
+ *
+ * <p>Spans are appended to segment files as proto3-encoded batches, one record per call to {@link
+ * #accept(List)}. When a segment exceeds {@link Builder#maxSegmentBytes(int)}, it is sealed: its
+ * index of trace ID and timestamp is written next to it and both are memory-mapped. Retention is
+ * applied to sealed segments by deleting whole files, oldest first.
+ *
+ * <p>Writes are serialized, while reads are concurrent with writes. Like {@link
+ * zipkin2.storage.InMemoryStorage}, queries filter traces with {@link QueryRequest#test(List)}.
+ * Traces in the query's time range are visited most recent first, until the limit is reached.
+ */
+public final class LocalStorage extends StorageComponent
+    implements SpanStore, SpanConsumer, Traces {
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder extends StorageComponent.Builder {
+    File directory;
+    boolean strictTraceId = true, searchEnabled = true;
+    int maxSegmentBytes = 64 * 1024 * 1024;
+    long maxBytes = 0L, retentionMillis = 0L;
+
+    /** Required directory holding segment files. It is created if it doesn't exist. */
+    public Builder directory(File directory) {
+      if (directory == null) throw new NullPointerException("directory == null");
+      this.directory = directory;
+      return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override public Builder strictTraceId(boolean strictTraceId) {
+      this.strictTraceId = strictTraceId;
+      return this;
+    }
+
+    @Override public Builder searchEnabled(boolean searchEnabled) {
+      this.searchEnabled = searchEnabled;
+      return this;
+    }
+
+    /**
+     * A segment is sealed and a new one started when an append would exceed this size. Defaults to
+     * 64MiB.
+     */
+    public Builder maxSegmentBytes(int maxSegmentBytes) {
+      if (maxSegmentBytes <= 0) throw new IllegalArgumentException("maxSegmentBytes <= 0");
+      this.maxSegmentBytes = maxSegmentBytes;
+      return this;
+    }
+
+    /**
+     * When positive, the oldest segments are deleted when the total size of segments exceeds this
+     * value. This is checked when a segment is sealed. Defaults to zero, which disables this.
+     */
+    public Builder maxBytes(long maxBytes) {
+      if (maxBytes < 0) throw new IllegalArgumentException("maxBytes < 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * When positive, segments whose latest span is older than this are deleted. This is checked
+     * when a segment is sealed. Defaults to zero, which disables this.
+     */
+    public Builder retentionMillis(long retentionMillis) {
+      if (retentionMillis < 0) throw new IllegalArgumentException("retentionMillis < 0");
+      this.retentionMillis = retentionMillis;
+      return this;
+    }
+
+    @Override public LocalStorage build() {
+      if (directory == null) throw new NullPointerException("directory == null");
+      return new LocalStorage(this);
+    }
+  }
+
+  final File directory;
+  final boolean strictTraceId, searchEnabled;
+  final int maxSegmentBytes;
+  final long maxBytes, retentionMillis;
+  final Object writeLock = new Object();
+  /** Segments ordered oldest first, where the last is active. Replaced on change. Lazy. */
+  volatile List<Segment> segments;
+  boolean closeCalled; // guarded by writeLock
+
+  LocalStorage(Builder builder) {
+    this.directory = builder.directory;
+    this.strictTraceId = builder.strictTraceId;
+    this.searchEnabled = builder.searchEnabled;
+    this.maxSegmentBytes = builder.maxSegmentBytes;
+    this.maxBytes = builder.maxBytes;
+    this.retentionMillis = builder.retentionMillis;
+  }
+
+  @Override public LocalStorage spanStore() {
+    return this;
+  }
+
+  @Override public LocalStorage spanConsumer() {
+    return this;
+  }
+
+  @Override public Call<Void> accept(List<Span> spans) {
+    if (spans.isEmpty()) return Call.create(null);
+    return new LocalCall<>(() -> {
+      append(spans);
+      return null;
+    });
+  }
+
+  void append(List<Span> spans) throws IOException {
+    byte[] encoded = SpanBytesEncoder.PROTO3.encodeList(spans);
+    synchronized (writeLock) {
+      List<Segment> segments = segments();
+      ActiveSegment active = (ActiveSegment) segments.get(segments.size() - 1);
+      int size = active.sizeInBytes();
+      if (size > 0 && size + 4L + encoded.length > maxSegmentBytes) {
+        active = roll(segments, active);
+      }
+      active.append(encoded, spans);
+    }
+  }
+
+  /** Seals the active segment, starts a new one and applies retention. Call under write lock. */
+  ActiveSegment roll(List<Segment> segments, ActiveSegment active) throws IOException {
+    List<Segment> result = new ArrayList<>(segments);
+    result.set(result.size() - 1, active.seal());
+    ActiveSegment next = ActiveSegment.create(directory, active.id + 1);
+    result.add(next);
+    this.segments = retain(result);
+    return next;
+  }
+
+  /**
+   * Returns the current segments, each {@link Segment#acquire() acquired}, so that retention
+   * doesn't release them while being read. Call {@link #release(List)} when done.
+   */
+  List<Segment> acquireSegments() throws IOException {
+    while (true) {
+      List<Segment> segments = segments();
+      int acquired = 0;
+      while (acquired < segments.size() && segments.get(acquired).acquire()) acquired++;
+      if (acquired == segments.size()) return segments;
+      // A segment was closed, by retention or close. Release what we have and read the new list
+      // after the write lock, which is held until the list is replaced.
+      release(segments.subList(0, acquired));
+      synchronized (writeLock) {
+        if (closeCalled) throw new IllegalStateException("closed");
+      }
+    }
+  }
+
+  static void release(List<Segment> segments) throws IOException {
+    for (Segment segment : segments) segment.release();
+  }
+
+  /**
+   * Returns the input without sealed segments exceeding retention, which are deleted. Call under
+   * write lock.
+   */
+  List<Segment> retain(List<Segment> segments) throws IOException {
+    long totalBytes = 0L;
+    for (Segment segment : segments) totalBytes += segment.sizeInBytes();
+    long oldestTimestamp =
+      retentionMillis > 0L ? (System.currentTimeMillis() - retentionMillis) * 1000L : 0L;
+
+    List<Segment> result = new ArrayList<>(segments);
+    for (Iterator<Segment> i = result.iterator(); i.hasNext(); ) {
+      Segment segment = i.next();
+      if (segment instanceof ActiveSegment) break; // never delete what's being written
+      boolean overBytes = maxBytes > 0L && totalBytes > maxBytes;
+      boolean expired = segment.maxTimestamp() != 0L && segment.maxTimestamp() < oldestTimestamp;
+      if (!overBytes && !expired) continue;
+      totalBytes -= segment.sizeInBytes();
+      i.remove();
+      segment.close();
+      segment.delete();
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  List<Segment> segments() throws IOException {
+    List<Segment> result = segments;
+    if (result != null) return result;
+    synchronized (writeLock) {
+      if (closeCalled) throw new IllegalStateException("closed");
+      if (segments == null) segments = open();
+      return segments;
+    }
+  }
+
+  /**
+   * Opens segments in the directory, oldest first. An unsealed segment is recovered, and sealed
+   * unless it is the last. A new active segment is started when the last is sealed.
+   */
+  List<Segment> open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Couldn't create directory " + directory);
+    }
+    TreeSet<Long> ids = new TreeSet<>();
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SPANS_SUFFIX));
+    if (files == null) throw new IOException("Couldn't list directory " + directory);
+    for (File file : files) {
+      String name = file.getName();
+      try {
+        ids.add(Long.parseLong(name.substring(0, name.length() - SPANS_SUFFIX.length())));
+      } catch (NumberFormatException e) {
+        // not a segment
+      }
+    }
+
+    List<Segment> result = new ArrayList<>();
+    for (long id : ids) {
+      Segment segment = new File(directory, String.format("%020d", id) + Segment.INDEX_SUFFIX)
+        .exists() ? SealedSegment.open(directory, id) : ActiveSegment.recover(directory, id);
+      if (segment instanceof ActiveSegment && id != ids.last()) {
+        segment = ((ActiveSegment) segment).seal();
+      }
+      result.add(segment);
+    }
+    if (result.isEmpty() || result.get(result.size() - 1) instanceof SealedSegment) {
+      long nextId = ids.isEmpty() ? 1L : ids.last() + 1L;
+      result.add(ActiveSegment.create(directory, nextId));
+    }
+    return retain(result);
+  }
+
+  @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+    if (!searchEnabled) return Call.emptyList();
+    return new LocalCall<>(() -> getTraces(request, strictTraceId));
+  }
+
+  List<List<Span>> getTraces(QueryRequest request, boolean strictTraceId) throws IOException {
+    List<Segment> segments = acquireSegments();
+    try {
+      return getTraces(segments, request, strictTraceId);
+    } finally {
+      release(segments);
+    }
+  }
+
+  static List<List<Span>> getTraces(
+    List<Segment> segments, QueryRequest request, boolean strictTraceId) throws IOException {
+    long endTs = request.endTs() * 1000;
+    long startTs = endTs - request.lookback() * 1000;
+
+    // Merge the timestamp indexes of each segment, as spans can arrive out of order. Segments
+    // without the service are still visited, as they can hold the only span of a matching trace
+    // in the time range.
+    PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+    for (Segment segment : segments) {
+      if (segment.maxTimestamp() < startTs) continue;
+      Cursor cursor = new Cursor(segment.descending(endTs, startTs));
+      if (cursor.next != null) cursors.add(cursor);
+    }
+
+    List<List<Span>> result = new ArrayList<>();
+    Set<Long> visited = new LinkedHashSet<>();
+    while (!cursors.isEmpty() && result.size() < request.limit()) {
+      Cursor cursor = cursors.poll();
+      long lowTraceId = cursor.next.lowTraceId;
+      if (cursor.advance()) cursors.add(cursor);
+      if (!visited.add(lowTraceId)) continue;
+
+      List<Span> next = readTrace(segments, lowTraceId);
+      if (!request.test(next)) continue;
+      if (!strictTraceId) {
+        result.add(next);
+        continue;
+      }
+
+      // re-run the query as now spans are strictly grouped
+      for (List<Span> strictTrace : strictByTraceId(next)) {
+        if (request.test(strictTrace)) result.add(strictTrace);
+      }
+    }
+    return result;
+  }
+
+  static final class Cursor implements Comparable<Cursor> {
+    final Iterator<Segment.IndexEntry> entries;
+    Segment.IndexEntry next;
+
+    Cursor(Iterator<Segment.IndexEntry> entries) {
+      this.entries = entries;
+      advance();
+    }
+
+    boolean advance() {
+      next = entries.hasNext() ? entries.next() : null;
+      return next != null;
+    }
+
+    @Override public int compareTo(Cursor that) {
+      return TIMESTAMP_DESCENDING.compare(next, that.next);
+    }
+  }
+
+  static List<Span> readTrace(List<Segment> segments, long lowTraceId) throws IOException {
+    List<Span> result = new ArrayList<>();
+    for (Segment segment : segments) {
+      segment.readTrace(lowTraceId, result);
+    }
+    return result;
+  }
+
+  /** Input spans have the same lower 64-bits of the trace ID, so this groups by the upper bits */
+  static Collection<List<Span>> strictByTraceId(List<Span> next) {
+    Map<Long, List<Span>> groupedByTraceIdHigh = new LinkedHashMap<>();
+    for (Span span : next) {
+      groupedByTraceIdHigh.computeIfAbsent(span.traceIdHigh(), k -> new ArrayList<>()).add(span);
+    }
+    return groupedByTraceIdHigh.values();
+  }
+
+  @Override public Call<List<Span>> getTrace(String traceId) {
+    String normalized = Span.normalizeTraceId(traceId);
+    return new LocalCall<>(() -> {
+      List<Segment> segments = acquireSegments();
+      try {
+        return readTrace(segments, normalized);
+      } finally {
+        release(segments);
+      }
+    });
+  }
+
+  /** Reads the segment list once, then each trace from it. */
+  @Override public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+    Set<String> normalized = new LinkedHashSet<>();
+    for (String traceId : traceIds) {
+      traceId = Span.normalizeTraceId(traceId);
+      // Unless we are strict, only the right-most 16 characters identify the trace
+      if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
+      normalized.add(traceId);
+    }
+    if (normalized.isEmpty()) return Call.emptyList();
+    return new LocalCall<>(() -> {
+      List<Segment> segments = acquireSegments();
+      try {
+        List<List<Span>> result = new ArrayList<>(normalized.size());
+        for (String traceId : normalized) {
+          List<Span> spans = readTrace(segments, traceId);
+          if (!spans.isEmpty()) result.add(spans);
+        }
+        return result;
+      } finally {
+        release(segments);
+      }
+    });
+  }
+
+  List<Span> readTrace(List<Segment> segments, String normalized) throws IOException {
+    List<Span> spans = readTrace(segments, lowerHexToUnsignedLong(normalized));
+    if (spans.isEmpty() || !strictTraceId) return spans;
+
+    long traceIdHigh = normalized.length() == 32 ? lowerHexToUnsignedLong(normalized, 0) : 0L;
+    spans.removeIf(span -> span.traceIdHigh() != traceIdHigh);
+    return spans;
+  }
+
+  @Override public Call<List<String>> getServiceNames() {
+    if (!searchEnabled) return Call.emptyList();
+    return new LocalCall<>(() -> {
+      Set<String> result = new TreeSet<>();
+      for (Segment segment : segments()) {
+        result.addAll(segment.serviceToSpanNames().keySet());
+      }
+      return new ArrayList<>(result);
+    });
+  }
+
+  @Override public Call<List<String>> getSpanNames(String serviceName) {
+    if (serviceName.isEmpty() || !searchEnabled) return Call.emptyList();
+    String service = serviceName.toLowerCase(Locale.ROOT); // service names are always lowercase!
+    return new LocalCall<>(() -> {
+      Set<String> result = new TreeSet<>();
+      for (Segment segment : segments()) {
+        Set<String> spanNames = segment.serviceToSpanNames().get(service);
+        if (spanNames != null) result.addAll(spanNames);
+      }
+      return new ArrayList<>(result);
+    });
+  }
+
+  @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+    QueryRequest request =
+      QueryRequest.newBuilder().endTs(endTs).lookback(lookback).limit(Integer.MAX_VALUE).build();
+    return new LocalCall<>(() -> {
+      DependencyLinker linksBuilder = new DependencyLinker();
+      // We don't have a query parameter for strictTraceId when fetching dependency links, so we
+      // ignore traceIdHigh. Otherwise, a single trace can appear as two, doubling callCount.
+      for (List<Span> trace : getTraces(request, false)) {
+        // use a hash set to dedupe any redundantly accepted spans
+        linksBuilder.putTrace(new LinkedHashSet<>(trace).iterator());
+      }
+      return linksBuilder.link();
+    });
+  }
+
+  @Override public CheckResult check() {
+    try {
+      segments();
+      return CheckResult.OK;
+    } catch (IOException | RuntimeException e) {
+      return CheckResult.failed(e);
+    }
+  }
+
+  /** Used for testing. Deletes all segments, so that the next operation starts empty. */
+  public void clear() {
+    synchronized (writeLock) {
+      try {
+        List<Segment> segments = this.segments != null ? this.segments : open();
+        this.segments = null;
+        for (Segment segment : segments) {
+          segment.close();
+          segment.delete();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override public void close() throws IOException {
+    synchronized (writeLock) {
+      if (closeCalled) return;
+      closeCalled = true;
+      List<Segment> segments = this.segments;
+      if (segments == null) return;
+      for (Segment segment : segments) segment.close();
+    }
+  }
+
+  @Override public String toString() {
+    return "LocalStorage{directory=" + directory + "}";
+  }
+}
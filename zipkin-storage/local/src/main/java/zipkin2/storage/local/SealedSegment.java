@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** A read-only segment whose spans and index are memory-mapped. */
+final class SealedSegment extends Segment {
+  static final int HEADER_SIZE = 8 + 4; // max timestamp + entry count
+
+  static SealedSegment open(File directory, long id) throws IOException {
+    return new SealedSegment(directory, id);
+  }
+
+  final MappedByteBuffer spans, index;
+  final long maxTimestamp;
+  final int count;
+  final Map<String, Set<String>> serviceToSpanNames;
+
+  SealedSegment(File directory, long id) throws IOException {
+    super(directory, id);
+    spans = map(spansFile);
+    index = map(indexFile);
+    maxTimestamp = index.getLong(0);
+    count = index.getInt(8);
+    if (index.capacity() != HEADER_SIZE + 2L * count * IndexEntry.SIZE_IN_BYTES) {
+      throw new IOException("Truncated index " + indexFile);
+    }
+    serviceToSpanNames = readNames(namesFile);
+  }
+
+  static MappedByteBuffer map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  static Map<String, Set<String>> readNames(File file) throws IOException {
+    try (DataInputStream in =
+           new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int serviceCount = in.readInt();
+      Map<String, Set<String>> result = new LinkedHashMap<>();
+      for (int i = 0; i < serviceCount; i++) {
+        String serviceName = in.readUTF();
+        int spanNameCount = in.readInt();
+        Set<String> spanNames = new LinkedHashSet<>();
+        for (int j = 0; j < spanNameCount; j++) spanNames.add(in.readUTF());
+        result.put(serviceName, Collections.unmodifiableSet(spanNames));
+      }
+      return Collections.unmodifiableMap(result);
+    }
+  }
+
+  @Override int sizeInBytes() {
+    return spans.capacity();
+  }
+
+  @Override long maxTimestamp() {
+    return maxTimestamp;
+  }
+
+  @Override Map<String, Set<String>> serviceToSpanNames() {
+    return serviceToSpanNames;
+  }
+
+  /** Offset of the entry at the index, where entries sorted by trace ID are first. */
+  static int traceIdOffset(int i) {
+    return HEADER_SIZE + i * IndexEntry.SIZE_IN_BYTES;
+  }
+
+  /** Offset of the entry at the index, where entries sorted by timestamp are second. */
+  int timestampOffset(int i) {
+    return HEADER_SIZE + (count + i) * IndexEntry.SIZE_IN_BYTES;
+  }
+
+  @Override void positions(long lowTraceId, Collection<Integer> out) {
+    int low = 0, high = count; // binary search for the first entry with this trace ID
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compareUnsigned(index.getLong(traceIdOffset(mid)), lowTraceId) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < count && index.getLong(traceIdOffset(i)) == lowTraceId; i++) {
+      out.add(IndexEntry.read(index, traceIdOffset(i)).position);
+    }
+  }
+
+  @Override Iterator<IndexEntry> descending(long endTs, long startTs) {
+    int low = 0, high = count; // binary search for the first entry at or before endTs
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (index.getLong(timestampOffset(mid) + 8) > endTs) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int first = low;
+    return new Iterator<IndexEntry>() {
+      int i = first;
+
+      @Override public boolean hasNext() {
+        return i < count && index.getLong(timestampOffset(i) + 8) >= startTs;
+      }
+
+      @Override public IndexEntry next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return IndexEntry.read(index, timestampOffset(i++));
+      }
+    };
+  }
+
+  @Override ByteBuffer record(int position) {
+    int length = spans.getInt(position);
+    ByteBuffer result = spans.duplicate();
+    // cast to Buffer, as ByteBuffer.position(int) returns ByteBuffer in JRE 9+
+    ((Buffer) result).position(position + 4);
+    ((Buffer) result).limit(position + 4 + length);
+    return result.slice();
+  }
+
+  /**
+   * Unmaps the files, so that deleted files don't hold disk until garbage collection. When the
+   * JRE doesn't allow this, the files are unmapped when garbage collected instead.
+   */
+  @Override void releaseResources() {
+    Unmapper.unmap(spans);
+    Unmapper.unmap(index);
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+
+/**
+ * A segment is a file of length-prefixed records, each a proto3-encoded list of spans, plus an
+ * index of trace ID and timestamp to the record holding the span.
+ *
+ * <p>Only the last segment in a directory is written to. Once it reaches capacity, it is {@link
+ * ActiveSegment#seal() sealed}, which writes its index to disk. Sealed segments are read via
+ * memory-mapped files and are only deleted, never modified.
+ *
+ * <p>Readers {@link #acquire()} a segment before reading it, as retention can close it at any time.
+ * Resources such as mapped files are released when the last reader is done.
+ */
+abstract class Segment implements Closeable {
+  static final String SPANS_SUFFIX = ".spans", INDEX_SUFFIX = ".index", NAMES_SUFFIX = ".names";
+
+  /** Sorts the same as the lower-hex encoding would. */
+  static int compareUnsigned(long x, long y) {
+    return Long.compare(x + Long.MIN_VALUE, y + Long.MIN_VALUE);
+  }
+
+  /** Trace ID, then record position, ascending */
+  static final Comparator<IndexEntry> TRACE_ID_ASCENDING = (left, right) -> {
+    int result = compareUnsigned(left.lowTraceId, right.lowTraceId);
+    if (result != 0) return result;
+    return Integer.compare(left.position, right.position);
+  };
+
+  /** Timestamp, then trace ID, then record position, descending */
+  static final Comparator<IndexEntry> TIMESTAMP_DESCENDING = (left, right) -> {
+    int result = Long.compare(right.timestamp, left.timestamp);
+    if (result != 0) return result;
+    result = compareUnsigned(right.lowTraceId, left.lowTraceId);
+    if (result != 0) return result;
+    return Integer.compare(right.position, left.position);
+  };
+
+  /** Locates a span in the segment. */
+  static final class IndexEntry {
+    static final int SIZE_IN_BYTES = 8 + 8 + 4;
+
+    final long lowTraceId, timestamp;
+    /** Offset of the length prefix of the record holding the span */
+    final int position;
+
+    IndexEntry(long lowTraceId, long timestamp, int position) {
+      this.lowTraceId = lowTraceId;
+      this.timestamp = timestamp;
+      this.position = position;
+    }
+
+    void write(ByteBuffer buffer) {
+      buffer.putLong(lowTraceId).putLong(timestamp).putInt(position);
+    }
+
+    static IndexEntry read(ByteBuffer buffer, int offset) {
+      return new IndexEntry(
+        buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getInt(offset + 16));
+    }
+  }
+
+  final File directory;
+  final long id;
+  final File spansFile, indexFile, namesFile;
+  /** Count of readers, plus one until {@link #close()}. Resources are released at zero. */
+  final AtomicInteger refCount = new AtomicInteger(1);
+  final AtomicBoolean closeCalled = new AtomicBoolean();
+
+  Segment(File directory, long id) {
+    this.directory = directory;
+    this.id = id;
+    String prefix = String.format("%020d", id);
+    this.spansFile = new File(directory, prefix + SPANS_SUFFIX);
+    this.indexFile = new File(directory, prefix + INDEX_SUFFIX);
+    this.namesFile = new File(directory, prefix + NAMES_SUFFIX);
+  }
+
+  /** Size of the spans file in bytes */
+  abstract int sizeInBytes();
+
+  /** Epoch microseconds of the latest span timestamp, or zero if there are none. */
+  abstract long maxTimestamp();
+
+  /** Service names mapped to their span names, which may be empty. */
+  abstract Map<String, Set<String>> serviceToSpanNames();
+
+  /** Adds positions of records including spans in the trace to the output. */
+  abstract void positions(long lowTraceId, Collection<Integer> out);
+
+  /**
+   * Returns index entries with timestamps between the inputs, inclusive, sorted by {@link
+   * #TIMESTAMP_DESCENDING}.
+   */
+  abstract Iterator<IndexEntry> descending(long endTs, long startTs);
+
+  /** Returns the proto3-encoded list of spans at the position, excluding its length prefix. */
+  abstract ByteBuffer record(int position) throws IOException;
+
+  /** Adds spans in the trace to the output */
+  final void readTrace(long lowTraceId, Collection<Span> out) throws IOException {
+    Set<Integer> positions = new LinkedHashSet<>();
+    positions(lowTraceId, positions);
+    for (int position : positions) {
+      List<Span> spans = new ArrayList<>();
+      SpanBytesDecoder.PROTO3.decodeList(record(position), spans);
+      for (Span span : spans) {
+        if (span.traceIdLow() == lowTraceId) out.add(span);
+      }
+    }
+  }
+
+  /** Returns false if the segment is closed. Otherwise, call {@link #release} when done reading. */
+  final boolean acquire() {
+    while (true) {
+      int count = refCount.get();
+      if (count == 0) return false;
+      if (refCount.compareAndSet(count, count + 1)) return true;
+    }
+  }
+
+  /** Called when done reading an {@link #acquire() acquired} segment. */
+  final void release() throws IOException {
+    if (refCount.decrementAndGet() == 0) releaseResources();
+  }
+
+  /** Called once, after the segment is closed and there are no more readers. */
+  abstract void releaseResources() throws IOException;
+
+  /** Releases resources now, or when the last reader is done. */
+  @Override public final void close() throws IOException {
+    if (closeCalled.compareAndSet(false, true)) release();
+  }
+
+  /** Deletes this segment's files. Call after {@link #close()}. */
+  final void delete() {
+    // delete spans first, as segments are found by their spans file on open
+    spansFile.delete();
+    indexFile.delete();
+    namesFile.delete();
+  }
+
+  @Override public String toString() {
+    return getClass().getSimpleName() + "{" + spansFile + "}";
+  }
+}
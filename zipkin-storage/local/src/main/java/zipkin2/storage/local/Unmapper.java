@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/** Releases memory-mapped buffers through JRE internals, looked up once on first use. */
+final class Unmapper {
+  static final Object UNSAFE;
+  static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try { // JRE 9+
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+    } catch (Exception e) {
+      invokeCleaner = null; // JRE 8, or access is denied
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  /**
+   * Releases the memory of a direct or memory-mapped buffer now, as opposed to when it is garbage
+   * collected. Returns false if the JRE doesn't allow this.
+   *
+   * <p>Reading the buffer, or any slice of it, after this returns true can crash the JVM.
+   */
+  static boolean unmap(ByteBuffer buffer) {
+    if (!buffer.isDirect()) return false;
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        return true;
+      }
+      // JRE 8 direct buffers implement sun.nio.ch.DirectBuffer.cleaner()
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner == null) return false; // slices and duplicates don't own the memory
+      Method clean = cleaner.getClass().getMethod("clean");
+      clean.setAccessible(true);
+      clean.invoke(cleaner);
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private Unmapper() {}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import org.junit.Rule;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+@RunWith(Enclosed.class)
+public class ITLocalStorage {
+
+  public static class ITSpanStore extends zipkin2.storage.ITSpanStore {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      if (storage == null) storage = LocalStorage.newBuilder().directory(folder.getRoot()).build();
+      return storage;
+    }
+
+    @Override public void clear() {
+      storage().clear();
+    }
+  }
+
+  public static class ITSearchEnabledFalse extends zipkin2.storage.ITSearchEnabledFalse {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      if (storage == null) {
+        storage = LocalStorage.newBuilder().directory(folder.getRoot()).searchEnabled(false).build();
+      }
+      return storage;
+    }
+
+    @Override public void clear() {
+      storage().clear();
+    }
+  }
+
+  public static class ITStrictTraceIdFalse extends zipkin2.storage.ITStrictTraceIdFalse {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      if (storage == null) {
+        storage = LocalStorage.newBuilder().directory(folder.getRoot()).strictTraceId(false).build();
+      }
+      return storage;
+    }
+
+    @Override public void clear() {
+      storage().clear();
+    }
+  }
+
+  public static class ITDependencies extends zipkin2.storage.ITDependencies {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      if (storage == null) storage = LocalStorage.newBuilder().directory(folder.getRoot()).build();
+      return storage;
+    }
+
+    @Override public void clear() {
+      storage().clear();
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.QueryRequest;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.DAY;
+import static zipkin2.TestObjects.FRONTEND;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+
+public class LocalStorageTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  LocalStorage storage;
+
+  @After public void close() throws IOException {
+    if (storage != null) storage.close();
+  }
+
+  LocalStorage.Builder builder() {
+    return LocalStorage.newBuilder().directory(folder.getRoot());
+  }
+
+  @Test public void survivesRestart() throws IOException {
+    storage = builder().build();
+    storage.accept(TRACE).execute();
+    storage.close();
+
+    storage = builder().build();
+    assertThat(storage.getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactlyInAnyOrderElementsOf(TRACE);
+    assertThat(storage.getServiceNames().execute())
+      .containsExactly("backend", "db", "frontend");
+  }
+
+  @Test public void survivesRestart_sealedSegments() throws IOException {
+    storage = builder().maxSegmentBytes(1).build();
+    for (Span span : TRACE) storage.accept(asList(span)).execute();
+    assertThat(storage.segments()).hasSize(TRACE.size());
+    storage.close();
+
+    storage = builder().maxSegmentBytes(1).build();
+    assertThat(storage.getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactlyInAnyOrderElementsOf(TRACE);
+    assertThat(storage.segments().get(0)).isInstanceOf(SealedSegment.class);
+  }
+
+  @Test public void recoversFromTruncatedRecord() throws IOException {
+    storage = builder().build();
+    storage.accept(TRACE).execute();
+    storage.close();
+
+    File spansFile = storage.segments.get(0).spansFile;
+    Files.write(spansFile.toPath(), new byte[] {0, 0, 0, 10, 1, 2}, StandardOpenOption.APPEND);
+
+    storage = builder().build();
+    assertThat(storage.getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactlyInAnyOrderElementsOf(TRACE);
+
+    // appends after the last complete record
+    Span next = CLIENT_SPAN.toBuilder().traceId("2").build();
+    storage.accept(asList(next)).execute();
+    storage.close();
+
+    storage = builder().build();
+    assertThat(storage.getTrace("2").execute()).containsExactly(next);
+  }
+
+  @Test public void maxBytes_deletesOldestSegments() throws IOException {
+    storage = builder().maxSegmentBytes(1).maxBytes(1).build();
+    List<File> spansFiles = new ArrayList<>();
+    for (Span span : TRACE) {
+      storage.accept(asList(span)).execute();
+      spansFiles.add(storage.segments().get(storage.segments().size() - 1).spansFile);
+    }
+
+    // only the active segment is left
+    assertThat(storage.segments()).hasSize(1);
+    assertThat(spansFiles.subList(0, spansFiles.size() - 1)).noneMatch(File::exists);
+    assertThat(storage.getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactly(TRACE.get(TRACE.size() - 1));
+  }
+
+  @Test public void retentionMillis_deletesExpiredSegments() throws IOException {
+    storage = builder().maxSegmentBytes(1).retentionMillis(TimeUnit.DAYS.toMillis(1)).build();
+    long now = System.currentTimeMillis() * 1000L;
+    Span expired = CLIENT_SPAN.toBuilder().traceId("1").timestamp(now - TimeUnit.DAYS.toMicros(2))
+      .build();
+    Span retained = CLIENT_SPAN.toBuilder().traceId("2").timestamp(now).build();
+
+    storage.accept(asList(expired)).execute();
+    storage.accept(asList(retained)).execute();
+    storage.accept(asList(retained.toBuilder().traceId("3").build())).execute();
+
+    assertThat(storage.getTrace("1").execute()).isEmpty();
+    assertThat(storage.getTrace("2").execute()).containsExactly(retained);
+  }
+
+  @Test public void maxBytes_releasesDeletedSegmentAfterLastReader() throws IOException {
+    Span span = CLIENT_SPAN.toBuilder().id("1").build();
+    int recordSize = 4 + SpanBytesEncoder.PROTO3.encodeList(asList(span)).length;
+    storage = builder().maxSegmentBytes(1).maxBytes(recordSize).build();
+    storage.accept(asList(span)).execute();
+    storage.accept(asList(span.toBuilder().id("2").build())).execute();
+
+    List<Segment> segments = storage.acquireSegments();
+    Segment oldest = segments.get(0);
+    storage.accept(asList(span.toBuilder().id("3").build())).execute(); // deletes the oldest
+
+    assertThat(storage.segments()).doesNotContain(oldest);
+    assertThat(oldest.spansFile).doesNotExist();
+    List<Span> stillReadable = new ArrayList<>();
+    oldest.readTrace(span.traceIdLow(), stillReadable);
+    assertThat(stillReadable).containsExactly(span);
+    assertThat(oldest.refCount.get()).isEqualTo(1);
+
+    LocalStorage.release(segments);
+    assertThat(oldest.refCount.get()).isZero();
+    assertThat(oldest.acquire()).isFalse();
+  }
+
+  @Test public void getTraces_serviceNameInSegmentWithoutTimestampsInRange() throws IOException {
+    storage = builder().maxSegmentBytes(1).build();
+    long timestamp = TODAY * 1000L;
+    Span root = Span.newBuilder().traceId("1").id("1").name("get")
+      .localEndpoint(FRONTEND).timestamp(timestamp).duration(10_000L).build();
+    Span child = Span.newBuilder().traceId("1").parentId("1").id("2").name("get")
+      .localEndpoint(BACKEND).timestamp(timestamp + 1000L).duration(8_000L).build();
+
+    storage.accept(asList(root)).execute();
+    storage.accept(asList(child)).execute(); // the only backend span is in the next segment
+
+    // the backend span is after endTs, yet the trace's root timestamp matches
+    assertThat(storage.getTraces(QueryRequest.newBuilder()
+      .serviceName("backend").endTs(TODAY).lookback(DAY).limit(10).build()).execute())
+      .containsExactly(asList(root, child));
+  }
+
+  @Test public void clear_deletesFiles() throws IOException {
+    storage = builder().maxSegmentBytes(1).build();
+    for (Span span : TRACE) storage.accept(asList(span)).execute();
+
+    storage.clear();
+
+    assertThat(folder.getRoot().listFiles()).isEmpty();
+    assertThat(storage.getServiceNames().execute()).isEmpty();
+  }
+}
@@ -13,9 +13,11 @@
  */
 package zipkin2.storage.mysql.v1;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import org.jooq.Cursor;
 import org.jooq.DSLContext;
@@ -25,13 +27,15 @@ import org.jooq.SelectConditionStep;
 import org.jooq.SelectHavingStep;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
-import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.ParallelDependencyLinker;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans;
 
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
 
 final class AggregateDependencies implements Function<DSLContext, List<DependencyLink>> {
+  static final int PARTITION_SIZE = 1000;
+
   final Schema schema;
   final long startTsBegin, startTsEnd;
 
@@ -71,11 +75,19 @@ final class AggregateDependencies implements Function<DSLContext, List<Dependenc
 
     if (!traces.hasNext()) return Collections.emptyList();
 
-    DependencyLinker linker = new DependencyLinker();
-
+    // Link partitions of traces on other threads while we read the next partition from the cursor
+    ParallelDependencyLinker linker = new ParallelDependencyLinker(ForkJoinPool.commonPool());
+    List<List<Span>> partition = new ArrayList<>(PARTITION_SIZE);
     while (traces.hasNext()) {
-      linker.putTrace(traces.next());
+      List<Span> trace = new ArrayList<>();
+      traces.next().forEachRemaining(trace::add);
+      partition.add(trace);
+      if (partition.size() == PARTITION_SIZE) {
+        linker.putTraces(partition);
+        partition = new ArrayList<>(PARTITION_SIZE);
+      }
     }
+    if (!partition.isEmpty()) linker.putTraces(partition);
 
     return linker.link();
   }
@@ -15,11 +15,13 @@ package zipkin2.storage.mysql.v1;
 
 import java.sql.Connection;
 import org.jooq.DSLContext;
+import org.jooq.ExecuteListener;
 import org.jooq.ExecuteListenerProvider;
 import org.jooq.SQLDialect;
 import org.jooq.conf.Settings;
 import org.jooq.impl.DSL;
 import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultExecuteListenerProvider;
 import zipkin2.internal.Nullable;
 
 final class DSLContexts {
@@ -39,4 +41,17 @@ final class DSLContexts {
             .set(settings)
             .set(listenerProvider));
   }
+
+  /** Like {@link #get(Connection)}, except {@code listener} is notified of each statement. */
+  DSLContext get(Connection conn, ExecuteListener listener) {
+    ExecuteListenerProvider provider = new DefaultExecuteListenerProvider(listener);
+    return DSL.using(
+        new DefaultConfiguration()
+            .set(conn)
+            .set(SQLDialect.MYSQL)
+            .set(settings)
+            .set(listenerProvider != null
+                ? new ExecuteListenerProvider[] {listenerProvider, provider}
+                : new ExecuteListenerProvider[] {provider}));
+  }
 }
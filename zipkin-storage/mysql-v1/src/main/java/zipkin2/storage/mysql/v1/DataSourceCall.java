@@ -16,14 +16,21 @@ package zipkin2.storage.mysql.v1;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
 import javax.sql.DataSource;
 import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.impl.DefaultExecuteListener;
 import zipkin2.Call;
 import zipkin2.Callback;
 
-/** Uncancelable call built with an executor */
+/**
+ * Call built with an executor. A call canceled while waiting for the executor won't use a
+ * connection, and canceling a running call cancels its current statement, which releases the
+ * connection instead of holding it until an abandoned query finishes.
+ */
 final class DataSourceCall<V> extends Call.Base<V> {
 
   static final class Factory {
@@ -44,6 +51,8 @@ final class DataSourceCall<V> extends Call.Base<V> {
 
   final Factory factory;
   final Function<DSLContext, V> queryFunction;
+  /** The statement in progress, or null when none is */
+  volatile Statement statement;
 
   DataSourceCall(Factory factory, Function<DSLContext, V> queryFunction) {
     this.factory = factory;
@@ -53,7 +62,7 @@ final class DataSourceCall<V> extends Call.Base<V> {
   @Override
   protected final V doExecute() throws IOException {
     try (Connection conn = factory.datasource.getConnection()) {
-      DSLContext context = factory.context.get(conn);
+      DSLContext context = factory.context.get(conn, new StatementTracker());
       return queryFunction.apply(context);
     } catch (SQLException e) {
       throw new IOException(e);
@@ -65,6 +74,10 @@ final class DataSourceCall<V> extends Call.Base<V> {
     class CallbackRunnable implements Runnable {
       @Override
       public void run() {
+        if (isCanceled()) { // ex. the caller gave up while this was queued
+          callback.onError(new IOException("Canceled"));
+          return;
+        }
         try {
           callback.onSuccess(doExecute());
         } catch (IOException e) {
@@ -83,6 +96,35 @@ final class DataSourceCall<V> extends Call.Base<V> {
     factory.executor.execute(new CallbackRunnable());
   }
 
+  @Override
+  protected void doCancel() {
+    Statement maybeStatement = statement;
+    if (maybeStatement != null) cancelQuietly(maybeStatement);
+  }
+
+  static void cancelQuietly(Statement statement) {
+    try {
+      statement.cancel();
+    } catch (SQLException | RuntimeException e) {
+      // the statement may have completed or closed concurrently
+    }
+  }
+
+  /** Tracks the statement in progress, so that {@link #doCancel()} can stop it. */
+  final class StatementTracker extends DefaultExecuteListener {
+    @Override
+    public void executeStart(ExecuteContext ctx) {
+      Statement current = ctx.statement();
+      statement = current;
+      if (isCanceled()) cancelQuietly(current); // canceled before the statement was visible
+    }
+
+    @Override
+    public void end(ExecuteContext ctx) { // after results are fetched
+      statement = null;
+    }
+  }
+
   @Override
   public String toString() {
     return queryFunction.toString();
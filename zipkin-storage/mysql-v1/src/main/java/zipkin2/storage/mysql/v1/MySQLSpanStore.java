@@ -13,7 +13,9 @@
  */
 package zipkin2.storage.mysql.v1;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
@@ -21,11 +23,14 @@ import zipkin2.storage.GroupByTraceId;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.StrictTraceId;
+import zipkin2.storage.TracePage;
+import zipkin2.storage.TracePages;
+import zipkin2.storage.Traces;
 
 import static zipkin2.internal.DateUtil.getDays;
 import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
-final class MySQLSpanStore implements SpanStore {
+final class MySQLSpanStore implements SpanStore, Traces, TracePages {
 
   final DataSourceCall.Factory dataSourceCallFactory;
   final Schema schema;
@@ -55,6 +60,12 @@ final class MySQLSpanStore implements SpanStore {
     return strictTraceId ? result.map(StrictTraceId.filterTraces(request)) : result;
   }
 
+  @Override
+  public Call<TracePage> getTracePage(QueryRequest request) {
+    return dataSourceCallFactory.create(new SelectTracePage(
+        selectFromSpansAndAnnotationsFactory, groupByTraceId, strictTraceId, request));
+  }
+
   @Override
   public Call<List<Span>> getTrace(String hexTraceId) {
     // make sure we have a 16 or 32 character trace ID
@@ -68,6 +79,26 @@ final class MySQLSpanStore implements SpanStore {
     return strictTraceId ? result.map(StrictTraceId.filterSpans(hexTraceId)) : result;
   }
 
+  /** Selects all traces with one {@code IN} condition, as opposed to a query each. */
+  @Override
+  public Call<List<List<Span>>> getTraces(Iterable<String> hexTraceIds) {
+    Set<Pair> traceIds = new LinkedHashSet<>();
+    for (String hexTraceId : hexTraceIds) {
+      // make sure we have a 16 or 32 character trace ID
+      hexTraceId = Span.normalizeTraceId(hexTraceId);
+      long traceIdHigh = hexTraceId.length() == 32 ? lowerHexToUnsignedLong(hexTraceId, 0) : 0L;
+      if (!strictTraceId) traceIdHigh = 0L;
+      traceIds.add(new Pair(traceIdHigh, lowerHexToUnsignedLong(hexTraceId)));
+    }
+    if (traceIds.isEmpty()) return Call.emptyList();
+
+    Call<List<List<Span>>> result =
+        dataSourceCallFactory
+            .create(selectFromSpansAndAnnotationsFactory.create(traceIds))
+            .map(groupByTraceId);
+    return strictTraceId ? result.map(StrictTraceId.filterTraces(hexTraceIds)) : result;
+  }
+
   @Override
   public Call<List<String>> getServiceNames() {
     return getServiceNamesCall.clone();
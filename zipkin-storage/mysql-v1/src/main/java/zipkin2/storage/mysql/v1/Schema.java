@@ -122,6 +122,32 @@ final class Schema {
         : ZIPKIN_SPANS.TRACE_ID.eq(traceIdLow);
   }
 
+  /** Matches any of the trace IDs, where {@link Pair#left} is the high bits or zero if 64-bit. */
+  Condition spanTraceIdCondition(Set<Pair> traceIds) {
+    boolean hasTraceIdHigh = false;
+    for (Pair traceId : traceIds) {
+      if (traceId.left != 0) {
+        hasTraceIdHigh = true;
+        break;
+      }
+    }
+    if (hasTraceIdHigh && this.hasTraceIdHigh && strictTraceId) {
+      Row2[] result = new Row2[traceIds.size()];
+      int i = 0;
+      for (Pair traceId128 : traceIds) {
+        result[i++] = row(traceId128.left, traceId128.right);
+      }
+      return row(ZIPKIN_SPANS.TRACE_ID_HIGH, ZIPKIN_SPANS.TRACE_ID).in(result);
+    } else {
+      Long[] result = new Long[traceIds.size()];
+      int i = 0;
+      for (Pair traceId128 : traceIds) {
+        result[i++] = traceId128.right;
+      }
+      return ZIPKIN_SPANS.TRACE_ID.in(result);
+    }
+  }
+
   Condition annotationsTraceIdCondition(Set<Pair> traceIds) {
     boolean hasTraceIdHigh = false;
     for (Pair traceId : traceIds) {
@@ -17,16 +17,19 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Row3;
 import org.jooq.SelectConditionStep;
 import org.jooq.SelectField;
 import org.jooq.SelectOffsetStep;
 import org.jooq.TableOnConditionStep;
+import org.jooq.impl.DSL;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.Nullable;
@@ -64,6 +67,15 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
       };
     }
 
+    SelectSpansAndAnnotations create(Set<Pair> traceIds) {
+      return new SelectSpansAndAnnotations(schema) {
+        @Override
+        Condition traceIdCondition(DSLContext context) {
+          return schema.spanTraceIdCondition(traceIds);
+        }
+      };
+    }
+
     SelectSpansAndAnnotations create(QueryRequest request) {
       return new SelectSpansAndAnnotations(schema) {
         @Override
@@ -178,6 +190,16 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
   }
 
   SelectOffsetStep<? extends Record> toTraceIdQuery(DSLContext context, QueryRequest request) {
+    return toTraceIdQuery(context, request, null);
+  }
+
+  /**
+   * Selects trace IDs matching the request with their latest matching timestamp, most recent
+   * first. When {@code after} is set, this continues after that timestamp ({@link Pair#left}) and
+   * trace ID ({@link Pair#right}), which is the position of the last row of a prior page.
+   */
+  SelectOffsetStep<? extends Record> toTraceIdQuery(
+      DSLContext context, QueryRequest request, @Nullable Pair after) {
     long endTs = request.endTs() * 1000;
 
     TableOnConditionStep<?> table =
@@ -230,8 +252,14 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
     } else if (request.minDuration() != null) {
       dsl.and(ZIPKIN_SPANS.DURATION.greaterOrEqual(request.minDuration()));
     }
+    Field<Long> maxStartTs = ZIPKIN_SPANS.START_TS.max();
+    Condition afterCondition = after == null
+        ? DSL.trueCondition()
+        : maxStartTs.lt(after.left)
+            .or(maxStartTs.eq(after.left).and(ZIPKIN_SPANS.TRACE_ID.lt(after.right)));
     return dsl.groupBy(schema.spanIdFields)
-        .orderBy(ZIPKIN_SPANS.START_TS.max().desc())
+        .having(afterCondition)
+        .orderBy(maxStartTs.desc(), ZIPKIN_SPANS.TRACE_ID.desc())
         .limit(request.limit());
   }
 
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.StrictTraceId;
+import zipkin2.storage.TracePage;
+
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
+import static zipkin2.storage.mysql.v1.Schema.maybeGet;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
+
+/**
+ * Selects a page of traces with a cursor of the timestamp and trace ID of the last row of the prior
+ * page. As the trace ID query is ordered by these, the next page seeks past prior traces instead of
+ * selecting them again. Ex. "1533081600000000-463ac35c9f6413ad"
+ */
+final class SelectTracePage implements Function<DSLContext, TracePage> {
+  final SelectSpansAndAnnotations.Factory factory;
+  final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId;
+  final boolean strictTraceId;
+  final QueryRequest request;
+  @Nullable final Pair after;
+
+  SelectTracePage(SelectSpansAndAnnotations.Factory factory,
+      Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId, boolean strictTraceId,
+      QueryRequest request) {
+    this.factory = factory;
+    this.groupByTraceId = groupByTraceId;
+    this.strictTraceId = strictTraceId;
+    this.request = request;
+    this.after = request.cursor() != null ? parseCursor(request.cursor()) : null;
+  }
+
+  @Override
+  public TracePage apply(DSLContext context) {
+    Result<? extends Record> rows =
+        factory.create(request).toTraceIdQuery(context, request, after).fetch();
+    if (rows.isEmpty()) return TracePage.create(Collections.emptyList(), null);
+
+    Set<Pair> traceIds = new LinkedHashSet<>();
+    for (Record row : rows) {
+      traceIds.add(new Pair(maybeGet(row, ZIPKIN_SPANS.TRACE_ID_HIGH, 0L),
+          row.get(ZIPKIN_SPANS.TRACE_ID)));
+    }
+    List<List<Span>> traces = groupByTraceId.map(factory.create(traceIds).apply(context));
+    if (strictTraceId) traces = StrictTraceId.filterTraces(request).map(traces);
+
+    String nextCursor = null;
+    if (rows.size() == request.limit()) { // there may be more
+      Record last = rows.get(rows.size() - 1);
+      long timestamp = last.get(last.size() - 1, Long.class); // max(start_ts) is the last field
+      String traceId = Span.normalizeTraceId(Long.toHexString(last.get(ZIPKIN_SPANS.TRACE_ID)));
+      nextCursor = timestamp + "-" + traceId;
+    }
+    return TracePage.create(traces, nextCursor);
+  }
+
+  static Pair parseCursor(String cursor) {
+    int dash = cursor.indexOf('-');
+    if (dash == -1 || cursor.length() - dash - 1 != 16) {
+      throw new IllegalArgumentException("invalid cursor: " + cursor);
+    }
+    try {
+      long timestamp = Long.parseLong(cursor.substring(0, dash));
+      return new Pair(timestamp, lowerHexToUnsignedLong(cursor, dash + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid cursor: " + cursor);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SelectTracePage{request=" + request + "}";
+  }
+}
@@ -14,8 +14,13 @@
 package zipkin2;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -132,6 +137,26 @@ public abstract class Call<V> implements Cloneable {
     return new ErrorHandling<>(errorHandler, this);
   }
 
+  /**
+   * Returns a call which fails with an {@link InterruptedIOException} when this one hasn't
+   * completed before the timeout, canceling it. This bounds how long a slow or abandoned request
+   * can hold resources, such as a server thread or storage connections.
+   *
+   * <p>The {@code scheduler} only signals the timeout, so it can be shared by many calls. A
+   * callback is signaled at the timeout regardless of whether this call supports {@linkplain
+   * #cancel() cancelation}. However, a blocking {@linkplain #execute() execute} can only return
+   * early when it does.
+   *
+   * <p>This method intends to be used for chaining. That means "this" instance should be discarded
+   * in favor of the result of this method.
+   */
+  public final Call<V> timeout(long timeout, TimeUnit unit, ScheduledExecutorService scheduler) {
+    if (unit == null) throw new NullPointerException("unit == null");
+    if (scheduler == null) throw new NullPointerException("scheduler == null");
+    if (timeout <= 0) throw new IllegalArgumentException("timeout <= 0");
+    return new Timeout<>(this, unit.toMillis(timeout), scheduler);
+  }
+
   // Taken from RxJava throwIfFatal, which was taken from scala
   public static void propagateIfFatal(Throwable t) {
     if (t instanceof VirtualMachineError) {
@@ -253,6 +278,10 @@ public abstract class Call<V> implements Cloneable {
       });
     }
 
+    @Override protected void doCancel() {
+      delegate.cancel();
+    }
+
     @Override public String toString() {
       return "Mapping{call=" + delegate + ", mapper=" + mapper + "}";
     }
@@ -273,14 +302,14 @@ public abstract class Call<V> implements Cloneable {
     }
 
     @Override protected R doExecute() throws IOException {
-      return (mapped = flatMapper.map(delegate.execute())).execute();
+      return map(delegate.execute()).execute();
     }
 
     @Override protected void doEnqueue(final Callback<R> callback) {
       delegate.enqueue(new Callback<V>() {
         @Override public void onSuccess(V value) {
           try {
-            (mapped = flatMapper.map(value)).enqueue(callback);
+            map(value).enqueue(callback);
           } catch (Throwable t) {
             callback.onError(t);
           }
@@ -292,9 +321,16 @@ public abstract class Call<V> implements Cloneable {
       });
     }
 
+    Call<R> map(V value) {
+      Call<R> result = mapped = flatMapper.map(value);
+      if (isCanceled()) result.cancel(); // canceled while the delegate was completing
+      return result;
+    }
+
     @Override protected void doCancel() {
       delegate.cancel();
-      if (mapped != null) mapped.cancel();
+      Call<R> maybeMapped = mapped;
+      if (maybeMapped != null) maybeMapped.cancel();
     }
 
     @Override public String toString() {
@@ -360,6 +396,102 @@ public abstract class Call<V> implements Cloneable {
     }
   }
 
+  static final class Timeout<V> extends Base<V> {
+    final Call<V> delegate;
+    final long timeoutMillis;
+    final ScheduledExecutorService scheduler;
+    volatile ScheduledFuture<?> timer;
+    volatile boolean timedOut;
+
+    Timeout(Call<V> delegate, long timeoutMillis, ScheduledExecutorService scheduler) {
+      this.delegate = delegate;
+      this.timeoutMillis = timeoutMillis;
+      this.scheduler = scheduler;
+    }
+
+    @Override protected V doExecute() throws IOException {
+      ScheduledFuture<?> timer = schedule(new Runnable() {
+        @Override public void run() {
+          timedOut = true;
+          delegate.cancel();
+        }
+      });
+      try {
+        return delegate.execute();
+      } catch (IOException | RuntimeException e) {
+        if (!timedOut) throw e;
+        throw timeoutException(e);
+      } finally {
+        timer.cancel(false);
+      }
+    }
+
+    @Override protected void doEnqueue(Callback<V> callback) {
+      TimeoutCallback timeoutCallback = new TimeoutCallback(callback);
+      timeoutCallback.timer = schedule(timeoutCallback);
+      delegate.enqueue(timeoutCallback);
+    }
+
+    ScheduledFuture<?> schedule(Runnable onTimeout) {
+      return timer = scheduler.schedule(onTimeout, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    InterruptedIOException timeoutException(Throwable cause) {
+      InterruptedIOException result =
+          new InterruptedIOException("Timed out after " + timeoutMillis + "ms");
+      if (cause != null) result.initCause(cause);
+      return result;
+    }
+
+    /** Signals the callback once: either on completion or when the timeout fires. */
+    final class TimeoutCallback implements Callback<V>, Runnable {
+      final AtomicBoolean done = new AtomicBoolean();
+      final Callback<V> delegate;
+      volatile ScheduledFuture<?> timer;
+
+      TimeoutCallback(Callback<V> delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override public void run() {
+        timedOut = true;
+        Timeout.this.delegate.cancel();
+        if (done.compareAndSet(false, true)) delegate.onError(timeoutException(null));
+      }
+
+      @Override public void onSuccess(V value) {
+        if (!done.compareAndSet(false, true)) return;
+        cancelTimer();
+        delegate.onSuccess(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        if (!done.compareAndSet(false, true)) return;
+        cancelTimer();
+        delegate.onError(t);
+      }
+
+      void cancelTimer() {
+        ScheduledFuture<?> maybeTimer = timer;
+        if (maybeTimer != null) maybeTimer.cancel(false);
+      }
+    }
+
+    @Override protected void doCancel() {
+      delegate.cancel();
+      ScheduledFuture<?> maybeTimer = timer;
+      if (maybeTimer != null) maybeTimer.cancel(false);
+    }
+
+    @Override public String toString() {
+      return "Timeout{call=" + delegate + ", timeoutMillis=" + timeoutMillis + "}";
+    }
+
+    @Override public Call<V> clone() {
+      return new Timeout<>(delegate.clone(), timeoutMillis, scheduler);
+    }
+  }
+
   public static abstract class Base<V> extends Call<V> {
     volatile boolean canceled;
     boolean executed;
@@ -64,6 +64,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   static final int FLAG_DEBUG_SET = 1 << 2;
   static final int FLAG_SHARED = 1 << 3;
   static final int FLAG_SHARED_SET = 1 << 4;
+  static final int FLAG_TRACE_ID_128 = 1 << 5; // set even if the upper 64-bits are zero
+  static final int FLAG_PARENT_ID_SET = 1 << 6; // set even if the parent ID is all zeros
 
   private static final long serialVersionUID = 0L;
 
@@ -77,7 +79,35 @@ public final class Span implements Serializable { // for Spark and Flink jobs
    * For example, {@code 4e441824ec2b6a44ffdc9bb9a6453df3} becomes {@code ffdc9bb9a6453df3}.
    */
   public String traceId() {
-    return traceId;
+    String result = traceIdString;
+    if (result != null) return result;
+    boolean traceId128 = traceId128();
+    char[] data = new char[traceId128 ? 32 : 16];
+    int pos = 0;
+    if (traceId128) {
+      writeHexLong(data, pos, traceIdHigh);
+      pos += 16;
+    }
+    writeHexLong(data, pos, traceIdLow);
+    return traceIdString = new String(data);
+  }
+
+  /** Upper 64-bits of the {@link #traceId()}, or zero if it is a 64-bit trace ID. */
+  public long traceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /**
+   * True if the {@link #traceId()} is 32 characters. This is usually the same as a non-zero {@link
+   * #traceIdHigh()}, except a 128-bit trace ID can be reported with its upper 64-bits zero.
+   */
+  public boolean traceId128() {
+    return (flags & FLAG_TRACE_ID_128) != 0;
+  }
+
+  /** Lower 64-bits of the {@link #traceId()}. */
+  public long traceIdLow() {
+    return traceIdLow;
   }
 
   /**
@@ -86,6 +116,14 @@ public final class Span implements Serializable { // for Spark and Flink jobs
    * <p>This is the same encoding as {@link #id}. For example {@code ffdc9bb9a6453df3}
    */
   @Nullable public String parentId() {
+    if ((flags & FLAG_PARENT_ID_SET) == 0) return null;
+    String result = parentIdString;
+    if (result != null) return result;
+    return parentIdString = toLowerHex(parentId);
+  }
+
+  /** Like {@link #parentId()} except zero means null or all zeros. */
+  public long parentIdAsLong() {
     return parentId;
   }
 
@@ -97,6 +135,13 @@ public final class Span implements Serializable { // for Spark and Flink jobs
    * <p>A span is uniquely identified in storage by ({@linkplain #traceId}, {@linkplain #id()}).
    */
   public String id() {
+    String result = idString;
+    if (result != null) return result;
+    return idString = toLowerHex(id);
+  }
+
+  /** The {@link #id()} as a long. */
+  public long idAsLong() {
     return id;
   }
 
@@ -279,7 +324,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   }
 
   public static final class Builder {
-    String traceId, parentId, id;
+    long traceIdHigh, traceIdLow, parentId, id; // parentId is only set with its flag
+    boolean hasTraceId, hasId;
     Kind kind;
     String name;
     long timestamp, duration; // zero means null
@@ -289,9 +335,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     int flags = 0; // bit field for timestamp and duration
 
     public Builder clear() {
-      traceId = null;
-      parentId = null;
-      id = null;
+      traceIdHigh = traceIdLow = parentId = id = 0L;
+      hasTraceId = hasId = false;
       kind = null;
       name = null;
       timestamp = 0L;
@@ -306,9 +351,12 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
     @Override public Builder clone() {
       Builder result = new Builder();
-      result.traceId = traceId;
+      result.traceIdHigh = traceIdHigh;
+      result.traceIdLow = traceIdLow;
       result.parentId = parentId;
       result.id = id;
+      result.hasTraceId = hasTraceId;
+      result.hasId = hasId;
       result.kind = kind;
       result.name = name;
       result.timestamp = timestamp;
@@ -326,9 +374,11 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     }
 
     Builder(Span source) {
-      traceId = source.traceId;
+      traceIdHigh = source.traceIdHigh;
+      traceIdLow = source.traceIdLow;
       parentId = source.parentId;
       id = source.id;
+      hasTraceId = hasId = true;
       kind = source.kind;
       name = source.name;
       timestamp = source.timestamp;
@@ -359,7 +409,19 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * @see Span#id()
      */
     public Builder traceId(String traceId) {
-      this.traceId = normalizeTraceId(traceId);
+      if (traceId == null) throw new NullPointerException("traceId == null");
+      int length = traceId.length();
+      if (length == 0) throw new IllegalArgumentException("traceId is empty");
+      if (length > 32) throw new IllegalArgumentException("traceId.length > 32");
+      int lowIndex = length > 16 ? length - 16 : 0;
+      traceIdHigh = lowerHexToLong(traceId, 0, lowIndex);
+      traceIdLow = lowerHexToLong(traceId, lowIndex, length);
+      hasTraceId = true;
+      if (length > 16) {
+        flags |= FLAG_TRACE_ID_128;
+      } else {
+        flags &= ~FLAG_TRACE_ID_128;
+      }
       return this;
     }
 
@@ -372,14 +434,14 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder traceId(long high, long low) {
       if (high == 0L && low == 0L) throw new IllegalArgumentException("empty trace ID");
-      char[] result = new char[high != 0L ? 32 : 16];
-      int pos = 0;
+      traceIdHigh = high;
+      traceIdLow = low;
+      hasTraceId = true;
       if (high != 0L) {
-        writeHexLong(result, pos, high);
-        pos += 16;
+        flags |= FLAG_TRACE_ID_128;
+      } else {
+        flags &= ~FLAG_TRACE_ID_128;
       }
-      writeHexLong(result, pos, low);
-      this.traceId =  new String(result);
       return this;
     }
 
@@ -390,7 +452,12 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * @see Span#parentId()
      */
     public Builder parentId(long parentId) {
-      this.parentId = parentId != 0L ? toLowerHex(parentId) : null;
+      this.parentId = parentId;
+      if (parentId != 0L) {
+        flags |= FLAG_PARENT_ID_SET;
+      } else {
+        flags &= ~FLAG_PARENT_ID_SET;
+      }
       return this;
     }
 
@@ -400,14 +467,15 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder parentId(@Nullable String parentId) {
       if (parentId == null) {
-        this.parentId = null;
+        this.parentId = 0L;
+        flags &= ~FLAG_PARENT_ID_SET;
         return this;
       }
       int length = parentId.length();
       if (length == 0) throw new IllegalArgumentException("parentId is empty");
       if (length > 16) throw new IllegalArgumentException("parentId.length > 16");
-      validateHex(parentId);
-      this.parentId = length < 16 ? padLeft(parentId, 16) : parentId;
+      this.parentId = lowerHexToLong(parentId, 0, length);
+      flags |= FLAG_PARENT_ID_SET; // even if all zeros, as that was what was reported
       return this;
     }
 
@@ -419,7 +487,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder id(long id) {
       if (id == 0L) throw new IllegalArgumentException("empty id");
-      this.id = toLowerHex(id);
+      this.id = id;
+      hasId = true;
       return this;
     }
 
@@ -432,8 +501,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       int length = id.length();
       if (length == 0) throw new IllegalArgumentException("id is empty");
       if (length > 16) throw new IllegalArgumentException("id.length > 16");
-      validateHex(id);
-      this.id = length < 16 ? padLeft(id, 16) : id;
+      this.id = lowerHexToLong(id, 0, length);
+      hasId = true;
       return this;
     }
 
@@ -545,8 +614,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
     public Span build() {
       String missing = "";
-      if (traceId == null) missing += " traceId";
-      if (id == null) missing += " id";
+      if (!hasTraceId) missing += " traceId";
+      if (!hasId) missing += " id";
       if (!"".equals(missing)) throw new IllegalStateException("Missing :" + missing);
       return new Span(this);
     }
@@ -611,6 +680,23 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     data[pos + 1] = HEX_DIGITS[b & 0xf];
   }
 
+  /** Parses the lower-hex characters in the range as an unsigned long. */
+  static long lowerHexToLong(String id, int beginIndex, int endIndex) {
+    long result = 0L;
+    for (int i = beginIndex; i < endIndex; i++) {
+      char c = id.charAt(i);
+      result <<= 4;
+      if (c >= '0' && c <= '9') {
+        result |= c - '0';
+      } else if (c >= 'a' && c <= 'f') {
+        result |= c - 'a' + 10;
+      } else {
+        throw new IllegalArgumentException(id + " should be lower-hex encoded with no prefix");
+      }
+    }
+    return result;
+  }
+
   static void validateHex(String id) {
     for (int i = 0, length = id.length(); i < length; i++) {
       char c = id.charAt(i);
@@ -631,7 +717,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
   // Custom impl to reduce GC churn and Kryo which cannot handle AutoValue subclass
   // See https://github.com/openzipkin/zipkin/issues/1879
-  final String traceId, parentId, id;
+  final long traceIdHigh, traceIdLow, parentId, id; // parentId is only set with its flag
   final Kind kind;
   final String name;
   final long timestamp, duration; // zero means null, saving 2 object references
@@ -639,9 +725,12 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   final List<Annotation> annotations;
   final Map<String, String> tags;
   final int flags; // bit field for timestamp and duration, saving 2 object references
+  // Hex encoding is deferred until needed, as many consumers only use the IDs as longs
+  String traceIdString, parentIdString, idString;
 
   Span(Builder builder) {
-    traceId = builder.traceId;
+    traceIdHigh = builder.traceIdHigh;
+    traceIdLow = builder.traceIdLow;
     parentId = builder.parentId;
     id = builder.id;
     kind = builder.kind;
@@ -659,9 +748,10 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     if (o == this) return true;
     if (!(o instanceof Span)) return false;
     Span that = (Span) o;
-    return (traceId.equals(that.traceId))
-      && ((parentId == null) ? (that.parentId == null) : parentId.equals(that.parentId))
-      && (id.equals(that.id))
+    return (traceIdHigh == that.traceIdHigh)
+      && (traceIdLow == that.traceIdLow)
+      && (parentId == that.parentId)
+      && (id == that.id)
       && ((kind == null) ? (that.kind == null) : kind.equals(that.kind))
       && ((name == null) ? (that.name == null) : name.equals(that.name))
       && (timestamp == that.timestamp)
@@ -678,11 +768,13 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   @Override public int hashCode() {
     int h = 1;
     h *= 1000003;
-    h ^= traceId.hashCode();
+    h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
+    h *= 1000003;
+    h ^= (int) ((traceIdLow >>> 32) ^ traceIdLow);
     h *= 1000003;
-    h ^= (parentId == null) ? 0 : parentId.hashCode();
+    h ^= (int) ((parentId >>> 32) ^ parentId);
     h *= 1000003;
-    h ^= id.hashCode();
+    h ^= (int) ((id >>> 32) ^ id);
     h *= 1000003;
     h ^= (kind == null) ? 0 : kind.hashCode();
     h *= 1000003;
@@ -29,7 +29,8 @@ import zipkin2.internal.Nullable;
  */
 // This receives a collection, not a function because it profiles 10% faster and all use cases are
 // collections. This receives collection as opposed to list as zipkin-dependencies decodes into a
-// set to dedupe redundant messages.
+// set to dedupe redundant messages. As elements are added as soon as they are decoded, a collection
+// that processes instead of retains elements can be used to stream a large message.
 public interface BytesDecoder<T> {
   Encoding encoding();
 
@@ -52,6 +53,14 @@ public interface BytesDecoder<T> {
   @Nullable T decodeOne(byte[] serialized);
 
   /**
+   * Each element is {@link Collection#add(Object) added} to the output as soon as it is decoded, as
+   * opposed to after the whole list is. This allows processing, such as sampling, to occur before
+   * the next element is decoded. For example, the collection could drop elements instead of
+   * retaining them.
+   *
+   * <p>Note: If an exception is raised, elements before the malformed one will have already been
+   * added.
+   *
    * @return true if an element was decoded
    * @throws {@linkplain IllegalArgumentException} if the type couldn't be decoded
    */
@@ -54,6 +54,9 @@ public enum DependencyLinkBytesDecoder implements BytesDecoder<DependencyLink> {
     }
   };
 
+  static final int PARENT = 0, CHILD = 1, CALL_COUNT = 2, ERROR_COUNT = 3;
+  static final byte[][] FIELDS = JsonCodec.names("parent", "child", "callCount", "errorCount");
+
   static final JsonCodec.JsonReaderAdapter<DependencyLink> READER =
       new JsonCodec.JsonReaderAdapter<DependencyLink>() {
         @Override
@@ -61,17 +64,21 @@ public enum DependencyLinkBytesDecoder implements BytesDecoder<DependencyLink> {
           DependencyLink.Builder result = DependencyLink.newBuilder();
           reader.beginObject();
           while (reader.hasNext()) {
-            String nextName = reader.nextName();
-            if (nextName.equals("parent")) {
-              result.parent(reader.nextString());
-            } else if (nextName.equals("child")) {
-              result.child(reader.nextString());
-            } else if (nextName.equals("callCount")) {
-              result.callCount(reader.nextLong());
-            } else if (nextName.equals("errorCount")) {
-              result.errorCount(reader.nextLong());
-            } else {
-              reader.skipValue();
+            switch (reader.selectName(FIELDS)) {
+              case PARENT:
+                result.parent(reader.nextString());
+                break;
+              case CHILD:
+                result.child(reader.nextString());
+                break;
+              case CALL_COUNT:
+                result.callCount(reader.nextLong());
+                break;
+              case ERROR_COUNT:
+                result.errorCount(reader.nextLong());
+                break;
+              default:
+                reader.skipValue();
             }
           }
           reader.endObject();
@@ -13,11 +13,13 @@
  */
 package zipkin2.codec;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import zipkin2.Span;
+import zipkin2.internal.Buffer;
 import zipkin2.internal.JsonCodec;
 import zipkin2.internal.Nullable;
 import zipkin2.internal.Proto3Codec;
@@ -134,6 +136,12 @@ public enum SpanBytesDecoder implements BytesDecoder<Span> {
       return Proto3Codec.readList(spans, out);
     }
 
+    /** Decodes directly from the buffer, without copying it into an array first. */
+    @Override
+    public boolean decodeList(ByteBuffer spans, Collection<Span> out) {
+      return Proto3Codec.readList(spans, out);
+    }
+
     @Override
     @Nullable
     public Span decodeOne(byte[] span) {
@@ -146,6 +154,24 @@ public enum SpanBytesDecoder implements BytesDecoder<Span> {
     }
   };
 
+  /**
+   * Like {@link #decodeList(byte[], Collection)}, except this reads the remaining bytes of the
+   * buffer, which may be direct. The buffer's position is not changed.
+   *
+   * <p>{@link #PROTO3} decodes directly from the buffer. Other formats decode a copy of its
+   * remaining bytes.
+   */
+  public boolean decodeList(ByteBuffer spans, Collection<Span> out) {
+    return decodeList(Buffer.toByteArray(spans), out);
+  }
+
+  /** Like {@link #decodeList(byte[])}, except this reads the remaining bytes of the buffer. */
+  public List<Span> decodeList(ByteBuffer spans) {
+    List<Span> out = new ArrayList<>();
+    if (!decodeList(spans, out)) return Collections.emptyList();
+    return out;
+  }
+
   static List<Span> decodeList(SpanBytesDecoder decoder, byte[] spans) {
     List<Span> out = new ArrayList<>();
     if (!decoder.decodeList(spans, out)) return Collections.emptyList();
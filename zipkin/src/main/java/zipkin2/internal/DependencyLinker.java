@@ -80,19 +80,17 @@ public final class DependencyLinker {
    * @param spans spans where all spans have the same trace id
    */
   public DependencyLinker putTrace(Iterator<Span> spans) {
-    List<Span> list = new ArrayList<>();
     if (!spans.hasNext()) return this;
     Span first = spans.next();
-    list.add(first);
     if (logger.isLoggable(FINE)) logger.fine("linking trace " + first.traceId());
 
     // Build a tree based on spanId and parentId values
-    Node.TreeBuilder<Span> builder = new Node.TreeBuilder<>(logger, MERGE_RPC, first.traceId());
-    builder.addNode(first.parentId(), first.id(), first);
+    Node.LongTreeBuilder<Span> builder =
+      new Node.LongTreeBuilder<>(logger, MERGE_RPC, first.traceId());
+    builder.addNode(first.parentIdAsLong(), first.idAsLong(), first);
     while (spans.hasNext()) {
       Span next = spans.next();
-      list.add(next);
-      builder.addNode(next.parentId(), next.id(), next);
+      builder.addNode(next.parentIdAsLong(), next.idAsLong(), next);
     }
 
     Node<Span> tree = builder.build();
@@ -181,7 +179,8 @@ public final class DependencyLinker {
         // When an RPC is split between spans, we skip the child (server side). If our parent is a
         // client, we need to check it for errors.
         if (!isError && Kind.CLIENT.equals(rpcAncestor.kind()) &&
-          currentSpan.parentId() != null && currentSpan.parentId().equals(rpcAncestor.id())) {
+          currentSpan.parentIdAsLong() != 0L
+          && currentSpan.parentIdAsLong() == rpcAncestor.idAsLong()) {
           isError = rpcAncestor.tags().containsKey("error");
         }
       }
@@ -227,6 +226,23 @@ public final class DependencyLinker {
     }
   }
 
+  /**
+   * Adds the call and error counts of the input to this. This allows traces to be linked in
+   * parallel, each partition with its own linker, then merged.
+   */
+  public DependencyLinker putAll(DependencyLinker other) {
+    addAll(callCounts, other.callCounts);
+    addAll(errorCounts, other.errorCounts);
+    return this;
+  }
+
+  static void addAll(Map<Pair, Long> counts, Map<Pair, Long> toAdd) {
+    for (Map.Entry<Pair, Long> entry : toAdd.entrySet()) {
+      Long count = counts.get(entry.getKey());
+      counts.put(entry.getKey(), count != null ? count + entry.getValue() : entry.getValue());
+    }
+  }
+
   public List<DependencyLink> link() {
     return link(callCounts, errorCounts);
   }
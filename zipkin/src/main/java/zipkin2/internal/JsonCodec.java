@@ -13,17 +13,14 @@
  */
 package zipkin2.internal;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
-import static com.google.gson.stream.JsonToken.BOOLEAN;
-import static com.google.gson.stream.JsonToken.NULL;
-import static com.google.gson.stream.JsonToken.STRING;
 import static java.lang.String.format;
 
 /**
@@ -41,82 +38,554 @@ import static java.lang.String.format;
  * this should be easy to justify as these objects don't change much at all.
  */
 public final class JsonCodec {
-  // Hides gson types for internal use in other submodules
+  /**
+   * A pull parser over UTF-8 encoded json, read directly from a byte array. This avoids decoding
+   * bytes into characters before parsing, and with {@link #selectName(byte[][])}, allocating a
+   * string for each field name.
+   *
+   * <p>This is modeled on gson and moshi's {@code JsonReader}, including their error messages and
+   * paths, but only supports features needed to read zipkin types.
+   */
   public static final class JsonReader {
-    final com.google.gson.stream.JsonReader delegate;
+    static final int
+      PEEKED_NONE = 0,
+      PEEKED_BEGIN_OBJECT = 1,
+      PEEKED_END_OBJECT = 2,
+      PEEKED_BEGIN_ARRAY = 3,
+      PEEKED_END_ARRAY = 4,
+      PEEKED_TRUE = 5,
+      PEEKED_FALSE = 6,
+      PEEKED_NULL = 7,
+      PEEKED_STRING = 8, // pos is after the opening quote
+      PEEKED_NAME = 9, // pos is after the opening quote
+      PEEKED_NUMBER = 10, // pos is at the first character
+      PEEKED_EOF = 11;
+
+    static final int
+      EMPTY_ARRAY = 1,
+      NONEMPTY_ARRAY = 2,
+      EMPTY_OBJECT = 3,
+      DANGLING_NAME = 4,
+      NONEMPTY_OBJECT = 5,
+      EMPTY_DOCUMENT = 6,
+      NONEMPTY_DOCUMENT = 7;
+
+    final byte[] bytes;
+    int pos, peeked = PEEKED_NONE;
+
+    // Parallel arrays describing each level of nesting. Names are recorded as the position of their
+    // first byte, so that they are only decoded when needed for an error message.
+    int[] stack = new int[32], pathIndices = new int[32], pathNames = new int[32];
+    int stackSize;
 
     JsonReader(byte[] bytes) {
-      delegate =
-        new com.google.gson.stream.JsonReader(
-          new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8));
+      this.bytes = bytes;
+      stack[stackSize++] = EMPTY_DOCUMENT;
     }
 
     public void beginArray() throws IOException {
-      delegate.beginArray();
+      if (peek() != PEEKED_BEGIN_ARRAY) throw unexpected("BEGIN_ARRAY");
+      push(EMPTY_ARRAY);
+      peeked = PEEKED_NONE;
     }
 
     public boolean hasNext() throws IOException {
-      return delegate.hasNext();
+      int p = peek();
+      return p != PEEKED_END_OBJECT && p != PEEKED_END_ARRAY && p != PEEKED_EOF;
     }
 
     public void endArray() throws IOException {
-      delegate.endArray();
+      if (peek() != PEEKED_END_ARRAY) throw unexpected("END_ARRAY");
+      stackSize--;
+      pathIndices[stackSize - 1]++;
+      peeked = PEEKED_NONE;
     }
 
     public void beginObject() throws IOException {
-      delegate.beginObject();
+      if (peek() != PEEKED_BEGIN_OBJECT) throw unexpected("BEGIN_OBJECT");
+      push(EMPTY_OBJECT);
+      peeked = PEEKED_NONE;
     }
 
     public void endObject() throws IOException {
-      delegate.endObject();
+      if (peek() != PEEKED_END_OBJECT) throw unexpected("END_OBJECT");
+      stackSize--;
+      pathIndices[stackSize - 1]++;
+      peeked = PEEKED_NONE;
     }
 
     public String nextName() throws IOException {
-      return delegate.nextName();
+      if (peek() != PEEKED_NAME) throw unexpected("a name");
+      pathNames[stackSize - 1] = pos;
+      String result = readQuoted();
+      peeked = PEEKED_NONE;
+      return result;
+    }
+
+    /**
+     * Consumes the next field name, returning the index of the first matching name, or -1 if there
+     * were none. Unlike {@link #nextName()}, this doesn't allocate a string.
+     *
+     * @param names field names encoded with {@link JsonCodec#names(String...)}
+     */
+    public int selectName(byte[][] names) throws IOException {
+      if (peek() != PEEKED_NAME) throw unexpected("a name");
+      int start = pos;
+      pathNames[stackSize - 1] = start;
+      int length = skipQuoted() - 1 - start;
+      peeked = PEEKED_NONE;
+
+      names:
+      for (int i = 0; i < names.length; i++) {
+        byte[] name = names[i];
+        if (name.length != length) continue;
+        for (int j = 0; j < length; j++) {
+          if (bytes[start + j] != name[j]) continue names;
+        }
+        return i;
+      }
+      return selectEscapedName(names, start, length);
+    }
+
+    /** Names are rarely escaped, so this compares them decoded only when needed. */
+    int selectEscapedName(byte[][] names, int start, int length) {
+      int i = start, end = start + length;
+      while (i < end && bytes[i] != '\\') i++;
+      if (i == end) return -1;
+      String name = decodeQuoted(start);
+      for (i = 0; i < names.length; i++) {
+        if (name.equals(new String(names[i], UTF_8))) return i;
+      }
+      return -1;
     }
 
     public String nextString() throws IOException {
-      return delegate.nextString();
+      int p = peek();
+      String result;
+      if (p == PEEKED_STRING) {
+        result = readQuoted();
+      } else if (p == PEEKED_NUMBER) {
+        int start = pos;
+        result = new String(bytes, start, skipLiteral() - start, UTF_8);
+      } else {
+        throw unexpected("a string");
+      }
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+      return result;
+    }
+
+    /**
+     * Reads the lower 64 bits of a lower-hex string, such as a trace ID, without allocating.
+     * Returns zero if the value is not a 1 to 32 character lower-hex string.
+     */
+    long nextLowerHexLong() throws IOException {
+      if (peek() != PEEKED_STRING) throw unexpected("a string");
+      int start = pos, end = skipQuoted() - 1;
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+
+      int length = end - start;
+      if (length < 1 || length > 32) return 0L;
+      long result = 0L;
+      for (int i = start; i < end; i++) { // higher bits shift out
+        byte c = bytes[i];
+        result <<= 4;
+        if (c >= '0' && c <= '9') {
+          result |= c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+          result |= c - 'a' + 10;
+        } else {
+          return 0L;
+        }
+      }
+      return result;
     }
 
     public void skipValue() throws IOException {
-      delegate.skipValue();
+      int count = 0;
+      do {
+        switch (peek()) {
+          case PEEKED_BEGIN_ARRAY:
+            push(EMPTY_ARRAY);
+            count++;
+            break;
+          case PEEKED_BEGIN_OBJECT:
+            push(EMPTY_OBJECT);
+            count++;
+            break;
+          case PEEKED_END_ARRAY:
+          case PEEKED_END_OBJECT:
+            stackSize--;
+            count--;
+            break;
+          case PEEKED_NAME:
+          case PEEKED_STRING:
+            skipQuoted();
+            break;
+          case PEEKED_NUMBER:
+            skipLiteral();
+            break;
+          case PEEKED_EOF:
+            throw syntaxError("End of input");
+          default: // keywords are consumed when peeked
+        }
+        peeked = PEEKED_NONE;
+      } while (count != 0);
+      pathIndices[stackSize - 1]++;
     }
 
     public long nextLong() throws IOException {
-      return delegate.nextLong();
+      int p = peek();
+      long result;
+      if (p == PEEKED_NUMBER) {
+        int start = pos;
+        result = parseLong(start, skipLiteral());
+      } else if (p == PEEKED_STRING) {
+        int start = pos;
+        result = parseLong(start, skipQuoted() - 1);
+      } else {
+        throw unexpected("a long");
+      }
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+      return result;
     }
 
     public String getPath() {
-      return delegate.getPath();
+      StringBuilder result = new StringBuilder().append('$');
+      for (int i = 0; i < stackSize; i++) {
+        switch (stack[i]) {
+          case EMPTY_ARRAY:
+          case NONEMPTY_ARRAY:
+            result.append('[').append(pathIndices[i]).append(']');
+            break;
+          case EMPTY_OBJECT:
+          case DANGLING_NAME:
+          case NONEMPTY_OBJECT:
+            if (pathNames[i] == -1) break;
+            result.append('.').append(decodeQuoted(pathNames[i]));
+            break;
+          default: // documents have no path
+        }
+      }
+      return result.toString();
     }
 
     public boolean nextBoolean() throws IOException {
-      return delegate.nextBoolean();
+      int p = peek();
+      boolean result;
+      if (p == PEEKED_TRUE) {
+        result = true;
+      } else if (p == PEEKED_FALSE) {
+        result = false;
+      } else {
+        throw unexpected("a boolean");
+      }
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+      return result;
     }
 
     public int nextInt() throws IOException {
-      return delegate.nextInt();
+      long result = nextLong();
+      if (result != (int) result) {
+        throw new NumberFormatException("Expected an int but was " + result + " at " + getPath());
+      }
+      return (int) result;
     }
 
     public boolean peekString() throws IOException {
-      return delegate.peek() == STRING;
+      return peek() == PEEKED_STRING;
     }
 
     public boolean peekBoolean() throws IOException {
-      return delegate.peek() == BOOLEAN;
+      int p = peek();
+      return p == PEEKED_TRUE || p == PEEKED_FALSE;
     }
 
     public boolean peekNull() throws IOException {
-      return delegate.peek() == NULL;
+      return peek() == PEEKED_NULL;
     }
 
     @Override
     public String toString() {
-      return delegate.toString();
+      return "JsonReader at path " + getPath();
+    }
+
+    void push(int scope) {
+      if (stackSize == stack.length) {
+        int newLength = stackSize * 2;
+        stack = Arrays.copyOf(stack, newLength);
+        pathIndices = Arrays.copyOf(pathIndices, newLength);
+        pathNames = Arrays.copyOf(pathNames, newLength);
+      }
+      pathIndices[stackSize] = 0;
+      pathNames[stackSize] = -1;
+      stack[stackSize++] = scope;
+    }
+
+    /** Advances past any separator, returning the kind of value at the current position. */
+    int peek() throws IOException {
+      if (peeked != PEEKED_NONE) return peeked;
+
+      int peekStack = stack[stackSize - 1];
+      if (peekStack == EMPTY_ARRAY) {
+        stack[stackSize - 1] = NONEMPTY_ARRAY;
+      } else if (peekStack == NONEMPTY_ARRAY) {
+        int c = nextNonWhitespace();
+        if (c == ']') return peeked = PEEKED_END_ARRAY;
+        if (c != ',') throw syntaxError("Unterminated array");
+      } else if (peekStack == EMPTY_OBJECT || peekStack == NONEMPTY_OBJECT) {
+        stack[stackSize - 1] = DANGLING_NAME;
+        if (peekStack == NONEMPTY_OBJECT) {
+          int c = nextNonWhitespace();
+          if (c == '}') return peeked = PEEKED_END_OBJECT;
+          if (c != ',') throw syntaxError("Unterminated object");
+        }
+        int c = nextNonWhitespace();
+        if (c == '"') return peeked = PEEKED_NAME;
+        if (c == '}' && peekStack != NONEMPTY_OBJECT) return peeked = PEEKED_END_OBJECT;
+        throw syntaxError("Expected name");
+      } else if (peekStack == DANGLING_NAME) {
+        stack[stackSize - 1] = NONEMPTY_OBJECT;
+        if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+      } else if (peekStack == EMPTY_DOCUMENT) {
+        stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+      } else if (peekStack == NONEMPTY_DOCUMENT) {
+        if (nextNonWhitespace() == -1) return peeked = PEEKED_EOF;
+        throw syntaxError("Expected end of input");
+      }
+
+      int c = nextNonWhitespace();
+      switch (c) {
+        case -1:
+          throw syntaxError("End of input");
+        case ']':
+          if (peekStack == EMPTY_ARRAY) return peeked = PEEKED_END_ARRAY;
+          throw syntaxError("Unexpected value");
+        case '"':
+          return peeked = PEEKED_STRING;
+        case '[':
+          return peeked = PEEKED_BEGIN_ARRAY;
+        case '{':
+          return peeked = PEEKED_BEGIN_OBJECT;
+        default:
+          pos--; // don't consume the first character of a literal
+      }
+      if (peekKeyword(TRUE)) return peeked = PEEKED_TRUE;
+      if (peekKeyword(FALSE)) return peeked = PEEKED_FALSE;
+      if (peekKeyword(NULL)) return peeked = PEEKED_NULL;
+      if (c == '-' || (c >= '0' && c <= '9')) return peeked = PEEKED_NUMBER;
+      throw syntaxError("Expected value");
+    }
+
+    static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    /** Like gson, keywords are matched case-insensitively. When matched, they are consumed. */
+    boolean peekKeyword(byte[] keyword) {
+      int length = keyword.length;
+      if (pos + length > bytes.length) return false;
+      for (int i = 0; i < length; i++) {
+        int c = bytes[pos + i];
+        if (c != keyword[i] && c != keyword[i] - ('a' - 'A')) return false;
+      }
+      if (pos + length < bytes.length && !isLiteralEnd(bytes[pos + length])) return false;
+      pos += length;
+      return true;
+    }
+
+    /** Returns the next non-whitespace character, or -1 at the end of input. */
+    int nextNonWhitespace() {
+      for (int length = bytes.length; pos < length; ) {
+        int c = bytes[pos++];
+        if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+      }
+      return -1;
+    }
+
+    /** Returns the position after the literal, which is also the new position. */
+    int skipLiteral() {
+      for (int length = bytes.length; pos < length; pos++) {
+        if (isLiteralEnd(bytes[pos])) break;
+      }
+      return pos;
+    }
+
+    static boolean isLiteralEnd(byte c) {
+      switch (c) {
+        case ' ':
+        case '\n':
+        case '\r':
+        case '\t':
+        case ',':
+        case ':':
+        case ']':
+        case '}':
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    /** Returns the position after the closing quote, which is also the new position. */
+    int skipQuoted() throws IOException {
+      for (int length = bytes.length; pos < length; ) {
+        byte c = bytes[pos++];
+        if (c == '"') return pos;
+        if (c == '\\') pos++; // skip the escaped character
+      }
+      throw syntaxError("Unterminated string");
+    }
+
+    /** Reads the string after the current position, consuming the closing quote. */
+    String readQuoted() throws IOException {
+      int start = pos;
+      int end = skipQuoted() - 1;
+      for (int i = start; i < end; i++) {
+        if (bytes[i] == '\\') return unescape(start, end);
+      }
+      return new String(bytes, start, end - start, UTF_8);
+    }
+
+    /** Decodes a name for an error message, given the position after its opening quote. */
+    String decodeQuoted(int start) {
+      int savedPos = pos;
+      pos = start;
+      try {
+        return readQuoted();
+      } catch (Exception e) { // IOException or a syntax error
+        return "?";
+      } finally {
+        pos = savedPos;
+      }
+    }
+
+    String unescape(int start, int end) throws IOException {
+      StringBuilder result = new StringBuilder(end - start);
+      int runStart = start;
+      for (int i = start; i < end; i++) {
+        if (bytes[i] != '\\') continue;
+        result.append(new String(bytes, runStart, i - runStart, UTF_8));
+        byte escaped = bytes[++i];
+        switch (escaped) {
+          case 'u':
+            if (i + 4 >= end) throw syntaxError("Unterminated escape sequence");
+            int c = 0;
+            for (int j = i + 1; j <= i + 4; j++) {
+              int digit = Character.digit(bytes[j], 16);
+              if (digit == -1) throw syntaxError("Invalid escape sequence");
+              c = (c << 4) + digit;
+            }
+            result.append((char) c);
+            i += 4;
+            break;
+          case 't':
+            result.append('\t');
+            break;
+          case 'b':
+            result.append('\b');
+            break;
+          case 'n':
+            result.append('\n');
+            break;
+          case 'r':
+            result.append('\r');
+            break;
+          case 'f':
+            result.append('\f');
+            break;
+          case '"':
+          case '\\':
+          case '/':
+            result.append((char) escaped);
+            break;
+          default:
+            throw syntaxError("Invalid escape sequence");
+        }
+        runStart = i + 1;
+      }
+      result.append(new String(bytes, runStart, end - runStart, UTF_8));
+      return result.toString();
+    }
+
+    /** Parses a base 10 long directly from bytes, falling back to double for exponents */
+    long parseLong(int start, int end) {
+      int i = start;
+      boolean negative = end > start && bytes[start] == '-';
+      if (negative) i++;
+      if (i == end || end - i > 18) return parseLongSlow(start, end); // empty or possibly overflow
+
+      long result = 0L;
+      for (; i < end; i++) {
+        int digit = bytes[i] - '0';
+        if (digit < 0 || digit > 9) return parseLongSlow(start, end);
+        result = result * 10 + digit;
+      }
+      return negative ? -result : result;
+    }
+
+    long parseLongSlow(int start, int end) {
+      String number = new String(bytes, start, end - start, UTF_8);
+      try {
+        return Long.parseLong(number);
+      } catch (NumberFormatException e) {
+        double asDouble = Double.parseDouble(number); // don't catch: the message includes the input
+        long result = (long) asDouble;
+        if (result != asDouble) { // Make sure no precision was lost casting to 'long'.
+          throw new NumberFormatException("Expected a long but was " + number + " at " + getPath());
+        }
+        return result;
+      }
+    }
+
+    IllegalStateException unexpected(String expected) throws IOException {
+      return new IllegalStateException(
+        "Expected " + expected + " but was " + peekedToken() + " at path " + getPath());
+    }
+
+    String peekedToken() throws IOException {
+      switch (peek()) {
+        case PEEKED_BEGIN_OBJECT:
+          return "BEGIN_OBJECT";
+        case PEEKED_END_OBJECT:
+          return "END_OBJECT";
+        case PEEKED_BEGIN_ARRAY:
+          return "BEGIN_ARRAY";
+        case PEEKED_END_ARRAY:
+          return "END_ARRAY";
+        case PEEKED_TRUE:
+        case PEEKED_FALSE:
+          return "BOOLEAN";
+        case PEEKED_NULL:
+          return "NULL";
+        case PEEKED_STRING:
+          return "STRING";
+        case PEEKED_NAME:
+          return "NAME";
+        case PEEKED_NUMBER:
+          return "NUMBER";
+        default:
+          return "END_DOCUMENT";
+      }
+    }
+
+    IllegalArgumentException syntaxError(String message) {
+      return new IllegalArgumentException("Malformed: " + message + " at byte " + pos);
     }
   }
 
+  /** Encodes field names for use in {@link JsonReader#selectName(byte[][])} */
+  public static byte[][] names(String... names) {
+    byte[][] result = new byte[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      result[i] = names[i].getBytes(UTF_8);
+    }
+    return result;
+  }
+
   static final Charset UTF_8 = Charset.forName("UTF-8");
 
   public interface JsonReaderAdapter<T> {
@@ -154,6 +623,31 @@ public final class JsonCodec {
     }
   }
 
+  /**
+   * Like {@link #readList(JsonReaderAdapter, byte[], Collection)}, except elements whose index
+   * isn't set in the sampled bits are skipped without being read.
+   */
+  static <T> boolean readList(
+    JsonReaderAdapter<T> adapter, byte[] bytes, BitSet sampled, Collection<T> out) {
+    if (bytes.length == 0) return false;
+    JsonReader reader = new JsonReader(bytes);
+    try {
+      reader.beginArray();
+      if (!reader.hasNext()) return false;
+      for (int i = 0; reader.hasNext(); i++) {
+        if (sampled.get(i)) {
+          out.add(adapter.fromJson(reader));
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endArray();
+      return true;
+    } catch (Exception e) {
+      throw exceptionReading("List<" + adapter + ">", e);
+    }
+  }
+
   static <T> int sizeInBytes(Buffer.Writer<T> writer, List<T> value) {
     int length = value.size();
     int sizeInBytes = 2; // []
@@ -233,7 +727,7 @@ public final class JsonCodec {
 
   static IllegalArgumentException exceptionReading(String type, Exception e) {
     String cause = e.getMessage() == null ? "Error" : e.getMessage();
-    if (cause.indexOf("malformed") != -1) cause = "Malformed";
+    if (cause.indexOf("Malformed") != -1) cause = "Malformed";
     String message = format("%s reading %s from json", cause, type);
     throw new IllegalArgumentException(message, e);
   }
@@ -15,6 +15,7 @@ package zipkin2.internal;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -117,6 +118,11 @@ public final class Node<V> {
     }
   };
 
+  @SuppressWarnings("unchecked")
+  static <V> MergeFunction<V> firstNotNull() {
+    return FIRST_NOT_NULL;
+  }
+
   /**
    * Some operations do not require the entire span object. This creates a tree given (parent id,
    * id) pairs.
@@ -220,6 +226,188 @@ public final class Node<V> {
     }
   }
 
+  /**
+   * Like {@link TreeBuilder}, except keyed on 64-bit IDs, such as {@link zipkin2.Span#idAsLong()}.
+   * Zero means there is no parent ID, so values with an ID of zero are skipped.
+   *
+   * <p>Traces can have tens of thousands of spans. Keying on strings means encoding each ID as hex,
+   * then hashing and boxing it into map entries. Instead, this keeps entries in parallel arrays and
+   * indexes them with an open-addressing table of IDs.
+   *
+   * @param <V> same type as {@link Node#value}
+   */
+  public static final class LongTreeBuilder<V> {
+    final Logger logger;
+    final MergeFunction<V> mergeFunction;
+    final String traceId;
+
+    public LongTreeBuilder(Logger logger, String traceId) {
+      this(logger, Node.<V>firstNotNull(), traceId);
+    }
+
+    LongTreeBuilder(Logger logger, MergeFunction<V> mergeFunction, String traceId) {
+      this.logger = logger;
+      this.mergeFunction = mergeFunction;
+      this.traceId = traceId;
+    }
+
+    long rootId = 0L;
+    Node<V> rootNode = null;
+
+    // Values added, in order
+    int entryCount = 0;
+    long[] entryParentIds = new long[16], entryIds = new long[16];
+    Object[] entryValues = new Object[16];
+
+    // Distinct IDs, in the order they were first added
+    int idCount = 0;
+    long[] ids = new long[16];
+
+    // Open-addressing table which replaces the idToParent and idToNode maps in TreeBuilder. As
+    // zero isn't a valid ID, it marks an empty slot.
+    long[] slotIds = new long[32], slotParentIds = new long[32];
+    boolean[] slotParentRemoved = new boolean[32];
+    Object[] slotNodes = new Object[32];
+
+    /** Returns false after logging to FINE if the value couldn't be added */
+    public boolean addNode(long parentId, long id, V value) {
+      if (value == null) throw new NullPointerException("value == null");
+      if (id == 0L) { // ex. "0000000000000000", which decoders accept
+        if (logger.isLoggable(FINE)) {
+          logger.fine(format("skipping span with zero ID: traceId=%s", traceId));
+        }
+        return false;
+      }
+      if (parentId == id) {
+        if (logger.isLoggable(FINE)) {
+          logger.fine(
+            format("skipping circular dependency: traceId=%s, spanId=%016x", traceId, id));
+        }
+        return false;
+      }
+      int slot = putId(id); // may resize, so read before indexing the arrays
+      slotParentIds[slot] = parentId; // like TreeBuilder, the last parent ID wins
+
+      if (entryCount == entryIds.length) {
+        int newLength = entryCount * 2;
+        entryParentIds = Arrays.copyOf(entryParentIds, newLength);
+        entryIds = Arrays.copyOf(entryIds, newLength);
+        entryValues = Arrays.copyOf(entryValues, newLength);
+      }
+      entryParentIds[entryCount] = parentId;
+      entryIds[entryCount] = id;
+      entryValues[entryCount++] = value;
+      return true;
+    }
+
+    /** Returns the slot of the ID, or the empty slot it would be put in. */
+    int slot(long id) {
+      int mask = slotIds.length - 1;
+      long h = id * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads sequential IDs
+      int i = (int) (h ^ (h >>> 32)) & mask;
+      while (slotIds[i] != 0L && slotIds[i] != id) i = (i + 1) & mask;
+      return i;
+    }
+
+    int putId(long id) {
+      int i = slot(id);
+      if (slotIds[i] == id) return i;
+      if ((idCount + 1) * 2 > slotIds.length) {
+        resize(slotIds.length * 2);
+        i = slot(id);
+      }
+      slotIds[i] = id;
+      if (idCount == ids.length) ids = Arrays.copyOf(ids, idCount * 2);
+      ids[idCount++] = id;
+      return i;
+    }
+
+    void resize(int newLength) {
+      long[] oldIds = slotIds, oldParentIds = slotParentIds;
+      slotIds = new long[newLength];
+      slotParentIds = new long[newLength];
+      slotParentRemoved = new boolean[newLength];
+      slotNodes = new Object[newLength];
+      for (int j = 0; j < oldIds.length; j++) {
+        if (oldIds[j] == 0L) continue;
+        int i = slot(oldIds[j]);
+        slotIds[i] = oldIds[j];
+        slotParentIds[i] = oldParentIds[j];
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable Node<V> node(long id) {
+      if (id == 0L) return null;
+      return (Node<V>) slotNodes[slot(id)];
+    }
+
+    @SuppressWarnings("unchecked")
+    void processNode(int entry) {
+      long id = entryIds[entry];
+      int slot = slot(id);
+      long parentId = entryParentIds[entry];
+      if (parentId == 0L && !slotParentRemoved[slot]) parentId = slotParentIds[slot];
+      V value = (V) entryValues[entry];
+
+      if (parentId == 0L) {
+        if (rootId != 0L) {
+          if (logger.isLoggable(FINE)) {
+            logger.fine(format(
+              "attributing span missing parent to root: traceId=%s, rootSpanId=%016x, spanId=%016x",
+              traceId, rootId, id));
+          }
+        } else {
+          rootId = id;
+        }
+      }
+
+      // special-case root, and attribute missing parents to it. In
+      // other words, assume that the first root is the "real" root.
+      if (parentId == 0L && rootNode == null) {
+        rootNode = new Node<>(value);
+        rootId = id;
+        slotParentRemoved[slot] = true;
+      } else if (parentId == 0L && rootId == id) {
+        rootNode.setValue(mergeFunction.merge(rootNode.value, value));
+      } else {
+        Node<V> previous = (Node<V>) slotNodes[slot];
+        if (previous == null) {
+          slotNodes[slot] = new Node<>(value);
+        } else {
+          previous.setValue(mergeFunction.merge(previous.value, value));
+        }
+      }
+    }
+
+    /** Builds a tree from calls to {@link #addNode}, or returns an empty tree. */
+    public Node<V> build() {
+      for (int i = 0; i < entryCount; i++) {
+        processNode(i);
+      }
+
+      // Materialize the tree using parent - child relationships
+      for (int j = 0; j < idCount; j++) {
+        int slot = slot(ids[j]);
+        if (slotParentRemoved[slot]) continue;
+        Node<V> node = node(ids[j]);
+        Node<V> parent = node(slotParentIds[slot]);
+        if (parent == null) { // handle headless
+          if (rootNode == null) {
+            if (logger.isLoggable(FINE)) {
+              logger.fine("substituting dummy node for missing root span: traceId=" + traceId);
+            }
+            rootNode = new Node<>(null);
+          }
+          rootNode.addChild(node);
+        } else {
+          parent.addChild(node);
+        }
+      }
+      return rootNode != null ? rootNode : new Node<>(null);
+    }
+  }
+
   static final class Entry<V> {
     @Nullable final String parentId;
     final String id;
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+
+/**
+ * Links partitions of traces on an executor, each with its own {@link DependencyLinker}, then
+ * merges their counts. This scales linking a large lookback with cores, as opposed to pushing all
+ * traces through one linker on one thread.
+ *
+ * <p>Partitions are linked as they are added, so traces read from a cursor can be linked while the
+ * next partition is read. To bound memory, adding blocks while a few partitions per processor are
+ * waiting on the executor.
+ */
+public final class ParallelDependencyLinker {
+  /** Below this count of traces per partition, the cost of handing off work isn't worth it. */
+  static final int MIN_PARTITION_SIZE = 1000;
+
+  /**
+   * Links the traces, in parallel when there are enough of them and the executor is not null.
+   *
+   * @param traces each element is a trace, which is iterated on the executor
+   */
+  public static List<DependencyLink> link(
+      List<? extends Collection<Span>> traces, @Nullable Executor executor) {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    if (executor == null || parallelism == 1 || traces.size() < MIN_PARTITION_SIZE * 2) {
+      return new LinkPartition(traces).call().link();
+    }
+    // Use more partitions than processors, so that a slow partition doesn't hold up the rest
+    int partitionSize = Math.max(MIN_PARTITION_SIZE, traces.size() / (parallelism * 4) + 1);
+    ParallelDependencyLinker linker = new ParallelDependencyLinker(executor);
+    for (int i = 0, length = traces.size(); i < length; i += partitionSize) {
+      linker.putTraces(traces.subList(i, Math.min(length, i + partitionSize)));
+    }
+    return linker.link();
+  }
+
+  final Executor executor;
+  final int maxPending;
+  final ArrayDeque<Future<DependencyLinker>> pending = new ArrayDeque<>();
+  final DependencyLinker merged = new DependencyLinker();
+
+  public ParallelDependencyLinker(Executor executor) {
+    if (executor == null) throw new NullPointerException("executor == null");
+    this.executor = executor;
+    this.maxPending = Runtime.getRuntime().availableProcessors() * 2;
+  }
+
+  /**
+   * Links the partition on the executor. The caller must not modify the input after this call.
+   *
+   * @param traces each element is a trace, as accepted by {@link DependencyLinker#putTrace}
+   */
+  public ParallelDependencyLinker putTraces(List<? extends Collection<Span>> traces) {
+    while (!pending.isEmpty() && (pending.size() >= maxPending || pending.peek().isDone())) {
+      merged.putAll(getUnchecked(pending.remove()));
+    }
+    FutureTask<DependencyLinker> task = new FutureTask<>(new LinkPartition(traces));
+    executor.execute(task);
+    pending.add(task);
+    return this;
+  }
+
+  /** Waits for all partitions to be linked, then returns their merged links. */
+  public List<DependencyLink> link() {
+    while (!pending.isEmpty()) {
+      merged.putAll(getUnchecked(pending.remove()));
+    }
+    return merged.link();
+  }
+
+  static DependencyLinker getUnchecked(Future<DependencyLinker> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted linking dependencies", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  static final class LinkPartition implements Callable<DependencyLinker> {
+    final List<? extends Collection<Span>> traces;
+
+    LinkPartition(List<? extends Collection<Span>> traces) {
+      this.traces = traces;
+    }
+
+    @Override public DependencyLinker call() {
+      DependencyLinker linker = new DependencyLinker();
+      for (int i = 0, length = traces.size(); i < length; i++) {
+        linker.putTrace(traces.get(i).iterator());
+      }
+      return linker;
+    }
+  }
+}
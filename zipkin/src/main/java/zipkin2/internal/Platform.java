@@ -14,6 +14,7 @@
 package zipkin2.internal;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 import org.jvnet.animal_sniffer.IgnoreJRERequirement;
 
 /**
@@ -37,6 +38,11 @@ public abstract class Platform {
     throw error;
   }
 
+  /** Returns a shared pool for parallel work, or null if the platform doesn't provide one. */
+  @Nullable public Executor commonPool() {
+    return null;
+  }
+
   public static Platform get() {
     return PLATFORM;
   }
@@ -70,6 +76,10 @@ public abstract class Platform {
     @IgnoreJRERequirement @Override public RuntimeException uncheckedIOException(IOException e) {
       return new java.io.UncheckedIOException(e);
     }
+
+    @IgnoreJRERequirement @Override public Executor commonPool() {
+      return java.util.concurrent.ForkJoinPool.commonPool();
+    }
   }
 
   static class Jre7 extends Platform {
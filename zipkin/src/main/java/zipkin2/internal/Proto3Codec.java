@@ -13,6 +13,7 @@
  */
 package zipkin2.internal;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import zipkin2.Span;
@@ -42,8 +43,19 @@ public final class Proto3Codec {
   }
 
   public static boolean read(byte[] bytes, Collection<Span> out) {
-    if (bytes.length == 0) return false;
-    Buffer buffer = new Buffer(bytes, 0);
+    return read(ReadBuffer.wrap(bytes), out);
+  }
+
+  /**
+   * Like {@link #read(byte[], Collection)}, except this reads the remaining bytes of the buffer,
+   * which may be direct. The buffer's position is not changed.
+   */
+  public static boolean read(ByteBuffer bytes, Collection<Span> out) {
+    return read(ReadBuffer.wrap(bytes), out);
+  }
+
+  static boolean read(ReadBuffer buffer, Collection<Span> out) {
+    if (buffer.remaining() == 0) return false;
     try {
       Span span = SPAN.read(buffer);
       if (span == null) return false;
@@ -55,15 +67,56 @@ public final class Proto3Codec {
   }
 
   public static @Nullable Span readOne(byte[] bytes) {
-    return SPAN.read(new Buffer(bytes, 0));
+    return SPAN.read(ReadBuffer.wrap(bytes));
   }
 
   public static boolean readList(byte[] bytes, Collection<Span> out) {
-    int length = bytes.length;
-    if (length == 0) return false;
-    Buffer buffer = new Buffer(bytes, 0);
+    return readList(ReadBuffer.wrap(bytes), out);
+  }
+
+  /**
+   * Like {@link #readList(byte[], Collection)}, except this reads the remaining bytes of the
+   * buffer, which may be direct. The buffer's position is not changed.
+   */
+  public static boolean readList(ByteBuffer bytes, Collection<Span> out) {
+    return readList(ReadBuffer.wrap(bytes), out);
+  }
+
+  static boolean readList(ReadBuffer buffer, Collection<Span> out) {
+    if (buffer.remaining() == 0) return false;
+    try {
+      while (buffer.remaining() > 0) {
+        Span span = SPAN.read(buffer);
+        if (span == null) return false;
+        out.add(span);
+      }
+    } catch (Exception e) {
+      throw exceptionReading("List<Span>", e);
+    }
+    return true;
+  }
+
+  /**
+   * Like {@link #readList(byte[], Collection)}, except spans not accepted by the sampler are
+   * skipped without being decoded.
+   */
+  public static boolean readList(byte[] bytes, TraceIdSampler sampler, Collection<Span> out) {
+    return readList(ReadBuffer.wrap(bytes), sampler, out);
+  }
+
+  /**
+   * Like {@link #readList(byte[], TraceIdSampler, Collection)}, except this reads the remaining
+   * bytes of the buffer, which may be direct. The buffer's position is not changed.
+   */
+  public static boolean readList(ByteBuffer bytes, TraceIdSampler sampler, Collection<Span> out) {
+    return readList(ReadBuffer.wrap(bytes), sampler, out);
+  }
+
+  static boolean readList(ReadBuffer buffer, TraceIdSampler sampler, Collection<Span> out) {
+    if (buffer.remaining() == 0) return false;
     try {
-      while (buffer.pos < length) {
+      while (buffer.remaining() > 0) {
+        if (!SPAN.peekSampled(buffer, sampler)) continue;
         Span span = SPAN.read(buffer);
         if (span == null) return false;
         out.add(span);
@@ -15,8 +15,6 @@ package zipkin2.internal;
 
 import java.util.Map;
 
-import static zipkin2.internal.JsonCodec.UTF_8;
-
 /**
  * Everything here assumes the field numbers are less than 16, implying a 1 byte tag.
  */
@@ -68,7 +66,7 @@ final class Proto3Fields {
       return wireType;
     }
 
-    static boolean skipValue(Buffer buffer, int wireType) {
+    static boolean skipValue(ReadBuffer buffer, int wireType) {
       int remaining = buffer.remaining();
       switch (wireType) {
         case WIRETYPE_VARINT:
@@ -85,7 +83,7 @@ final class Proto3Fields {
           return buffer.skip(4);
         default:
           throw new IllegalArgumentException(
-            "Malformed: invalid wireType " + wireType + " at byte " + buffer.pos);
+            "Malformed: invalid wireType " + wireType + " at byte " + buffer.position());
       }
     }
   }
@@ -116,13 +114,13 @@ final class Proto3Fields {
      * Calling this after consuming the field key to ensures there's enough space for the data. Null
      * is returned when the length prefix is zero.
      */
-    final T readLengthPrefixAndValue(Buffer b) {
+    final T readLengthPrefixAndValue(ReadBuffer b) {
       int length = readLengthPrefix(b);
       if (length == 0) return null;
       return readValue(b, length);
     }
 
-    final int readLengthPrefix(Buffer b) {
+    final int readLengthPrefix(ReadBuffer b) {
       int length = b.readVarint32();
       Proto3Fields.ensureLength(b, length);
       return length;
@@ -133,7 +131,7 @@ final class Proto3Fields {
     abstract void writeValue(Buffer b, T value);
 
     /** @param length is greater than zero */
-    abstract T readValue(Buffer b, int length);
+    abstract T readValue(ReadBuffer b, int length);
   }
 
   static class BytesField extends LengthDelimitedField<byte[]> {
@@ -149,11 +147,8 @@ final class Proto3Fields {
       b.write(bytes);
     }
 
-    @Override byte[] readValue(Buffer b, int length) {
-      byte[] result = new byte[length];
-      System.arraycopy(b.toByteArray(), b.pos, result, 0, length);
-      b.pos += length;
-      return result;
+    @Override byte[] readValue(ReadBuffer b, int length) {
+      return b.readBytes(length);
     }
   }
 
@@ -185,7 +180,7 @@ final class Proto3Fields {
       throw new AssertionError("not lowerHex " + c); // bug
     }
 
-    @Override String readValue(Buffer buffer, int length) {
+    @Override String readValue(ReadBuffer buffer, int length) {
       length *= 2;
       char[] result = new char[length];
 
@@ -197,6 +192,43 @@ final class Proto3Fields {
 
       return new String(result);
     }
+
+    /**
+     * Like {@link #readLengthPrefixAndValue(ReadBuffer)}, except this returns the lower 64 bits of
+     * the value instead of allocating a string. Zero is returned when the length prefix is zero.
+     */
+    long readLengthPrefixAndLowerLong(ReadBuffer buffer) {
+      return readLong(buffer, readLengthPrefix(buffer));
+    }
+
+    /** Reads {@code length} bytes as a big-endian long, shifting out any higher bits. */
+    static long readLong(ReadBuffer buffer, int length) {
+      long result = 0L;
+      for (int i = 0; i < length; i++) {
+        result = (result << 8) | (buffer.readByte() & 0xff);
+      }
+      return result;
+    }
+
+    /**
+     * Like {@link #sizeInBytes(Object)}, except the value is the hex of one or two longs. Two are
+     * written when {@code is128}, even if the upper long is zero.
+     */
+    int sizeInBytes(boolean is128) {
+      return sizeOfLengthDelimitedField(is128 ? 16 : 8);
+    }
+
+    /** Like {@link #write(Buffer, Object)}, except the value is the hex of one or two longs. */
+    void write(Buffer b, boolean is128, long high, long low) {
+      b.writeByte(key);
+      if (is128) {
+        b.writeVarint(16);
+        b.writeLongBe(high);
+      } else {
+        b.writeVarint(8);
+      }
+      b.writeLongBe(low);
+    }
   }
 
   static class Utf8Field extends LengthDelimitedField<String> {
@@ -212,10 +244,8 @@ final class Proto3Fields {
       b.writeUtf8(utf8);
     }
 
-    @Override String readValue(Buffer buffer, int length) {
-      String result = new String(buffer.toByteArray(), buffer.pos, length, UTF_8);
-      buffer.pos += length;
-      return result;
+    @Override String readValue(ReadBuffer buffer, int length) {
+      return buffer.readUtf8(length);
     }
   }
 
@@ -236,7 +266,7 @@ final class Proto3Fields {
       return 1 + 8; // tag + 8 byte number
     }
 
-    long readValue(Buffer buffer) {
+    long readValue(ReadBuffer buffer) {
       ensureLength(buffer, 8);
       return buffer.readLongLe();
     }
@@ -285,10 +315,11 @@ final class Proto3Fields {
       b.writeByte(1);
     }
 
-    boolean read(Buffer b) {
+    boolean read(ReadBuffer b) {
       byte bool = b.readByte();
       if (bool < 0 || bool > 1) {
-        throw new IllegalArgumentException("Malformed: invalid boolean value at byte " + b.pos);
+        throw new IllegalArgumentException(
+          "Malformed: invalid boolean value at byte " + b.position());
       }
       return bool == 1;
     }
@@ -311,7 +342,7 @@ final class Proto3Fields {
     return 1 + Buffer.varintSizeInBytes(sizeInBytes) + sizeInBytes; // tag + len + bytes
   }
 
-  static void ensureLength(Buffer buffer, int length) {
+  static void ensureLength(ReadBuffer buffer, int length) {
     if (length > buffer.remaining()) {
       throw new IllegalArgumentException(
         "Truncated: length " + length + " > bytes remaining " + buffer.remaining());
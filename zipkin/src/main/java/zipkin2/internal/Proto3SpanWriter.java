@@ -20,7 +20,7 @@ import static zipkin2.internal.Proto3Fields.sizeOfLengthDelimitedField;
 import static zipkin2.internal.Proto3ZipkinFields.SPAN;
 
 //@Immutable
-final class Proto3SpanWriter implements Buffer.Writer<Span> {
+public final class Proto3SpanWriter implements Buffer.Writer<Span> {
 
   static final byte[] EMPTY_ARRAY = new byte[0];
 
@@ -73,7 +73,7 @@ final class Proto3ZipkinFields {
       PORT.write(b, value.portAsInt());
     }
 
-    @Override Endpoint readValue(Buffer buffer, int length) {
+    @Override Endpoint readValue(ReadBuffer buffer, int length) {
       int endPos = buffer.pos + length;
 
       // now, we are in the endpoint fields
@@ -108,11 +108,11 @@ final class Proto3ZipkinFields {
       super(key);
     }
 
-    @Override final T readValue(Buffer b, int length) {
+    @Override final T readValue(ReadBuffer b, int length) {
       throw new UnsupportedOperationException();
     }
 
-    abstract boolean readLengthPrefixAndValue(Buffer b, Span.Builder builder);
+    abstract boolean readLengthPrefixAndValue(ReadBuffer b, Span.Builder builder);
   }
 
   static class AnnotationField extends SpanBuilderField<Annotation> {
@@ -135,7 +135,7 @@ final class Proto3ZipkinFields {
       VALUE.write(b, value.value());
     }
 
-    @Override boolean readLengthPrefixAndValue(Buffer b, Span.Builder builder) {
+    @Override boolean readLengthPrefixAndValue(ReadBuffer b, Span.Builder builder) {
       int length = readLengthPrefix(b);
       if (length == 0) return false;
       int endPos = b.pos + length;
@@ -183,7 +183,7 @@ final class Proto3ZipkinFields {
       VALUE.write(b, value.getValue());
     }
 
-    @Override boolean readLengthPrefixAndValue(Buffer b, Span.Builder builder) {
+    @Override boolean readLengthPrefixAndValue(ReadBuffer b, Span.Builder builder) {
       int length = readLengthPrefix(b);
       if (length == 0) return false;
       int endPos = b.pos + length;
@@ -244,9 +244,12 @@ final class Proto3ZipkinFields {
     }
 
     @Override int sizeOfValue(Span span) {
-      int sizeOfSpan = TRACE_ID.sizeInBytes(span.traceId());
-      sizeOfSpan += PARENT_ID.sizeInBytes(span.parentId());
-      sizeOfSpan += ID.sizeInBytes(span.id());
+      int sizeOfSpan = TRACE_ID.sizeInBytes(span.traceId128());
+      // checking the long first avoids encoding the parent ID, unless it is all zeros
+      if (span.parentIdAsLong() != 0L || span.parentId() != null) {
+        sizeOfSpan += PARENT_ID.sizeInBytes(false);
+      }
+      sizeOfSpan += ID.sizeInBytes(false);
       sizeOfSpan += KIND.sizeInBytes(span.kind() != null ? 1 : 0);
       sizeOfSpan += NAME.sizeInBytes(span.name());
       sizeOfSpan += TIMESTAMP.sizeInBytes(span.timestampAsLong());
@@ -274,9 +277,11 @@ final class Proto3ZipkinFields {
     }
 
     @Override void writeValue(Buffer b, Span value) {
-      TRACE_ID.write(b, value.traceId());
-      PARENT_ID.write(b, value.parentId());
-      ID.write(b, value.id());
+      TRACE_ID.write(b, value.traceId128(), value.traceIdHigh(), value.traceIdLow());
+      if (value.parentIdAsLong() != 0L || value.parentId() != null) {
+        PARENT_ID.write(b, false, 0L, value.parentIdAsLong());
+      }
+      ID.write(b, false, 0L, value.idAsLong());
       KIND.write(b, toByte(value.kind()));
       NAME.write(b, value.name());
       TIMESTAMP.write(b, value.timestampAsLong());
@@ -306,12 +311,47 @@ final class Proto3ZipkinFields {
       return kind != null ? kind.ordinal() + 1 : 0;
     }
 
-    public Span read(Buffer buffer) {
+    public Span read(ReadBuffer buffer) {
       buffer.readVarint32(); // toss the key
       return readLengthPrefixAndValue(buffer);
     }
 
-    @Override Span readValue(Buffer buffer, int length) {
+    /**
+     * Peeks at the trace ID and debug flag of the span at the current position. When sampled, the
+     * position is unchanged. Otherwise, the position is advanced past the span without decoding it.
+     *
+     * <p>Spans missing a trace ID are considered sampled, so that they are validated by {@link
+     * #read(ReadBuffer)}.
+     */
+    boolean peekSampled(ReadBuffer buffer, TraceIdSampler sampler) {
+      int startPos = buffer.pos;
+      buffer.readVarint32(); // toss the key
+      int length = readLengthPrefix(buffer);
+      int endPos = buffer.pos + length;
+
+      long traceId = 0L;
+      boolean debug = false;
+      while (buffer.pos < endPos) {
+        int nextKey = buffer.readVarint32();
+        switch (nextKey) {
+          case TRACE_ID_KEY:
+            traceId = TRACE_ID.readLengthPrefixAndLowerLong(buffer);
+            break;
+          case DEBUG_KEY:
+            debug = DEBUG.read(buffer);
+            break;
+          default:
+            skipValue(buffer, wireType(nextKey, buffer.position()));
+        }
+      }
+      if (traceId == 0L || sampler.isSampled(traceId, debug)) {
+        buffer.pos = startPos;
+        return true;
+      }
+      return false;
+    }
+
+    @Override Span readValue(ReadBuffer buffer, int length) {
       int endPos = buffer.pos + length;
 
       // now, we are in the span fields
@@ -320,13 +360,13 @@ final class Proto3ZipkinFields {
         int nextKey = buffer.readVarint32();
         switch (nextKey) {
           case TRACE_ID_KEY:
-            builder.traceId(TRACE_ID.readLengthPrefixAndValue(buffer));
+            readTraceId(buffer, builder);
             break;
           case PARENT_ID_KEY:
-            builder.parentId(PARENT_ID.readLengthPrefixAndValue(buffer));
+            readParentId(buffer, builder);
             break;
           case ID_KEY:
-            builder.id(ID.readLengthPrefixAndValue(buffer));
+            readId(buffer, builder);
             break;
           case KIND_KEY:
             int kind = buffer.readVarint32();
@@ -369,12 +409,64 @@ final class Proto3ZipkinFields {
     }
   }
 
-  static void logAndSkip(Buffer buffer, int nextKey) {
-    int nextWireType = wireType(nextKey, buffer.pos);
+  /**
+   * Reads the trace ID bytes directly into longs, as opposed to allocating a hex string. When the
+   * longs can't express the ID, such as a 128-bit one whose upper bits are zero, this falls back to
+   * hex, so that the ID is the same as if it were read from json.
+   */
+  static void readTraceId(ReadBuffer buffer, Span.Builder builder) {
+    HexField field = SpanField.TRACE_ID;
+    int length = field.readLengthPrefix(buffer);
+    if (length == 0) return; // leave unset so that the span is invalid
+    if (length > 16) throw new IllegalArgumentException("traceId.length > 32");
+    long high = length > 8 ? HexField.readLong(buffer, length - 8) : 0L;
+    long low = HexField.readLong(buffer, length > 8 ? 8 : length);
+    if (length > 8 ? high != 0L : low != 0L) {
+      builder.traceId(high, low);
+    } else {
+      buffer.pos -= length;
+      builder.traceId(field.readValue(buffer, length));
+    }
+  }
+
+  static void readParentId(ReadBuffer buffer, Span.Builder builder) {
+    HexField field = SpanField.PARENT_ID;
+    int length = readSpanIdLength(buffer, field, "parentId");
+    if (length == 0) return; // absent
+    long parentId = HexField.readLong(buffer, length);
+    if (parentId != 0L) {
+      builder.parentId(parentId);
+    } else { // all zeros, which is present unlike parentId(0L)
+      buffer.pos -= length;
+      builder.parentId(field.readValue(buffer, length));
+    }
+  }
+
+  static void readId(ReadBuffer buffer, Span.Builder builder) {
+    HexField field = SpanField.ID;
+    int length = readSpanIdLength(buffer, field, "id");
+    if (length == 0) return; // leave unset so that the span is invalid
+    long id = HexField.readLong(buffer, length);
+    if (id != 0L) {
+      builder.id(id);
+    } else { // all zeros, which id(0L) rejects
+      buffer.pos -= length;
+      builder.id(field.readValue(buffer, length));
+    }
+  }
+
+  static int readSpanIdLength(ReadBuffer buffer, HexField field, String name) {
+    int length = field.readLengthPrefix(buffer);
+    if (length > 8) throw new IllegalArgumentException(name + ".length > 16");
+    return length;
+  }
+
+  static void logAndSkip(ReadBuffer buffer, int nextKey) {
+    int nextWireType = wireType(nextKey, buffer.position());
     if (LOG.isLoggable(FINE)) {
-      int nextFieldNumber = fieldNumber(nextKey, buffer.pos);
+      int nextFieldNumber = fieldNumber(nextKey, buffer.position());
       LOG.fine(String.format("Skipping field: byte=%s, fieldNumber=%s, wireType=%s",
-        buffer.pos, nextFieldNumber, nextWireType));
+        buffer.position(), nextFieldNumber, nextWireType));
     }
     skipValue(buffer, nextWireType);
   }
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.nio.ByteBuffer;
+
+import static zipkin2.internal.JsonCodec.UTF_8;
+
+/**
+ * Read operations do bounds checks, as typically more errors occur reading than writing.
+ *
+ * <p>Unlike {@link Buffer}, this can read from a {@link ByteBuffer}, including direct ones, without
+ * copying its contents into an intermediate array first.
+ */
+abstract class ReadBuffer {
+
+  /** Reads from the whole array. */
+  static ReadBuffer wrap(byte[] bytes) {
+    return new Array(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Reads the remaining bytes of the input. The input's position is not changed, as reads use
+   * absolute indexes.
+   */
+  static ReadBuffer wrap(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      int offset = buffer.arrayOffset() + buffer.position();
+      return new Array(buffer.array(), offset, buffer.remaining());
+    }
+    return new Buff(buffer);
+  }
+
+  static final class Array extends ReadBuffer {
+    final byte[] buf;
+
+    Array(byte[] buf, int offset, int length) {
+      super(offset, offset + length);
+      this.buf = buf;
+    }
+
+    @Override byte readByte() {
+      return buf[pos++];
+    }
+
+    @Override String readUtf8(int length) {
+      String result = new String(buf, pos, length, UTF_8);
+      pos += length;
+      return result;
+    }
+
+    @Override byte[] readBytes(int length) {
+      byte[] result = new byte[length];
+      System.arraycopy(buf, pos, result, 0, length);
+      pos += length;
+      return result;
+    }
+
+    @Override long readLongLe() {
+      return (buf[pos++] & 0xffL)
+          | (buf[pos++] & 0xffL) << 8
+          | (buf[pos++] & 0xffL) << 16
+          | (buf[pos++] & 0xffL) << 24
+          | (buf[pos++] & 0xffL) << 32
+          | (buf[pos++] & 0xffL) << 40
+          | (buf[pos++] & 0xffL) << 48
+          | (buf[pos++] & 0xffL) << 56;
+    }
+  }
+
+  /** Used for direct or read-only buffers, which have no accessible backing array. */
+  static final class Buff extends ReadBuffer {
+    final ByteBuffer buf;
+
+    Buff(ByteBuffer buf) {
+      super(buf.position(), buf.limit());
+      this.buf = buf;
+    }
+
+    @Override byte readByte() {
+      return buf.get(pos++);
+    }
+
+    /** Decodes a slice of the buffer, avoiding an intermediate array for the string's bytes. */
+    @Override String readUtf8(int length) {
+      ByteBuffer slice = buf.duplicate();
+      // cast as ByteBuffer overrides these methods with covariant return types in JRE 9+
+      ((java.nio.Buffer) slice).limit(pos + length);
+      ((java.nio.Buffer) slice).position(pos);
+      pos += length;
+      return UTF_8.decode(slice).toString();
+    }
+
+    @Override byte[] readBytes(int length) {
+      byte[] result = new byte[length];
+      for (int i = 0; i < length; i++) {
+        result[i] = buf.get(pos++);
+      }
+      return result;
+    }
+  }
+
+  final int start; // index of the first byte of input, which may be past a slice's array offset
+  int pos; // visible for testing
+  final int limit;
+
+  ReadBuffer(int pos, int limit) {
+    this.start = pos;
+    this.pos = pos;
+    this.limit = limit;
+  }
+
+  /** Returns the count of bytes read so far, which is the position to report in errors. */
+  int position() {
+    return pos - start;
+  }
+
+  /** This needs to be checked externally to not overrun the underlying data */
+  abstract byte readByte();
+
+  /** This needs to be checked externally to not overrun the underlying data */
+  abstract String readUtf8(int length);
+
+  /** This needs to be checked externally to not overrun the underlying data */
+  abstract byte[] readBytes(int length);
+
+  long readLongLe() {
+    long result = 0L;
+    for (int i = 0; i < 64; i += 8) {
+      result |= (readByte() & 0xffL) << i;
+    }
+    return result;
+  }
+
+  /**
+   * @return the value read. Use {@link Buffer#varintSizeInBytes(int)} to tell how many bytes.
+   * @throws IllegalArgumentException if more than 32 bits were encoded
+   */
+  // hard-coded as this is used commonly, for example reading tags
+  int readVarint32() {
+    checkNotTruncated();
+
+    byte b; // negative number implies MSB set
+    if ((b = readByte()) >= 0) {
+      return b;
+    }
+    int result = b & 0x7f;
+
+    checkNotTruncated();
+    if ((b = readByte()) >= 0) {
+      return result | b << 7;
+    }
+    result |= (b & 0x7f) << 7;
+
+    checkNotTruncated();
+    if ((b = readByte()) >= 0) {
+      return result | b << 14;
+    }
+    result |= (b & 0x7f) << 14;
+
+    checkNotTruncated();
+    if ((b = readByte()) >= 0) {
+      return result | b << 21;
+    }
+    result |= (b & 0x7f) << 21;
+
+    checkNotTruncated();
+    b = readByte();
+    if ((b & 0xf0) != 0) {
+      throw new IllegalArgumentException(
+          "Greater than 32-bit varint at position " + (position() - 1));
+    }
+    return result | b << 28;
+  }
+
+  /**
+   * @return the value read. Use {@link Buffer#varintSizeInBytes(long)} to tell how many bytes.
+   * @throws IllegalArgumentException if more than 64 bits were encoded
+   */
+  long readVarint64() {
+    checkNotTruncated();
+
+    byte b; // negative number implies MSB set
+    if ((b = readByte()) >= 0) {
+      return b;
+    }
+
+    long result = b & 0x7f;
+    for (int i = 1; b < 0 && i < 10; i++) {
+      checkNotTruncated();
+      b = readByte();
+      if (i == 9 && (b & 0xf0) != 0) {
+        throw new IllegalArgumentException(
+            "Greater than 64-bit varint at position " + (position() - 1));
+      }
+      result |= (long) (b & 0x7f) << (i * 7);
+    }
+    return result;
+  }
+
+  void checkNotTruncated() {
+    if (pos >= limit) {
+      throw new IllegalArgumentException("Truncated reading position " + position());
+    }
+  }
+
+  int remaining() {
+    return limit - pos;
+  }
+
+  boolean skip(int maxCount) {
+    int nextPos = pos + maxCount;
+    if (nextPos > limit) {
+      pos = limit;
+      return false;
+    }
+    pos = nextPos;
+    return true;
+  }
+}
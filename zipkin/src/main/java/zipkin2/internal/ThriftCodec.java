@@ -108,6 +108,30 @@ public final class ThriftCodec {
     return true;
   }
 
+  /**
+   * Like {@link #readList(byte[], Collection)}, except spans not accepted by the sampler are
+   * skipped without being decoded.
+   */
+  public static boolean readList(byte[] bytes, TraceIdSampler sampler, Collection<Span> out) {
+    int length = bytes.length;
+    if (length == 0) return false;
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try {
+      int listLength = readListLength(buffer);
+      if (listLength == 0) return false;
+      V1ThriftSpanReader reader = new V1ThriftSpanReader();
+      V1SpanConverter converter = V1SpanConverter.create();
+      for (int i = 0; i < listLength; i++) {
+        if (!V1ThriftSpanReader.peekSampled(buffer, sampler)) continue;
+        V1Span v1Span = reader.read(buffer);
+        converter.convert(v1Span, out);
+      }
+    } catch (Exception e) {
+      throw exceptionReading("List<Span>", e);
+    }
+    return true;
+  }
+
   static int readListLength(ByteBuffer bytes) {
     byte ignoredType = bytes.get();
     return guardLength(bytes);
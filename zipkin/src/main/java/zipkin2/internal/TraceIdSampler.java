@@ -0,0 +1,26 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+/**
+ * Decides whether a span should be decoded, based only on its trace ID and debug flag. Decoders use
+ * this to skip over the bytes of spans that would otherwise be decoded only to be dropped.
+ */
+public interface TraceIdSampler {
+  /**
+   * @param traceId the lower 64 bits of the span's trace ID
+   * @param debug true if the span's debug flag was set
+   */
+  boolean isSampled(long traceId, boolean debug);
+}
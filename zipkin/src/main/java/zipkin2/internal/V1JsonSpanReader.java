@@ -26,6 +26,25 @@ import static zipkin2.internal.JsonCodec.exceptionReading;
 import static zipkin2.internal.V2SpanReader.ENDPOINT_READER;
 
 public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
+  static final int
+    TRACE_ID = 0,
+    ID = 1,
+    NAME = 2,
+    PARENT_ID = 3,
+    TIMESTAMP = 4,
+    DURATION = 5,
+    ANNOTATIONS = 6,
+    BINARY_ANNOTATIONS = 7,
+    DEBUG = 8;
+  static final byte[][] SPAN_FIELDS = JsonCodec.names("traceId", "id", "name", "parentId",
+    "timestamp", "duration", "annotations", "binaryAnnotations", "debug");
+
+  static final int ANNOTATION_TIMESTAMP = 0, ANNOTATION_VALUE = 1, ANNOTATION_ENDPOINT = 2;
+  static final byte[][] ANNOTATION_FIELDS = JsonCodec.names("timestamp", "value", "endpoint");
+
+  static final int BINARY_ANNOTATION_KEY = 0, BINARY_ANNOTATION_VALUE = 1,
+    BINARY_ANNOTATION_ENDPOINT = 2;
+  static final byte[][] BINARY_ANNOTATION_FIELDS = JsonCodec.names("key", "value", "endpoint");
 
   V1Span.Builder builder;
 
@@ -56,39 +75,47 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
     }
     reader.beginObject();
     while (reader.hasNext()) {
-      String nextName = reader.nextName();
-      if (nextName.equals("traceId")) {
+      int field = reader.selectName(SPAN_FIELDS);
+      if (field == TRACE_ID) {
         builder.traceId(reader.nextString());
         continue;
-      } else if (nextName.equals("id")) {
+      } else if (field == ID) {
         builder.id(reader.nextString());
         continue;
-      } else if (reader.peekNull()) {
+      } else if (field == -1 || reader.peekNull()) {
         reader.skipValue();
         continue;
       }
 
       // read any optional fields
-      if (nextName.equals("name")) {
-        builder.name(reader.nextString());
-      } else if (nextName.equals("parentId")) {
-        builder.parentId(reader.nextString());
-      } else if (nextName.equals("timestamp")) {
-        builder.timestamp(reader.nextLong());
-      } else if (nextName.equals("duration")) {
-        builder.duration(reader.nextLong());
-      } else if (nextName.equals("annotations")) {
-        reader.beginArray();
-        while (reader.hasNext()) readAnnotation(reader);
-        reader.endArray();
-      } else if (nextName.equals("binaryAnnotations")) {
-        reader.beginArray();
-        while (reader.hasNext()) readBinaryAnnotation(reader);
-        reader.endArray();
-      } else if (nextName.equals("debug")) {
-        if (reader.nextBoolean()) builder.debug(true);
-      } else {
-        reader.skipValue();
+      switch (field) {
+        case NAME:
+          builder.name(reader.nextString());
+          break;
+        case PARENT_ID:
+          builder.parentId(reader.nextString());
+          break;
+        case TIMESTAMP:
+          builder.timestamp(reader.nextLong());
+          break;
+        case DURATION:
+          builder.duration(reader.nextLong());
+          break;
+        case ANNOTATIONS:
+          reader.beginArray();
+          while (reader.hasNext()) readAnnotation(reader);
+          reader.endArray();
+          break;
+        case BINARY_ANNOTATIONS:
+          reader.beginArray();
+          while (reader.hasNext()) readBinaryAnnotation(reader);
+          reader.endArray();
+          break;
+        case DEBUG:
+          if (reader.nextBoolean()) builder.debug(true);
+          break;
+        default:
+          reader.skipValue();
       }
     }
     reader.endObject();
@@ -96,18 +123,17 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
   }
 
   void readAnnotation(JsonReader reader) throws IOException {
-    String nextName;
     reader.beginObject();
     Long timestamp = null;
     String value = null;
     Endpoint endpoint = null;
     while (reader.hasNext()) {
-      nextName = reader.nextName();
-      if (nextName.equals("timestamp")) {
+      int field = reader.selectName(ANNOTATION_FIELDS);
+      if (field == ANNOTATION_TIMESTAMP) {
         timestamp = reader.nextLong();
-      } else if (nextName.equals("value")) {
+      } else if (field == ANNOTATION_VALUE) {
         value = reader.nextString();
-      } else if (nextName.equals("endpoint") && !reader.peekNull()) {
+      } else if (field == ANNOTATION_ENDPOINT && !reader.peekNull()) {
         endpoint = ENDPOINT_READER.fromJson(reader);
       } else {
         reader.skipValue();
@@ -133,15 +159,15 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
 
     reader.beginObject();
     while (reader.hasNext()) {
-      String nextName = reader.nextName();
+      int field = reader.selectName(BINARY_ANNOTATION_FIELDS);
       if (reader.peekNull()) {
         reader.skipValue();
         continue;
       }
 
-      if (nextName.equals("key")) {
+      if (field == BINARY_ANNOTATION_KEY) {
         key = reader.nextString();
-      } else if (nextName.equals("value")) {
+      } else if (field == BINARY_ANNOTATION_VALUE) {
         if (reader.peekString()) {
           stringValue = reader.nextString();
         } else if (reader.peekBoolean()) {
@@ -149,7 +175,7 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
         } else {
           reader.skipValue();
         }
-      } else if (nextName.equals("endpoint")) {
+      } else if (field == BINARY_ANNOTATION_ENDPOINT) {
         endpoint = ENDPOINT_READER.fromJson(reader);
       } else {
         reader.skipValue();
@@ -92,6 +92,39 @@ public final class V1ThriftSpanReader {
     return builder.build();
   }
 
+  /**
+   * Peeks at the trace ID and debug flag of the span at the current position. When sampled, the
+   * position is unchanged. Otherwise, the position is advanced past the span without decoding it.
+   *
+   * <p>Spans missing a trace ID are considered sampled, so that they are validated by {@link
+   * #read(ByteBuffer)}.
+   */
+  static boolean peekSampled(ByteBuffer bytes, TraceIdSampler sampler) {
+    int startPos = bytes.position();
+    long traceId = 0L;
+    boolean debug = false;
+
+    while (true) {
+      ThriftField thriftField = ThriftField.read(bytes);
+      if (thriftField.type == TYPE_STOP) break;
+
+      if (thriftField.isEqualTo(TRACE_ID)) {
+        traceId = bytes.getLong();
+      } else if (thriftField.isEqualTo(DEBUG)) {
+        debug = bytes.get() == 1;
+      } else {
+        skip(bytes, thriftField.type);
+      }
+    }
+
+    if (traceId == 0L || sampler.isSampled(traceId, debug)) {
+      // avoid java.lang.NoSuchMethodError: java.nio.ByteBuffer.position(I)Ljava/nio/ByteBuffer;
+      ((java.nio.Buffer) bytes).position(startPos);
+      return true;
+    }
+    return false;
+  }
+
   static final class AnnotationReader {
     static final ThriftField TIMESTAMP = new ThriftField(TYPE_I64, 1);
     static final ThriftField VALUE = new ThriftField(TYPE_STRING, 2);
@@ -14,12 +14,37 @@
 package zipkin2.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.JsonCodec.JsonReader;
 import zipkin2.internal.JsonCodec.JsonReaderAdapter;
 
 public final class V2SpanReader implements JsonReaderAdapter<Span> {
+  static final int
+    TRACE_ID = 0,
+    ID = 1,
+    PARENT_ID = 2,
+    KIND = 3,
+    NAME = 4,
+    TIMESTAMP = 5,
+    DURATION = 6,
+    LOCAL_ENDPOINT = 7,
+    REMOTE_ENDPOINT = 8,
+    ANNOTATIONS = 9,
+    TAGS = 10,
+    DEBUG = 11,
+    SHARED = 12;
+  static final byte[][] SPAN_FIELDS = JsonCodec.names("traceId", "id", "parentId", "kind", "name",
+    "timestamp", "duration", "localEndpoint", "remoteEndpoint", "annotations", "tags", "debug",
+    "shared");
+
+  static final int ANNOTATION_TIMESTAMP = 0, ANNOTATION_VALUE = 1;
+  static final byte[][] ANNOTATION_FIELDS = JsonCodec.names("timestamp", "value");
+
   Span.Builder builder;
 
   @Override public Span fromJson(JsonReader reader) throws IOException {
@@ -30,72 +55,86 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
     }
     reader.beginObject();
     while (reader.hasNext()) {
-      String nextName = reader.nextName();
-      if (nextName.equals("traceId")) {
+      int field = reader.selectName(SPAN_FIELDS);
+      if (field == TRACE_ID) {
         builder.traceId(reader.nextString());
         continue;
-      } else if (nextName.equals("id")) {
+      } else if (field == ID) {
         builder.id(reader.nextString());
         continue;
-      } else if (reader.peekNull()) {
+      } else if (field == -1 || reader.peekNull()) {
         reader.skipValue();
         continue;
       }
 
       // read any optional fields
-      if (nextName.equals("parentId")) {
-        builder.parentId(reader.nextString());
-      } else if (nextName.equals("kind")) {
-        builder.kind(Span.Kind.valueOf(reader.nextString()));
-      } else if (nextName.equals("name")) {
-        builder.name(reader.nextString());
-      } else if (nextName.equals("timestamp")) {
-        builder.timestamp(reader.nextLong());
-      } else if (nextName.equals("duration")) {
-        builder.duration(reader.nextLong());
-      } else if (nextName.equals("localEndpoint")) {
-        builder.localEndpoint(ENDPOINT_READER.fromJson(reader));
-      } else if (nextName.equals("remoteEndpoint")) {
-        builder.remoteEndpoint(ENDPOINT_READER.fromJson(reader));
-      } else if (nextName.equals("annotations")) {
-        reader.beginArray();
-        while (reader.hasNext()) {
-          reader.beginObject();
-          Long timestamp = null;
-          String value = null;
+      switch (field) {
+        case PARENT_ID:
+          builder.parentId(reader.nextString());
+          break;
+        case KIND:
+          builder.kind(Span.Kind.valueOf(reader.nextString()));
+          break;
+        case NAME:
+          builder.name(reader.nextString());
+          break;
+        case TIMESTAMP:
+          builder.timestamp(reader.nextLong());
+          break;
+        case DURATION:
+          builder.duration(reader.nextLong());
+          break;
+        case LOCAL_ENDPOINT:
+          builder.localEndpoint(ENDPOINT_READER.fromJson(reader));
+          break;
+        case REMOTE_ENDPOINT:
+          builder.remoteEndpoint(ENDPOINT_READER.fromJson(reader));
+          break;
+        case ANNOTATIONS:
+          reader.beginArray();
           while (reader.hasNext()) {
-            nextName = reader.nextName();
-            if (nextName.equals("timestamp")) {
-              timestamp = reader.nextLong();
-            } else if (nextName.equals("value")) {
-              value = reader.nextString();
-            } else {
-              reader.skipValue();
+            reader.beginObject();
+            Long timestamp = null;
+            String value = null;
+            while (reader.hasNext()) {
+              switch (reader.selectName(ANNOTATION_FIELDS)) {
+                case ANNOTATION_TIMESTAMP:
+                  timestamp = reader.nextLong();
+                  break;
+                case ANNOTATION_VALUE:
+                  value = reader.nextString();
+                  break;
+                default:
+                  reader.skipValue();
+              }
             }
+            if (timestamp == null || value == null) {
+              throw new IllegalArgumentException("Incomplete annotation at " + reader.getPath());
+            }
+            reader.endObject();
+            builder.addAnnotation(timestamp, value);
           }
-          if (timestamp == null || value == null) {
-            throw new IllegalArgumentException("Incomplete annotation at " + reader.getPath());
+          reader.endArray();
+          break;
+        case TAGS:
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peekNull()) {
+              throw new IllegalArgumentException("No value at " + reader.getPath());
+            }
+            builder.putTag(key, reader.nextString());
           }
           reader.endObject();
-          builder.addAnnotation(timestamp, value);
-        }
-        reader.endArray();
-      } else if (nextName.equals("tags")) {
-        reader.beginObject();
-        while (reader.hasNext()) {
-          String key = reader.nextName();
-          if (reader.peekNull()) {
-            throw new IllegalArgumentException("No value at " + reader.getPath());
-          }
-          builder.putTag(key, reader.nextString());
-        }
-        reader.endObject();
-      } else if (nextName.equals("debug")) {
-        if (reader.nextBoolean()) builder.debug(true);
-      } else if (nextName.equals("shared")) {
-        if (reader.nextBoolean()) builder.shared(true);
-      } else {
-        reader.skipValue();
+          break;
+        case DEBUG:
+          if (reader.nextBoolean()) builder.debug(true);
+          break;
+        case SHARED:
+          if (reader.nextBoolean()) builder.shared(true);
+          break;
+        default:
+          reader.skipValue();
       }
     }
     reader.endObject();
@@ -106,28 +145,95 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
     return "Span";
   }
 
+  /**
+   * Like {@link JsonCodec#readList(JsonReaderAdapter, byte[], Collection)}, except spans not
+   * accepted by the sampler are skipped without being decoded.
+   */
+  public static boolean readList(byte[] bytes, TraceIdSampler sampler, Collection<Span> out) {
+    if (bytes.length == 0) return false;
+    BitSet sampled = peekSampled(bytes, sampler);
+    if (sampled != null) return JsonCodec.readList(new V2SpanReader(), bytes, sampled, out);
+
+    // The input couldn't be scanned: decode everything, which will raise an error if malformed
+    List<Span> spans = new ArrayList<>();
+    if (!JsonCodec.readList(new V2SpanReader(), bytes, spans)) return false;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
+      if (sampler.isSampled(span.traceIdLow(), Boolean.TRUE.equals(span.debug()))) out.add(span);
+    }
+    return true;
+  }
+
+  static final byte[][] SAMPLING_FIELDS = JsonCodec.names("traceId", "debug");
+
+  /**
+   * Scans a json list of spans, reading only the trace ID and debug flag of each. Other values are
+   * skipped without allocation.
+   *
+   * <p>Spans with a missing or invalid trace ID are considered sampled, so that they are validated
+   * when decoded.
+   *
+   * @return indexes of sampled spans, or null if the input couldn't be scanned.
+   */
+  @Nullable static BitSet peekSampled(byte[] bytes, TraceIdSampler sampler) {
+    BitSet result = new BitSet();
+    JsonReader reader = new JsonReader(bytes);
+    try {
+      reader.beginArray();
+      for (int i = 0; reader.hasNext(); i++) {
+        long traceId = 0L;
+        boolean debug = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          int field = reader.selectName(SAMPLING_FIELDS);
+          if (field == 0 && reader.peekString()) {
+            traceId = reader.nextLowerHexLong();
+          } else if (field == 1 && reader.peekBoolean()) {
+            debug = reader.nextBoolean();
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+        if (traceId == 0L || sampler.isSampled(traceId, debug)) result.set(i);
+      }
+      reader.endArray();
+      return result;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  static final int SERVICE_NAME = 0, IPV4 = 1, IPV6 = 2, PORT = 3;
+  static final byte[][] ENDPOINT_FIELDS = JsonCodec.names("serviceName", "ipv4", "ipv6", "port");
+
   static final JsonReaderAdapter<Endpoint> ENDPOINT_READER = new JsonReaderAdapter<Endpoint>() {
     @Override public Endpoint fromJson(JsonReader reader) throws IOException {
       Endpoint.Builder result = Endpoint.newBuilder();
       reader.beginObject();
       boolean readField = false;
       while (reader.hasNext()) {
-        String nextName = reader.nextName();
+        int field = reader.selectName(ENDPOINT_FIELDS);
         if (reader.peekNull()) {
           reader.skipValue();
           continue;
         }
-        if (nextName.equals("serviceName")) {
-          result.serviceName(reader.nextString());
-          readField = true;
-        } else if (nextName.equals("ipv4") || nextName.equals("ipv6")) {
-          result.parseIp(reader.nextString());
-          readField = true;
-        } else if (nextName.equals("port")) {
-          result.port(reader.nextInt());
-          readField = true;
-        } else {
-          reader.skipValue();
+        switch (field) {
+          case SERVICE_NAME:
+            result.serviceName(reader.nextString());
+            readField = true;
+            break;
+          case IPV4:
+          case IPV6:
+            result.parseIp(reader.nextString());
+            readField = true;
+            break;
+          case PORT:
+            result.port(reader.nextInt());
+            readField = true;
+            break;
+          default:
+            reader.skipValue();
         }
       }
       reader.endObject();
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import zipkin2.DependencyLink;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/**
+ * This links traces as their spans are collected, as opposed to re-reading them from storage.
+ *
+ * <p>Spans are buffered by trace ID until no span for that trace has arrived for the quiet period.
+ * Then, the trace is {@link DependencyLinker linked} and its links are added to a bucket per
+ * minute, based on the earliest timestamp in the trace. {@link #getDependencies(long, long)} merges
+ * buckets, so it costs in proportion to links, not spans in the lookback.
+ *
+ * <p>Spans which arrive after their trace was linked are linked separately, so a quiet period
+ * shorter than the time it takes to report a trace can miss or misattribute links. Buckets older
+ * than the retention period are dropped.
+ *
+ * <p>{@link #accept(List)} is safe to call from any thread. {@link #flush()} should be called
+ * periodically, for example every second.
+ */
+public final class WindowedDependencyLinker {
+  static final long BUCKET_MILLIS = 60 * 1000L;
+
+  final long quietPeriodMillis, retentionMillis;
+  final ConcurrentHashMap<Long, PendingTrace> pendingTraces = new ConcurrentHashMap<>();
+  /** Guarded by this. Start of minute in epoch millis to links of traces that started then. */
+  final TreeMap<Long, List<DependencyLink>> buckets = new TreeMap<>();
+
+  public WindowedDependencyLinker(long quietPeriodMillis, long retentionMillis) {
+    if (quietPeriodMillis < 0) throw new IllegalArgumentException("quietPeriodMillis < 0");
+    if (retentionMillis <= 0) throw new IllegalArgumentException("retentionMillis <= 0");
+    this.quietPeriodMillis = quietPeriodMillis;
+    this.retentionMillis = retentionMillis;
+  }
+
+  /** Buffers the spans until their traces are quiet. */
+  public void accept(List<Span> spans) {
+    accept(spans, System.currentTimeMillis());
+  }
+
+  void accept(List<Span> spans, long now) {
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = linkFields(spans.get(i));
+      Long lowTraceId = span.traceIdLow();
+      while (true) {
+        PendingTrace pending = pendingTraces.get(lowTraceId);
+        if (pending == null) {
+          PendingTrace newPending = new PendingTrace();
+          pending = pendingTraces.putIfAbsent(lowTraceId, newPending);
+          if (pending == null) pending = newPending;
+        }
+        if (pending.add(span, now)) break;
+        pendingTraces.remove(lowTraceId, pending); // being linked, so start a new one
+      }
+    }
+  }
+
+  /**
+   * Links traces that have been quiet for the quiet period, and drops buckets older than the
+   * retention period. Returns the count of traces linked.
+   */
+  public int flush() {
+    return flush(System.currentTimeMillis());
+  }
+
+  synchronized int flush(long now) {
+    // Link traces into a linker per bucket, so that existing links are merged once per bucket
+    Map<Long, DependencyLinker> linkers = new LinkedHashMap<>();
+    int tracesLinked = 0;
+    for (Map.Entry<Long, PendingTrace> entry : pendingTraces.entrySet()) {
+      PendingTrace pending = entry.getValue();
+      List<Span> trace = pending.closeIfQuiet(now - quietPeriodMillis);
+      if (trace == null) continue;
+      pendingTraces.remove(entry.getKey(), pending); // a writer may have already replaced it
+
+      long bucket = bucket(trace, now);
+      DependencyLinker linker = linkers.get(bucket);
+      if (linker == null) linkers.put(bucket, linker = new DependencyLinker());
+      linker.putTrace(trace.iterator());
+      tracesLinked++;
+    }
+
+    for (Map.Entry<Long, DependencyLinker> entry : linkers.entrySet()) {
+      List<DependencyLink> links = entry.getValue().link();
+      if (links.isEmpty()) continue;
+      List<DependencyLink> existing = buckets.get(entry.getKey());
+      if (existing != null) {
+        links.addAll(existing);
+        links = DependencyLinker.merge(links);
+      }
+      buckets.put(entry.getKey(), links);
+    }
+
+    buckets.headMap(now - retentionMillis).clear();
+    return tracesLinked;
+  }
+
+  /** Returns links of traces that started between {@code endTs - lookback} and endTs. */
+  public synchronized List<DependencyLink> getDependencies(long endTs, long lookback) {
+    long startBucket = (endTs - lookback) - ((endTs - lookback) % BUCKET_MILLIS);
+    SortedMap<Long, List<DependencyLink>> inRange = buckets.subMap(startBucket, endTs + 1);
+    if (inRange.isEmpty()) return new ArrayList<>();
+    if (inRange.size() == 1) return new ArrayList<>(inRange.values().iterator().next());
+    List<DependencyLink> result = new ArrayList<>();
+    for (List<DependencyLink> links : inRange.values()) {
+      result.addAll(links);
+    }
+    return DependencyLinker.merge(result);
+  }
+
+  /** Returns the start of the minute the trace started in, or now if it has no timestamps. */
+  static long bucket(List<Span> trace, long now) {
+    long timestamp = 0L;
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      long next = trace.get(i).timestampAsLong();
+      if (next != 0L && (timestamp == 0L || next < timestamp)) timestamp = next;
+    }
+    long epochMillis = timestamp != 0L ? timestamp / 1000L : now;
+    return epochMillis - (epochMillis % BUCKET_MILLIS);
+  }
+
+  /**
+   * Returns a copy of the span with only the fields used by {@link DependencyLinker}, so that
+   * pending traces don't retain annotations and tags.
+   */
+  static Span linkFields(Span span) {
+    if (span.annotations().isEmpty() && span.tags().isEmpty() && span.name() == null) {
+      return span;
+    }
+    Span.Builder result = Span.newBuilder()
+        .traceId(span.traceId())
+        .parentId(span.parentId())
+        .id(span.id())
+        .kind(span.kind())
+        .timestamp(span.timestamp())
+        .shared(span.shared())
+        .localEndpoint(serviceNameOnly(span.localEndpoint()))
+        .remoteEndpoint(serviceNameOnly(span.remoteEndpoint()));
+    String error = span.tags().get("error");
+    if (error != null) result.putTag("error", error);
+    return result.build();
+  }
+
+  static Endpoint serviceNameOnly(Endpoint endpoint) {
+    if (endpoint == null || endpoint.serviceName() == null) return null;
+    if (endpoint.ipv4() == null && endpoint.ipv6() == null && endpoint.portAsInt() == 0) {
+      return endpoint;
+    }
+    return Endpoint.newBuilder().serviceName(endpoint.serviceName()).build();
+  }
+
+  static final class PendingTrace {
+    // use a set to dedupe any redundantly reported spans
+    final Set<Span> spans = new LinkedHashSet<>();
+    long lastAdded;
+    boolean closed;
+
+    /** Returns false if the trace is being linked, so the span should be added to a new one. */
+    synchronized boolean add(Span span, long now) {
+      if (closed) return false;
+      spans.add(span);
+      lastAdded = now;
+      return true;
+    }
+
+    /** Returns the spans to link if no span was added after the input, or null. */
+    synchronized List<Span> closeIfQuiet(long quietSince) {
+      if (lastAdded > quietSince) return null;
+      closed = true;
+      return new ArrayList<>(spans);
+    }
+  }
+}
@@ -40,20 +40,45 @@ public final class GroupByTraceId implements Call.Mapper<List<Span>, List<List<S
   public List<List<Span>> map(List<Span> input) {
     if (input.isEmpty()) return Collections.emptyList();
 
-    Map<String, List<Span>> groupedByTraceId = new LinkedHashMap<>();
+    Map<TraceId, List<Span>> groupedByTraceId = new LinkedHashMap<>();
     for (Span span : input) {
-      String traceId =
-          strictTraceId || span.traceId().length() == 16
-              ? span.traceId()
-              : span.traceId().substring(16);
-      if (!groupedByTraceId.containsKey(traceId)) {
-        groupedByTraceId.put(traceId, new ArrayList<>());
-      }
-      groupedByTraceId.get(traceId).add(span);
+      TraceId traceId =
+          new TraceId(strictTraceId ? span.traceIdHigh() : 0L, span.traceIdLow());
+      List<Span> spans = groupedByTraceId.get(traceId);
+      if (spans == null) groupedByTraceId.put(traceId, spans = new ArrayList<>());
+      spans.add(span);
     }
     return new ArrayList<>(groupedByTraceId.values());
   }
 
+  /** Groups by the trace ID's longs, as opposed to their hex encoding. */
+  static final class TraceId {
+    final long high, low;
+
+    TraceId(long high, long low) {
+      this.high = high;
+      this.low = low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof TraceId)) return false;
+      TraceId that = (TraceId) o;
+      return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = 1;
+      h *= 1000003;
+      h ^= (int) ((high >>> 32) ^ high);
+      h *= 1000003;
+      h ^= (int) ((low >>> 32) ^ low);
+      return h;
+    }
+  }
+
   @Override
   public String toString() {
     return "GroupByTraceId{strictTraceId=" + strictTraceId + "}";
@@ -13,7 +13,17 @@
  */
 package zipkin2.storage;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -23,14 +33,34 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import zipkin2.Annotation;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
 import zipkin2.Span;
-import zipkin2.internal.DependencyLinker;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.ParallelDependencyLinker;
+import zipkin2.internal.Platform;
+
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
 /**
  * Test storage component that keeps all spans in memory, accepting them on the calling thread.
@@ -52,18 +82,30 @@ import zipkin2.internal.DependencyLinker;
  *    bbbb --> [ <bbbb,July 5>, <bbbb,July 6> ]
  *    cccc --> [ <cccc,July 4> ]
  *
- * serviceToTraceIds:
- *    foo --> [ <aaaa>, <cccc>, <bbbb> ]
- *    bar --> [ <aaaa> ]
- *    biz --> [ <bbbb> ]
+ * serviceToTraceIdTimeStamps:
+ *    foo --> [ <aaaa,July 4>, <cccc,July 4>, <bbbb,July 6> ]
+ *    bar --> [ <aaaa,July 4> ]
+ *    biz --> [ <bbbb,July 5> ]
  *
  * serviceToSpanNames:
  *    bar --> ( GET )
  *    biz --> ( GET )
  *    foo --> ( GET, POST )
  * }</pre>
+ *
+ * <p>Trace IDs are ordered descending by timestamp, so that a query seeks to its end timestamp and
+ * walks back only until the limit is reached or the lookback is exhausted.
+ *
+ * <p>All indexes are concurrent maps, so queries never block and never block writers. Writes to
+ * the same trace are serialized on a lock striped by trace ID, so threads accepting different
+ * traces proceed in parallel. Eviction of the oldest traces is serialized separately, taking the
+ * same striped locks as it removes each trace.
+ *
+ * <p>Contents can be saved with {@link #writeSnapshot(OutputStream)} and loaded into a new instance
+ * with {@link #restoreSnapshot(InputStream)}, so that recent traces survive a restart.
  */
-public final class InMemoryStorage extends StorageComponent implements SpanStore, SpanConsumer {
+public final class InMemoryStorage extends StorageComponent
+    implements SpanStore, SpanConsumer, Traces, TracePages {
 
   public static Builder newBuilder() {
     return new Builder();
@@ -72,6 +114,7 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   public static final class Builder extends StorageComponent.Builder {
     boolean strictTraceId = true, searchEnabled = true;
     int maxSpanCount = 500000;
+    long maxBytes = 0L;
 
     /** {@inheritDoc} */
     @Override
@@ -93,6 +136,20 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       return this;
     }
 
+    /**
+     * When positive, eldest traces are also removed to ensure the estimated size of spans in memory
+     * doesn't exceed this value. Defaults to zero, which only limits on {@link #maxSpanCount(int)}.
+     *
+     * <p>Span sizes vary widely, for example when they include SQL tags, so this bounds heap usage
+     * better than a span count. The estimate is the size of each span in proto3 encoding. Heap
+     * usage is a multiple of this, so leave room accordingly.
+     */
+    public Builder maxBytes(long maxBytes) {
+      if (maxBytes < 0) throw new IllegalArgumentException("maxBytes < 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
     @Override
     public InMemoryStorage build() {
       return new InMemoryStorage(this);
@@ -108,152 +165,539 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       new SortedMultimap(TIMESTAMP_DESCENDING) {
         @Override
         Collection<Span> valueContainer() {
-          return new ArrayList<>();
+          return new CopyOnWriteArrayList<>();
         }
       };
 
   /** This supports span lookup by {@link Span#traceId lower 64-bits of the trace ID} */
-  private final SortedMultimap<String, TraceIdTimestamp> traceIdToTraceIdTimeStamps =
-      new SortedMultimap<String, TraceIdTimestamp>(STRING_COMPARATOR) {
+  private final SortedMultimap<Long, TraceIdTimestamp> traceIdToTraceIdTimeStamps =
+      new SortedMultimap<Long, TraceIdTimestamp>(UNSIGNED_LONG_COMPARATOR) {
         @Override
         Collection<TraceIdTimestamp> valueContainer() {
-          return new LinkedHashSet<>();
+          return new CopyOnWriteArraySet<>();
         }
       };
-  /** This is an index of {@link Span#traceId} by {@link Endpoint#serviceName() service name} */
-  private final ServiceNameToTraceIds serviceToTraceIds = new ServiceNameToTraceIds();
+  /** This indexes {@link Span#traceId} timestamps by {@link Endpoint#serviceName() service name} */
+  private final ServiceNameToTraceIdTimeStamps serviceToTraceIdTimeStamps =
+      new ServiceNameToTraceIdTimeStamps();
   /** This is an index of {@link Span#name} by {@link Endpoint#serviceName() service name} */
   private final SortedMultimap<String, String> serviceToSpanNames =
       new SortedMultimap<String, String>(STRING_COMPARATOR) {
         @Override
         Collection<String> valueContainer() {
-          return new LinkedHashSet<>();
+          return new ConcurrentSkipListSet<>();
         }
       };
+  /**
+   * This is an inverted index of {@link Span#traceId} by {@link QueryRequest#annotationQuery()}
+   * terms: {@link Annotation#value() annotation values}, {@link Span#tags() tag keys} and tag
+   * entries formatted as "key=value". This is the same as the "_q" field in Elasticsearch.
+   *
+   * <p>Terms longer than {@link #MAX_TERM_LENGTH} are {@link #term(String) shortened}, so that
+   * large values such as SQL don't grow the heap outside the {@link Builder#maxBytes(long) span
+   * budget}.
+   */
+  private final SortedMultimap<String, Long> termToTraceIds =
+      new SortedMultimap<String, Long>(STRING_COMPARATOR) {
+        @Override
+        Collection<Long> valueContainer() {
+          return Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        }
+      };
+
+  /** Longer terms are indexed by their prefix and hash code. */
+  static final int MAX_TERM_LENGTH = 64;
+
+  /** Power of two count of locks guarding writes to traces, service names and terms */
+  static final int LOCK_STRIPES = 64;
 
   final boolean strictTraceId, searchEnabled;
   final int maxSpanCount;
-  volatile int acceptedSpanCount;
+  final long maxBytes;
+  final Object[] traceLocks = newLocks(), serviceLocks = newLocks(), termLocks = newLocks();
+  /** Serializes eviction, which is the only thing that removes entries outside {@link #clear()} */
+  final Object evictionLock = new Object();
+  /** Spans stored plus those being stored, so that concurrent writers don't exceed capacity */
+  final AtomicInteger spanCount = new AtomicInteger();
+  /** Like {@link #spanCount}, except the sum of {@link #sizeInBytes(Span)} */
+  final AtomicLong byteCount = new AtomicLong();
+  final AtomicInteger acceptedSpanCount = new AtomicInteger();
+  final AtomicLong evictedSpanCount = new AtomicLong();
 
   InMemoryStorage(Builder builder) {
     this.strictTraceId = builder.strictTraceId;
     this.searchEnabled = builder.searchEnabled;
     this.maxSpanCount = builder.maxSpanCount;
+    this.maxBytes = builder.maxBytes;
   }
 
   public int acceptedSpanCount() {
-    return acceptedSpanCount;
+    return acceptedSpanCount.get();
   }
 
-  public synchronized void clear() {
-    acceptedSpanCount = 0;
-    traceIdToTraceIdTimeStamps.clear();
-    spansByTraceIdTimeStamp.clear();
-    serviceToTraceIds.clear();
-    serviceToSpanNames.clear();
+  /** Returns the count of spans in memory. */
+  public int spanCount() {
+    return spanCount.get();
+  }
+
+  /** Returns the estimated size of spans in memory, as described in {@link Builder#maxBytes}. */
+  public long bytes() {
+    return byteCount.get();
+  }
+
+  /** Returns the cumulative count of spans removed to stay within capacity. */
+  public long evictedSpanCount() {
+    return evictedSpanCount.get();
+  }
+
+  public void clear() {
+    synchronized (evictionLock) {
+      acceptedSpanCount.set(0);
+      evictedSpanCount.set(0);
+      spanCount.set(0);
+      byteCount.set(0);
+      traceIdToTraceIdTimeStamps.clear();
+      spansByTraceIdTimeStamp.clear();
+      serviceToTraceIdTimeStamps.clear();
+      serviceToSpanNames.clear();
+      termToTraceIds.clear();
+    }
   }
 
   @Override
-  public synchronized Call<Void> accept(List<Span> spans) {
-    int delta = spans.size();
-    int spansToRecover = (spansByTraceIdTimeStamp.size() + delta) - maxSpanCount;
-    evictToRecoverSpans(spansToRecover);
+  public Call<Void> accept(List<Span> spans) {
+    long bytes = 0L;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      bytes += sizeInBytes(spans.get(i));
+    }
+    // Reserve room for the input before storing it, evicting if the reservation exceeds capacity.
+    int spanCount = this.spanCount.addAndGet(spans.size());
+    long byteCount = this.byteCount.addAndGet(bytes);
+    if (spanCount > maxSpanCount || (maxBytes > 0L && byteCount > maxBytes)) {
+      synchronized (evictionLock) {
+        evictToRecoverCapacity();
+      }
+    }
     for (Span span : spans) {
-      long timestamp = span.timestampAsLong();
-      String lowTraceId = lowTraceId(span.traceId());
-      TraceIdTimestamp traceIdTimeStamp = new TraceIdTimestamp(lowTraceId, timestamp);
-      spansByTraceIdTimeStamp.put(traceIdTimeStamp, span);
+      long lowTraceId = span.traceIdLow();
+      synchronized (traceLock(lowTraceId)) {
+        index(lowTraceId, span);
+      }
+      acceptedSpanCount.incrementAndGet();
+    }
+    return Call.create(null /* Void == null */);
+  }
+
+  /** Call while holding the {@link #traceLock(long) trace lock} */
+  void index(long lowTraceId, Span span) {
+    TraceIdTimestamp traceIdTimeStamp = new TraceIdTimestamp(lowTraceId, span.timestampAsLong());
+    spansByTraceIdTimeStamp.put(traceIdTimeStamp, span);
+    traceIdToTraceIdTimeStamps.put(lowTraceId, traceIdTimeStamp);
+
+    if (!searchEnabled) return;
+    String spanName = span.name();
+    if (span.localServiceName() != null) {
+      indexServiceName(span.localServiceName(), traceIdTimeStamp, spanName);
+    }
+    if (span.remoteServiceName() != null) {
+      indexServiceName(span.remoteServiceName(), traceIdTimeStamp, spanName);
+    }
+    for (String term : terms(span)) {
+      // Like service names, the trace lock means we can skip the term lock when already indexed
+      if (termToTraceIds.get(term).contains(lowTraceId)) continue;
+      synchronized (termLock(term)) {
+        termToTraceIds.put(term, lowTraceId);
+      }
+    }
+  }
+
+  /** Indexes a snapshot record, which {@link #writeSnapshot} writes as spans sharing a key. */
+  void restore(List<Span> spans) {
+    if (spans.isEmpty()) return;
+    Span first = spans.get(0);
+    TraceIdTimestamp key = new TraceIdTimestamp(first.traceIdLow(), first.timestampAsLong());
+    for (int i = 1, length = spans.size(); i < length; i++) {
+      Span next = spans.get(i);
+      if (next.traceIdLow() != key.lowTraceId || next.timestampAsLong() != key.timestamp) {
+        for (Span span : spans) { // unexpected input, so fall back to indexing span by span
+          long lowTraceId = span.traceIdLow();
+          synchronized (traceLock(lowTraceId)) {
+            index(lowTraceId, span);
+          }
+        }
+        return;
+      }
+    }
+    if (spans.size() == 1) {
+      synchronized (traceLock(key.lowTraceId)) {
+        index(key.lowTraceId, first);
+      }
+    } else {
+      indexAll(key, spans);
+    }
+  }
+
+  /**
+   * Indexes spans which share the same trace ID and timestamp, such as a record in a snapshot. This
+   * adds them to {@link #spansByTraceIdTimeStamp} at once, and visits each service name, span name
+   * and term once, as opposed to once per span.
+   */
+  void indexAll(TraceIdTimestamp traceIdTimeStamp, List<Span> spans) {
+    long lowTraceId = traceIdTimeStamp.lowTraceId;
+    synchronized (traceLock(lowTraceId)) {
+      spansByTraceIdTimeStamp.putAll(traceIdTimeStamp, spans);
       traceIdToTraceIdTimeStamps.put(lowTraceId, traceIdTimeStamp);
-      acceptedSpanCount++;
 
-      if (!searchEnabled) continue;
-      String spanName = span.name();
-      if (span.localServiceName() != null) {
-        serviceToTraceIds.put(span.localServiceName(), lowTraceId);
-        if (spanName != null) serviceToSpanNames.put(span.localServiceName(), spanName);
+      if (!searchEnabled) return;
+      Map<String, Set<String>> serviceToSpanNames = new LinkedHashMap<>();
+      Set<String> terms = new LinkedHashSet<>();
+      for (Span span : spans) {
+        addSpanName(serviceToSpanNames, span.localServiceName(), span.name());
+        addSpanName(serviceToSpanNames, span.remoteServiceName(), span.name());
+        terms.addAll(terms(span));
       }
-      if (span.remoteServiceName() != null) {
-        serviceToTraceIds.put(span.remoteServiceName(), lowTraceId);
-        if (spanName != null) serviceToSpanNames.put(span.remoteServiceName(), spanName);
+      for (Map.Entry<String, Set<String>> entry : serviceToSpanNames.entrySet()) {
+        if (entry.getValue().isEmpty()) {
+          indexServiceName(entry.getKey(), traceIdTimeStamp, null);
+        }
+        for (String spanName : entry.getValue()) {
+          indexServiceName(entry.getKey(), traceIdTimeStamp, spanName);
+        }
+      }
+      for (String term : terms) {
+        if (termToTraceIds.get(term).contains(lowTraceId)) continue;
+        synchronized (termLock(term)) {
+          termToTraceIds.put(term, lowTraceId);
+        }
       }
     }
-    return Call.create(null /* Void == null */);
   }
 
-  /** Returns the count of spans evicted. */
-  int evictToRecoverSpans(int spansToRecover) {
+  static void addSpanName(
+      Map<String, Set<String>> serviceToSpanNames, @Nullable String serviceName,
+      @Nullable String spanName) {
+    if (serviceName == null) return;
+    Set<String> spanNames = serviceToSpanNames.get(serviceName);
+    if (spanNames == null) serviceToSpanNames.put(serviceName, spanNames = new LinkedHashSet<>());
+    if (spanName != null) spanNames.add(spanName);
+  }
+
+  /** Returns the terms that {@link #termToTraceIds} indexes for the span. */
+  static Set<String> terms(Span span) {
+    if (span.annotations().isEmpty() && span.tags().isEmpty()) return Collections.emptySet();
+    Set<String> result = new LinkedHashSet<>();
+    for (Annotation a : span.annotations()) {
+      result.add(term(a.value()));
+    }
+    for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+      result.add(term(tag.getKey()));
+      result.add(term(tag.getKey() + "=" + tag.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the input if it is at most {@link #MAX_TERM_LENGTH} characters. Otherwise, returns its
+   * prefix and hash code. Different terms can collide, which is ok as matches are still {@link
+   * QueryRequest#test tested}.
+   */
+  static String term(String term) {
+    if (term.length() <= MAX_TERM_LENGTH) return term;
+    return term.substring(0, MAX_TERM_LENGTH) + '#' + Integer.toHexString(term.hashCode());
+  }
+
+  void indexServiceName(
+      String serviceName, TraceIdTimestamp traceIdTimeStamp, @Nullable String spanName) {
+    // Typically, many spans in the same trace have the same service and span name. As we hold the
+    // trace lock, the trace ID can't be evicted concurrently, so we can skip the service lock.
+    if (serviceToTraceIdTimeStamps.get(serviceName).contains(traceIdTimeStamp)
+        && (spanName == null || serviceToSpanNames.get(serviceName).contains(spanName))) {
+      return;
+    }
+    synchronized (serviceLock(serviceName)) {
+      serviceToTraceIdTimeStamps.put(serviceName, traceIdTimeStamp);
+      if (spanName != null) serviceToSpanNames.put(serviceName, spanName);
+    }
+  }
+
+  /** Call while holding the {@link #evictionLock}. Returns the count of spans evicted. */
+  int evictToRecoverCapacity() {
     int spansEvicted = 0;
-    while (spansToRecover > 0) {
+    // re-read as another thread may have evicted while we waited for the lock
+    while (spanCount.get() > maxSpanCount || (maxBytes > 0L && byteCount.get() > maxBytes)) {
       int spansInOldestTrace = deleteOldestTrace();
-      spansToRecover -= spansInOldestTrace;
+      if (spansInOldestTrace == 0) break; // the remaining reservation is spans not yet stored
       spansEvicted += spansInOldestTrace;
     }
+    evictedSpanCount.addAndGet(spansEvicted);
     return spansEvicted;
   }
 
   /** Returns the count of spans evicted. */
   private int deleteOldestTrace() {
-    int spansEvicted = 0;
-    String lowTraceId = spansByTraceIdTimeStamp.delegate.lastKey().lowTraceId;
+    Map.Entry<TraceIdTimestamp, Collection<Span>> oldest =
+        spansByTraceIdTimeStamp.delegate.lastEntry();
+    if (oldest == null) return 0;
+    long lowTraceId = oldest.getKey().lowTraceId;
+    synchronized (traceLock(lowTraceId)) {
+      return deleteTrace(lowTraceId);
+    }
+  }
+
+  /** Call while holding the {@link #traceLock(long) trace lock}. */
+  int deleteTrace(long lowTraceId) {
     Collection<TraceIdTimestamp> traceIdTimeStamps = traceIdToTraceIdTimeStamps.remove(lowTraceId);
-    for (Iterator<TraceIdTimestamp> traceIdTimeStampIter = traceIdTimeStamps.iterator();
-        traceIdTimeStampIter.hasNext(); ) {
-      TraceIdTimestamp traceIdTimeStamp = traceIdTimeStampIter.next();
+    if (traceIdTimeStamps == null) return 0;
+
+    int spansEvicted = 0;
+    long bytesEvicted = 0L;
+    Set<String> terms = new LinkedHashSet<>();
+    for (TraceIdTimestamp traceIdTimeStamp : traceIdTimeStamps) {
       Collection<Span> spans = spansByTraceIdTimeStamp.remove(traceIdTimeStamp);
+      if (spans == null) continue;
       spansEvicted += spans.size();
+      for (Span span : spans) {
+        bytesEvicted += sizeInBytes(span);
+        if (searchEnabled) terms.addAll(terms(span));
+      }
+      if (searchEnabled) unindexServiceNames(traceIdTimeStamp, spans);
     }
-    if (searchEnabled) {
-      for (String orphanedService : serviceToTraceIds.removeServiceIfTraceId(lowTraceId)) {
-        serviceToSpanNames.remove(orphanedService);
+    for (String term : terms) {
+      synchronized (termLock(term)) {
+        termToTraceIds.removeValue(term, lowTraceId);
       }
     }
+    spanCount.addAndGet(-spansEvicted);
+    byteCount.addAndGet(-bytesEvicted);
     return spansEvicted;
   }
 
-  @Override
-  public synchronized Call<List<List<Span>>> getTraces(QueryRequest request) {
-    return getTraces(request, strictTraceId);
+  void unindexServiceNames(TraceIdTimestamp traceIdTimeStamp, Collection<Span> spans) {
+    Set<String> serviceNames = new LinkedHashSet<>();
+    for (Span span : spans) {
+      if (span.localServiceName() != null) serviceNames.add(span.localServiceName());
+      if (span.remoteServiceName() != null) serviceNames.add(span.remoteServiceName());
+    }
+    for (String serviceName : serviceNames) {
+      synchronized (serviceLock(serviceName)) {
+        if (serviceToTraceIdTimeStamps.removeValue(serviceName, traceIdTimeStamp)) {
+          serviceToSpanNames.remove(serviceName); // orphaned
+        }
+      }
+    }
   }
 
-  synchronized Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
-    Set<String> traceIdsInTimerange = traceIdsDescendingByTimestamp(request);
-    if (traceIdsInTimerange.isEmpty()) return Call.emptyList();
+  /**
+   * Writes spans in memory to the output, most recent first, and returns the count written.
+   *
+   * <p>This iterates over the primary index without locking, so it doesn't block writers. Spans
+   * accepted or evicted while this runs may or may not be included.
+   *
+   * <p>The output is a sequence of records, each a 4-byte big-endian length followed by a proto3
+   * list of spans which share the same trace ID and timestamp. The caller should buffer the output.
+   */
+  public int writeSnapshot(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    int spansWritten = 0;
+    for (Collection<Span> spans : spansByTraceIdTimeStamp.delegate.values()) {
+      List<Span> record = new ArrayList<>(spans); // copy as we may race with eviction
+      if (record.isEmpty()) continue;
+      byte[] encoded = SpanBytesEncoder.PROTO3.encodeList(record);
+      data.writeInt(encoded.length);
+      data.write(encoded);
+      spansWritten += record.size();
+    }
+    data.flush();
+    return spansWritten;
+  }
 
-    List<List<Span>> result = new ArrayList<>();
-    for (Iterator<String> lowTraceId = traceIdsInTimerange.iterator();
-        lowTraceId.hasNext() && result.size() < request.limit(); ) {
-      List<Span> next = spansByTraceId(lowTraceId.next());
-      if (!request.test(next)) continue;
-      if (!strictTraceId) {
-        result.add(next);
-        continue;
+  /**
+   * Reads a snapshot written by {@link #writeSnapshot(OutputStream)}, and returns the count of
+   * spans restored. A truncated last record is ignored.
+   *
+   * <p>Records are decoded and indexed in bulk on a thread per processor, which is faster than
+   * accepting the same spans. As the snapshot is most recent first, reading stops once capacity is
+   * reached, and any overshoot evicts the oldest traces as usual.
+   */
+  public int restoreSnapshot(InputStream in) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    ArrayDeque<Future<Integer>> pending = new ArrayDeque<>();
+    int spansRestored = 0;
+    try {
+      DataInputStream data = new DataInputStream(in);
+      List<byte[]> batch;
+      while (!(batch = readRecords(data, RESTORE_BATCH_BYTES)).isEmpty()) {
+        pending.add(executor.submit(new RestoreRecords(batch)));
+        // Bound the records in memory to those each thread is working on, plus one batch waiting
+        if (pending.size() > threads * 2) spansRestored += pending.remove().get();
+        if (spanCount.get() >= maxSpanCount || (maxBytes > 0L && byteCount.get() >= maxBytes)) {
+          break;
+        }
+      }
+      while (!pending.isEmpty()) spansRestored += pending.remove().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted restoring snapshot");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IOException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+    synchronized (evictionLock) {
+      spansRestored -= evictToRecoverCapacity();
+    }
+    return spansRestored;
+  }
+
+  /** Large enough to amortize handing off work, small enough to spread it across threads. */
+  static final int RESTORE_BATCH_BYTES = 1024 * 1024;
+
+  /** Returns records until their size exceeds the input, or an empty list at the end of input. */
+  static List<byte[]> readRecords(DataInputStream data, int maxBytes) throws IOException {
+    List<byte[]> result = new ArrayList<>();
+    int bytes = 0;
+    try {
+      while (bytes < maxBytes) {
+        int length = data.readInt();
+        if (length < 0) throw new IOException("malformed snapshot: record length " + length);
+        byte[] record = readRecord(data, length);
+        result.add(record);
+        bytes += length;
       }
+    } catch (EOFException e) {
+      // end of the snapshot, or a truncated record, which we skip
+    }
+    return result;
+  }
 
-      // re-run the query as now spans are strictly grouped
-      for (List<Span> strictTrace : strictByTraceId(next)) {
-        if (request.test(strictTrace)) result.add(strictTrace);
+  /** Reads a record without trusting its length, so that a corrupt length can't exhaust heap. */
+  static byte[] readRecord(DataInputStream data, int length) throws IOException {
+    byte[] result = new byte[Math.min(length, 64 * 1024)];
+    int read = 0;
+    while (read < length) {
+      if (read == result.length) {
+        result = Arrays.copyOf(result, (int) Math.min(length, result.length * 2L));
       }
+      int count = data.read(result, read, result.length - read);
+      if (count == -1) throw new EOFException();
+      read += count;
     }
+    return result;
+  }
+
+  final class RestoreRecords implements Callable<Integer> {
+    final List<byte[]> records;
+
+    RestoreRecords(List<byte[]> records) {
+      this.records = records;
+    }
+
+    @Override
+    public Integer call() {
+      int spansRestored = 0;
+      for (byte[] record : records) {
+        List<Span> spans = SpanBytesDecoder.PROTO3.decodeList(record);
+        long bytes = 0L;
+        for (int i = 0, length = spans.size(); i < length; i++) {
+          bytes += sizeInBytes(spans.get(i));
+        }
+        spanCount.addAndGet(spans.size());
+        byteCount.addAndGet(bytes);
+        restore(spans);
+        spansRestored += spans.size();
+      }
+      return spansRestored;
+    }
+  }
+
+  @Override
+  public Call<List<List<Span>>> getTraces(QueryRequest request) {
+    return getTraces(request, strictTraceId);
+  }
 
+  Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
+    Iterator<TraceIdTimestamp> traceIdsInTimerange = traceIdsDescendingByTimestamp(request, null);
+    if (!traceIdsInTimerange.hasNext()) return Call.emptyList();
+
+    List<List<Span>> result = new ArrayList<>();
+    while (traceIdsInTimerange.hasNext() && result.size() < request.limit()) {
+      addMatchingTraces(request, strictTraceId, traceIdsInTimerange.next().lowTraceId, result);
+    }
     return Call.create(result);
   }
 
+  /**
+   * Pages with a cursor of the timestamp and trace ID of the last trace in the prior page. As the
+   * index is ordered by these, the next page seeks past prior traces instead of skipping them.
+   */
+  @Override
+  public Call<TracePage> getTracePage(QueryRequest request) {
+    TraceIdTimestamp after = request.cursor() != null ? parseCursor(request.cursor()) : null;
+    Iterator<TraceIdTimestamp> traceIdsInTimerange = traceIdsDescendingByTimestamp(request, after);
+
+    List<List<Span>> result = new ArrayList<>();
+    TraceIdTimestamp last = null;
+    while (traceIdsInTimerange.hasNext() && result.size() < request.limit()) {
+      last = traceIdsInTimerange.next();
+      addMatchingTraces(request, strictTraceId, last.lowTraceId, result);
+    }
+    String nextCursor = traceIdsInTimerange.hasNext()
+        ? last.timestamp + "-" + Span.normalizeTraceId(Long.toHexString(last.lowTraceId))
+        : null;
+    return Call.create(TracePage.create(result, nextCursor));
+  }
+
+  /** Parses a cursor formatted like "1533081600000000-463ac35c9f6413ad" */
+  static TraceIdTimestamp parseCursor(String cursor) {
+    int dash = cursor.indexOf('-');
+    if (dash == -1 || cursor.length() - dash - 1 != 16) {
+      throw new IllegalArgumentException("invalid cursor: " + cursor);
+    }
+    try {
+      long timestamp = Long.parseLong(cursor.substring(0, dash));
+      return new TraceIdTimestamp(lowerHexToUnsignedLong(cursor, dash + 1), timestamp);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid cursor: " + cursor);
+    }
+  }
+
+  /** Adds the trace if it matches the request, or any of its traces grouped strictly. */
+  void addMatchingTraces(QueryRequest request, boolean strictTraceId, long lowTraceId,
+      List<List<Span>> result) {
+    List<Span> next = spansByTraceId(lowTraceId);
+    if (!request.test(next)) return;
+    if (!strictTraceId) {
+      result.add(next);
+      return;
+    }
+
+    // re-run the query as now spans are strictly grouped
+    for (List<Span> strictTrace : strictByTraceId(next)) {
+      if (request.test(strictTrace)) result.add(strictTrace);
+    }
+  }
+
+  /** Input spans have the same lower 64-bits of the trace ID, so this groups by the upper bits */
   static Collection<List<Span>> strictByTraceId(List<Span> next) {
-    Map<String, List<Span>> groupedByTraceId = new LinkedHashMap<>();
+    Map<Long, List<Span>> groupedByTraceIdHigh = new LinkedHashMap<>();
     for (Span span : next) {
-      String traceId = span.traceId();
-      if (!groupedByTraceId.containsKey(traceId)) {
-        groupedByTraceId.put(traceId, new ArrayList<>());
+      Long traceIdHigh = span.traceIdHigh();
+      if (!groupedByTraceIdHigh.containsKey(traceIdHigh)) {
+        groupedByTraceIdHigh.put(traceIdHigh, new ArrayList<>());
       }
-      groupedByTraceId.get(traceId).add(span);
+      groupedByTraceIdHigh.get(traceIdHigh).add(span);
     }
-    return groupedByTraceId.values();
+    return groupedByTraceIdHigh.values();
   }
 
   /** Used for testing. Returns all traces unconditionally. */
-  public synchronized List<List<Span>> getTraces() {
+  public List<List<Span>> getTraces() {
     List<List<Span>> result = new ArrayList<>();
-    for (String lowTraceId : traceIdToTraceIdTimeStamps.keySet()) {
+    for (Long lowTraceId : traceIdToTraceIdTimeStamps.keySet()) {
       List<Span> sameTraceId = spansByTraceId(lowTraceId);
       if (strictTraceId) {
         result.addAll(strictByTraceId(sameTraceId));
@@ -265,63 +709,237 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   }
 
   /** Used for testing. Returns all dependency links unconditionally. */
-  public synchronized List<DependencyLink> getDependencies() {
+  public List<DependencyLink> getDependencies() {
     return LinkDependencies.INSTANCE.map(getTraces());
   }
 
-  Set<String> traceIdsDescendingByTimestamp(QueryRequest request) {
-    if (!searchEnabled) return Collections.emptySet();
-
-    Collection<TraceIdTimestamp> traceIdTimestamps =
-        request.serviceName() != null
-            ? traceIdTimestampsByServiceName(request.serviceName())
-            : spansByTraceIdTimeStamp.keySet();
+  /**
+   * Returns a lazy iterator over distinct trace IDs with spans between the request's end timestamp
+   * and lookback, most recent first. Callers stop iterating once they have enough results.
+   *
+   * <p>Each trace ID is paired with the timestamp it is ordered by. When {@code after} is set, the
+   * iterator starts after it, as if the prior traces were already read.
+   */
+  Iterator<TraceIdTimestamp> traceIdsDescendingByTimestamp(
+      QueryRequest request, @Nullable TraceIdTimestamp after) {
+    if (!searchEnabled) return Collections.<TraceIdTimestamp>emptyList().iterator();
 
     long endTs = request.endTs() * 1000;
     long startTs = endTs - request.lookback() * 1000;
+    // The index is descending, so the end timestamp is first. Within the same timestamp, higher
+    // trace IDs are first, so these bounds include all trace IDs at either timestamp.
+    TraceIdTimestamp first = new TraceIdTimestamp(-1L, endTs);
+    TraceIdTimestamp last = new TraceIdTimestamp(0L, startTs);
+
+    List<TraceIdTimestamp> sorted;
+    if (!request.annotationQuery().isEmpty()) {
+      Collection<Long> matching = traceIdsMatching(request.annotationQuery());
+      sorted = latestTimestamps(matching, endTs, startTs);
+    } else if (request.serviceName() != null) {
+      // A trace is in range by its root timestamp, but the service's spans may be after the end
+      // timestamp. As the root is the earliest span, only spans before the start can be skipped.
+      Collection<TraceIdTimestamp> candidates = serviceToTraceIdTimeStamps.subSet(
+          request.serviceName(), new TraceIdTimestamp(-1L, Long.MAX_VALUE), last);
+      sorted = earliestTimestamps(candidates, endTs, startTs);
+    } else {
+      boolean firstInclusive = true;
+      if (after != null && TIMESTAMP_DESCENDING.compare(after, first) > 0) {
+        if (TIMESTAMP_DESCENDING.compare(after, last) >= 0) {
+          return Collections.<TraceIdTimestamp>emptyList().iterator();
+        }
+        first = after;
+        firstInclusive = false;
+      }
+      Collection<TraceIdTimestamp> spans =
+          spansByTraceIdTimeStamp.delegate.subMap(first, firstInclusive, last, true).keySet();
+      return new DistinctTraceIds(spans.iterator(), after, endTs, startTs);
+    }
+    if (after == null) return sorted.iterator();
+    int index = Collections.binarySearch(sorted, after, TIMESTAMP_DESCENDING);
+    return sorted.subList(index >= 0 ? index + 1 : -index - 1, sorted.size()).iterator();
+  }
 
-    if (traceIdTimestamps == null || traceIdTimestamps.isEmpty()) return Collections.emptySet();
-    Set<String> result = new LinkedHashSet<>();
-    for (TraceIdTimestamp traceIdTimestamp : traceIdTimestamps) {
-      if (traceIdTimestamp.timestamp >= startTs || traceIdTimestamp.timestamp <= endTs) {
-        result.add(traceIdTimestamp.lowTraceId);
+  /**
+   * Returns the trace IDs which include all terms in the annotation query, by intersecting their
+   * postings, smallest first. Matching traces still need to be {@link QueryRequest#test tested},
+   * as this doesn't consider which service the annotation or tag was logged by.
+   */
+  Collection<Long> traceIdsMatching(Map<String, String> annotationQuery) {
+    List<Collection<Long>> postings = new ArrayList<>();
+    Collection<Long> smallest = null;
+    for (Map.Entry<String, String> entry : annotationQuery.entrySet()) {
+      String term = entry.getValue().isEmpty()
+          ? entry.getKey()
+          : entry.getKey() + "=" + entry.getValue();
+      Collection<Long> traceIds = termToTraceIds.get(term(term));
+      if (traceIds.isEmpty()) return Collections.emptySet();
+      if (smallest == null || traceIds.size() < smallest.size()) smallest = traceIds;
+      postings.add(traceIds);
+    }
+    postings.remove(smallest);
+
+    List<Long> result = new ArrayList<>();
+    nextTraceId:
+    for (Long lowTraceId : smallest) {
+      for (Collection<Long> traceIds : postings) {
+        if (!traceIds.contains(lowTraceId)) continue nextTraceId;
       }
+      result.add(lowTraceId);
+    }
+    return result;
+  }
+
+  /** Returns the latest timestamp of each trace in the range, sorted descending. */
+  List<TraceIdTimestamp> latestTimestamps(Collection<Long> lowTraceIds, long endTs, long startTs) {
+    List<TraceIdTimestamp> result = new ArrayList<>();
+    for (Long lowTraceId : lowTraceIds) {
+      TraceIdTimestamp latest = latestTimestamp(lowTraceId, endTs, startTs);
+      if (latest != null) result.add(latest);
     }
+    Collections.sort(result, TIMESTAMP_DESCENDING);
     return result;
   }
 
+  /** Returns the latest timestamp of the trace in the range, or null if there is none. */
+  @Nullable TraceIdTimestamp latestTimestamp(long lowTraceId, long endTs, long startTs) {
+    TraceIdTimestamp latest = null;
+    for (TraceIdTimestamp next : traceIdToTraceIdTimeStamps.get(lowTraceId)) {
+      if (next.timestamp < startTs || next.timestamp > endTs) continue;
+      if (latest == null || next.timestamp > latest.timestamp) latest = next;
+    }
+    return latest;
+  }
+
+  /**
+   * Returns the earliest timestamp of each trace, sorted descending, if it is in the range. This is
+   * the timestamp {@link QueryRequest#test} uses, unless the root span isn't the earliest.
+   */
+  List<TraceIdTimestamp> earliestTimestamps(
+      Collection<TraceIdTimestamp> candidates, long endTs, long startTs) {
+    Set<Long> lowTraceIds = new LinkedHashSet<>();
+    for (TraceIdTimestamp candidate : candidates) {
+      lowTraceIds.add(candidate.lowTraceId);
+    }
+    List<TraceIdTimestamp> result = new ArrayList<>();
+    for (Long lowTraceId : lowTraceIds) {
+      long earliest = 0L;
+      for (TraceIdTimestamp next : traceIdToTraceIdTimeStamps.get(lowTraceId)) {
+        if (next.timestamp == 0L) continue; // like QueryRequest.test, ignore missing timestamps
+        if (earliest == 0L || next.timestamp < earliest) earliest = next.timestamp;
+      }
+      if (earliest < startTs || earliest > endTs) continue;
+      result.add(new TraceIdTimestamp(lowTraceId, earliest));
+    }
+    Collections.sort(result, TIMESTAMP_DESCENDING);
+    return result;
+  }
+
+  /**
+   * Returns the first timestamp of each trace, which is its latest in the range. When resuming
+   * after a prior page, a trace's latest timestamp may precede where this starts, in which case it
+   * was already returned.
+   */
+  final class DistinctTraceIds implements Iterator<TraceIdTimestamp> {
+    final Iterator<TraceIdTimestamp> delegate;
+    @Nullable final TraceIdTimestamp after;
+    final long endTs, startTs;
+    final Set<Long> seen = new LinkedHashSet<>();
+    TraceIdTimestamp next;
+
+    DistinctTraceIds(Iterator<TraceIdTimestamp> delegate, @Nullable TraceIdTimestamp after,
+        long endTs, long startTs) {
+      this.delegate = delegate;
+      this.after = after;
+      this.endTs = endTs;
+      this.startTs = startTs;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && delegate.hasNext()) {
+        TraceIdTimestamp candidate = delegate.next();
+        if (!seen.add(candidate.lowTraceId)) continue;
+        if (after != null) {
+          TraceIdTimestamp latest = latestTimestamp(candidate.lowTraceId, endTs, startTs);
+          if (latest != null && TIMESTAMP_DESCENDING.compare(latest, after) <= 0) continue;
+        }
+        next = candidate;
+      }
+      return next != null;
+    }
+
+    @Override
+    public TraceIdTimestamp next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      TraceIdTimestamp result = next;
+      next = null;
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Override
+  public Call<List<Span>> getTrace(String traceId) {
+    List<Span> spans = spansForTraceId(Span.normalizeTraceId(traceId));
+    if (spans.isEmpty()) return Call.emptyList();
+    return Call.create(spans);
+  }
+
   @Override
-  public synchronized Call<List<Span>> getTrace(String traceId) {
-    traceId = Span.normalizeTraceId(traceId);
-    List<Span> spans = spansByTraceId(lowTraceId(traceId));
-    if (spans == null || spans.isEmpty()) return Call.emptyList();
-    if (!strictTraceId) return Call.create(spans);
+  public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+    Set<String> normalized = new LinkedHashSet<>();
+    for (String traceId : traceIds) {
+      traceId = Span.normalizeTraceId(traceId);
+      // Unless we are strict, only the right-most 16 characters identify the trace
+      if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
+      normalized.add(traceId);
+    }
 
+    List<List<Span>> result = new ArrayList<>(normalized.size());
+    for (String traceId : normalized) {
+      List<Span> spans = spansForTraceId(traceId);
+      if (!spans.isEmpty()) result.add(spans);
+    }
+    if (result.isEmpty()) return Call.emptyList();
+    return Call.create(result);
+  }
+
+  /** Returns spans matching the normalized trace ID, or an empty list if there are none. */
+  List<Span> spansForTraceId(String traceId) {
+    List<Span> spans = spansByTraceId(lowerHexToUnsignedLong(traceId));
+    if (spans == null || spans.isEmpty()) return Collections.emptyList();
+    if (!strictTraceId) return spans;
+
+    long traceIdHigh = traceId.length() == 32 ? lowerHexToUnsignedLong(traceId, 0) : 0L;
     List<Span> filtered = new ArrayList<>(spans);
     Iterator<Span> iterator = filtered.iterator();
     while (iterator.hasNext()) {
-      if (!iterator.next().traceId().equals(traceId)) {
+      if (iterator.next().traceIdHigh() != traceIdHigh) {
         iterator.remove();
       }
     }
-    return Call.create(filtered);
+    return filtered;
   }
 
   @Override
-  public synchronized Call<List<String>> getServiceNames() {
+  public Call<List<String>> getServiceNames() {
     if (!searchEnabled) return Call.emptyList();
-    return Call.create(new ArrayList<>(serviceToTraceIds.keySet()));
+    return Call.create(new ArrayList<>(serviceToTraceIdTimeStamps.keySet()));
   }
 
   @Override
-  public synchronized Call<List<String>> getSpanNames(String service) {
+  public Call<List<String>> getSpanNames(String service) {
     if (service.isEmpty() || !searchEnabled) return Call.emptyList();
     service = service.toLowerCase(Locale.ROOT); // service names are always lowercase!
     return Call.create(new ArrayList<>(serviceToSpanNames.get(service)));
   }
 
   @Override
-  public synchronized Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+  public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
     QueryRequest request =
         QueryRequest.newBuilder().endTs(endTs).lookback(lookback).limit(Integer.MAX_VALUE).build();
 
@@ -335,13 +953,19 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     INSTANCE;
 
     @Override
-    public List<DependencyLink> map(List<List<Span>> traces) {
-      DependencyLinker linksBuilder = new DependencyLinker();
-      for (Collection<Span> trace : traces) {
-        // use a hash set to dedupe any redundantly accepted spans
-        linksBuilder.putTrace(new LinkedHashSet<>(trace).iterator());
-      }
-      return linksBuilder.link();
+    public List<DependencyLink> map(final List<List<Span>> traces) {
+      // use a hash set to dedupe any redundantly accepted spans. This is a view, so that the sets
+      // are made by the threads linking each partition, as opposed to up front on this one.
+      List<Collection<Span>> deduped = new AbstractList<Collection<Span>>() {
+        @Override public Collection<Span> get(int index) {
+          return new LinkedHashSet<>(traces.get(index));
+        }
+
+        @Override public int size() {
+          return traces.size();
+        }
+      };
+      return ParallelDependencyLinker.link(deduped, Platform.get().commonPool());
     }
 
     @Override
@@ -364,6 +988,26 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
         }
       };
 
+  static final Comparator<Long> UNSIGNED_LONG_COMPARATOR =
+      new Comparator<Long>() {
+        @Override
+        public int compare(Long left, Long right) {
+          return compareUnsigned(left, right);
+        }
+
+        @Override
+        public String toString() {
+          return "Long::compareUnsigned";
+        }
+      };
+
+  /** Sorts the same as the lower-hex encoding would. Long.compareUnsigned is JRE 8+ */
+  static int compareUnsigned(long x, long y) {
+    x += Long.MIN_VALUE;
+    y += Long.MIN_VALUE;
+    return (x < y) ? -1 : ((x == y) ? 0 : 1);
+  }
+
   static final Comparator<TraceIdTimestamp> TIMESTAMP_DESCENDING =
       new Comparator<TraceIdTimestamp>() {
         @Override
@@ -371,7 +1015,7 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
           long x = left.timestamp, y = right.timestamp;
           int result = (x < y) ? -1 : ((x == y) ? 0 : 1); // Long.compareTo is JRE 7+
           if (result != 0) return -result; // use negative as we are descending
-          return right.lowTraceId.compareTo(left.lowTraceId);
+          return compareUnsigned(right.lowTraceId, left.lowTraceId);
         }
 
         @Override
@@ -380,39 +1024,40 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
         }
       };
 
-  static final class ServiceNameToTraceIds extends SortedMultimap<String, String> {
-    ServiceNameToTraceIds() {
+  static final class ServiceNameToTraceIdTimeStamps
+      extends SortedMultimap<String, TraceIdTimestamp> {
+    ServiceNameToTraceIdTimeStamps() {
       super(STRING_COMPARATOR);
     }
 
     @Override
-    Set<String> valueContainer() {
-      return new LinkedHashSet<>();
+    NavigableSet<TraceIdTimestamp> valueContainer() {
+      return new ConcurrentSkipListSet<>(TIMESTAMP_DESCENDING);
     }
 
-    /** Returns service names orphaned by removing the trace ID */
-    Set<String> removeServiceIfTraceId(String lowTraceId) {
-      Set<String> result = new LinkedHashSet<>();
-      for (Map.Entry<String, Collection<String>> entry : delegate.entrySet()) {
-        Collection<String> lowTraceIds = entry.getValue();
-        if (lowTraceIds.remove(lowTraceId) && lowTraceIds.isEmpty()) {
-          result.add(entry.getKey());
-        }
-      }
-      delegate.keySet().removeAll(result);
-      return result;
+    /** Returns a view of the service's trace ID timestamps between the inputs, inclusive. */
+    Collection<TraceIdTimestamp> subSet(
+        String serviceName, TraceIdTimestamp first, TraceIdTimestamp last) {
+      NavigableSet<TraceIdTimestamp> result =
+          (NavigableSet<TraceIdTimestamp>) delegate.get(serviceName);
+      if (result == null) return Collections.emptySet();
+      return result.subSet(first, true, last, true);
     }
   }
 
-  // Not synchronized as every exposed method on the enclosing type is
+  /**
+   * Reads are safe at any time. Writers that add or remove values for the same key must be
+   * serialized by the caller, as otherwise a value could be added to a container being removed.
+   */
   abstract static class SortedMultimap<K, V> {
-    final SortedMap<K, Collection<V>> delegate;
-    int size = 0;
+    final ConcurrentNavigableMap<K, Collection<V>> delegate;
+    final AtomicInteger size = new AtomicInteger();
 
     SortedMultimap(Comparator<K> comparator) {
-      delegate = new TreeMap<>(comparator);
+      delegate = new ConcurrentSkipListMap<>(comparator);
     }
 
+    /** Returns a container safe for concurrent iteration while values are added. */
     abstract Collection<V> valueContainer();
 
     Set<K> keySet() {
@@ -420,26 +1065,49 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     }
 
     int size() {
-      return size;
+      return size.get();
     }
 
     void put(K key, V value) {
+      if (valueContainerFor(key).add(value)) size.incrementAndGet();
+    }
+
+    /** Like {@link #put}, except a copy-on-write container is copied once instead of per value. */
+    void putAll(K key, Collection<V> values) {
+      Collection<V> valueContainer = valueContainerFor(key);
+      int sizeBefore = valueContainer.size();
+      valueContainer.addAll(values);
+      size.addAndGet(valueContainer.size() - sizeBefore);
+    }
+
+    Collection<V> valueContainerFor(K key) {
       Collection<V> valueContainer = delegate.get(key);
       if (valueContainer == null) {
-        delegate.put(key, valueContainer = valueContainer());
+        Collection<V> newContainer = valueContainer();
+        valueContainer = delegate.putIfAbsent(key, newContainer);
+        if (valueContainer == null) valueContainer = newContainer;
       }
-      if (valueContainer.add(value)) size++;
+      return valueContainer;
     }
 
     Collection<V> remove(K key) {
       Collection<V> value = delegate.remove(key);
-      if (value != null) size -= value.size();
+      if (value != null) size.addAndGet(-value.size());
       return value;
     }
 
+    /** Returns true if the key was removed, as the input was its last value. */
+    boolean removeValue(K key, V value) {
+      Collection<V> valueContainer = delegate.get(key);
+      if (valueContainer == null || !valueContainer.remove(value)) return false;
+      size.decrementAndGet();
+      if (!valueContainer.isEmpty()) return false;
+      return delegate.remove(key, valueContainer);
+    }
+
     void clear() {
       delegate.clear();
-      size = 0;
+      size.set(0);
     }
 
     Collection<V> get(K key) {
@@ -448,7 +1116,7 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     }
   }
 
-  List<Span> spansByTraceId(String lowTraceId) {
+  List<Span> spansByTraceId(long lowTraceId) {
     List<Span> sameTraceId = new ArrayList<>();
     for (TraceIdTimestamp traceIdTimestamp : traceIdToTraceIdTimeStamps.get(lowTraceId)) {
       sameTraceId.addAll(spansByTraceIdTimeStamp.get(traceIdTimestamp));
@@ -456,17 +1124,29 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     return sameTraceId;
   }
 
-  Collection<TraceIdTimestamp> traceIdTimestampsByServiceName(String serviceName) {
-    List<TraceIdTimestamp> traceIdTimestamps = new ArrayList<>();
-    for (String lowTraceId : serviceToTraceIds.get(serviceName)) {
-      traceIdTimestamps.addAll(traceIdToTraceIdTimeStamps.get(lowTraceId));
-    }
-    Collections.sort(traceIdTimestamps, TIMESTAMP_DESCENDING);
-    return traceIdTimestamps;
+  /** The estimated size of a span, which is the same when it is accepted and evicted */
+  static int sizeInBytes(Span span) {
+    return SpanBytesEncoder.PROTO3.sizeInBytes(span);
   }
 
-  static String lowTraceId(String traceId) {
-    return traceId.length() == 32 ? traceId.substring(16) : traceId;
+  Object traceLock(long lowTraceId) {
+    return traceLocks[(int) (lowTraceId ^ (lowTraceId >>> 32)) & (LOCK_STRIPES - 1)];
+  }
+
+  Object serviceLock(String serviceName) {
+    int h = serviceName.hashCode();
+    return serviceLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+  }
+
+  Object termLock(String term) {
+    int h = term.hashCode();
+    return termLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+  }
+
+  static Object[] newLocks() {
+    Object[] result = new Object[LOCK_STRIPES];
+    for (int i = 0; i < LOCK_STRIPES; i++) result[i] = new Object();
+    return result;
   }
 
   @Override
@@ -483,10 +1163,10 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   public void close() {}
 
   static final class TraceIdTimestamp {
-    final String lowTraceId;
+    final long lowTraceId;
     final long timestamp;
 
-    TraceIdTimestamp(String lowTraceId, long timestamp) {
+    TraceIdTimestamp(long lowTraceId, long timestamp) {
       this.lowTraceId = lowTraceId;
       this.timestamp = timestamp;
     }
@@ -496,14 +1176,14 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       if (o == this) return true;
       if (!(o instanceof TraceIdTimestamp)) return false;
       TraceIdTimestamp that = (TraceIdTimestamp) o;
-      return lowTraceId.equals(that.lowTraceId) && timestamp == that.timestamp;
+      return lowTraceId == that.lowTraceId && timestamp == that.timestamp;
     }
 
     @Override
     public int hashCode() {
       int h$ = 1;
       h$ *= 1000003;
-      h$ ^= lowTraceId.hashCode();
+      h$ ^= (int) ((lowTraceId >>> 32) ^ lowTraceId);
       h$ *= 1000003;
       h$ ^= (int) ((timestamp >>> 32) ^ timestamp);
       return h$;
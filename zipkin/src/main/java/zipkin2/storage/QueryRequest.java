@@ -98,6 +98,15 @@ public final class QueryRequest {
     return limit;
   }
 
+  /**
+   * When present, resumes after the traces returned by a prior request with the same parameters.
+   * This is the opaque {@link TracePage#nextCursor()} or {@link TraceSummaryPage#nextCursor()},
+   * only understood by the {@link TracePages} or {@link TraceSummaryPages} which created it.
+   */
+  @Nullable public String cursor() {
+    return cursor;
+  }
+
   /**
    * Corresponds to query parameter "annotationQuery". Ex. "http.method=GET and error"
    *
@@ -131,6 +140,7 @@ public final class QueryRequest {
     Long minDuration, maxDuration;
     long endTs, lookback;
     int limit;
+    String cursor;
 
     Builder(QueryRequest source) {
       serviceName = source.serviceName;
@@ -141,6 +151,7 @@ public final class QueryRequest {
       endTs = source.endTs;
       lookback = source.lookback;
       limit = source.limit;
+      cursor = source.cursor;
     }
 
     /** @see QueryRequest#serviceName() */
@@ -216,6 +227,12 @@ public final class QueryRequest {
       return this;
     }
 
+    /** @see QueryRequest#cursor() */
+    public Builder cursor(@Nullable String cursor) {
+      this.cursor = cursor;
+      return this;
+    }
+
     public final QueryRequest build() {
       // coerce service and span names to lowercase
       if (serviceName != null) serviceName = serviceName.toLowerCase(Locale.ROOT);
@@ -225,6 +242,7 @@ public final class QueryRequest {
       annotationQuery.remove("");
       if ("".equals(serviceName)) serviceName = null ;
       if ("".equals(spanName) || "all".equals(spanName)) spanName = null;
+      if ("".equals(cursor)) cursor = null;
 
       if (endTs <= 0) throw new IllegalArgumentException("endTs <= 0");
       if (limit <= 0) throw new IllegalArgumentException("limit <= 0");
@@ -246,7 +264,8 @@ public final class QueryRequest {
         maxDuration,
         endTs,
         lookback,
-        limit
+        limit,
+        cursor
       );
     }
 
@@ -326,6 +345,7 @@ public final class QueryRequest {
   final Long minDuration, maxDuration;
   final long endTs, lookback;
   final int limit;
+  final String cursor;
 
   QueryRequest(
     @Nullable String serviceName,
@@ -335,7 +355,8 @@ public final class QueryRequest {
     @Nullable Long maxDuration,
     long endTs,
     long lookback,
-    int limit) {
+    int limit,
+    @Nullable String cursor) {
     this.serviceName = serviceName;
     this.spanName = spanName;
     this.annotationQuery = annotationQuery;
@@ -344,6 +365,7 @@ public final class QueryRequest {
     this.endTs = endTs;
     this.lookback = lookback;
     this.limit = limit;
+    this.cursor = cursor;
   }
 
   @Override
@@ -356,7 +378,8 @@ public final class QueryRequest {
       + "maxDuration=" + maxDuration + ", "
       + "endTs=" + endTs + ", "
       + "lookback=" + lookback + ", "
-      + "limit=" + limit
+      + "limit=" + limit + ", "
+      + "cursor=" + cursor
       + "}";
   }
 }
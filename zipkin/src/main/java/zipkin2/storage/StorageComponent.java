@@ -13,6 +13,8 @@
  */
 package zipkin2.storage;
 
+import java.util.List;
+import zipkin2.Call;
 import zipkin2.Component;
 import zipkin2.Span;
 
@@ -28,6 +30,55 @@ public abstract class StorageComponent extends Component {
 
   public abstract SpanConsumer spanConsumer();
 
+  /**
+   * Returns the span store when it implements {@link Traces}. Otherwise, traces are retrieved by
+   * calling {@link SpanStore#getTrace(String)} once per trace ID.
+   */
+  public Traces traces() {
+    SpanStore spanStore = spanStore();
+    if (spanStore instanceof Traces) return (Traces) spanStore;
+    return new TracesAdapter(spanStore);
+  }
+
+  /**
+   * Returns the span store when it implements {@link TraceSummaries}. Otherwise, summaries are
+   * created from the result of {@link SpanStore#getTraces(QueryRequest)}.
+   */
+  public TraceSummaries traceSummaries() {
+    final SpanStore spanStore = spanStore();
+    if (spanStore instanceof TraceSummaries) return (TraceSummaries) spanStore;
+    return new TraceSummaries() {
+      @Override public Call<List<TraceSummary>> getTraceSummaries(QueryRequest request) {
+        return spanStore.getTraces(request).map(TraceSummary.summarizeTraces());
+      }
+
+      @Override public String toString() {
+        return "TraceSummaries{" + spanStore + "}";
+      }
+    };
+  }
+
+  /**
+   * Returns the span store when it implements {@link TracePages}. Otherwise, pages are read with
+   * {@link SpanStore#getTraces(QueryRequest)}, narrowing the time range to what remains after the
+   * prior page.
+   */
+  public TracePages tracePages() {
+    SpanStore spanStore = spanStore();
+    if (spanStore instanceof TracePages) return (TracePages) spanStore;
+    return new TracePagesAdapter(spanStore);
+  }
+
+  /**
+   * Returns the span store when it implements {@link TraceSummaryPages}. Otherwise, pages are read
+   * with {@link #traceSummaries()}, narrowing the time range to what remains after the prior page.
+   */
+  public TraceSummaryPages traceSummaryPages() {
+    SpanStore spanStore = spanStore();
+    if (spanStore instanceof TraceSummaryPages) return (TraceSummaryPages) spanStore;
+    return new TraceSummaryPagesAdapter(traceSummaries());
+  }
+
   public static abstract class Builder {
 
     /**
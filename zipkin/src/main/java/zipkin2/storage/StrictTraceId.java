@@ -14,7 +14,9 @@
 package zipkin2.storage;
 
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import zipkin2.Call;
 import zipkin2.Span;
 
@@ -33,6 +35,42 @@ public final class StrictTraceId {
     return new FilterTraces(request);
   }
 
+  /**
+   * Filters the mutable input to traces with one of the given IDs. This is used when a query by
+   * trace ID matched on the right-most 16 characters, and strict trace ID is enabled.
+   */
+  public static Call.Mapper<List<List<Span>>, List<List<Span>>> filterTraces(
+      Iterable<String> traceIds) {
+    return new FilterTracesById(traceIds);
+  }
+
+  static final class FilterTracesById
+      implements Call.Mapper<List<List<Span>>, List<List<Span>>> {
+    final Set<String> traceIds = new LinkedHashSet<>();
+
+    FilterTracesById(Iterable<String> traceIds) {
+      for (String traceId : traceIds) {
+        this.traceIds.add(Span.normalizeTraceId(traceId));
+      }
+    }
+
+    @Override
+    public List<List<Span>> map(List<List<Span>> input) {
+      Iterator<List<Span>> i = input.iterator();
+      while (i.hasNext()) { // Not using removeIf as that's java 8+
+        List<Span> next = i.next();
+        // spans in a trace share an ID as input is grouped by trace ID
+        if (next.isEmpty() || !traceIds.contains(next.get(0).traceId())) i.remove();
+      }
+      return input;
+    }
+
+    @Override
+    public String toString() {
+      return "FilterTracesById{traceIds=" + traceIds + "}";
+    }
+  }
+
   static final class FilterTraces implements Call.Mapper<List<List<Span>>, List<List<Span>>> {
 
     final QueryRequest request;
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import zipkin2.Call;
+
+/**
+ * Pages through traces matching a query, such that the next page resumes where the prior left off,
+ * as opposed to re-running the query with an earlier {@link QueryRequest#endTs()}. Use {@link
+ * StorageComponent#tracePages()} to get an instance.
+ *
+ * <p>Note: This is not considered a user-level Api, rather an Spi that can be used to bind
+ * user-level abstractions such as futures or observables.
+ */
+public interface TracePages {
+
+  /**
+   * Like {@link SpanStore#getTraces(QueryRequest)}, except the result includes a cursor to the
+   * next page. When {@link QueryRequest#cursor()} is set, traces returned in prior pages are
+   * skipped.
+   *
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  Call<TracePage> getTracePage(QueryRequest request);
+}
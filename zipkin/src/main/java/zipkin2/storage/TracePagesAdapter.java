@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+
+/**
+ * Pages through {@link SpanStore#getTraces(QueryRequest)} by narrowing the time range of the query
+ * to what's left after the prior page. As storage applies {@link QueryRequest#endTs()} to its
+ * timestamp index, the next page is read from that position, instead of re-reading index rows of
+ * traces already returned.
+ *
+ * <p>Implementations order traces by a span timestamp in range, but which span varies. So, the
+ * position is the least of each returned trace's latest span timestamp: no trace left unread can be
+ * ordered after that. Returned traces that also have spans at or before the position could match
+ * again, so the cursor carries their IDs, which are skipped.
+ */
+final class TracePagesAdapter implements TracePages {
+  /** The most trace IDs a cursor carries, which at about 32 characters each is about 3KiB */
+  static final int MAX_SKIP = 100;
+
+  final SpanStore delegate;
+
+  TracePagesAdapter(SpanStore delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Call<TracePage> getTracePage(QueryRequest request) {
+    Cursor cursor = request.cursor() != null ? Cursor.parse(request.cursor()) : null;
+    return delegate.getTraces(nextQuery(request, cursor)).map(new NextPage(request, cursor));
+  }
+
+  @Override
+  public String toString() {
+    return "TracePagesAdapter{" + delegate + "}";
+  }
+
+  /** Returns the query for the remaining time range, or the request if it is the first page. */
+  static QueryRequest nextQuery(QueryRequest request, @Nullable Cursor cursor) {
+    if (cursor == null) return request;
+    return request.toBuilder()
+        .endTs(cursor.endTs)
+        .lookback(cursor.endTs - cursor.beginTs)
+        .limit(request.limit() + cursor.skip.size()) // as skipped traces may be returned again
+        .cursor(null)
+        .build();
+  }
+
+  /**
+   * Skips traces returned in prior pages, and positions the cursor after those remaining.
+   *
+   * <p>At most {@link #MAX_SKIP} trace IDs are carried, most recently returned first. This bounds
+   * the cursor and the extra rows each page reads, at the cost of a trace with spans across more
+   * pages than that possibly being returned again. If more traces than that share a millisecond,
+   * those with no span before it can be missed.
+   */
+  abstract static class NextPageMapper<T, P> implements Call.Mapper<List<T>, P> {
+    final QueryRequest request;
+    @Nullable final Cursor cursor;
+
+    NextPageMapper(QueryRequest request, @Nullable Cursor cursor) {
+      this.request = request;
+      this.cursor = cursor;
+    }
+
+    /** Returns the lower 64-bits of the trace ID in hex, or null if the input is empty. */
+    @Nullable abstract String lowTraceId(T input);
+
+    /** Epoch microseconds of the earliest span, or zero if unknown. */
+    abstract long earliestTimestamp(T input);
+
+    /**
+     * Epoch microseconds at or after the latest span timestamp up to {@code endTs}, or zero if
+     * unknown. This is the latest timestamp storage could have ordered the trace by.
+     */
+    abstract long latestTimestamp(T input, long endTs);
+
+    abstract P newPage(List<T> values, @Nullable String nextCursor);
+
+    @Override
+    public P map(List<T> input) {
+      int limit = request.limit();
+      List<T> values = new ArrayList<>();
+      for (int i = 0, length = input.size(); i < length && values.size() < limit; i++) {
+        T value = input.get(i);
+        String lowTraceId = lowTraceId(value);
+        if (lowTraceId == null) continue;
+        if (cursor != null && cursor.skip.containsKey(lowTraceId)) continue;
+        values.add(value);
+      }
+      if (values.size() < limit) return newPage(values, null); // there are no more
+
+      long beginTs, endTs;
+      if (cursor != null) {
+        beginTs = cursor.beginTs;
+        endTs = cursor.endTs;
+      } else {
+        beginTs = Math.max(0L, request.endTs() - request.lookback());
+        endTs = request.endTs();
+      }
+      long priorEndTs = endTs;
+      for (int i = 0, length = values.size(); i < length; i++) {
+        long latest = latestTimestamp(values.get(i), priorEndTs * 1000L);
+        if (latest != 0L) endTs = Math.min(endTs, (latest + 999L) / 1000L); // round up to millis
+      }
+
+      Map<String, Long> skip = skip(values, endTs);
+      if (skip.size() > MAX_SKIP && endTs == priorEndTs) {
+        // Too many traces share the position to skip them all, so move past it. Otherwise, paging
+        // could repeat the same traces indefinitely.
+        skip = skip(values, --endTs);
+      }
+      if (endTs <= beginTs) return newPage(values, null);
+
+      Map<String, Long> trimmed = new LinkedHashMap<>();
+      for (Map.Entry<String, Long> entry : skip.entrySet()) {
+        if (trimmed.size() == MAX_SKIP) break;
+        trimmed.put(entry.getKey(), entry.getValue());
+      }
+      return newPage(values, new Cursor(beginTs, endTs, trimmed).toString());
+    }
+
+    /**
+     * Returns returned traces that could match again, as they have spans at or before the end
+     * timestamp. The most recently returned are first.
+     */
+    Map<String, Long> skip(List<T> values, long endTs) {
+      Map<String, Long> result = new LinkedHashMap<>();
+      for (int i = values.size() - 1; i >= 0; i--) {
+        T value = values.get(i);
+        long earliest = earliestTimestamp(value) / 1000L;
+        if (earliest <= endTs) result.put(lowTraceId(value), earliest);
+      }
+      if (cursor != null) {
+        for (Map.Entry<String, Long> entry : cursor.skip.entrySet()) {
+          if (entry.getValue() <= endTs) result.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "{request=" + request + "}";
+    }
+  }
+
+  static final class NextPage extends NextPageMapper<List<Span>, TracePage> {
+    NextPage(QueryRequest request, @Nullable Cursor cursor) {
+      super(request, cursor);
+    }
+
+    @Override
+    @Nullable String lowTraceId(List<Span> trace) {
+      return trace.isEmpty() ? null : TracePagesAdapter.lowTraceId(trace.get(0).traceId());
+    }
+
+    @Override
+    long earliestTimestamp(List<Span> trace) {
+      long result = 0L;
+      for (int i = 0, length = trace.size(); i < length; i++) {
+        long timestamp = trace.get(i).timestampAsLong();
+        if (timestamp != 0L && (result == 0L || timestamp < result)) result = timestamp;
+      }
+      return result;
+    }
+
+    @Override
+    long latestTimestamp(List<Span> trace, long endTs) {
+      long result = 0L;
+      for (int i = 0, length = trace.size(); i < length; i++) {
+        long timestamp = trace.get(i).timestampAsLong();
+        if (timestamp <= endTs) result = Math.max(result, timestamp);
+      }
+      return result;
+    }
+
+    @Override
+    TracePage newPage(List<List<Span>> traces, @Nullable String nextCursor) {
+      return TracePage.create(traces, nextCursor);
+    }
+  }
+
+  /** Like {@link NextPage}, except the latest timestamp is bounded by the end of the trace. */
+  static final class NextSummaryPage extends NextPageMapper<TraceSummary, TraceSummaryPage> {
+    NextSummaryPage(QueryRequest request, @Nullable Cursor cursor) {
+      super(request, cursor);
+    }
+
+    @Override
+    String lowTraceId(TraceSummary summary) {
+      return TracePagesAdapter.lowTraceId(summary.traceId());
+    }
+
+    @Override
+    long earliestTimestamp(TraceSummary summary) {
+      return summary.timestamp();
+    }
+
+    @Override
+    long latestTimestamp(TraceSummary summary, long endTs) {
+      long timestamp = summary.timestamp();
+      return timestamp != 0L ? Math.min(endTs, timestamp + summary.duration()) : 0L;
+    }
+
+    @Override
+    TraceSummaryPage newPage(List<TraceSummary> summaries, @Nullable String nextCursor) {
+      return TraceSummaryPage.create(summaries, nextCursor);
+    }
+  }
+
+  /**
+   * Encodes the remaining time range and the traces to skip as text which is safe to use in a URL.
+   * Ex. "1533081600000-1533085200000.463ac35c9f6413ad-1533085199000"
+   */
+  static final class Cursor {
+    static Cursor parse(String cursor) {
+      String[] parts = cursor.split("\\.", -1);
+      String[] range = parts[0].split("-", -1);
+      if (range.length != 2 || parts.length - 1 > MAX_SKIP) throw invalidCursor(cursor);
+      try {
+        long beginTs = Long.parseLong(range[0]), endTs = Long.parseLong(range[1]);
+        if (beginTs < 0L || endTs <= beginTs) throw invalidCursor(cursor);
+        Map<String, Long> skip = new LinkedHashMap<>();
+        for (int i = 1; i < parts.length; i++) {
+          String[] entry = parts[i].split("-", -1);
+          if (entry.length != 2 || entry[0].length() != 16) throw invalidCursor(cursor);
+          skip.put(Span.normalizeTraceId(entry[0]), Long.parseLong(entry[1]));
+        }
+        return new Cursor(beginTs, endTs, skip);
+      } catch (IllegalArgumentException e) { // includes NumberFormatException
+        throw invalidCursor(cursor);
+      }
+    }
+
+    final long beginTs, endTs; // epoch milliseconds
+    /** Lower 64-bits of the trace ID in hex to the epoch milliseconds of its earliest span */
+    final Map<String, Long> skip;
+
+    Cursor(long beginTs, long endTs, Map<String, Long> skip) {
+      this.beginTs = beginTs;
+      this.endTs = endTs;
+      this.skip = skip;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder().append(beginTs).append('-').append(endTs);
+      for (Map.Entry<String, Long> entry : skip.entrySet()) {
+        result.append('.').append(entry.getKey()).append('-').append(entry.getValue());
+      }
+      return result.toString();
+    }
+  }
+
+  static IllegalArgumentException invalidCursor(String cursor) {
+    return new IllegalArgumentException("invalid cursor: " + cursor);
+  }
+
+  static String lowTraceId(String traceId) {
+    return traceId.length() == 32 ? traceId.substring(16) : traceId;
+  }
+}
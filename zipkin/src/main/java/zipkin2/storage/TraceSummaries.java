@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.List;
+import zipkin2.Call;
+
+/**
+ * Retrieves {@link TraceSummary summaries} of traces matching a query, for search results which
+ * don't need every span. Use {@link StorageComponent#traceSummaries()} to get an instance.
+ *
+ * <p>Note: This is not considered a user-level Api, rather an Spi that can be used to bind
+ * user-level abstractions such as futures or observables.
+ */
+public interface TraceSummaries {
+
+  /**
+   * Summarizes traces that match the request, in the same order as {@link
+   * SpanStore#getTraces(QueryRequest)}. Implementations should read no more of each span than
+   * needed to create a {@link TraceSummary}.
+   */
+  Call<List<TraceSummary>> getTraceSummaries(QueryRequest request);
+}
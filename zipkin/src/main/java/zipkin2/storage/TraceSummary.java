@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import zipkin2.Call;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/**
+ * What's needed to list a trace in search results, without its spans. This is derived from a
+ * trace, but storage can read fewer fields per span than {@link SpanStore#getTraces(QueryRequest)}
+ * to create one.
+ */
+//@Immutable
+public final class TraceSummary {
+
+  /** Summarizes a trace, which must not be empty */
+  public static TraceSummary create(List<Span> trace) {
+    if (trace.isEmpty()) throw new IllegalArgumentException("trace is empty");
+    String traceId = null;
+    Span root = null;
+    long startTs = 0L, endTs = 0L;
+    boolean error = false;
+    Set<String> serviceNames = new TreeSet<>();
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      // prefer the 128-bit form when a trace mixes 64 and 128-bit IDs
+      if (traceId == null || span.traceId().length() > traceId.length()) {
+        traceId = span.traceId();
+      }
+      if (isBetterRoot(span, root)) root = span;
+
+      long timestamp = span.timestampAsLong();
+      if (timestamp != 0L) {
+        if (startTs == 0L || timestamp < startTs) startTs = timestamp;
+        endTs = Math.max(endTs, timestamp + span.durationAsLong());
+      }
+
+      if (span.tags().containsKey("error")) error = true;
+      addServiceName(serviceNames, span.localEndpoint());
+      addServiceName(serviceNames, span.remoteEndpoint());
+    }
+    List<String> serviceNameList = serviceNames.isEmpty()
+        ? Collections.<String>emptyList()
+        : Collections.unmodifiableList(new ArrayList<>(serviceNames));
+    return new TraceSummary(traceId, root.name(), startTs, endTs - startTs, trace.size(),
+        serviceNameList, error);
+  }
+
+  /** Summarizes each trace, for example the result of {@link SpanStore#getTraces(QueryRequest)}. */
+  public static Call.Mapper<List<List<Span>>, List<TraceSummary>> summarizeTraces() {
+    return SummarizeTraces.INSTANCE;
+  }
+
+  /** The root span, or when missing the earliest span, identifies the trace in search results. */
+  static boolean isBetterRoot(Span span, Span root) {
+    if (root == null) return true;
+    boolean isRoot = span.parentId() == null, wasRoot = root.parentId() == null;
+    if (isRoot != wasRoot) return isRoot;
+    long timestamp = span.timestampAsLong(), rootTimestamp = root.timestampAsLong();
+    return timestamp != 0L && (rootTimestamp == 0L || timestamp < rootTimestamp);
+  }
+
+  static void addServiceName(Set<String> serviceNames, Endpoint endpoint) {
+    String serviceName = endpoint != null ? endpoint.serviceName() : null;
+    if (serviceName != null) serviceNames.add(serviceName);
+  }
+
+  final String traceId;
+  final String rootSpanName;
+  final long timestamp, duration;
+  final int spanCount;
+  final List<String> serviceNames;
+  final boolean error;
+
+  TraceSummary(String traceId, String rootSpanName, long timestamp, long duration,
+      int spanCount, List<String> serviceNames, boolean error) {
+    this.traceId = traceId;
+    this.rootSpanName = rootSpanName;
+    this.timestamp = timestamp;
+    this.duration = duration;
+    this.spanCount = spanCount;
+    this.serviceNames = serviceNames;
+    this.error = error;
+  }
+
+  /** The {@link Span#traceId() trace ID}, preferring the 128-bit form if present. */
+  public String traceId() {
+    return traceId;
+  }
+
+  /** The name of the root span, or the earliest span if there's no root. Null if unknown. */
+  public String rootSpanName() {
+    return rootSpanName;
+  }
+
+  /** Epoch microseconds of the earliest span, or zero if no span has a timestamp. */
+  public long timestamp() {
+    return timestamp;
+  }
+
+  /** Microseconds from the earliest span start to the latest span end, or zero if unknown. */
+  public long duration() {
+    return duration;
+  }
+
+  /** Count of spans in the trace */
+  public int spanCount() {
+    return spanCount;
+  }
+
+  /** Local and remote service names in the trace, sorted lexicographically. */
+  public List<String> serviceNames() {
+    return serviceNames;
+  }
+
+  /** True if any span has an "error" tag */
+  public boolean error() {
+    return error;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof TraceSummary)) return false;
+    TraceSummary that = (TraceSummary) o;
+    return traceId.equals(that.traceId)
+        && (rootSpanName == null
+            ? that.rootSpanName == null : rootSpanName.equals(that.rootSpanName))
+        && timestamp == that.timestamp
+        && duration == that.duration
+        && spanCount == that.spanCount
+        && serviceNames.equals(that.serviceNames)
+        && error == that.error;
+  }
+
+  @Override public int hashCode() {
+    int h = 1;
+    h *= 1000003;
+    h ^= traceId.hashCode();
+    h *= 1000003;
+    h ^= (rootSpanName == null) ? 0 : rootSpanName.hashCode();
+    h *= 1000003;
+    h ^= (int) ((timestamp >>> 32) ^ timestamp);
+    h *= 1000003;
+    h ^= (int) ((duration >>> 32) ^ duration);
+    h *= 1000003;
+    h ^= spanCount;
+    h *= 1000003;
+    h ^= serviceNames.hashCode();
+    h *= 1000003;
+    h ^= error ? 1231 : 1237;
+    return h;
+  }
+
+  @Override public String toString() {
+    return "TraceSummary{traceId=" + traceId + ", rootSpanName=" + rootSpanName
+        + ", timestamp=" + timestamp + ", duration=" + duration + ", spanCount=" + spanCount
+        + ", serviceNames=" + serviceNames + ", error=" + error + "}";
+  }
+
+  enum SummarizeTraces implements Call.Mapper<List<List<Span>>, List<TraceSummary>> {
+    INSTANCE;
+
+    @Override public List<TraceSummary> map(List<List<Span>> input) {
+      if (input.isEmpty()) return Collections.emptyList();
+      List<TraceSummary> result = new ArrayList<>(input.size());
+      for (int i = 0, length = input.size(); i < length; i++) {
+        List<Span> trace = input.get(i);
+        if (!trace.isEmpty()) result.add(create(trace));
+      }
+      return result;
+    }
+
+    @Override public String toString() {
+      return "SummarizeTraces";
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.List;
+import zipkin2.internal.Nullable;
+
+/** A page of trace summaries, and if there may be more, a cursor to the next. */
+//@Immutable
+public final class TraceSummaryPage {
+
+  public static TraceSummaryPage create(
+      List<TraceSummary> summaries, @Nullable String nextCursor) {
+    if (summaries == null) throw new NullPointerException("summaries == null");
+    return new TraceSummaryPage(summaries, nextCursor);
+  }
+
+  final List<TraceSummary> summaries;
+  final String nextCursor;
+
+  TraceSummaryPage(List<TraceSummary> summaries, String nextCursor) {
+    this.summaries = summaries;
+    this.nextCursor = nextCursor;
+  }
+
+  /** Summaries in the same order as {@link TraceSummaries#getTraceSummaries(QueryRequest)} */
+  public List<TraceSummary> summaries() {
+    return summaries;
+  }
+
+  /** Pass as {@link QueryRequest#cursor()} to get the next page, or null if this is the last. */
+  @Nullable public String nextCursor() {
+    return nextCursor;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof TraceSummaryPage)) return false;
+    TraceSummaryPage that = (TraceSummaryPage) o;
+    return summaries.equals(that.summaries)
+        && (nextCursor == null ? that.nextCursor == null : nextCursor.equals(that.nextCursor));
+  }
+
+  @Override public int hashCode() {
+    int h = 1;
+    h *= 1000003;
+    h ^= summaries.hashCode();
+    h *= 1000003;
+    h ^= (nextCursor == null) ? 0 : nextCursor.hashCode();
+    return h;
+  }
+
+  @Override public String toString() {
+    return "TraceSummaryPage{summaries=" + summaries + ", nextCursor=" + nextCursor + "}";
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import zipkin2.Call;
+
+/**
+ * Like {@link TracePages}, except pages through {@link TraceSummaries trace summaries}. Use {@link
+ * StorageComponent#traceSummaryPages()} to get an instance.
+ *
+ * <p>Note: This is not considered a user-level Api, rather an Spi that can be used to bind
+ * user-level abstractions such as futures or observables.
+ */
+public interface TraceSummaryPages {
+
+  /**
+   * Like {@link TraceSummaries#getTraceSummaries(QueryRequest)}, except the result includes a
+   * cursor to the next page. When {@link QueryRequest#cursor()} is set, traces summarized in prior
+   * pages are skipped.
+   *
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  Call<TraceSummaryPage> getTraceSummaryPage(QueryRequest request);
+}
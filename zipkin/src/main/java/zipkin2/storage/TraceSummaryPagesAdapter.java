@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import zipkin2.Call;
+import zipkin2.storage.TracePagesAdapter.Cursor;
+import zipkin2.storage.TracePagesAdapter.NextSummaryPage;
+
+/**
+ * Pages through {@link TraceSummaries#getTraceSummaries(QueryRequest)} the same way {@link
+ * TracePagesAdapter} pages through traces. The end of each trace bounds its latest span timestamp.
+ */
+final class TraceSummaryPagesAdapter implements TraceSummaryPages {
+  final TraceSummaries delegate;
+
+  TraceSummaryPagesAdapter(TraceSummaries delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Call<TraceSummaryPage> getTraceSummaryPage(QueryRequest request) {
+    Cursor cursor = request.cursor() != null ? Cursor.parse(request.cursor()) : null;
+    return delegate.getTraceSummaries(TracePagesAdapter.nextQuery(request, cursor))
+        .map(new NextSummaryPage(request, cursor));
+  }
+
+  @Override
+  public String toString() {
+    return "TraceSummaryPagesAdapter{" + delegate + "}";
+  }
+}
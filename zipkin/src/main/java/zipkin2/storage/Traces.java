@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.List;
+import zipkin2.Call;
+import zipkin2.Span;
+
+/**
+ * Retrieves traces by ID. Use {@link StorageComponent#traces()} to look up several traces at once,
+ * which implementations can serve in a single round trip, as opposed to calling {@link
+ * SpanStore#getTrace(String)} once per trace ID.
+ *
+ * <p>Note: This is not considered a user-level Api, rather an Spi that can be used to bind
+ * user-level abstractions such as futures or observables.
+ */
+public interface Traces {
+
+  /** @see SpanStore#getTrace(String) */
+  Call<List<Span>> getTrace(String traceId);
+
+  /**
+   * Retrieves spans grouped by trace ID for each of the trace IDs, with no ordering expectation.
+   * Traces that aren't found are omitted, so the result is empty when none are found.
+   *
+   * <p>When strict trace ID is disabled, spans are grouped by the right-most 16 characters of the
+   * trace ID, as in {@link SpanStore#getTrace(String)}.
+   *
+   * @param traceIds {@link Span#traceId() trace IDs}, which are {@link
+   * Span#normalizeTraceId(String) normalized} by the implementation
+   */
+  Call<List<List<Span>>> getTraces(Iterable<String> traceIds);
+}
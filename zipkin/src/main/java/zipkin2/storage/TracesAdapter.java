@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+
+/**
+ * Retrieves traces by calling {@link SpanStore#getTrace(String)} once per trace ID.
+ *
+ * <p>As strict trace ID isn't known here, a 64-bit and a 128-bit trace ID ending with it are looked
+ * up separately. When strict trace ID is disabled, this could return the same trace twice.
+ */
+final class TracesAdapter implements Traces {
+  final SpanStore delegate;
+
+  TracesAdapter(SpanStore delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Call<List<Span>> getTrace(String traceId) {
+    return delegate.getTrace(traceId);
+  }
+
+  @Override
+  public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+    Set<String> normalized = new LinkedHashSet<>();
+    for (String traceId : traceIds) {
+      normalized.add(Span.normalizeTraceId(traceId));
+    }
+    if (normalized.isEmpty()) return Call.emptyList();
+    return new GetTraceEach(delegate, new ArrayList<>(normalized));
+  }
+
+  @Override
+  public String toString() {
+    return "TracesAdapter{" + delegate + "}";
+  }
+
+  static final class GetTraceEach extends Call.Base<List<List<Span>>> {
+    final SpanStore delegate;
+    final List<String> traceIds;
+
+    GetTraceEach(SpanStore delegate, List<String> traceIds) {
+      this.delegate = delegate;
+      this.traceIds = traceIds;
+    }
+
+    @Override
+    protected List<List<Span>> doExecute() throws IOException {
+      List<List<Span>> result = new ArrayList<>();
+      for (int i = 0, length = traceIds.size(); i < length; i++) {
+        List<Span> trace = delegate.getTrace(traceIds.get(i)).execute();
+        if (!trace.isEmpty()) result.add(trace);
+      }
+      return result;
+    }
+
+    @Override
+    protected void doEnqueue(Callback<List<List<Span>>> callback) {
+      new EnqueueNext(this, callback).next();
+    }
+
+    @Override
+    public Call<List<List<Span>>> clone() {
+      return new GetTraceEach(delegate, traceIds);
+    }
+
+    @Override
+    public String toString() {
+      return "GetTraceEach{traceIds=" + traceIds + "}";
+    }
+  }
+
+  /** Enqueues a trace ID lookup after the prior one completes. */
+  static final class EnqueueNext implements Callback<List<Span>> {
+    final GetTraceEach call;
+    final Callback<List<List<Span>>> callback;
+    final List<List<Span>> result = new ArrayList<>();
+    int i;
+
+    EnqueueNext(GetTraceEach call, Callback<List<List<Span>>> callback) {
+      this.call = call;
+      this.callback = callback;
+    }
+
+    void next() {
+      if (i == call.traceIds.size()) {
+        callback.onSuccess(result);
+      } else {
+        call.delegate.getTrace(call.traceIds.get(i++)).enqueue(this);
+      }
+    }
+
+    @Override
+    public void onSuccess(List<Span> value) {
+      if (!value.isEmpty()) result.add(value);
+      next();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      callback.onError(t);
+    }
+  }
+}
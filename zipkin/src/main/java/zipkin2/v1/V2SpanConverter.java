@@ -37,9 +37,10 @@ public final class V2SpanConverter {
     md.parse(value);
     result
         .clear()
-        .traceId(value.traceId())
-        .parentId(value.parentId())
-        .id(value.id())
+        .traceIdHigh(value.traceIdHigh())
+        .traceId(value.traceIdLow())
+        .parentId(value.parentIdAsLong())
+        .id(value.idAsLong())
         .name(value.name())
         .debug(value.debug());
 
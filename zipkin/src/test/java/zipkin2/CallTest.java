@@ -14,14 +14,21 @@
 package zipkin2;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -41,6 +48,12 @@ public class CallTest {
 
   @Mock Callback callback;
 
+  ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @After public void shutdownScheduler() {
+    scheduler.shutdownNow();
+  }
+
   @Test public void constant_execute() throws Exception {
     Call<String> call = Call.create("foo");
 
@@ -247,6 +260,76 @@ public class CallTest {
     assertThat(barCall.isCanceled()).isTrue();
   }
 
+  @Test public void map_cancelPropagates() {
+    Call<String> fooCall = Call.create("foo");
+    Call<String> fooBarCall = fooCall.map(foo -> "bar");
+
+    fooBarCall.cancel();
+
+    assertThat(fooCall.isCanceled()).isTrue();
+  }
+
+  @Test public void flatMap_cancelDuringMapping() {
+    Call<String> barCall = Call.create("bar");
+    AtomicReference<Call<String>> fooBarCall = new AtomicReference<>();
+    fooBarCall.set(Call.create("foo").flatMap(foo -> {
+      fooBarCall.get().cancel(); // ex. a client disconnected while the first call completed
+      return barCall;
+    }));
+
+    fooBarCall.get().enqueue(callback);
+
+    assertThat(barCall.isCanceled()).isTrue();
+    verify(callback).onError(isA(IOException.class));
+  }
+
+  @Test public void timeout_execute() throws Exception {
+    Call<String> call = Call.create("foo").timeout(1, TimeUnit.SECONDS, scheduler);
+
+    assertThat(call.execute())
+      .isEqualTo("foo");
+  }
+
+  @Test public void timeout_execute_cancelsDelegate() {
+    BlockingCall blockingCall = new BlockingCall();
+    Call<String> call = blockingCall.timeout(10, TimeUnit.MILLISECONDS, scheduler);
+
+    assertThatThrownBy(call::execute)
+      .isInstanceOf(InterruptedIOException.class)
+      .hasMessage("Timed out after 10ms");
+    assertThat(blockingCall.isCanceled()).isTrue();
+  }
+
+  @Test(timeout = 1000L)
+  public void timeout_enqueue_cancelsDelegate() throws Exception {
+    BlockingCall blockingCall = new BlockingCall();
+    Call<String> call = blockingCall.timeout(10, TimeUnit.MILLISECONDS, scheduler);
+
+    BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+    call.enqueue(new Callback<String>() {
+      @Override public void onSuccess(String value) {
+        throw new AssertionError();
+      }
+
+      @Override public void onError(Throwable t) {
+        errors.add(t);
+      }
+    });
+
+    assertThat(errors.take())
+      .isInstanceOf(InterruptedIOException.class);
+    assertThat(blockingCall.isCanceled()).isTrue();
+  }
+
+  @Test public void timeout_cancelPropagates() {
+    BlockingCall blockingCall = new BlockingCall();
+    Call<String> call = blockingCall.timeout(1, TimeUnit.SECONDS, scheduler);
+
+    call.cancel();
+
+    assertThat(blockingCall.isCanceled()).isTrue();
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void onErrorReturn_execute_onError() throws Exception {
     IllegalArgumentException exception = new IllegalArgumentException();
@@ -327,6 +410,31 @@ public class CallTest {
     verify(callback).onSuccess(Collections.emptyList());
   }
 
+  /** Blocks until canceled, and never completes when enqueued. */
+  static final class BlockingCall extends Call.Base<String> {
+    final CountDownLatch canceled = new CountDownLatch(1);
+
+    @Override protected String doExecute() throws IOException {
+      try {
+        canceled.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw new IOException("Canceled");
+    }
+
+    @Override protected void doEnqueue(Callback<String> callback) {
+    }
+
+    @Override protected void doCancel() {
+      canceled.countDown();
+    }
+
+    @Override public Call<String> clone() {
+      return new BlockingCall();
+    }
+  }
+
   static <T> Call<T> errorCall(RuntimeException error) {
     return new Call.Base<T>() {
       @Override protected T doExecute() {
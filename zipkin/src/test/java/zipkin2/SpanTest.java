@@ -181,6 +181,66 @@ public class SpanTest {
       .isEqualTo("00000000000004d2000000000000162e");
   }
 
+  @Test public void traceIdAsLongs() {
+    Span span = base.toBuilder().traceId("463ac35c9f6413ad48485a3953bb6124").build();
+
+    assertThat(span.traceIdHigh()).isEqualTo(0x463ac35c9f6413adL);
+    assertThat(span.traceIdLow()).isEqualTo(0x48485a3953bb6124L);
+  }
+
+  @Test public void traceIdAsLongs_64() {
+    Span span = base.toBuilder().traceId("48485a3953bb6124").build();
+
+    assertThat(span.traceIdHigh()).isZero();
+    assertThat(span.traceIdLow()).isEqualTo(0x48485a3953bb6124L);
+  }
+
+  /** The upper bits being zero is indistinguishable from a 64-bit trace ID */
+  @Test public void traceId_128WithZeroHighIsRetained() {
+    Span span = base.toBuilder().traceId("000000000000000048485a3953bb6124").build();
+
+    assertThat(span.traceId()).isEqualTo("000000000000000048485a3953bb6124");
+    assertThat(span.traceId128()).isTrue();
+    assertThat(span.traceIdHigh()).isZero();
+    assertThat(Span.normalizeTraceId("000000000000000048485a3953bb6124"))
+      .isEqualTo(span.traceId());
+  }
+
+  @Test public void traceId_128WithZeroHighNotEqualTo64() {
+    Span span = base.toBuilder().traceId("000000000000000048485a3953bb6124").build();
+
+    assertThat(span).isNotEqualTo(base.toBuilder().traceId("48485a3953bb6124").build());
+    assertThat(base.toBuilder().traceId("48485a3953bb6124").build().traceId128()).isFalse();
+  }
+
+  @Test public void parentId_allZerosIsRetained() {
+    Span span = base.toBuilder().parentId("0000000000000000").build();
+
+    assertThat(span.parentId()).isEqualTo("0000000000000000");
+    assertThat(span.parentIdAsLong()).isZero();
+    assertThat(span).isNotEqualTo(base);
+    assertThat(span.toBuilder().parentId(null).build().parentId()).isNull();
+    assertThat(span.toBuilder().parentId(0L).build().parentId()).isNull();
+  }
+
+  @Test public void idsAsLongs() {
+    Span span = base.toBuilder().parentId("cafebabe").id("b").build();
+
+    assertThat(span.parentIdAsLong()).isEqualTo(0xcafebabeL);
+    assertThat(span.idAsLong()).isEqualTo(0xbL);
+    assertThat(base.parentIdAsLong()).isZero();
+  }
+
+  @Test public void equalsIgnoresIdEncoding() {
+    Span span = base.toBuilder().traceId("a").parentId("b").id("c").build();
+    span.traceId(); // encodes the hex strings
+    span.parentId();
+    span.id();
+
+    assertThat(span)
+      .isEqualTo(base.toBuilder().traceId(0L, 0xaL).parentId(0xbL).id(0xcL).build());
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void traceIdFromLong_invalid() {
     base.toBuilder().traceId(0, 0);
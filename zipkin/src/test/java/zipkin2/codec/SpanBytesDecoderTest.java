@@ -13,6 +13,7 @@
  */
 package zipkin2.codec;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -159,6 +160,29 @@ public class SpanBytesDecoderTest {
       .isEqualTo(tenClientSpans);
   }
 
+  @Test public void spansRoundTrip_PROTO3_directByteBuffer() {
+    List<Span> tenClientSpans = Collections.nCopies(10, span);
+
+    byte[] message = SpanBytesEncoder.PROTO3.encodeList(tenClientSpans);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(message.length);
+    buffer.put(message).flip();
+
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(buffer))
+      .isEqualTo(tenClientSpans);
+    assertThat(buffer.remaining())
+      .isEqualTo(message.length); // position unchanged
+  }
+
+  @Test public void spansRoundTrip_JSON_V2_byteBufferSlice() {
+    byte[] message = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    ByteBuffer buffer = ByteBuffer.allocate(message.length + 2);
+    buffer.position(1);
+    buffer.put(message).flip().position(1);
+
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(buffer))
+      .isEqualTo(TRACE);
+  }
+
   @Test public void spanRoundTrip_noRemoteServiceName_JSON_V2() {
     span = span.toBuilder()
       .remoteEndpoint(BACKEND.toBuilder().serviceName(null).build())
@@ -441,4 +465,27 @@ public class SpanBytesDecoderTest {
     assertThat(SpanBytesDecoder.JSON_V2.decodeOne(json.getBytes(UTF_8)).remoteServiceName())
       .isNull();
   }
+
+  @Test public void spanRoundTrip_zeroIds_JSON_V2() {
+    zeroIdsRoundTrip(SpanBytesEncoder.JSON_V2, SpanBytesDecoder.JSON_V2);
+  }
+
+  @Test public void spanRoundTrip_zeroIds_PROTO3() {
+    zeroIdsRoundTrip(SpanBytesEncoder.PROTO3, SpanBytesDecoder.PROTO3);
+  }
+
+  /** All codecs keep a 128-bit trace ID with zero high bits, and all-zero span IDs */
+  static void zeroIdsRoundTrip(SpanBytesEncoder encoder, SpanBytesDecoder decoder) {
+    Span span = SPAN.toBuilder()
+      .traceId("000000000000000048485a3953bb6124")
+      .parentId("0000000000000000")
+      .id("0000000000000000")
+      .build();
+
+    Span decoded = decoder.decodeOne(encoder.encode(span));
+    assertThat(decoded).isEqualTo(span);
+    assertThat(decoded.traceId()).isEqualTo("000000000000000048485a3953bb6124");
+    assertThat(decoded.parentId()).isEqualTo("0000000000000000");
+    assertThat(decoded.id()).isEqualTo("0000000000000000");
+  }
 }
@@ -21,7 +21,6 @@ import java.util.Arrays;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 import static zipkin2.TestObjects.UTF_8;
 
 public class BufferTest {
@@ -227,62 +226,21 @@ public class BufferTest {
       .containsExactly(0b1111_1111, 0b1111_1111, 0b1111_1111, 0b1111_1111, 0b0000_1111);
   }
 
-  @Test public void readVarint32() {
-    assertReadVarint32(0);
-    assertReadVarint32(0b0011_1111_1111_1111);
-    assertReadVarint32(0xFFFFFFFF);
-  }
-
-  static void assertReadVarint32(int value) {
-    Buffer buffer = new Buffer(Buffer.varintSizeInBytes(value));
-    buffer.writeVarint(value);
-    buffer.pos = 0; // reset
-
-    assertThat(buffer.readVarint32())
-      .isEqualTo(value);
-  }
-
-  @Test public void readVarint32_malformedTooBig() {
-    Buffer buffer = new Buffer(8);
-    buffer.writeLongLe(0xffffffffffffL);
-    buffer.pos = 0; // reset
-
-    try {
-      buffer.readVarint32();
-      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
-    } catch (IllegalArgumentException e) {
-      assertThat(e)
-        .hasMessage("Greater than 32-bit varint at position 4");
-    }
-  }
+  @Test public void toByteArray_byteBuffer_wholeArrayIsNotCopied() {
+    byte[] bytes = {1, 2, 3};
 
-  @Test public void readVarint64() {
-    assertReadVarint64(0L);
-    assertReadVarint64(0b0011_1111_1111_1111L);
-    assertReadVarint64(0xffffffffffffffffL);
+    assertThat(Buffer.toByteArray(ByteBuffer.wrap(bytes)))
+      .isSameAs(bytes);
   }
 
-  static void assertReadVarint64(long value) {
-    Buffer buffer = new Buffer(Buffer.varintSizeInBytes(value));
-    buffer.writeVarint(value);
-    buffer.pos = 0; // reset
+  @Test public void toByteArray_byteBuffer_copiesRemaining() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+    buffer.put(new byte[] {1, 2, 3, 4}).flip();
+    buffer.position(1);
 
-    assertThat(buffer.readVarint64())
-      .isEqualTo(value);
-  }
-
-  @Test public void readVarint64_malformedTooBig() {
-    Buffer buffer = new Buffer(16);
-    buffer.writeLongLe(0xffffffffffffffffL);
-    buffer.writeLongLe(0xffffffffffffffffL);
-    buffer.pos = 0; // reset
-
-    try {
-      buffer.readVarint64();
-      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
-    } catch (IllegalArgumentException e) {
-      assertThat(e)
-        .hasMessage("Greater than 64-bit varint at position 9");
-    }
+    assertThat(Buffer.toByteArray(buffer))
+      .containsExactly(2, 3, 4);
+    assertThat(buffer.position())
+      .isEqualTo(1);
   }
 }
@@ -63,6 +63,18 @@ public class DependencyLinkerTest {
     );
   }
 
+  /** A span with an ID of zero shouldn't prevent linking the rest of the trace */
+  @Test
+  public void linksSpans_skipsZeroId() {
+    List<Span> trace = new ArrayList<>(TRACE);
+    trace.add(span2("a", "a", "0000000000000000", Kind.CLIENT, "web", "cache", false));
+
+    assertThat(new DependencyLinker().putTrace(trace.iterator()).link()).containsExactly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(1L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(1L).errorCount(1L).build()
+    );
+  }
+
   /**
    * Some don't propagate the server's parent ID which creates a race condition. Try to unwind it.
    *
@@ -603,6 +615,20 @@ public class DependencyLinkerTest {
     );
   }
 
+  @Test
+  public void putAll() {
+    DependencyLinker left = new DependencyLinker().putTrace(TRACE.iterator());
+    DependencyLinker right = new DependencyLinker()
+      .putTrace(TRACE.iterator())
+      .putTrace(asList(span2("b", null, "a", Kind.CLIENT, "web", "cache", false)).iterator());
+
+    assertThat(left.putAll(right).link()).containsExactly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(2L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(2L).errorCount(2L).build(),
+      DependencyLink.newBuilder().parent("web").child("cache").callCount(1L).build()
+    );
+  }
+
   static Span span2(String traceId, @Nullable String parentId, String id, @Nullable Kind kind,
     @Nullable String local, @Nullable String remote, boolean isError) {
     Span.Builder result = Span.newBuilder().traceId(traceId).parentId(parentId).id(id).kind(kind);
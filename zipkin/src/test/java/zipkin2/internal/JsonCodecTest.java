@@ -13,10 +13,13 @@
  */
 package zipkin2.internal;
 
+import java.io.IOException;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import zipkin2.internal.JsonCodec.JsonReader;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin2.TestObjects.UTF_8;
 
 public class JsonCodecTest {
@@ -69,4 +72,102 @@ public class JsonCodecTest {
 
     new Foo().toString();
   }
+
+  static final byte[][] NAMES = JsonCodec.names("traceId", "id");
+
+  @Test public void jsonReader_selectName() throws IOException {
+    JsonReader reader = reader("{\"id\":1,\"foo\":2,\"traceId\":3,\"trace\\u0049d\":4}");
+
+    reader.beginObject();
+    assertThat(reader.selectName(NAMES)).isEqualTo(1);
+    reader.skipValue();
+    assertThat(reader.selectName(NAMES)).isEqualTo(-1);
+    assertThat(reader.getPath()).isEqualTo("$.foo");
+    reader.skipValue();
+    assertThat(reader.selectName(NAMES)).isEqualTo(0);
+    reader.skipValue();
+    assertThat(reader.selectName(NAMES)).isEqualTo(0); // escaped name
+    reader.skipValue();
+    reader.endObject();
+  }
+
+  @Test public void jsonReader_nextString_unescapes() throws IOException {
+    JsonReader reader = reader("[\"a\\\"b\\u2603\\n\",\"雪\", 1.5]");
+
+    reader.beginArray();
+    assertThat(reader.nextString()).isEqualTo("a\"b\u2603\n");
+    assertThat(reader.nextString()).isEqualTo("雪");
+    assertThat(reader.nextString()).isEqualTo("1.5");
+    reader.endArray();
+  }
+
+  @Test public void jsonReader_nextLong() throws IOException {
+    JsonReader reader = reader("[9223372036854775807,-1,\"12\",1.0E3]");
+
+    reader.beginArray();
+    assertThat(reader.nextLong()).isEqualTo(Long.MAX_VALUE);
+    assertThat(reader.nextLong()).isEqualTo(-1L);
+    assertThat(reader.nextLong()).isEqualTo(12L);
+    assertThat(reader.nextLong()).isEqualTo(1000L);
+    reader.endArray();
+  }
+
+  @Test public void jsonReader_nextLowerHexLong() throws IOException {
+    JsonReader reader = reader("[\"463ac35c9f6413ad48485a3953bb6124\",\"a\",\"A\",\"\"]");
+
+    reader.beginArray();
+    assertThat(reader.nextLowerHexLong()).isEqualTo(0x48485a3953bb6124L);
+    assertThat(reader.nextLowerHexLong()).isEqualTo(0xaL);
+    assertThat(reader.nextLowerHexLong()).isZero(); // invalid
+    assertThat(reader.nextLowerHexLong()).isZero(); // empty
+    reader.endArray();
+  }
+
+  @Test public void jsonReader_skipValue_nested() throws IOException {
+    JsonReader reader = reader("[{\"a\":[1,{\"b\":\"]}\"},null,true]},false]");
+
+    reader.beginArray();
+    reader.skipValue();
+    assertThat(reader.nextBoolean()).isFalse();
+    reader.endArray();
+  }
+
+  @Test public void jsonReader_unexpectedToken() throws IOException {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Expected a string but was NULL at path $[0]");
+
+    JsonReader reader = reader("[null]");
+    reader.beginArray();
+    reader.nextString();
+  }
+
+  @Test public void jsonReader_malformed() throws IOException {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Malformed");
+
+    JsonReader reader = reader("[\"unterminated");
+    reader.beginArray();
+    reader.nextString();
+  }
+
+  @Test public void jsonReader_invalidEscape() throws IOException {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Malformed: Invalid escape sequence");
+
+    JsonReader reader = reader("[\"a\\qb\"]");
+    reader.beginArray();
+    reader.nextString();
+  }
+
+  @Test public void jsonReader_nextString_unescapesSlashes() throws IOException {
+    JsonReader reader = reader("[\"a\\/b\\\\c\"]");
+
+    reader.beginArray();
+    assertThat(reader.nextString()).isEqualTo("a/b\\c");
+    reader.endArray();
+  }
+
+  static JsonReader reader(String json) {
+    return new JsonReader(json.getBytes(UTF_8));
+  }
 }
@@ -209,4 +209,120 @@ public class NodeTest {
       "skipping circular dependency: traceId=000000000000000a, spanId=000000000000000b"
     );
   }
+
+  @Test public void longTreeBuilder_constructsTraceTree() {
+    List<Span> trace = asList(
+      Span.newBuilder().traceId("a").id("a").build(),
+      Span.newBuilder().traceId("a").parentId("a").id("b").build(),
+      Span.newBuilder().traceId("a").parentId("b").id("c").build()
+    );
+    List<Span> copy = new ArrayList<>(trace);
+    Collections.reverse(copy);
+
+    Node<Span> root = buildLongTree(copy);
+    assertThat(root.value())
+      .isEqualTo(trace.get(0));
+    assertThat(root.children()).extracting(Node::value)
+      .containsExactly(trace.get(1));
+
+    Node<Span> child = root.children().iterator().next();
+    assertThat(child.children()).extracting(Node::value)
+      .containsExactly(trace.get(2));
+  }
+
+  @Test public void longTreeBuilder_dedupes() {
+    Span span = Span.newBuilder().traceId("a").id("a").build();
+
+    Node<Span> root = buildLongTree(asList(span, span, span));
+    assertThat(root.value())
+      .isEqualTo(span);
+    assertThat(root.children())
+      .isEmpty();
+  }
+
+  @Test public void longTreeBuilder_noChildLeftBehind() {
+    List<Span> spans = asList(
+      Span.newBuilder().traceId("a").id("b").name("root-0").build(),
+      Span.newBuilder().traceId("a").parentId("b").id("c").name("child-0").build(),
+      Span.newBuilder().traceId("a").parentId("b").id("d").name("child-1").build(),
+      Span.newBuilder().traceId("a").id("e").name("lost-0").build(),
+      Span.newBuilder().traceId("a").id("f").name("lost-1").build());
+
+    Node<Span> root = buildLongTree(spans);
+    assertThat(root.children()).extracting(Node::value)
+      .containsExactly(spans.get(1), spans.get(2), spans.get(3), spans.get(4));
+    assertThat(messages).containsExactly(
+      "attributing span missing parent to root: traceId=000000000000000a, rootSpanId=000000000000000b, spanId=000000000000000e",
+      "attributing span missing parent to root: traceId=000000000000000a, rootSpanId=000000000000000b, spanId=000000000000000f"
+    );
+  }
+
+  @Test public void longTreeBuilder_headless() {
+    Span s2 = Span.newBuilder().traceId("a").parentId("a").id("b").name("s2").build();
+    Span s3 = Span.newBuilder().traceId("a").parentId("a").id("c").name("s3").build();
+    Span s4 = Span.newBuilder().traceId("a").parentId("a").id("d").name("s4").build();
+
+    Node<Span> root = buildLongTree(asList(s2, s3, s4));
+    assertThat(root.value())
+      .isNull();
+    assertThat(root.children()).extracting(Node::value)
+      .containsExactly(s2, s3, s4);
+    assertThat(messages).containsExactly(
+      "substituting dummy node for missing root span: traceId=000000000000000a"
+    );
+  }
+
+  @Test public void longTreeBuilder_skipsOnCycle() {
+    Span s1 = Span.newBuilder().traceId("a").parentId(null).id("a").name("s1").build();
+    Span s2 = Span.newBuilder().traceId("a").parentId("b").id("b").name("s2").build();
+
+    Node.LongTreeBuilder<Span> treeBuilder = new Node.LongTreeBuilder<>(logger, s2.traceId());
+    treeBuilder.addNode(s1.parentIdAsLong(), s1.idAsLong(), s1);
+    assertThat(treeBuilder.addNode(s2.parentIdAsLong(), s2.idAsLong(), s2)).isFalse();
+
+    treeBuilder.build();
+    assertThat(messages).containsExactly(
+      "skipping circular dependency: traceId=000000000000000a, spanId=000000000000000b"
+    );
+  }
+
+  @Test public void longTreeBuilder_skipsZeroId() {
+    Span s1 = Span.newBuilder().traceId("a").parentId(null).id("a").name("s1").build();
+    Span s2 = Span.newBuilder().traceId("a").parentId("a").id("0000000000000000").build();
+
+    Node.LongTreeBuilder<Span> treeBuilder = new Node.LongTreeBuilder<>(logger, s2.traceId());
+    treeBuilder.addNode(s1.parentIdAsLong(), s1.idAsLong(), s1);
+    assertThat(treeBuilder.addNode(s2.parentIdAsLong(), s2.idAsLong(), s2)).isFalse();
+
+    assertThat(treeBuilder.build().children()).isEmpty();
+    assertThat(messages).containsExactly(
+      "skipping span with zero ID: traceId=000000000000000a"
+    );
+  }
+
+  /** Ensures resizing the ID table keeps the tree intact */
+  @Test public void longTreeBuilder_wideAndDeep() {
+    Node.LongTreeBuilder<Long> treeBuilder = new Node.LongTreeBuilder<>(logger, "a");
+    for (long id = 1; id <= 1000; id++) {
+      treeBuilder.addNode(id == 1 ? 0L : id / 2, id, id); // binary tree
+    }
+    Node<Long> root = treeBuilder.build();
+
+    List<Long> breadthFirst = new ArrayList<>();
+    for (Iterator<Node<Long>> i = root.traverse(); i.hasNext(); ) {
+      Node<Long> next = i.next();
+      if (next.parent() != null) assertThat(next.parent().value()).isEqualTo(next.value() / 2);
+      breadthFirst.add(next.value());
+    }
+    assertThat(breadthFirst).hasSize(1000).isSorted();
+  }
+
+  Node<Span> buildLongTree(List<Span> spans) {
+    Node.LongTreeBuilder<Span> treeBuilder =
+      new Node.LongTreeBuilder<>(logger, spans.get(0).traceId());
+    for (Span span : spans) {
+      assertThat(treeBuilder.addNode(span.parentIdAsLong(), span.idAsLong(), span)).isTrue();
+    }
+    return treeBuilder.build();
+  }
 }
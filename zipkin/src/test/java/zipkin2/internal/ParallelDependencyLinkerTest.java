@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.internal.DependencyLinkerTest.TRACE;
+
+public class ParallelDependencyLinkerTest {
+  ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After public void close() {
+    executor.shutdownNow();
+  }
+
+  @Test public void link_sameAsSequential() {
+    List<List<Span>> traces = new ArrayList<>();
+    for (int i = 1; i <= 10; i++) {
+      List<Span> trace = new ArrayList<>();
+      for (Span span : TRACE) trace.add(span.toBuilder().traceId(Integer.toHexString(i)).build());
+      traces.add(trace);
+    }
+
+    ParallelDependencyLinker linker = new ParallelDependencyLinker(executor);
+    for (int i = 0; i < traces.size(); i += 3) {
+      linker.putTraces(traces.subList(i, Math.min(traces.size(), i + 3)));
+    }
+
+    DependencyLinker sequential = new DependencyLinker();
+    for (List<Span> trace : traces) sequential.putTrace(trace.iterator());
+    assertThat(linker.link()).containsExactlyElementsOf(sequential.link());
+  }
+
+  @Test public void link_noTraces() {
+    assertThat(new ParallelDependencyLinker(executor).link()).isEmpty();
+    assertThat(ParallelDependencyLinker.link(new ArrayList<List<Span>>(), executor)).isEmpty();
+  }
+
+  @Test public void link_nullExecutorIsSequential() {
+    assertThat(ParallelDependencyLinker.link(asList(TRACE), null)).containsExactly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(1L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(1L).errorCount(1L).build()
+    );
+  }
+}
@@ -138,7 +138,6 @@ public class Proto3FieldsTest {
     VarintField field = new VarintField(128 << 3 | WIRETYPE_VARINT);
     field.write(buf, 0xffffffffffffffffL);
 
-    buf.pos = 1; // skip the key
     skipValue(WIRETYPE_VARINT);
   }
 
@@ -146,7 +145,6 @@ public class Proto3FieldsTest {
     Utf8Field field = new Utf8Field(128 << 3 | WIRETYPE_LENGTH_DELIMITED);
     field.write(buf, "订单维护服务");
 
-    buf.pos = 1; // skip the key
     skipValue(WIRETYPE_LENGTH_DELIMITED);
   }
 
@@ -154,7 +152,6 @@ public class Proto3FieldsTest {
     Fixed64Field field = new Fixed64Field(128 << 3 | WIRETYPE_FIXED64);
     field.write(buf, 0xffffffffffffffffL);
 
-    buf.pos = 1; // skip the key
     skipValue(WIRETYPE_FIXED64);
   }
 
@@ -163,16 +160,15 @@ public class Proto3FieldsTest {
     buf.writeByte(field.key);
     buf.writeByte(0xff).writeByte(0xff).writeByte(0xff).writeByte(0xff);
 
-    buf.pos = 1; // skip the key
     skipValue(WIRETYPE_FIXED32);
   }
 
   @Test public void field_readLengthPrefix_LENGTH_DELIMITED() {
     BytesField field = new BytesField(128 << 3 | WIRETYPE_LENGTH_DELIMITED);
     field.write(buf, new byte[10]);
-    buf.pos = 1; // skip the key
+    ReadBuffer read = skipKey();
 
-    assertThat(field.readLengthPrefix(buf))
+    assertThat(field.readLengthPrefix(read))
       .isEqualTo(10);
   }
 
@@ -180,10 +176,9 @@ public class Proto3FieldsTest {
     BytesField field = new BytesField(128 << 3 | WIRETYPE_LENGTH_DELIMITED);
     buf = new Buffer(10);
     buf.writeVarint(100); // much larger than the buffer size
-    buf.pos = 0; // reset
 
     try {
-      field.readLengthPrefix(buf);
+      field.readLengthPrefix(ReadBuffer.wrap(buf.toByteArray()));
       failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
     } catch (IllegalArgumentException e) {
       assertThat(e).hasMessage("Truncated: length 100 > bytes remaining 9");
@@ -194,13 +189,18 @@ public class Proto3FieldsTest {
     Fixed64Field field = new Fixed64Field(128 << 3 | WIRETYPE_FIXED64);
     field.write(buf, 0xffffffffffffffffL);
 
-    buf.pos = 1; // skip the key
-    assertThat(field.readValue(buf))
+    assertThat(field.readValue(skipKey()))
       .isEqualTo(0xffffffffffffffffL);
   }
 
   void skipValue(int wireType) {
-    assertThat(Field.skipValue(buf, wireType))
+    assertThat(Field.skipValue(skipKey(), wireType))
       .isTrue();
   }
+
+  ReadBuffer skipKey() {
+    ReadBuffer result = ReadBuffer.wrap(buf.toByteArray());
+    result.pos = 1; // skip the key
+    return result;
+  }
 }
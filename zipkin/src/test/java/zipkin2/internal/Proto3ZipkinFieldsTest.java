@@ -13,6 +13,7 @@
  */
 package zipkin2.internal;
 
+import java.nio.ByteBuffer;
 import org.junit.Test;
 import zipkin2.Annotation;
 import zipkin2.Endpoint;
@@ -159,14 +160,12 @@ public class Proto3ZipkinFieldsTest {
   @Test public void span_read_kind_tolerant() {
     assertRoundTrip(spanBuilder().kind(Span.Kind.CONSUMER).build());
 
-    buf.pos = 0;
     buf.toByteArray()[23] = (byte) (Span.Kind.values().length + 1); // undefined kind
-    assertThat(SPAN.read(buf))
+    assertThat(SPAN.read(ReadBuffer.wrap(buf.toByteArray())))
       .isEqualTo(spanBuilder().build()); // skips undefined kind instead of dying
 
-    buf.pos = 0;
     buf.toByteArray()[23] = 0; // serialized zero
-    assertThat(SPAN.read(buf))
+    assertThat(SPAN.read(ReadBuffer.wrap(buf.toByteArray())))
       .isEqualTo(spanBuilder().build());
   }
 
@@ -186,15 +185,41 @@ public class Proto3ZipkinFieldsTest {
       .contains(1, atIndex(buf.pos - 1)); // true
   }
 
+  @Test public void span_peekSampled_restoresPositionWhenSampled() {
+    SPAN.write(buf, CLIENT_SPAN);
+    ReadBuffer read = ReadBuffer.wrap(buf.toByteArray());
+
+    assertThat(SPAN.peekSampled(read, (traceId, debug) -> {
+      assertThat(traceId).isEqualTo(0x216a2aea45d08fc9L); // lower 64 bits
+      assertThat(debug).isFalse();
+      return true;
+    })).isTrue();
+    assertThat(read.pos).isZero();
+    assertThat(SPAN.read(read)).isEqualTo(CLIENT_SPAN);
+  }
+
+  @Test public void span_peekSampled_skipsSpanWhenNotSampled() {
+    SPAN.write(buf, CLIENT_SPAN.toBuilder().debug(true).build());
+    ReadBuffer read = ReadBuffer.wrap(buf.toByteArray());
+
+    assertThat(SPAN.peekSampled(read, (traceId, debug) -> !debug)).isFalse();
+    assertThat(read.pos).isEqualTo(buf.pos);
+  }
+
   static Span.Builder spanBuilder() {
     return Span.newBuilder().traceId("1").id("2");
   }
 
   void assertRoundTrip(Span span) {
     SPAN.write(buf, span);
-    buf.pos = 0; // reset
 
-    assertThat(SPAN.read(buf))
+    assertThat(SPAN.read(ReadBuffer.wrap(buf.toByteArray())))
+      .isEqualTo(span);
+
+    // direct buffers are read without copying into an array
+    ByteBuffer direct = ByteBuffer.allocateDirect(buf.pos);
+    direct.put(buf.toByteArray(), 0, buf.pos).flip();
+    assertThat(SPAN.read(ReadBuffer.wrap(direct)))
       .isEqualTo(span);
   }
 }
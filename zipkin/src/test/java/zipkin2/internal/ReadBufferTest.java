@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static zipkin2.TestObjects.UTF_8;
+
+public class ReadBufferTest {
+  @Test public void readVarint32() {
+    assertReadVarint32(0);
+    assertReadVarint32(0b0011_1111_1111_1111);
+    assertReadVarint32(0xFFFFFFFF);
+  }
+
+  static void assertReadVarint32(int value) {
+    Buffer buffer = new Buffer(Buffer.varintSizeInBytes(value));
+    buffer.writeVarint(value);
+
+    assertThat(ReadBuffer.wrap(buffer.toByteArray()).readVarint32())
+      .isEqualTo(value);
+    assertThat(ReadBuffer.wrap(direct(buffer.toByteArray())).readVarint32())
+      .isEqualTo(value);
+  }
+
+  @Test public void readVarint32_malformedTooBig() {
+    Buffer buffer = new Buffer(8);
+    buffer.writeLongLe(0xffffffffffffL);
+
+    try {
+      ReadBuffer.wrap(buffer.toByteArray()).readVarint32();
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      assertThat(e)
+        .hasMessage("Greater than 32-bit varint at position 4");
+    }
+  }
+
+  @Test public void readVarint32_truncated() {
+    try {
+      ReadBuffer.wrap(new byte[] {(byte) 0xff}).readVarint32();
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      assertThat(e)
+        .hasMessage("Truncated reading position 1");
+    }
+  }
+
+  /** Errors should report the position in the input, not in the array backing a slice */
+  @Test public void readVarint32_truncated_slice() {
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[] {0, 0, (byte) 0xff});
+    buffer.position(1);
+    ByteBuffer slice = buffer.slice();
+    slice.position(1);
+
+    for (ByteBuffer input : new ByteBuffer[] {slice, direct(new byte[] {(byte) 0xff})}) {
+      try {
+        ReadBuffer.wrap(input).readVarint32();
+        failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+      } catch (IllegalArgumentException e) {
+        assertThat(e)
+          .hasMessage("Truncated reading position 1");
+      }
+    }
+  }
+
+  @Test public void readVarint64() {
+    assertReadVarint64(0L);
+    assertReadVarint64(0b0011_1111_1111_1111L);
+    assertReadVarint64(0xffffffffffffffffL);
+  }
+
+  static void assertReadVarint64(long value) {
+    Buffer buffer = new Buffer(Buffer.varintSizeInBytes(value));
+    buffer.writeVarint(value);
+
+    assertThat(ReadBuffer.wrap(buffer.toByteArray()).readVarint64())
+      .isEqualTo(value);
+    assertThat(ReadBuffer.wrap(direct(buffer.toByteArray())).readVarint64())
+      .isEqualTo(value);
+  }
+
+  @Test public void readVarint64_malformedTooBig() {
+    Buffer buffer = new Buffer(16);
+    buffer.writeLongLe(0xffffffffffffffffL);
+    buffer.writeLongLe(0xffffffffffffffffL);
+
+    try {
+      ReadBuffer.wrap(buffer.toByteArray()).readVarint64();
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      assertThat(e)
+        .hasMessage("Greater than 64-bit varint at position 9");
+    }
+  }
+
+  @Test public void readLongLe() {
+    Buffer buffer = new Buffer(8);
+    buffer.writeLongLe(0x0102030405060708L);
+
+    assertThat(ReadBuffer.wrap(buffer.toByteArray()).readLongLe())
+      .isEqualTo(0x0102030405060708L);
+    assertThat(ReadBuffer.wrap(direct(buffer.toByteArray())).readLongLe())
+      .isEqualTo(0x0102030405060708L);
+  }
+
+  @Test public void readUtf8_direct() {
+    String string = "订单维护服务";
+    byte[] bytes = string.getBytes(UTF_8);
+
+    ReadBuffer buffer = ReadBuffer.wrap(direct(bytes));
+    assertThat(buffer.readUtf8(bytes.length))
+      .isEqualTo(string);
+    assertThat(buffer.remaining())
+      .isZero();
+  }
+
+  /** Ensures heap buffers are read relative to their position and array offset */
+  @Test public void wrap_slice() {
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[] {'a', 'b', 'c', 'd', 'e'});
+    buffer.position(1);
+    ByteBuffer slice = buffer.slice();
+    slice.position(1);
+    slice.limit(3);
+
+    ReadBuffer read = ReadBuffer.wrap(slice);
+    assertThat(read.remaining())
+      .isEqualTo(2);
+    assertThat(read.readUtf8(2))
+      .isEqualTo("cd");
+    assertThat(slice.position())
+      .isEqualTo(1); // unchanged
+  }
+
+  @Test public void skip_pastLimit() {
+    ReadBuffer buffer = ReadBuffer.wrap(direct(new byte[4]));
+
+    assertThat(buffer.skip(5))
+      .isFalse();
+    assertThat(buffer.remaining())
+      .isZero();
+  }
+
+  static ByteBuffer direct(byte[] bytes) {
+    ByteBuffer result = ByteBuffer.allocateDirect(bytes.length);
+    result.put(bytes);
+    result.flip();
+    return result;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.UTF_8;
+
+public class V2SpanReaderTest {
+  TraceIdSampler debugOnly = (traceId, debug) -> debug;
+
+  @Test public void readList_sampled_skipsUnsampledSpans() {
+    Span debugSpan = CLIENT_SPAN.toBuilder().id("3").debug(true).build();
+    byte[] message = SpanBytesEncoder.JSON_V2.encodeList(asList(CLIENT_SPAN, debugSpan));
+
+    List<Span> out = new ArrayList<>();
+    assertThat(V2SpanReader.readList(message, debugOnly, out)).isTrue();
+    assertThat(out).containsExactly(debugSpan);
+  }
+
+  /** Only top-level fields of the span are considered, not those nested in tags or strings. */
+  @Test public void peekSampled_ignoresNestedFields() {
+    byte[] message = ("[{\"traceId\":\"a\",\"id\":\"b\","
+      + "\"tags\":{\"debug\":\"true\",\"traceId\":\"1\"},"
+      + "\"name\":\"\\\"debug\\\":true\"},"
+      + "{\"id\":\"c\",\"debug\":true, \"traceId\" : \"000000000000000a\"}]").getBytes(UTF_8);
+
+    List<Long> traceIds = new ArrayList<>();
+    BitSet sampled = V2SpanReader.peekSampled(message, (traceId, debug) -> {
+      traceIds.add(traceId);
+      return debug;
+    });
+
+    assertThat(sampled.get(0)).isFalse();
+    assertThat(sampled.get(1)).isTrue();
+
+    assertThat(traceIds).containsExactly(0xaL, 0xaL);
+  }
+
+  @Test public void peekSampled_nullOnMalformed() {
+    assertThat(V2SpanReader.peekSampled("[{\"traceId\":".getBytes(UTF_8), debugOnly))
+      .isNull();
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.List;
+import org.junit.Test;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+
+public class WindowedDependencyLinkerTest {
+  static final long NOW = TODAY + 60 * 60 * 1000L, DAY = 24 * 60 * 60 * 1000L;
+  WindowedDependencyLinker linker = new WindowedDependencyLinker(30 * 1000L, DAY);
+
+  @Test public void linksTraceAfterQuietPeriod() {
+    linker.accept(TRACE.subList(0, 1), NOW);
+    linker.accept(TRACE.subList(1, TRACE.size()), NOW + 10 * 1000L);
+
+    assertThat(linker.flush(NOW + 30 * 1000L)).isZero(); // the second accept resets the clock
+    assertThat(linker.getDependencies(NOW, DAY)).isEmpty();
+
+    assertThat(linker.flush(NOW + 40 * 1000L)).isEqualTo(1);
+    assertThat(linker.getDependencies(NOW, DAY))
+      .containsExactlyInAnyOrderElementsOf(batchLinks(TRACE));
+  }
+
+  @Test public void mergesTracesInSameMinute() {
+    linker.accept(TRACE, NOW);
+    linker.accept(withTraceId(TRACE, "b"), NOW);
+    linker.flush(NOW + DAY / 2);
+
+    assertThat(linker.getDependencies(NOW, DAY)).extracting(DependencyLink::callCount)
+      .containsOnly(2L);
+  }
+
+  @Test public void getDependencies_filtersOnTraceStartMinute() {
+    linker.accept(TRACE, NOW);
+    linker.flush(NOW + 40 * 1000L);
+
+    long traceStart = TRACE.get(0).timestampAsLong() / 1000L;
+    assertThat(linker.getDependencies(traceStart + 2 * 60 * 1000L, 1000L)).isEmpty();
+    assertThat(linker.getDependencies(traceStart - 1000L, 1000L)).isEmpty();
+    assertThat(linker.getDependencies(traceStart, 1000L)).isNotEmpty();
+  }
+
+  @Test public void flush_dropsBucketsPastRetention() {
+    linker.accept(TRACE, NOW);
+    linker.flush(NOW + 40 * 1000L);
+
+    linker.flush(TRACE.get(0).timestampAsLong() / 1000L + DAY + 60 * 1000L);
+    assertThat(linker.getDependencies(NOW, DAY)).isEmpty();
+  }
+
+  @Test public void linkFields_dropsAnnotationsAndTagsExceptError() {
+    Span span = TRACE.get(3).toBuilder().putTag("http.path", "/users").build();
+
+    assertThat(WindowedDependencyLinker.linkFields(span)).satisfies(s -> {
+      assertThat(s.annotations()).isEmpty();
+      assertThat(s.tags()).containsOnlyKeys("error");
+      assertThat(s.localServiceName()).isEqualTo(span.localServiceName());
+      assertThat(s.remoteServiceName()).isEqualTo(span.remoteServiceName());
+    });
+  }
+
+  static List<DependencyLink> batchLinks(List<Span> trace) {
+    return new DependencyLinker().putTrace(trace.iterator()).link();
+  }
+
+  static List<Span> withTraceId(List<Span> trace, String traceId) {
+    return trace.stream().map(s -> s.toBuilder().traceId(traceId).build()).collect(toList());
+  }
+}
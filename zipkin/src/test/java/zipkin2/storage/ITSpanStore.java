@@ -85,6 +85,134 @@ public abstract class ITSpanStore {
       .isEmpty();
   }
 
+  @Test public void getTraces_byIds() throws IOException {
+    Span otherTrace = CLIENT_SPAN.toBuilder().traceId("1").id("2").build();
+    accept(CLIENT_SPAN, otherTrace, LOTS_OF_SPANS[0]);
+
+    assertThat(storage().traces().getTraces(asList(CLIENT_SPAN.traceId(), "1")).execute())
+      .containsOnly(asList(CLIENT_SPAN), asList(otherTrace));
+  }
+
+  @Test public void getTraces_byIds_omitsNotFound() throws IOException {
+    assertThat(storage().traces().getTraces(asList(CLIENT_SPAN.traceId())).execute())
+      .isEmpty();
+
+    accept(CLIENT_SPAN);
+
+    assertThat(storage().traces().getTraces(asList(CLIENT_SPAN.traceId(), "1")).execute())
+      .containsExactly(asList(CLIENT_SPAN));
+  }
+
+  @Test public void getTraces_byIds_considersBitsAbove64bit() throws IOException {
+    // 64-bit trace ID
+    Span span1 = Span.newBuilder().traceId(CLIENT_SPAN.traceId().substring(16)).id("1").build();
+    // 128-bit trace ID prefixed by above
+    Span span2 = Span.newBuilder().traceId(CLIENT_SPAN.traceId()).id("2").build();
+    // Different 128-bit trace ID prefixed by above
+    Span span3 = Span.newBuilder().traceId("1" + span1.traceId()).id("3").build();
+
+    accept(span1, span2, span3);
+
+    assertThat(storage().traces().getTraces(asList(span1.traceId(), span3.traceId())).execute())
+      .containsOnly(asList(span1), asList(span3));
+  }
+
+  @Test public void getTracePage_readsEachTraceOnce() throws IOException {
+    List<String> traceIds = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      Span span = CLIENT_SPAN.toBuilder().traceId(Integer.toHexString(i)).parentId(null)
+        .timestamp((TODAY + i) * 1000L).build();
+      traceIds.add(span.traceId());
+      accept(span);
+    }
+
+    List<String> result = new ArrayList<>();
+    QueryRequest.Builder request = requestBuilder().limit(2);
+    TracePage page;
+    int pageCount = 0;
+    do {
+      page = storage().tracePages().getTracePage(request.build()).execute();
+      for (List<Span> trace : page.traces()) result.add(trace.get(0).traceId());
+      request.cursor(page.nextCursor());
+    } while (page.nextCursor() != null && ++pageCount < 10);
+
+    assertThat(result).containsExactlyInAnyOrderElementsOf(traceIds);
+  }
+
+  @Test public void getTracePage_noCursorOnLastPage() throws IOException {
+    accept(TRACE);
+
+    TracePage page = storage().tracePages().getTracePage(requestBuilder().build()).execute();
+    assertThat(page.traces()).hasSize(1);
+    assertThat(page.nextCursor()).isNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getTracePage_malformedCursor() throws IOException {
+    storage().tracePages().getTracePage(requestBuilder().cursor("hello").build()).execute();
+  }
+
+  /** Traces with the same timestamp must not be skipped or repeated between pages. */
+  @Test public void getTracePage_sameTimestamp() throws IOException {
+    List<String> traceIds = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      Span span = CLIENT_SPAN.toBuilder().traceId(Integer.toHexString(i)).parentId(null).build();
+      traceIds.add(span.traceId());
+      accept(span);
+    }
+
+    List<String> result = new ArrayList<>();
+    QueryRequest.Builder request = requestBuilder().limit(2);
+    TracePage page;
+    int pageCount = 0;
+    do {
+      page = storage().tracePages().getTracePage(request.build()).execute();
+      for (List<Span> trace : page.traces()) result.add(trace.get(0).traceId());
+      request.cursor(page.nextCursor());
+    } while (page.nextCursor() != null && ++pageCount < 10);
+
+    assertThat(result).containsExactlyInAnyOrderElementsOf(traceIds);
+  }
+
+  @Test public void getTraceSummaryPage_readsEachTraceOnce() throws IOException {
+    List<String> traceIds = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      Span span = CLIENT_SPAN.toBuilder().traceId(Integer.toHexString(i)).parentId(null)
+        .timestamp((TODAY + i) * 1000L).build();
+      traceIds.add(span.traceId());
+      accept(span);
+    }
+
+    List<String> result = new ArrayList<>();
+    QueryRequest.Builder request = requestBuilder().limit(2);
+    TraceSummaryPage page;
+    int pageCount = 0;
+    do {
+      page = storage().traceSummaryPages().getTraceSummaryPage(request.build()).execute();
+      for (TraceSummary summary : page.summaries()) result.add(summary.traceId());
+      request.cursor(page.nextCursor());
+    } while (page.nextCursor() != null && ++pageCount < 10);
+
+    assertThat(result).containsExactlyInAnyOrderElementsOf(traceIds);
+  }
+
+  @Test public void getTraceSummaries() throws IOException {
+    accept(TRACE);
+
+    assertThat(storage().traceSummaries().getTraceSummaries(requestBuilder().build()).execute())
+      .containsExactly(TraceSummary.create(TRACE));
+  }
+
+  @Test public void getTraceSummaries_matchesGetTraces() throws IOException {
+    accept(TRACE);
+    accept(LOTS_OF_SPANS[0], LOTS_OF_SPANS[1]);
+
+    QueryRequest request = requestBuilder().build();
+    assertThat(storage().traceSummaries().getTraceSummaries(request).execute())
+      .containsOnlyElementsOf(
+        TraceSummary.summarizeTraces().map(store().getTraces(request).execute()));
+  }
+
   /** This would only happen when the store layer is bootstrapping, or has been purged. */
   @Test public void allShouldWorkWhenEmpty() throws IOException {
     QueryRequest.Builder q = requestBuilder().serviceName("service");
@@ -715,7 +843,7 @@ public abstract class ITSpanStore {
     }
 
     assertThat(store().getSpanNames("frontend").execute())
-      .containsExactlyInAnyOrderElementsOf(spanNames);
+      .containsOnlyElementsOf(spanNames);
   }
 
   @Test public void getAllServiceNames_noServiceName() throws IOException {
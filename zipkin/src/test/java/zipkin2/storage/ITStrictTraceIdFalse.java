@@ -93,6 +93,16 @@ public abstract class ITStrictTraceIdFalse {
       .containsOnlyElementsOf(trace);
   }
 
+  @Test public void getTraces_byIds_retrievesBy64Or128BitTraceId_mixed() throws IOException {
+    List<Span> trace = acceptMixedTrace();
+
+    List<List<Span>> traces = storage().traces().getTraces(asList(
+      trace.get(0).traceId().substring(16), trace.get(0).traceId()
+    )).execute();
+    assertThat(traces).hasSize(1);
+    assertThat(traces.get(0)).containsOnlyElementsOf(trace);
+  }
+
   protected List<Span> accept128BitTrace(StorageComponent storage) throws IOException {
     List<Span> trace = new ArrayList<>(TestObjects.TRACE);
     Collections.reverse(trace);
@@ -13,21 +13,29 @@
  */
 package zipkin2.storage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.junit.Test;
 import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
 
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.FRONTEND;
 import static zipkin2.TestObjects.TODAY;
 import static zipkin2.storage.ITSpanStore.requestBuilder;
 
@@ -79,6 +87,29 @@ public class InMemoryStorageTest {
       .containsExactly(earlyTraces);
   }
 
+  /** The root timestamp decides if a trace is in range, even if the service's spans are later */
+  @Test public void getTraces_serviceName_rootInRangeButServiceSpansAfterEndTs()
+    throws IOException {
+    Span root = Span.newBuilder().traceId("1").id("1").name("get")
+      .localEndpoint(FRONTEND)
+      .timestamp(TODAY * 1000).duration(10_000_000L)
+      .build();
+    Span child = Span.newBuilder().traceId("1").parentId("1").id("2").name("get")
+      .localEndpoint(Endpoint.newBuilder().serviceName("backend").build())
+      .timestamp((TODAY + 5000) * 1000).duration(1000L)
+      .build();
+    storage.accept(asList(root, child)).execute();
+
+    assertThat(storage.getTraces(requestBuilder().serviceName("backend")
+      .endTs(TODAY + 1000).lookback(2000).build()).execute())
+      .containsExactly(asList(root, child));
+
+    // the root is out of range, so the trace is, too
+    assertThat(storage.getTraces(requestBuilder().serviceName("backend")
+      .endTs(TODAY + 6000).lookback(2000).build()).execute())
+      .isEmpty();
+  }
+
   /** Ensures we don't overload a partition due to key equality being conflated with order */
   @Test public void differentiatesOnTraceIdWhenTimestampEqual() {
     storage.accept(asList(CLIENT_SPAN));
@@ -122,4 +153,149 @@ public class InMemoryStorageTest {
       "root"
     );
   }
+
+  @Test public void accept_concurrentWritersEvictToMaxSpanCount() throws Exception {
+    storage = InMemoryStorage.newBuilder().maxSpanCount(100).build();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = IntStream.range(0, 4).mapToObj(thread -> executor.submit(() -> {
+      for (int i = 1; i <= 500; i++) {
+        storage.accept(asList(Span.newBuilder()
+          .traceId(Long.toHexString(thread * 1000L + i)).id(i)
+          .name("get")
+          .timestamp((TODAY + i) * 1000)
+          .localEndpoint(FRONTEND)
+          .build()));
+        storage.getTraces(requestBuilder().build());
+      }
+      return null;
+    })).collect(toList());
+    for (Future<?> future : futures) future.get();
+    executor.shutdown();
+
+    assertThat(storage.acceptedSpanCount()).isEqualTo(2000);
+    assertThat(storage.getTraces()).hasSize(100);
+    assertThat(storage.getServiceNames().execute()).containsOnly("frontend");
+    assertThat(storage.getSpanNames("frontend").execute()).containsOnly("get");
+  }
+
+  @Test public void maxBytes_evictsOldestTraces() {
+    Span span = Span.newBuilder().traceId("1").id("1").name("get")
+      .timestamp(TODAY * 1000)
+      .localEndpoint(FRONTEND)
+      .build();
+    int sizeInBytes = SpanBytesEncoder.PROTO3.sizeInBytes(span);
+    storage = InMemoryStorage.newBuilder().maxBytes(sizeInBytes * 3L).build();
+
+    for (int i = 1; i <= 5; i++) {
+      storage.accept(asList(span.toBuilder().traceId(Long.toHexString(i))
+        .timestamp((TODAY + i) * 1000).build()));
+    }
+
+    assertThat(storage.getTraces()).extracting(t -> t.get(0).traceId()).containsOnly(
+      "0000000000000003", "0000000000000004", "0000000000000005"
+    );
+    assertThat(storage.spanCount()).isEqualTo(3);
+    assertThat(storage.bytes()).isEqualTo(sizeInBytes * 3L);
+    assertThat(storage.evictedSpanCount()).isEqualTo(2L);
+  }
+
+  @Test public void getTraces_annotationQuery_evictedTracesAreUnindexed() throws IOException {
+    storage = InMemoryStorage.newBuilder().maxSpanCount(1).build();
+    Span span = Span.newBuilder().traceId("1").id("1").name("get")
+      .timestamp(TODAY * 1000)
+      .localEndpoint(FRONTEND)
+      .putTag("http.path", "/checkout")
+      .build();
+
+    storage.accept(asList(span));
+    assertThat(storage.getTraces(requestBuilder().parseAnnotationQuery("http.path=/checkout").build())
+      .execute()).containsExactly(asList(span));
+
+    Span next = span.toBuilder().traceId("2").timestamp((TODAY + 1) * 1000)
+      .putTag("http.path", "/cart").build();
+    storage.accept(asList(next));
+    assertThat(storage.getTraces(requestBuilder().parseAnnotationQuery("http.path=/checkout").build())
+      .execute()).isEmpty();
+    assertThat(storage.getTraces(requestBuilder().parseAnnotationQuery("http.path").build())
+      .execute()).containsExactly(asList(next));
+  }
+
+  @Test public void getTraces_annotationQuery_longTagValue() throws IOException {
+    StringBuilder sql = new StringBuilder("select * from spans where trace_id in (");
+    for (int i = 0; i < 1000; i++) sql.append(i).append(',');
+    String value = sql.append("1000)").toString(), otherValue = value.replace("1000)", "1001)");
+    Span span = Span.newBuilder().traceId("1").id("1").name("get")
+      .timestamp(TODAY * 1000)
+      .localEndpoint(FRONTEND)
+      .putTag("sql.query", value)
+      .build();
+    storage.accept(asList(span));
+
+    assertThat(InMemoryStorage.terms(span))
+      .allMatch(term -> term.length() <= InMemoryStorage.MAX_TERM_LENGTH + 9);
+    assertThat(storage.getTraces(requestBuilder()
+      .annotationQuery(Collections.singletonMap("sql.query", value)).build())
+      .execute()).containsExactly(asList(span));
+    assertThat(storage.getTraces(requestBuilder()
+      .annotationQuery(Collections.singletonMap("sql.query", otherValue)).build())
+      .execute()).isEmpty();
+  }
+
+  @Test public void restoreSnapshot_rebuildsIndexes() throws IOException {
+    Span span = Span.newBuilder().traceId("1").id("1").name("get")
+      .timestamp(TODAY * 1000)
+      .localEndpoint(FRONTEND)
+      .putTag("http.path", "/checkout")
+      .build();
+    Span child = span.toBuilder().id("2").parentId("1").name("query").build();
+    storage.accept(asList(span, child, CLIENT_SPAN));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(storage.writeSnapshot(out)).isEqualTo(3);
+
+    InMemoryStorage restored = InMemoryStorage.newBuilder().build();
+    assertThat(restored.restoreSnapshot(new ByteArrayInputStream(out.toByteArray())))
+      .isEqualTo(3);
+
+    assertThat(restored.getTraces()).containsExactlyInAnyOrderElementsOf(storage.getTraces());
+    assertThat(restored.getServiceNames().execute())
+      .isEqualTo(storage.getServiceNames().execute());
+    assertThat(restored.getSpanNames("frontend").execute()).containsExactly("get", "query");
+    QueryRequest request = requestBuilder().parseAnnotationQuery("http.path=/checkout").build();
+    assertThat(restored.getTraces(request).execute()).containsExactly(asList(span, child));
+    assertThat(restored.bytes()).isEqualTo(storage.bytes());
+  }
+
+  @Test public void restoreSnapshot_keepsMostRecentTracesWithinCapacity() throws IOException {
+    Span span = Span.newBuilder().traceId("1").id("1").name("get")
+      .timestamp(TODAY * 1000)
+      .localEndpoint(FRONTEND)
+      .build();
+    for (int i = 1; i <= 5; i++) {
+      storage.accept(asList(span.toBuilder().traceId(Long.toHexString(i))
+        .timestamp((TODAY + i) * 1000).build()));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    storage.writeSnapshot(out);
+
+    storage = InMemoryStorage.newBuilder().maxSpanCount(2).build();
+    storage.restoreSnapshot(new ByteArrayInputStream(out.toByteArray()));
+
+    assertThat(storage.getTraces()).extracting(t -> t.get(0).traceId()).containsOnly(
+      "0000000000000004", "0000000000000005"
+    );
+  }
+
+  @Test public void restoreSnapshot_skipsTruncatedRecord() throws IOException {
+    storage.accept(asList(CLIENT_SPAN));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    storage.writeSnapshot(out);
+    byte[] snapshot = out.toByteArray();
+
+    storage = InMemoryStorage.newBuilder().build();
+    assertThat(storage.restoreSnapshot(
+      new ByteArrayInputStream(Arrays.copyOf(snapshot, snapshot.length - 1)))).isZero();
+    assertThat(storage.getTraces()).isEmpty();
+  }
 }
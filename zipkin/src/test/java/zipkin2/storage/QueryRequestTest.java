@@ -54,6 +54,16 @@ public class QueryRequestTest {
       .isNull();
   }
 
+  @Test public void cursor_coercesEmptyToNull() {
+    assertThat(queryBuilder.cursor("").build().cursor())
+      .isNull();
+  }
+
+  @Test public void toBuilder_copiesCursor() {
+    assertThat(queryBuilder.cursor("1-2").build().toBuilder().build().cursor())
+      .isEqualTo("1-2");
+  }
+
   @Test public void annotationQuerySkipsEmptyKeys() {
     Map<String, String> query = new LinkedHashMap<>();
     query.put("", "bar");
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TODAY;
+
+public class TracePagesAdapterTest {
+  static final Endpoint FRONTEND = Endpoint.newBuilder().serviceName("frontend").build();
+
+  InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+  // InMemoryStorage pages natively, so wrap its span store to exercise the adapter
+  TracePagesAdapter tracePages = new TracePagesAdapter(storage);
+  TraceSummaryPagesAdapter summaryPages = new TraceSummaryPagesAdapter(storage);
+
+  @Test public void getTracePage_readsEachTraceOnce() throws IOException {
+    List<String> traceIds = acceptTraces(30);
+
+    List<String> result = new ArrayList<>();
+    QueryRequest.Builder request = request().limit(7);
+    TracePage page;
+    do {
+      page = tracePages.getTracePage(request.build()).execute();
+      for (List<Span> trace : page.traces()) result.add(trace.get(0).traceId());
+      request.cursor(page.nextCursor());
+    } while (page.nextCursor() != null && result.size() < 100);
+
+    assertThat(result).containsExactlyInAnyOrderElementsOf(traceIds);
+  }
+
+  @Test public void getTraceSummaryPage_readsEachTraceOnce() throws IOException {
+    List<String> traceIds = acceptTraces(30);
+
+    List<String> result = new ArrayList<>();
+    QueryRequest.Builder request = request().limit(7);
+    TraceSummaryPage page;
+    do {
+      page = summaryPages.getTraceSummaryPage(request.build()).execute();
+      for (TraceSummary summary : page.summaries()) result.add(summary.traceId());
+      request.cursor(page.nextCursor());
+    } while (page.nextCursor() != null && result.size() < 100);
+
+    assertThat(result).containsExactlyInAnyOrderElementsOf(traceIds);
+  }
+
+  /**
+   * When more traces than {@link TracePagesAdapter#MAX_SKIP} share the window's latest timestamp,
+   * the cursor must stay bounded and paging must still terminate with every trace read.
+   */
+  @Test public void getTracePage_capsSkippedTraces() throws IOException {
+    int traceCount = TracePagesAdapter.MAX_SKIP * 3;
+    List<String> traceIds = new ArrayList<>();
+    for (int i = 1; i <= traceCount; i++) {
+      String traceId = Span.normalizeTraceId(Integer.toHexString(i));
+      traceIds.add(traceId);
+      storage.accept(asList(
+        span(traceId, null, "1", TODAY + i),
+        span(traceId, "1", "2", TODAY + traceCount) // every trace has a span at endTs
+      )).execute();
+    }
+
+    List<String> result = new ArrayList<>();
+    QueryRequest.Builder request = QueryRequest.newBuilder()
+      .endTs(TODAY + traceCount).lookback(traceCount * 2L).limit(10);
+    TracePage page;
+    int pageCount = 0;
+    do {
+      page = tracePages.getTracePage(request.build()).execute();
+      for (List<Span> trace : page.traces()) result.add(trace.get(0).traceId());
+      if (page.nextCursor() != null) {
+        assertThat(page.nextCursor().split("\\.").length)
+          .isLessThanOrEqualTo(TracePagesAdapter.MAX_SKIP + 1);
+      }
+      request.cursor(page.nextCursor());
+    } while (page.nextCursor() != null && ++pageCount < traceCount);
+
+    assertThat(pageCount).isLessThan(traceCount);
+    assertThat(result).containsAll(traceIds);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getTracePage_malformedCursor() {
+    tracePages.getTracePage(request().cursor("hello").build());
+  }
+
+  List<String> acceptTraces(int count) throws IOException {
+    List<String> traceIds = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      String traceId = Span.normalizeTraceId(Integer.toHexString(i));
+      traceIds.add(traceId);
+      // pairs of traces share a timestamp, so paging can't rely on timestamps alone
+      storage.accept(asList(span(traceId, null, "1", TODAY + i / 2))).execute();
+    }
+    return traceIds;
+  }
+
+  static QueryRequest.Builder request() {
+    return QueryRequest.newBuilder().endTs(TODAY + 1000L).lookback(2000L).limit(10);
+  }
+
+  static Span span(String traceId, String parentId, String id, long timestampMillis) {
+    return Span.newBuilder().traceId(traceId).parentId(parentId).id(id).name("get")
+      .localEndpoint(FRONTEND).timestamp(timestampMillis * 1000L).duration(1L).build();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+
+public class TraceSummaryTest {
+
+  @Test public void create() {
+    TraceSummary summary = TraceSummary.create(TRACE);
+
+    assertThat(summary.traceId()).isEqualTo(CLIENT_SPAN.traceId());
+    assertThat(summary.rootSpanName()).isEqualTo("get");
+    assertThat(summary.timestamp()).isEqualTo(TODAY * 1000L);
+    assertThat(summary.duration()).isEqualTo(350 * 1000L);
+    assertThat(summary.spanCount()).isEqualTo(4);
+    assertThat(summary.serviceNames()).containsExactly("backend", "db", "frontend");
+    assertThat(summary.error()).isTrue();
+  }
+
+  @Test public void create_durationSpansLatestEnd() {
+    List<Span> trace = new ArrayList<>(TRACE);
+    trace.set(3, trace.get(3).toBuilder().duration(500 * 1000L).build());
+
+    // the db span starts 150ms after the root, and now ends 650ms after it
+    assertThat(TraceSummary.create(trace).duration()).isEqualTo(650 * 1000L);
+  }
+
+  @Test public void create_noRootUsesEarliestSpan() {
+    List<Span> trace = new ArrayList<>(TRACE.subList(1, 4));
+    Collections.reverse(trace);
+
+    assertThat(TraceSummary.create(trace).rootSpanName()).isEqualTo(CLIENT_SPAN.name());
+    assertThat(TraceSummary.create(trace).timestamp()).isEqualTo(CLIENT_SPAN.timestampAsLong());
+  }
+
+  @Test public void create_noTimestamps() {
+    Span span = Span.newBuilder().traceId("1").id("1").name("get").build();
+
+    TraceSummary summary = TraceSummary.create(asList(span));
+    assertThat(summary.timestamp()).isZero();
+    assertThat(summary.duration()).isZero();
+    assertThat(summary.serviceNames()).isEmpty();
+    assertThat(summary.error()).isFalse();
+  }
+
+  @Test public void create_prefers128BitTraceId() {
+    List<Span> trace = new ArrayList<>(TRACE);
+    trace.set(0, trace.get(0).toBuilder().traceId(CLIENT_SPAN.traceId().substring(16)).build());
+
+    assertThat(TraceSummary.create(trace).traceId()).isEqualTo(CLIENT_SPAN.traceId());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_emptyTrace() {
+    TraceSummary.create(Collections.emptyList());
+  }
+
+  @Test public void summarizeTraces_skipsEmpty() {
+    List<List<Span>> traces = asList(TRACE, Collections.emptyList());
+
+    assertThat(TraceSummary.summarizeTraces().map(traces))
+      .containsExactly(TraceSummary.create(TRACE));
+  }
+}